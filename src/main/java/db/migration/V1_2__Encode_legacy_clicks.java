@@ -0,0 +1,128 @@
+package db.migration;
+
+import edu.au.life.shortenit.util.IpLiteralParser;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Encodes clicks recorded before V1.1 into the dictionary columns, the same
+ * way ClickDimensionService would. V1.3 drops the old text columns.
+ *
+ * url_clicks is walked in id order, {@value #BATCH_SIZE} rows at a time,
+ * each batch in a transaction of its own: the batch's new dictionary values
+ * are inserted, then its rows are updated with one join against the
+ * dictionaries. IPs are parsed with {@link IpLiteralParser}, which returns
+ * null for anything that is not a single address instead of raising. A
+ * batch only fills empty id columns, so running it again after a failure
+ * halfway through is safe.
+ */
+public class V1_2__Encode_legacy_clicks extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    private static final String INSERT_DIMENSIONS_SQL =
+            "INSERT INTO click_dimensions (kind, name) " +
+            "SELECT 'COUNTRY', left(country, 100) FROM url_clicks WHERE id > ? AND id <= ? AND btrim(country) <> '' " +
+            "UNION SELECT 'CITY', left(city, 100) FROM url_clicks WHERE id > ? AND id <= ? AND btrim(city) <> '' " +
+            "UNION SELECT 'DEVICE_TYPE', left(device_type, 100) FROM url_clicks " +
+            "WHERE id > ? AND id <= ? AND btrim(device_type) <> '' " +
+            "UNION SELECT 'BROWSER', left(browser, 100) FROM url_clicks WHERE id > ? AND id <= ? AND btrim(browser) <> '' " +
+            "UNION SELECT 'OPERATING_SYSTEM', left(operating_system, 100) FROM url_clicks " +
+            "WHERE id > ? AND id <= ? AND btrim(operating_system) <> '' " +
+            "ON CONFLICT (kind, name) DO NOTHING";
+
+    // Deduplicated by the SHA-256 of the UTF-8 text
+    private static final String INSERT_TEXTS_SQL =
+            "INSERT INTO click_texts (kind, hash, content) " +
+            "SELECT 'USER_AGENT', sha256(convert_to(left(user_agent, 500), 'UTF8')), left(user_agent, 500) " +
+            "FROM url_clicks WHERE id > ? AND id <= ? AND user_agent <> '' " +
+            "UNION SELECT 'REFERRER', sha256(convert_to(left(referrer, 500), 'UTF8')), left(referrer, 500) " +
+            "FROM url_clicks WHERE id > ? AND id <= ? AND referrer <> '' " +
+            "ON CONFLICT (kind, hash) DO NOTHING";
+
+    private static final String UPDATE_SQL =
+            "UPDATE url_clicks c SET " +
+            "ip = COALESCE(c.ip, decode(a.ip, 'hex')), " +
+            "country_id = COALESCE(c.country_id, country.id), " +
+            "city_id = COALESCE(c.city_id, city.id), " +
+            "device_type_id = COALESCE(c.device_type_id, device_type.id), " +
+            "browser_id = COALESCE(c.browser_id, browser.id), " +
+            "operating_system_id = COALESCE(c.operating_system_id, operating_system.id), " +
+            "user_agent_id = COALESCE(c.user_agent_id, user_agent.id), " +
+            "referrer_id = COALESCE(c.referrer_id, referrer.id) " +
+            "FROM url_clicks l " +
+            "LEFT JOIN unnest(?::bigint[], ?::text[]) AS a (id, ip) ON a.id = l.id " +
+            "LEFT JOIN click_dimensions country ON country.kind = 'COUNTRY' AND country.name = left(l.country, 100) " +
+            "LEFT JOIN click_dimensions city ON city.kind = 'CITY' AND city.name = left(l.city, 100) " +
+            "LEFT JOIN click_dimensions device_type " +
+            "ON device_type.kind = 'DEVICE_TYPE' AND device_type.name = left(l.device_type, 100) " +
+            "LEFT JOIN click_dimensions browser ON browser.kind = 'BROWSER' AND browser.name = left(l.browser, 100) " +
+            "LEFT JOIN click_dimensions operating_system " +
+            "ON operating_system.kind = 'OPERATING_SYSTEM' AND operating_system.name = left(l.operating_system, 100) " +
+            "LEFT JOIN click_texts user_agent ON user_agent.kind = 'USER_AGENT' " +
+            "AND user_agent.hash = sha256(convert_to(left(l.user_agent, 500), 'UTF8')) " +
+            "LEFT JOIN click_texts referrer ON referrer.kind = 'REFERRER' " +
+            "AND referrer.hash = sha256(convert_to(left(l.referrer, 500), 'UTF8')) " +
+            "WHERE c.id = l.id AND l.id > ? AND l.id <= ? AND (l.ip_address IS NOT NULL OR l.country IS NOT NULL " +
+            "OR l.city IS NOT NULL OR l.device_type IS NOT NULL OR l.browser IS NOT NULL " +
+            "OR l.operating_system IS NOT NULL OR l.user_agent IS NOT NULL OR l.referrer IS NOT NULL)";
+
+    private record Address(long id, String ip) {
+    }
+
+    // Batches commit on their own, so a failure keeps the ones already done
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(context.getConnection(), true);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        TransactionTemplate transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        long after = 0;
+        Long upTo;
+        while ((upTo = jdbc.queryForObject(
+                "SELECT MAX(id) FROM (SELECT id FROM url_clicks WHERE id > ? ORDER BY id LIMIT ?) batch",
+                Long.class, after, BATCH_SIZE)) != null) {
+            long from = after;
+            long to = upTo;
+            transaction.executeWithoutResult(status -> encode(jdbc, from, to));
+            after = upTo;
+        }
+    }
+
+    private static void encode(JdbcTemplate jdbc, long after, long upTo) {
+        jdbc.update(INSERT_DIMENSIONS_SQL, after, upTo, after, upTo, after, upTo, after, upTo, after, upTo);
+        jdbc.update(INSERT_TEXTS_SQL, after, upTo, after, upTo);
+
+        List<Address> addresses = new ArrayList<>();
+        jdbc.query("SELECT id, ip_address FROM url_clicks WHERE id > ? AND id <= ? AND ip_address IS NOT NULL",
+                rs -> {
+                    byte[] ip = IpLiteralParser.parse(rs.getString("ip_address"));
+                    if (ip != null) {
+                        addresses.add(new Address(rs.getLong("id"), HexFormat.of().formatHex(ip)));
+                    }
+                }, after, upTo);
+
+        jdbc.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPDATE_SQL);
+            statement.setArray(1, connection.createArrayOf("bigint", addresses.stream().map(Address::id).toArray()));
+            statement.setArray(2, connection.createArrayOf("text", addresses.stream().map(Address::ip).toArray()));
+            statement.setLong(3, after);
+            statement.setLong(4, upTo);
+            return statement;
+        });
+    }
+}
@@ -4,12 +4,26 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import java.util.Map;
+
 @SpringBootApplication
 @EnableScheduling
 public class ShortenitApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(ShortenitApplication.class, args);
+		SpringApplication application = new SpringApplication(ShortenitApplication.class);
+		// Overridable via environment; metrics carries the Hibernate cache statistics
+		application.setDefaultProperties(Map.of(
+				"management.endpoints.web.exposure.include", "health,metrics",
+				// Compaction and archiving run for minutes; replica checks and cleanups keep their pace meanwhile
+				"spring.task.scheduling.pool.size", "4",
+				// Flyway owns the schema (db/migration); databases Hibernate created start after V1
+				"spring.jpa.hibernate.ddl-auto", "none",
+				"spring.flyway.baseline-on-migrate", "true",
+				"spring.flyway.baseline-version", "1",
+				// A transaction-scoped migration lock would make CREATE INDEX CONCURRENTLY wait forever
+				"spring.flyway.postgresql.transactional-lock", "false"));
+		application.run(args);
 	}
 
 }
@@ -0,0 +1,85 @@
+package edu.au.life.shortenit.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Hibernate second-level cache on JCache (Caffeine) with explicit regions.
+ *
+ * Only the regions listed here exist; an entity or natural id mapped to any
+ * other region fails at startup instead of silently getting an unbounded
+ * default cache. Hit, miss and put counts per region are published as
+ * hibernate.second.level.cache.* metrics on the actuator metrics endpoint.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "hibernate-cache")
+@Data
+public class HibernateCacheConfig {
+
+    public static final String USERS_REGION = "users";
+    public static final String URLS_REGION = "urls";
+    public static final String URL_CODES_REGION = "url-codes";
+
+    private boolean enabled = true;
+
+    private boolean statisticsEnabled = true;
+
+    private Map<String, Region> regions = new LinkedHashMap<>(Map.of(
+            USERS_REGION, new Region(10_000, Duration.ofMinutes(10)),
+            URLS_REGION, new Region(50_000, Duration.ofMinutes(10)),
+            URL_CODES_REGION, new Region(50_000, Duration.ofMinutes(10))
+    ));
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Region {
+        private long maxEntries;
+        private Duration timeToLive;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager() {
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        CacheManager cacheManager = provider.getCacheManager(provider.getDefaultURI(), getClass().getClassLoader());
+
+        regions.forEach((name, region) -> {
+            if (cacheManager.getCache(name) != null) {
+                return;
+            }
+            CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+            configuration.setMaximumSize(OptionalLong.of(region.getMaxEntries()));
+            configuration.setExpireAfterWrite(OptionalLong.of(region.getTimeToLive().toNanos()));
+            cacheManager.createCache(name, configuration);
+        });
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, enabled);
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+            properties.put(AvailableSettings.GENERATE_STATISTICS, statisticsEnabled);
+        };
+    }
+}
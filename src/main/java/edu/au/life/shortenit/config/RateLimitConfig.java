@@ -0,0 +1,49 @@
+package edu.au.life.shortenit.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-route rate limit policies. The first policy whose path pattern matches
+ * the request wins; requests matching no policy are not limited.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "rate-limit")
+@Data
+public class RateLimitConfig {
+
+    private boolean enabled = true;
+
+    // Buckets that are full and untouched for this long are dropped
+    private Duration idleTimeout = Duration.ofMinutes(10);
+
+    private List<Policy> policies = new ArrayList<>(List.of(
+            new Policy("/s/**", 120, 60, Duration.ofMinutes(1), KeyType.IP),
+            new Policy("/api/analytics/**", 30, 60, Duration.ofMinutes(1), KeyType.PRINCIPAL),
+            new Policy("/api/urls/**", 60, 120, Duration.ofMinutes(1), KeyType.PRINCIPAL),
+            new Policy("/api/**", 120, 300, Duration.ofMinutes(1), KeyType.PRINCIPAL)
+    ));
+
+    public enum KeyType {
+        PRINCIPAL, // API key id, then user id, then client IP
+        IP
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Policy {
+        private String path;
+        private long capacity;        // burst size
+        private long refillTokens;    // tokens added every refill period
+        private Duration refillPeriod;
+        private KeyType key = KeyType.PRINCIPAL;
+    }
+}
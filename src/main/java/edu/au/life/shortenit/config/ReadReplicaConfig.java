@@ -0,0 +1,100 @@
+package edu.au.life.shortenit.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Data;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.boot.jdbc.autoconfigure.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends read-only transactions to PostgreSQL streaming replicas when
+ * datasource.replicas.urls is set; otherwise the auto-configured data source
+ * is used unchanged.
+ *
+ * The application data source is a {@link ReplicaRoutingDataSource} behind
+ * a lazy connection proxy, which serves {@code @Transactional(readOnly = true)}
+ * work from the replicas and everything else from the primary.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "datasource.replicas", name = "urls")
+@ConfigurationProperties(prefix = "datasource.replicas")
+@Data
+public class ReadReplicaConfig {
+
+    private List<String> urls = new ArrayList<>();
+
+    // Default to the primary's credentials
+    private String username;
+    private String password;
+
+    private int maximumPoolSize = 10;
+
+    // Short, so a replica that went away costs little before reads fall back to the primary
+    private Duration connectionTimeout = Duration.ofSeconds(2);
+
+    // Replicas further behind than this serve no reads until they catch up
+    private Duration maxLag = Duration.ofSeconds(10);
+
+    // Reads by a principal this soon after its own write stay on the primary
+    private Duration readYourWritesWindow = Duration.ofSeconds(5);
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+                                                             DataSourceProperties properties) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + (i + 1));
+            replica.setJdbcUrl(urls.get(i).trim());
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setUsername(username != null ? username : properties.determineUsername());
+            replica.setPassword(password != null ? password : properties.determinePassword());
+            replica.setMaximumPoolSize(maximumPoolSize);
+            replica.setConnectionTimeout(connectionTimeout.toMillis());
+            replica.setReadOnly(true);
+            // Unreachable replicas must not stop startup, the health check takes them out
+            replica.setInitializationFailTimeout(-1);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLag, readYourWritesWindow);
+    }
+
+    /**
+     * Defers taking the connection to the first statement, when the
+     * transaction's read-only flag is known
+     */
+    @Bean
+    @Primary
+    public LazyConnectionDataSourceProxy dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    /**
+     * Connections are given back at the end of every transaction, so each
+     * transaction is routed on its own instead of a request keeping the
+     * connection of its first transaction open in view
+     */
+    @Bean
+    public HibernatePropertiesCustomizer replicaConnectionHandlingCustomizer() {
+        return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+}
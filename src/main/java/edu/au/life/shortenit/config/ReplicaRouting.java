@@ -0,0 +1,32 @@
+package edu.au.life.shortenit.config;
+
+import java.util.function.Supplier;
+
+/**
+ * Lets a caller pin its reads to the primary for {@link ReplicaRoutingDataSource},
+ * for reads that must see a write replicas may not have applied yet. Without
+ * configured replicas every connection is on the primary anyway.
+ */
+public final class ReplicaRouting {
+
+    private static final ThreadLocal<Boolean> PRIMARY = new ThreadLocal<>();
+
+    private ReplicaRouting() {
+    }
+
+    public static <T> T onPrimary(Supplier<T> work) {
+        Boolean previous = PRIMARY.get();
+        PRIMARY.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                PRIMARY.remove();
+            }
+        }
+    }
+
+    static boolean isPrimaryRequired() {
+        return PRIMARY.get() != null;
+    }
+}
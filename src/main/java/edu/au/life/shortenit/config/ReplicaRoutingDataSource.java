@@ -0,0 +1,223 @@
+package edu.au.life.shortenit.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes connections taken inside read-only transactions to a replica and
+ * all others to the primary. It sits behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy},
+ * so the connection is only taken at the first statement, once Spring has
+ * published the transaction's read-only flag.
+ *
+ * Read-only work is spread round robin over the healthy replicas. A replica
+ * is healthy while it answers, streams from the primary and its replay lag
+ * is within {@code maxLag}; all three are checked periodically, and a
+ * replica that fails to hand out a connection is taken out until its next
+ * successful check. With no healthy replica, when the thread is pinned
+ * through {@link ReplicaRouting}, or when the current principal ran a
+ * read-write transaction within {@code readYourWritesWindow}, reads go to
+ * the primary.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    /*
+     * Seconds the replica is behind; 0 when it has replayed everything it
+     * received, null when it is not receiving from the primary, since a
+     * replica cut off from the primary has nothing left to replay either.
+     * The receiver status is only shown to roles with pg_read_all_stats,
+     * without it a running receiver counts as streaming.
+     */
+    private static final String LAG_SQL =
+            "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 " +
+            "WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE COALESCE(status, 'streaming') = 'streaming') THEN NULL " +
+            "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final List<Replica> replicas;
+    private final Duration maxLag;
+    private final long readYourWritesNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private static class Replica extends DelegatingDataSource {
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy;
+
+        Replica(HikariDataSource dataSource) {
+            super(dataSource);
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                return super.getConnection();
+            } catch (SQLException e) {
+                healthy = false;
+                log.warn("Replica {} failed to hand out a connection, using the others until it recovers: {}",
+                        dataSource.getJdbcUrl(), e.getMessage());
+                throw new ReplicaUnavailableException(e);
+            }
+        }
+    }
+
+    private static class ReplicaUnavailableException extends SQLException {
+        ReplicaUnavailableException(SQLException cause) {
+            super(cause.getMessage(), cause.getSQLState(), cause);
+        }
+    }
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, Duration maxLag,
+                                    Duration readYourWritesWindow) {
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.maxLag = maxLag;
+        this.readYourWritesNanos = readYourWritesWindow.toNanos();
+
+        Map<Object, Object> targets = new HashMap<>();
+        this.replicas.forEach(replica -> targets.put(replica, replica));
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        initialize();
+        checkReplicas();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        // Each failure takes a replica out, so this ends on a replica that answers or on the primary
+        while (true) {
+            try {
+                return super.getConnection();
+            } catch (ReplicaUnavailableException e) {
+                // try the next one
+            }
+        }
+    }
+
+    /**
+     * The replica to use, or null for the primary
+     */
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                notePrincipalWrite();
+            }
+            return null;
+        }
+        if (ReplicaRouting.isPrimaryRequired() || wroteRecently()) {
+            return null;
+        }
+
+        int count = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether a connection taken now could come from a replica
+     */
+    public boolean mayRouteToReplica() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && !ReplicaRouting.isPrimaryRequired()
+                && !wroteRecently()
+                && replicas.stream().anyMatch(replica -> replica.healthy);
+    }
+
+    @Scheduled(fixedDelayString = "${datasource.replicas.check-interval-ms:5000}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                double lag = lagSeconds(connection);
+                healthy = lag <= maxLag.toMillis() / 1000.0;
+                if (!healthy && replica.healthy) {
+                    log.warn(lag == Double.MAX_VALUE
+                                    ? "Replica {} is not streaming from the primary, reads go elsewhere until it is"
+                                    : "Replica {} is {}s behind, reads go elsewhere until it catches up",
+                            replica.dataSource.getJdbcUrl(), lag);
+                }
+            } catch (SQLException e) {
+                healthy = false;
+                if (replica.healthy) {
+                    log.warn("Replica {} is unreachable: {}", replica.dataSource.getJdbcUrl(), e.getMessage());
+                }
+            }
+            if (healthy && !replica.healthy) {
+                log.info("Replica {} is serving reads", replica.dataSource.getJdbcUrl());
+            }
+            replica.healthy = healthy;
+        }
+
+        long now = System.nanoTime();
+        lastWrites.values().removeIf(at -> now - at > readYourWritesNanos);
+    }
+
+    private static double lagSeconds(Connection connection) throws SQLException {
+        if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+            return connection.isValid(2) ? 0 : Double.MAX_VALUE; // e.g. embedded databases in local tests
+        }
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(LAG_SQL)) {
+            rs.next();
+            double lag = rs.getDouble(1);
+            return rs.wasNull() ? Double.MAX_VALUE : lag;
+        }
+    }
+
+    private void notePrincipalWrite() {
+        String principal = currentPrincipal();
+        if (principal != null) {
+            lastWrites.put(principal, System.nanoTime());
+        }
+    }
+
+    private boolean wroteRecently() {
+        String principal = currentPrincipal();
+        if (principal == null) {
+            return false;
+        }
+        Long at = lastWrites.get(principal);
+        return at != null && System.nanoTime() - at <= readYourWritesNanos;
+    }
+
+    private static String currentPrincipal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()
+                || authentication instanceof AnonymousAuthenticationToken) {
+            return null; // redirects and other anonymous traffic share no session to be consistent with
+        }
+        return authentication.getName();
+    }
+
+    @Override
+    public void destroy() {
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+}
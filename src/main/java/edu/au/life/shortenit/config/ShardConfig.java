@@ -0,0 +1,148 @@
+package edu.au.life.shortenit.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.flyway.autoconfigure.FlywayMigrationStrategy;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.boot.jdbc.autoconfigure.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads urls, url_clicks and click_daily_stats over several databases when
+ * datasource.shards.urls is set; otherwise the auto-configured data source is
+ * the only database, as before.
+ *
+ * The primary data source (spring.datasource.*) is shard 0, the home shard:
+ * it keeps users, keys, tokens, import jobs, the click dictionaries and the
+ * bucket map, and serves its share of links like any other shard. The listed
+ * urls are shards 1..n. Which shard holds a link is decided by
+ * {@link edu.au.life.shortenit.service.ShardResolver}; the application data
+ * source is a {@link ShardRoutingDataSource} following {@link ShardRouting}.
+ *
+ * Every shard is migrated with the same scripts. Each shard k above 0 takes
+ * ids from k * 2^44 on, so rows keep their id when a bucket moves and ids
+ * never collide in a persistence context or the second-level cache.
+ *
+ * Not combinable with datasource.replicas.urls.
+ */
+@Configuration
+@Slf4j
+@ConditionalOnProperty(prefix = "datasource.shards", name = "urls")
+@ConfigurationProperties(prefix = "datasource.shards")
+@Data
+public class ShardConfig {
+
+    public static final int ID_RANGE_BITS = 44;
+
+    // Tables whose rows live with their link
+    private static final List<String> SHARDED_TABLES = List.of("urls", "url_clicks", "click_daily_stats");
+
+    private List<String> urls = new ArrayList<>();
+
+    // Default to the primary's credentials
+    private String username;
+    private String password;
+
+    private int maximumPoolSize = 10;
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource homeDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("shard-0");
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public ShardRoutingDataSource dataSource(HikariDataSource homeDataSource, DataSourceProperties properties,
+                                             Environment environment) {
+        if (!environment.getProperty("datasource.replicas.urls", "").isBlank()) {
+            throw new IllegalStateException("datasource.shards.urls and datasource.replicas.urls cannot be combined");
+        }
+        List<HikariDataSource> shards = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource shard = new HikariDataSource();
+            shard.setPoolName("shard-" + (i + 1));
+            shard.setJdbcUrl(urls.get(i).trim());
+            shard.setDriverClassName(properties.determineDriverClassName());
+            shard.setUsername(username != null ? username : properties.determineUsername());
+            shard.setPassword(password != null ? password : properties.determinePassword());
+            shard.setMaximumPoolSize(maximumPoolSize);
+            shards.add(shard);
+        }
+        return new ShardRoutingDataSource(homeDataSource, shards);
+    }
+
+    /**
+     * Connections are given back at the end of every transaction, so the
+     * next transaction of a request can run on another shard
+     */
+    @Bean
+    public HibernatePropertiesCustomizer shardConnectionHandlingCustomizer() {
+        return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+
+    /**
+     * Migrates the home shard as configured, then every other shard with the
+     * same settings, and gives each shard its identity and id ranges
+     */
+    @Bean
+    public FlywayMigrationStrategy shardMigrationStrategy(ShardRoutingDataSource dataSource) {
+        return flyway -> {
+            for (int shard = 0; shard < dataSource.size(); shard++) {
+                DataSource target = dataSource.shard(shard);
+                if (shard == ShardRouting.HOME) {
+                    flyway.migrate();
+                } else {
+                    Flyway.configure().configuration(flyway.getConfiguration()).dataSource(target).load().migrate();
+                }
+                claim(shard, target);
+            }
+        };
+    }
+
+    private static void claim(int shard, DataSource dataSource) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).executeWithoutResult(status -> {
+            List<Integer> claimed = jdbcTemplate.queryForList("SELECT shard FROM shard_identity", Integer.class);
+            if (!claimed.isEmpty()) {
+                if (claimed.get(0) != shard) {
+                    throw new IllegalStateException("The database configured as shard " + shard
+                            + " was set up as shard " + claimed.get(0) + "; keep datasource.shards.urls in order");
+                }
+                return;
+            }
+
+            jdbcTemplate.update("INSERT INTO shard_identity (shard, assigned_at) VALUES (?, ?)",
+                    shard, Timestamp.valueOf(LocalDateTime.now()));
+            if (shard == ShardRouting.HOME) {
+                return;
+            }
+            long base = (long) shard << ID_RANGE_BITS;
+            for (String table : SHARDED_TABLES) {
+                jdbcTemplate.queryForObject("SELECT setval(pg_get_serial_sequence(?, 'id'), ?, false)",
+                        Long.class, table, base);
+            }
+            log.info("Database claimed as shard {}, ids start at {}", shard, base);
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package edu.au.life.shortenit.config;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-thread shard for {@link ShardRoutingDataSource}. Work outside
+ * {@link #on} runs on the home shard, which also holds everything that is
+ * not sharded (users, keys, tokens, imports, dictionaries). Without
+ * configured shards the home shard is the only database.
+ *
+ * The shard is picked when a connection is taken, so a transaction must be
+ * started inside {@link #on}, not joined from outside it.
+ */
+public final class ShardRouting {
+
+    public static final int HOME = 0;
+
+    private static final ThreadLocal<Integer> SHARD = new ThreadLocal<>();
+
+    private ShardRouting() {
+    }
+
+    public static <T> T on(int shard, Supplier<T> work) {
+        Integer previous = SHARD.get();
+        SHARD.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                SHARD.remove();
+            } else {
+                SHARD.set(previous);
+            }
+        }
+    }
+
+    public static int current() {
+        Integer shard = SHARD.get();
+        return shard == null ? HOME : shard;
+    }
+}
@@ -0,0 +1,55 @@
+package edu.au.life.shortenit.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out connections of the shard selected through {@link ShardRouting};
+ * shard 0 is the home database.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private final DataSource home;
+    private final List<HikariDataSource> shards;
+
+    public ShardRoutingDataSource(DataSource home, List<HikariDataSource> shards) {
+        this.home = home;
+        this.shards = shards;
+
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < size(); shard++) {
+            targets.put(shard, shard(shard));
+        }
+        setTargetDataSources(targets);
+        // A shard that is not configured is an error, not the home database
+        setLenientFallback(false);
+        initialize();
+    }
+
+    public int size() {
+        return shards.size() + 1;
+    }
+
+    public DataSource shard(int shard) {
+        if (shard < 0 || shard >= size()) {
+            throw new IllegalStateException("Shard " + shard + " is not configured, " + size() + " shards exist");
+        }
+        return shard == ShardRouting.HOME ? home : shards.get(shard - 1);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardRouting.current();
+    }
+
+    @Override
+    public void destroy() {
+        shards.forEach(HikariDataSource::close);
+    }
+}
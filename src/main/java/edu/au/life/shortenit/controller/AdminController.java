@@ -1,17 +1,26 @@
 package edu.au.life.shortenit.controller;
 
 import edu.au.life.shortenit.dto.AnalyticsResponse;
+import edu.au.life.shortenit.dto.ClickArchiveResponse;
 import edu.au.life.shortenit.dto.DashboardStatsResponse;
+import edu.au.life.shortenit.dto.ImportJobResponse;
 import edu.au.life.shortenit.dto.RoleUpdateRequest;
+import edu.au.life.shortenit.dto.ShardMoveRequest;
 import edu.au.life.shortenit.dto.UrlResponse;
 import edu.au.life.shortenit.dto.UserResponse;
 import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.exception.InvalidCursorException;
 import edu.au.life.shortenit.exception.ResourceNotFoundException;
 import edu.au.life.shortenit.repository.UserRepository;
 import edu.au.life.shortenit.service.AdminService;
 import edu.au.life.shortenit.service.AnalyticsService;
+import edu.au.life.shortenit.service.ClickArchiveService;
+import edu.au.life.shortenit.service.ClickEnrichmentService;
+import edu.au.life.shortenit.service.ShardMigrationService;
+import edu.au.life.shortenit.service.UrlImportService;
 import edu.au.life.shortenit.service.UrlService;
 import edu.au.life.shortenit.util.SecurityUtils;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,10 +28,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -35,12 +47,23 @@ public class AdminController {
     private final UrlService urlService;
     private final AnalyticsService analyticsService;
     private final UserRepository userRepository;
+    private final UrlImportService urlImportService;
+    private final ClickArchiveService clickArchiveService;
+    private final ClickEnrichmentService clickEnrichmentService;
+    private final ShardMigrationService shardMigrationService;
 
-    public AdminController(AdminService adminService, UrlService urlService, AnalyticsService analyticsService, UserRepository userRepository) {
+    public AdminController(AdminService adminService, UrlService urlService, AnalyticsService analyticsService,
+                           UserRepository userRepository, UrlImportService urlImportService,
+                           ClickArchiveService clickArchiveService, ClickEnrichmentService clickEnrichmentService,
+                           ShardMigrationService shardMigrationService) {
         this.adminService = adminService;
         this.urlService = urlService;
         this.analyticsService = analyticsService;
         this.userRepository = userRepository;
+        this.urlImportService = urlImportService;
+        this.clickArchiveService = clickArchiveService;
+        this.clickEnrichmentService = clickEnrichmentService;
+        this.shardMigrationService = shardMigrationService;
     }
 
     @GetMapping("/users")
@@ -125,26 +148,38 @@ public class AdminController {
 
     @GetMapping("/urls")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<Page<UrlResponse>> getAllUrls(
+    public ResponseEntity<?> getAllUrls(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "DESC") String direction) {
+            @RequestParam(defaultValue = "DESC") String direction,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
         User currentUser = SecurityUtils.getCurrentUser();
         log.info("Admin {} listing all URLs", currentUser.getEmail());
+        if (cursor != null) {
+            requireCursorOrder(sortBy, direction);
+            return ResponseEntity.ok(urlService.getAllUrlsByCursorAdmin(cursor, size, includeTotal));
+        }
         Page<UrlResponse> response = urlService.getAllUrlsPaginatedAdmin(page, size, sortBy, direction);
         return ResponseEntity.ok(response);
     }
 
     @GetMapping("/urls/analytics")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<Page<AnalyticsResponse>> getAllUrlsWithAnalytics(
+    public ResponseEntity<?> getAllUrlsWithAnalytics(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "DESC") String direction) {
+            @RequestParam(defaultValue = "DESC") String direction,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
         User currentUser = SecurityUtils.getCurrentUser();
         log.info("Admin {} listing all URLs with analytics", currentUser.getEmail());
+        if (cursor != null) {
+            requireCursorOrder(sortBy, direction);
+            return ResponseEntity.ok(analyticsService.getAllAnalyticsByCursorAdmin(cursor, size, includeTotal));
+        }
         Sort.Direction sortDirection = "ASC".equalsIgnoreCase(direction) ? Sort.Direction.ASC : Sort.Direction.DESC;
         Pageable pageable = PageRequest.of(page, size, Sort.by(sortDirection, sortBy));
         Page<AnalyticsResponse> response = analyticsService.getAllAnalyticsPaginatedAdmin(pageable);
@@ -153,12 +188,14 @@ public class AdminController {
 
     @GetMapping("/users/{userId}/urls")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<Page<UrlResponse>> getUrlsByUserId(
+    public ResponseEntity<?> getUrlsByUserId(
             @PathVariable Long userId,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "DESC") String direction) {
+            @RequestParam(defaultValue = "DESC") String direction,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
         User currentUser = SecurityUtils.getCurrentUser();
 
         if (!userRepository.existsById(userId)) {
@@ -166,18 +203,24 @@ public class AdminController {
         }
 
         log.info("Admin {} listing URLs for user ID: {}", currentUser.getEmail(), userId);
+        if (cursor != null) {
+            requireCursorOrder(sortBy, direction);
+            return ResponseEntity.ok(urlService.getUrlsByUserIdByCursor(userId, cursor, size, includeTotal));
+        }
         Page<UrlResponse> response = urlService.getUrlsByUserIdPaginated(userId, page, size, sortBy, direction);
         return ResponseEntity.ok(response);
     }
 
     @GetMapping("/users/{userId}/urls/analytics")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<Page<AnalyticsResponse>> getUrlsByUserIdWithAnalytics(
+    public ResponseEntity<?> getUrlsByUserIdWithAnalytics(
             @PathVariable Long userId,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "DESC") String direction) {
+            @RequestParam(defaultValue = "DESC") String direction,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
         User currentUser = SecurityUtils.getCurrentUser();
 
         if (!userRepository.existsById(userId)) {
@@ -185,11 +228,124 @@ public class AdminController {
         }
 
         log.info("Admin {} listing URLs with analytics for user ID: {}", currentUser.getEmail(), userId);
+        if (cursor != null) {
+            requireCursorOrder(sortBy, direction);
+            return ResponseEntity.ok(analyticsService.getAnalyticsByUserIdByCursor(userId, cursor, size, includeTotal));
+        }
         Sort.Direction sortDirection = "ASC".equalsIgnoreCase(direction) ? Sort.Direction.ASC : Sort.Direction.DESC;
         Pageable pageable = PageRequest.of(page, size, Sort.by(sortDirection, sortBy));
         Page<AnalyticsResponse> response = analyticsService.getAnalyticsByUserIdPaginated(userId, pageable);
         return ResponseEntity.ok(response);
     }
 
+    // ==================== Admin Import Endpoints ====================
+
+    /**
+     * Import existing short links from a CSV export sent as the raw request
+     * body. Runs in the background; poll the returned job for progress.
+     */
+    @PostMapping(value = "/imports", consumes = {"text/csv", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ImportJobResponse> startImport(
+            HttpServletRequest request,
+            @RequestParam(required = false) String fileName,
+            @RequestParam(required = false) Long ownerId) throws IOException {
+        User currentUser = SecurityUtils.getCurrentUser();
+        User owner = ownerId == null ? currentUser : userRepository.findById(ownerId)
+                .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + ownerId));
+
+        log.info("Admin {} importing URLs for user ID: {}", currentUser.getEmail(), owner.getId());
+        ImportJobResponse response = urlImportService.startImport(request.getInputStream(), fileName, owner);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+
+    @GetMapping("/imports")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<ImportJobResponse>> getImports() {
+        return ResponseEntity.ok(urlImportService.getImports());
+    }
+
+    @GetMapping("/imports/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ImportJobResponse> getImport(@PathVariable Long id) {
+        return ResponseEntity.ok(urlImportService.getImport(id));
+    }
+
+    @PostMapping("/imports/{id}/resume")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ImportJobResponse> resumeImport(@PathVariable Long id) {
+        User currentUser = SecurityUtils.getCurrentUser();
+        log.info("Admin {} resuming URL import {}", currentUser.getEmail(), id);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(urlImportService.resumeImport(id));
+    }
+
+    // ==================== Admin Archive Endpoints ====================
+
+    @GetMapping("/archives")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<ClickArchiveResponse>> getArchives() throws IOException {
+        return ResponseEntity.ok(clickArchiveService.getArchives());
+    }
+
+    // ==================== Admin Click Enrichment Endpoints ====================
+
+    /**
+     * Re-resolves geo and user agent data of every stored click in the
+     * background, e.g. after the GeoIP database was updated
+     */
+    @PostMapping("/clicks/re-enrich")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ReEnrichmentStatusResponse> startReEnrichment() {
+        User currentUser = SecurityUtils.getCurrentUser();
+        log.info("Admin {} started click re-enrichment", currentUser.getEmail());
+        clickEnrichmentService.startReEnrichment();
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(new ReEnrichmentStatusResponse(clickEnrichmentService.isReEnrichmentRunning()));
+    }
+
+    @GetMapping("/clicks/re-enrich")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ReEnrichmentStatusResponse> getReEnrichmentStatus() {
+        return ResponseEntity.ok(new ReEnrichmentStatusResponse(clickEnrichmentService.isReEnrichmentRunning()));
+    }
+
+    // ==================== Admin Shard Endpoints ====================
+
+    @GetMapping("/shards")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<ShardMigrationService.ShardSummary>> getShards() {
+        return ResponseEntity.ok(shardMigrationService.getShards());
+    }
+
+    /**
+     * Moves the links of a bucket range to another shard in the background;
+     * they stay readable and writable while they move
+     */
+    @PostMapping("/shards/move")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ShardMigrationService.MoveStatus> startShardMove(@Valid @RequestBody ShardMoveRequest request) {
+        User currentUser = SecurityUtils.getCurrentUser();
+        log.info("Admin {} moving buckets {}..{} to shard {}", currentUser.getEmail(),
+                request.getFromBucket(), request.getToBucket(), request.getShard());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(shardMigrationService.startMove(
+                request.getFromBucket(), request.getToBucket(), request.getShard()));
+    }
+
+    @GetMapping("/shards/move")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ShardMigrationService.MoveStatus> getShardMove() {
+        ShardMigrationService.MoveStatus status = shardMigrationService.getLastMove();
+        return status == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(status);
+    }
+
     public record ProtectedStatusResponse(boolean isProtectedAdmin) {}
+
+    public record ReEnrichmentStatusResponse(boolean running) {}
+
+    // Cursors follow the (createdAt DESC, id DESC) key only
+    private static void requireCursorOrder(String sortBy, String direction) {
+        if (!"createdAt".equals(sortBy) || !"DESC".equalsIgnoreCase(direction)) {
+            throw new InvalidCursorException("Cursor paging only supports sortBy=createdAt and direction=DESC");
+        }
+    }
 }
@@ -1,11 +1,14 @@
 package edu.au.life.shortenit.controller;
 
 import edu.au.life.shortenit.dto.AnalyticsResponse;
+import edu.au.life.shortenit.dto.CursorPage;
 import edu.au.life.shortenit.entity.User;
 import edu.au.life.shortenit.service.AnalyticsService;
 import edu.au.life.shortenit.util.SecurityUtils;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
@@ -14,9 +17,10 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import java.util.List;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 
 @RestController
 @RequiredArgsConstructor
@@ -29,10 +33,19 @@ public class AnalyticsController {
     @PreAuthorize("isAuthenticated()")
     public ResponseEntity<?> getAllAnalytics(
             @RequestParam(required = false) Integer page,
-            @RequestParam(required = false) Integer size) {
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean includeTotal,
+            HttpServletResponse servletResponse) throws IOException {
 
         User currentUser = SecurityUtils.getCurrentUser();
 
+        if (cursor != null) {
+            CursorPage<AnalyticsResponse> response = analyticsService.getAnalyticsByCursor(
+                    currentUser, cursor, size != null ? size : 20, includeTotal);
+            return ResponseEntity.ok(response);
+        }
+
         if (page != null && size != null) {
             int pageIndex = Math.max(0, page - 1);
             Pageable pageable = PageRequest.of(pageIndex, size, Sort.by(Sort.Direction.DESC, "createdAt"));
@@ -40,8 +53,10 @@ public class AnalyticsController {
             return ResponseEntity.ok(response);
         }
 
-        List<AnalyticsResponse> response = analyticsService.getAllAnalytics(currentUser);
-        return ResponseEntity.ok(response);
+        // Streamed straight into the response, one link at a time
+        servletResponse.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        analyticsService.writeAllAnalytics(currentUser, servletResponse.getOutputStream());
+        return null;
     }
 
     @GetMapping("/{shortCode}")
@@ -63,4 +78,16 @@ public class AnalyticsController {
         AnalyticsResponse analytics = analyticsService.getAnalyticsByDateRange(shortCode, start, end, currentUser);
         return ResponseEntity.ok(analytics);
     }
-}
\ No newline at end of file
+
+    @GetMapping("/{shortCode}/archive")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<AnalyticsResponse> getArchivedAnalytics(
+            @PathVariable String shortCode,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth from,
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM") YearMonth to) throws IOException {
+
+        User currentUser = SecurityUtils.getCurrentUser();
+        AnalyticsResponse analytics = analyticsService.getArchivedAnalytics(shortCode, from, to, currentUser);
+        return ResponseEntity.ok(analytics);
+    }
+}
@@ -1,22 +1,30 @@
 package edu.au.life.shortenit.controller;
 
+import edu.au.life.shortenit.dto.BulkUrlActionResponse;
+import edu.au.life.shortenit.dto.BulkUrlRequest;
+import edu.au.life.shortenit.dto.CursorPage;
 import edu.au.life.shortenit.dto.DashboardStatsResponse;
 import edu.au.life.shortenit.dto.UrlResponse;
 import edu.au.life.shortenit.dto.UrlShortenRequest;
 import edu.au.life.shortenit.dto.UrlUpdateRequest;
 import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.service.BulkUrlService;
 import edu.au.life.shortenit.service.UrlService;
 import edu.au.life.shortenit.util.SecurityUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -25,6 +33,7 @@ import java.util.List;
 public class UrlController {
 
     private final UrlService urlService;
+    private final BulkUrlService bulkUrlService;
 
     @PostMapping
     @PreAuthorize("isAuthenticated()")
@@ -34,14 +43,74 @@ public class UrlController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Shorten a JSON array or NDJSON stream of requests. Results are streamed
+     * back in the same format, one per request, as each chunk is saved.
+     */
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @PreAuthorize("isAuthenticated()")
+    public void bulkShorten(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        User currentUser = SecurityUtils.getCurrentUser();
+        boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(MediaType.parseMediaType(request.getContentType()));
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(ndjson ? MediaType.APPLICATION_NDJSON_VALUE : MediaType.APPLICATION_JSON_VALUE);
+        bulkUrlService.shorten(request.getInputStream(), response.getOutputStream(), ndjson, currentUser);
+    }
+
+    @PostMapping("/bulk/get")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<List<UrlResponse>> getUrlsByCodes(@Valid @RequestBody BulkUrlRequest request) {
+        User currentUser = SecurityUtils.getCurrentUser();
+        return ResponseEntity.ok(urlService.getUrlsByCodes(request, currentUser));
+    }
+
+    @PostMapping("/bulk/activate")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<BulkUrlActionResponse> activateUrls(@Valid @RequestBody BulkUrlRequest request) {
+        User currentUser = SecurityUtils.getCurrentUser();
+        return ResponseEntity.ok(urlService.setActive(request, true, currentUser));
+    }
+
+    @PostMapping("/bulk/deactivate")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<BulkUrlActionResponse> deactivateUrls(@Valid @RequestBody BulkUrlRequest request) {
+        User currentUser = SecurityUtils.getCurrentUser();
+        return ResponseEntity.ok(urlService.setActive(request, false, currentUser));
+    }
+
+    @PostMapping("/bulk/expiry")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<BulkUrlActionResponse> updateExpiry(@Valid @RequestBody BulkUrlRequest request) {
+        User currentUser = SecurityUtils.getCurrentUser();
+        return ResponseEntity.ok(urlService.setExpiration(request, currentUser));
+    }
+
+    @PostMapping("/bulk/delete")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<BulkUrlActionResponse> deleteUrls(@Valid @RequestBody BulkUrlRequest request) {
+        User currentUser = SecurityUtils.getCurrentUser();
+        return ResponseEntity.ok(urlService.deleteUrls(request, currentUser));
+    }
+
     @GetMapping
     @PreAuthorize("isAuthenticated()")
     public ResponseEntity<?> getUserUrls(
             @RequestParam(required = false) Integer page,
-            @RequestParam(required = false) Integer size) {
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean includeTotal,
+            HttpServletResponse servletResponse) throws IOException {
 
         User currentUser = SecurityUtils.getCurrentUser();
 
+        // If a cursor is provided (empty for the first page), return a keyset page
+        if (cursor != null) {
+            CursorPage<UrlResponse> response = urlService.getUrlsByCursor(
+                    currentUser, cursor, size != null ? size : 20, includeTotal);
+            return ResponseEntity.ok(response);
+        }
+
         // If pagination params provided, return paginated results
         if (page != null && size != null) {
             int pageIndex = Math.max(0, page - 1);  // page=1 becomes index 0
@@ -50,9 +119,10 @@ public class UrlController {
             return ResponseEntity.ok(response);
         }
 
-        // No pagination params, return all URLs
-        List<UrlResponse> response = urlService.getAllUrls(currentUser);
-        return ResponseEntity.ok(response);
+        // No pagination params, stream all URLs straight into the response
+        servletResponse.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        urlService.writeAllUrls(currentUser, servletResponse.getOutputStream());
+        return null;
     }
 
 
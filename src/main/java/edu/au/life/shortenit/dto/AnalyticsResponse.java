@@ -19,6 +19,10 @@ public class AnalyticsResponse {
     private String code;
     private String originalUrl;
     private Long totalClicks;
+
+    // Crawler / link-preview hits, kept out of the stats below
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long botClicks;
     private LocalDateTime createdAt;
 
     // Time-based analytics
@@ -0,0 +1,22 @@
+package edu.au.life.shortenit.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkShortenResult {
+
+    public enum Status {CREATED, EXISTING, FAILED}
+
+    private Integer index; // position in the request
+    private Status status;
+    private UrlResponse url;
+    private String error;
+}
@@ -0,0 +1,18 @@
+package edu.au.life.shortenit.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkUrlActionResponse {
+    private Integer requested;
+    private Integer affected;
+    private List<String> notFound; // unknown codes and codes owned by someone else
+}
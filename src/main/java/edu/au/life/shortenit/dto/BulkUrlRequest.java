@@ -0,0 +1,26 @@
+package edu.au.life.shortenit.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkUrlRequest {
+
+    @NotEmpty(message = "At least one code is required")
+    @Size(max = 1000, message = "At most 1000 codes per request")
+    private List<String> codes;
+
+    // Only used by the expiry operation
+    @Min(value = 1, message = "Expiration days must be at least 1")
+    private Integer expirationDays;
+
+    private Boolean clearExpiration;
+}
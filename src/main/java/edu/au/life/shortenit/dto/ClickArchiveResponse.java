@@ -0,0 +1,17 @@
+package edu.au.life.shortenit.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClickArchiveResponse {
+    private String month;
+    private String fileName;
+    private Long rows;
+    private Long sizeBytes;
+}
@@ -0,0 +1,23 @@
+package edu.au.life.shortenit.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A click with its dictionary ids resolved back to text, for analytics.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClickView {
+    private LocalDateTime clickedAt;
+    private String country;
+    private String city;
+    private String deviceType;
+    private String browser;
+    private String operatingSystem;
+    private String referrer;
+}
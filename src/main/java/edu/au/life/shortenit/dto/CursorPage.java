@@ -0,0 +1,38 @@
+package edu.au.life.shortenit.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import edu.au.life.shortenit.util.PageCursor;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Slice;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a cursor-paged listing. Pass nextCursor back as the cursor
+ * parameter for the following page; it is null on the last page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+    private List<T> content;
+    private Integer size;
+    private Boolean hasNext;
+    private String nextCursor;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long totalElements; // only when requested, it costs a count query
+
+    public static <S, T> CursorPage<T> of(Slice<S> slice, Function<S, PageCursor> position,
+                                          Function<S, T> mapper, Long totalElements) {
+        List<S> rows = slice.getContent();
+        String nextCursor = slice.hasNext() && !rows.isEmpty()
+                ? position.apply(rows.get(rows.size() - 1)).encode()
+                : null;
+        return new CursorPage<>(rows.stream().map(mapper).toList(), slice.getSize(), slice.hasNext(),
+                nextCursor, totalElements);
+    }
+}
@@ -10,4 +10,12 @@ import lombok.NoArgsConstructor;
 public class GeoLocation {
     private String country;
     private String city;
-}
\ No newline at end of file
+
+    public static GeoLocation unknown() {
+        return new GeoLocation("Unknown", "Unknown");
+    }
+
+    public boolean isUnknown() {
+        return country == null || "Unknown".equals(country);
+    }
+}
@@ -0,0 +1,27 @@
+package edu.au.life.shortenit.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportJobResponse {
+    private Long id;
+    private String fileName;
+    private Long ownerId;
+    private String status;
+    private Long rowsCommitted;
+    private Long importedCount;
+    private Long skippedCount;
+    private Long rejectedCount;
+    private String lastError;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,26 @@
+package edu.au.life.shortenit.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShardMoveRequest {
+    @NotNull(message = "fromBucket is required")
+    @Min(value = 0, message = "fromBucket must not be negative")
+    private Integer fromBucket;
+
+    @NotNull(message = "toBucket is required")
+    @Min(value = 0, message = "toBucket must not be negative")
+    private Integer toBucket;
+
+    @NotNull(message = "shard is required")
+    @Min(value = 0, message = "shard must not be negative")
+    private Integer shard;
+}
@@ -0,0 +1,30 @@
+package edu.au.life.shortenit.dto;
+
+import edu.au.life.shortenit.entity.Url;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * The columns of a link listing row, selected together with its owner so a
+ * page of {@link UrlResponse} needs no further queries.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UrlListing {
+    private Long id;
+    private String originalUrl;
+    private String code;
+    private String title;
+    private Long clickCount;
+    private LocalDateTime createdAt;
+    private LocalDateTime expiresAt;
+    private Boolean isActive;
+    private Url.CodeType codeType;
+    private Long ownerId;
+    private String ownerName;
+    private String ownerEmail;
+}
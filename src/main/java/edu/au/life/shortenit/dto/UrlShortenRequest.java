@@ -27,4 +27,7 @@ public class UrlShortenRequest {
 
     @Min(value = 1, message = "Expiration days must be at least 1")
     private Integer expirationDays;
+
+    // Return the caller's existing active link to the same URL instead of creating one (ignored with a custom code)
+    private Boolean reuseExisting;
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package edu.au.life.shortenit.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserAgentInfo {
+    private String deviceType;
+    private String browser;
+    private String browserMajorVersion;
+    private String operatingSystem;
+    private boolean bot; // crawler or link-preview fetcher
+}
@@ -0,0 +1,41 @@
+package edu.au.life.shortenit.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Checkpoint of the click compaction job, one row per compacted day.
+ *
+ * AGGREGATED is written in the same transaction as the day's rollups, so from
+ * then on the rollups are the source of truth for that day and the raw rows
+ * are only waiting to be deleted. COMPLETED means they are gone.
+ */
+@Entity
+@Table(name = "click_compactions")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClickCompaction {
+
+    public enum Status {AGGREGATED, COMPLETED}
+
+    @Id
+    private LocalDate day;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+
+    @Column(nullable = false)
+    private Long rawClicks;
+
+    @Column(nullable = false)
+    private LocalDateTime aggregatedAt;
+
+    private LocalDateTime completedAt;
+}
@@ -0,0 +1,55 @@
+package edu.au.life.shortenit.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * Clicks of one link on one day, counted per value of one dimension. Written
+ * by the compaction job before the raw url_clicks rows of that day are
+ * removed; kept forever.
+ *
+ * Keys are dictionary ids (0 for unknown). CITY carries the country id in
+ * key2, HOUR the hour of day in key1, TOTAL has both keys 0.
+ */
+@Entity
+@Table(name = "click_daily_stats", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_click_daily_stats",
+                columnNames = {"url_id", "day", "dimension", "key1", "key2"})
+}, indexes = {
+        @Index(name = "idx_click_daily_stats_day", columnList = "day")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClickDailyStat {
+
+    public enum Dimension {TOTAL, HOUR, COUNTRY, CITY, DEVICE_TYPE, BROWSER, OPERATING_SYSTEM, REFERRER}
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "url_id", nullable = false)
+    private Url url;
+
+    @Column(nullable = false)
+    private LocalDate day;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Dimension dimension;
+
+    @Column(nullable = false)
+    private Long key1;
+
+    @Column(nullable = false)
+    private Long key2;
+
+    @Column(nullable = false)
+    private Long clicks;
+}
@@ -0,0 +1,33 @@
+package edu.au.life.shortenit.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Dictionary of low-cardinality click attributes (country, city, device,
+ * browser, OS); url_clicks stores the small integer id instead of the text.
+ */
+@Entity
+@Table(name = "click_dimensions", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_click_dimensions_kind_name", columnNames = {"kind", "name"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClickDimension {
+
+    public enum Kind {COUNTRY, CITY, DEVICE_TYPE, BROWSER, OPERATING_SYSTEM}
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Kind kind;
+
+    @Column(nullable = false, length = 100)
+    private String name;
+}
@@ -0,0 +1,36 @@
+package edu.au.life.shortenit.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Deduplicated user agent and referrer strings, looked up by the SHA-256 of
+ * the text so the unique index stays small.
+ */
+@Entity
+@Table(name = "click_texts", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_click_texts_kind_hash", columnNames = {"kind", "hash"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClickText {
+
+    public enum Kind {USER_AGENT, REFERRER}
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Kind kind;
+
+    @Column(nullable = false, length = 32)
+    private byte[] hash;
+
+    @Column(nullable = false, length = 500)
+    private String content;
+}
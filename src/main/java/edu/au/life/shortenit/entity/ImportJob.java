@@ -0,0 +1,70 @@
+package edu.au.life.shortenit.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * A CSV import of existing short links. Counters are updated in the same
+ * transaction as each chunk's inserts, so rowsCommitted is always the exact
+ * point an interrupted import resumes from.
+ */
+@Entity
+@Table(name = "import_jobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImportJob {
+
+    public enum Status {QUEUED, RUNNING, COMPLETED, FAILED, INTERRUPTED}
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner; // imported links are assigned to this user
+
+    @Column(nullable = false)
+    private String fileName;
+
+    @Column(nullable = false, length = 1024)
+    private String storedPath;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+
+    @Builder.Default
+    @Column(nullable = false)
+    private Long rowsCommitted = 0L;
+
+    @Builder.Default
+    @Column(nullable = false)
+    private Long importedCount = 0L;
+
+    @Builder.Default
+    @Column(nullable = false)
+    private Long skippedCount = 0L; // code already present
+
+    @Builder.Default
+    @Column(nullable = false)
+    private Long rejectedCount = 0L; // failed validation
+
+    @Column(length = 1000)
+    private String lastError;
+
+    @CreationTimestamp
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    private LocalDateTime updatedAt;
+
+    private LocalDateTime finishedAt;
+}
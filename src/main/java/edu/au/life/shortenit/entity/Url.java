@@ -1,5 +1,6 @@
 package edu.au.life.shortenit.entity;
 
+import edu.au.life.shortenit.util.UrlFingerprint;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
@@ -7,13 +8,30 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import edu.au.life.shortenit.config.HibernateCacheConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.SQLRestriction;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "urls")
+@SQLRestriction("deleted_at IS NULL")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfig.URLS_REGION)
+@NaturalIdCache(region = HibernateCacheConfig.URL_CODES_REGION)
+@DynamicUpdate // counters are updated outside the entity, see UrlRepositoryCustomImpl
+@Table(name = "urls", indexes = {
+        @Index(name = "idx_urls_user_url_hash", columnList = "user_id, original_url_hash"),
+        // Keyset paging, see PageCursor
+        @Index(name = "idx_urls_user_created", columnList = "user_id, created_at, id"),
+        @Index(name = "idx_urls_created", columnList = "created_at, id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -32,6 +50,11 @@ public class Url {
     @Column(nullable = false, length = 2048)
     private String originalUrl;
 
+    // UrlFingerprint of originalUrl, indexed for the reuse-existing lookup
+    @Column(length = 64)
+    private String originalUrlHash;
+
+    @NaturalId(mutable = true)
     @Column(nullable = false, unique = true, length = 50)
     private String code;
 
@@ -51,16 +74,27 @@ public class Url {
     @Column(nullable = false)
     private Long clickCount = 0L;
 
+    // Crawler / link-preview hits and HEAD requests, counted instead of tracked
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private Long botClickCount = 0L;
+
 
     @Column
     private Boolean isActive = true;
 
-    @OneToMany(mappedBy = "url", cascade = CascadeType.ALL, orphanRemoval = true)
+    // Set on delete; the row and its clicks are removed later by UrlPurgeService
+    @Column
+    private LocalDateTime deletedAt;
+
+    // No cascade: clicks are purged in chunks, never loaded to delete them
+    @OneToMany(mappedBy = "url")
     private List<UrlClick> clicks = new ArrayList<>();
 
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
+        originalUrlHash = UrlFingerprint.of(originalUrl);
     }
 }
 
@@ -8,7 +8,9 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name="url_clicks")
+@Table(name="url_clicks", indexes = {
+        @Index(name = "idx_url_clicks_url_clicked_at", columnList = "url_id, clicked_at")
+}) // partial and partitioned indexes live in db/migration
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -24,29 +26,28 @@ public class UrlClick {
     @Column(nullable = false)
     private LocalDateTime clickedAt;
 
-    @Column(length = 45)
-    private String ipAddress;
+    // Raw address bytes: 4 for IPv4, 16 for IPv6
+    @Column(length = 16)
+    private byte[] ip;
 
-    @Column(length = 100)
-    private String country;
+    // Set at click time, cleared once the enrichment worker has filled the dimensions below
+    private Boolean pendingEnrichment;
 
-    @Column(length = 100)
-    private String city;
+    // Ids into click_dimensions
+    private Integer countryId;
 
-    @Column(length = 500)
-    private String userAgent;
+    private Integer cityId;
 
-    @Column(length = 50)
-    private String deviceType;
+    private Integer deviceTypeId;
 
-    @Column(length = 100)
-    private String browser;
+    private Integer browserId;
 
-    @Column(length = 100)
-    private String operatingSystem;
+    private Integer operatingSystemId;
 
-    @Column(length = 500)
-    private String referrer;
+    // Ids into click_texts
+    private Long userAgentId;
+
+    private Long referrerId;
 
     @PrePersist
     protected void onCreate() {
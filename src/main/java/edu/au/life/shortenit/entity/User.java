@@ -1,7 +1,10 @@
 package edu.au.life.shortenit.entity;
 
+import edu.au.life.shortenit.config.HibernateCacheConfig;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -11,6 +14,7 @@ import java.util.List;
 
 @Entity
 @Table(name = "users")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfig.USERS_REGION)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -34,7 +38,8 @@ public class User {
     @Builder.Default
     private Role role = Role.USER;
 
-    @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
+    // No cascade: a deleted user's URLs are soft-deleted in one UPDATE and purged later
+    @OneToMany(mappedBy = "user")
     @Builder.Default
     private List<Url> urls = new ArrayList<>();  // URL owns by this user.
 
@@ -50,6 +55,8 @@ public class User {
     @Column(nullable = false)
     private LocalDateTime updatedAt;
 
+    private LocalDateTime deletedAt; // row is removed by UrlPurgeService once its URLs are gone
+
 
     public enum Role {
         USER,ADMIN
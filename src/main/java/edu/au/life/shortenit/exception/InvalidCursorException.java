@@ -0,0 +1,7 @@
+package edu.au.life.shortenit.exception;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package edu.au.life.shortenit.exception;
+
+public class InvalidSortException extends RuntimeException {
+    public InvalidSortException(String message) {
+        super(message);
+    }
+}
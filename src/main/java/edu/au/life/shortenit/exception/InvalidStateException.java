@@ -0,0 +1,7 @@
+package edu.au.life.shortenit.exception;
+
+public class InvalidStateException extends RuntimeException {
+    public InvalidStateException(String message) {
+        super(message);
+    }
+}
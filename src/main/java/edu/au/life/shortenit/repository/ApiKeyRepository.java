@@ -29,6 +29,10 @@ public interface ApiKeyRepository extends JpaRepository<ApiKey, Long> {
     @Query("UPDATE ApiKey k SET k.lastUsedAt = :now WHERE k.id = :id")
     void updateLastUsedAt(@Param("id") Long id, @Param("now") LocalDateTime now);
 
+    @Modifying
+    @Query("DELETE FROM ApiKey k WHERE k.user = :user")
+    void deleteByUser(@Param("user") User user);
+
     @Modifying
     @Query("DELETE FROM ApiKey k WHERE k.expiresAt < :now")
     void deleteExpired(@Param("now") LocalDateTime now);
@@ -0,0 +1,15 @@
+package edu.au.life.shortenit.repository;
+
+import edu.au.life.shortenit.entity.ClickCompaction;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+
+@Repository
+public interface ClickCompactionRepository extends JpaRepository<ClickCompaction, LocalDate> {
+
+    @Query("SELECT MAX(c.day) FROM ClickCompaction c")
+    LocalDate findLastCompactedDay();
+}
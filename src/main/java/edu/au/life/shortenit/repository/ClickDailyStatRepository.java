@@ -0,0 +1,26 @@
+package edu.au.life.shortenit.repository;
+
+import edu.au.life.shortenit.entity.ClickDailyStat;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface ClickDailyStatRepository extends JpaRepository<ClickDailyStat, Long> {
+
+    // Per-dimension totals over [from, to): dimension, key1, key2, clicks
+    @Query("SELECT s.dimension, s.key1, s.key2, SUM(s.clicks) FROM ClickDailyStat s " +
+            "WHERE s.url.id = :urlId AND s.day >= :from AND s.day < :to " +
+            "GROUP BY s.dimension, s.key1, s.key2")
+    List<Object[]> sumByKey(@Param("urlId") Long urlId, @Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    // Clicks per day over [from, to): day, clicks
+    @Query("SELECT s.day, s.clicks FROM ClickDailyStat s " +
+            "WHERE s.url.id = :urlId AND s.dimension = edu.au.life.shortenit.entity.ClickDailyStat.Dimension.TOTAL " +
+            "AND s.day >= :from AND s.day < :to ORDER BY s.day")
+    List<Object[]> findDailyTotals(@Param("urlId") Long urlId, @Param("from") LocalDate from, @Param("to") LocalDate to);
+}
@@ -0,0 +1,39 @@
+package edu.au.life.shortenit.repository;
+
+import edu.au.life.shortenit.entity.ImportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ImportJobRepository extends JpaRepository<ImportJob, Long> {
+
+    List<ImportJob> findAllByOrderByCreatedAtDesc();
+
+    // heartbeat_at is not mapped, so saving a job never writes an old value back
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE import_jobs SET heartbeat_at = localtimestamp WHERE id IN (:ids)", nativeQuery = true)
+    int renewHeartbeats(@Param("ids") Collection<Long> ids);
+
+    // Queued or running jobs whose instance has stopped renewing their heartbeat
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE import_jobs SET status = 'INTERRUPTED' WHERE status IN ('QUEUED', 'RUNNING') " +
+            "AND heartbeat_at < localtimestamp - make_interval(secs => :staleSeconds)", nativeQuery = true)
+    int markStale(@Param("staleSeconds") double staleSeconds);
+
+    // 1 when this call took the job for a resume, 0 when it is not failed or interrupted (any more)
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE import_jobs SET status = 'QUEUED', last_error = NULL, heartbeat_at = localtimestamp " +
+            "WHERE id = :id AND status IN ('FAILED', 'INTERRUPTED')", nativeQuery = true)
+    int claimForResume(@Param("id") Long id);
+}
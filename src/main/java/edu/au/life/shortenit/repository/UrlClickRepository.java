@@ -16,6 +16,12 @@ import java.util.Map;
 public interface UrlClickRepository extends JpaRepository<UrlClick, Long> {
     List<UrlClick> findByUrl(Url url);
     List<UrlClick> findByUrlOrderByClickedAtDesc(Url url);
+
+    // Bounded on clicked_at so only the matching monthly partitions are scanned
+    List<UrlClick> findByUrlAndClickedAtBetweenOrderByClickedAtDesc(Url url, LocalDateTime start, LocalDateTime end);
+
+    // Raw clicks after the compacted history
+    List<UrlClick> findByUrlAndClickedAtGreaterThanEqualOrderByClickedAtDesc(Url url, LocalDateTime start);
     List<UrlClick> findByUrlCode(String code);
 
     @Query("SELECT COUNT(c) FROM UrlClick c WHERE c.url.id = :urlId")
@@ -24,21 +30,21 @@ public interface UrlClickRepository extends JpaRepository<UrlClick, Long> {
     @Query("SELECT MAX(c.clickedAt) FROM UrlClick c WHERE c.url.id = :urlId")
     LocalDateTime findLastClickTimeByUrlId(@Param("urlId") Long urlId);
 
-    @Query("SELECT c.country FROM UrlClick c WHERE c.url.id = :urlId " +
-            "GROUP BY c.country ORDER BY COUNT(c) DESC")
-    List<String> findTopCountryByUrlId(@Param("urlId") Long urlId);
+    @Query("SELECT c.countryId FROM UrlClick c WHERE c.url.id = :urlId " +
+            "GROUP BY c.countryId ORDER BY COUNT(c) DESC")
+    List<Integer> findTopCountryByUrlId(@Param("urlId") Long urlId);
 
-    @Query("SELECT c.city FROM UrlClick c WHERE c.url.id = :urlId " +
-            "GROUP BY c.city ORDER BY COUNT(c) DESC")
-    List<String> findTopCityByUrlId(@Param("urlId") Long urlId);
+    @Query("SELECT c.cityId FROM UrlClick c WHERE c.url.id = :urlId " +
+            "GROUP BY c.cityId ORDER BY COUNT(c) DESC")
+    List<Integer> findTopCityByUrlId(@Param("urlId") Long urlId);
 
-    @Query("SELECT c.browser FROM UrlClick c WHERE c.url.id = :urlId " +
-            "GROUP BY c.browser ORDER BY COUNT(c) DESC")
-    List<String> findTopBrowserByUrlId(@Param("urlId") Long urlId);
+    @Query("SELECT c.browserId FROM UrlClick c WHERE c.url.id = :urlId " +
+            "GROUP BY c.browserId ORDER BY COUNT(c) DESC")
+    List<Integer> findTopBrowserByUrlId(@Param("urlId") Long urlId);
 
-    @Query("SELECT c.deviceType FROM UrlClick c WHERE c.url.id = :urlId " +
-            "GROUP BY c.deviceType ORDER BY COUNT(c) DESC")
-    List<String> findTopDeviceByUrlId(@Param("urlId") Long urlId);
+    @Query("SELECT c.deviceTypeId FROM UrlClick c WHERE c.url.id = :urlId " +
+            "GROUP BY c.deviceTypeId ORDER BY COUNT(c) DESC")
+    List<Integer> findTopDeviceByUrlId(@Param("urlId") Long urlId);
 
     // Efficient batch query - get analytics for multiple URLs at once
     @Query("SELECT c.url.id as urlId, COUNT(c) as clickCount, " +
@@ -47,9 +53,12 @@ public interface UrlClickRepository extends JpaRepository<UrlClick, Long> {
             "GROUP BY c.url.id")
     List<Map<String, Object>> findAnalyticsSummaryForUrls(@Param("urlIds") List<Long> urlIds);
 
-    @Query("SELECT c.country FROM UrlClick c WHERE c.url.user = :user AND c.country IS NOT NULL GROUP BY c.country ORDER BY COUNT(c) DESC")
-    List<String> findTopCountryByUser(@Param("user") User user);
+    // (country dictionary id, clicks), most clicked first; counts so shards can be added up
+    @Query("SELECT c.countryId, COUNT(c) FROM UrlClick c WHERE c.url.user = :user AND c.countryId IS NOT NULL " +
+            "GROUP BY c.countryId ORDER BY COUNT(c) DESC")
+    List<Object[]> countClicksByCountryForUser(@Param("user") User user);
 
-    @Query("SELECT c.country FROM UrlClick c WHERE c.country IS NOT NULL GROUP BY c.country ORDER BY COUNT(c) DESC")
-    List<String> findTopCountryGlobal();
+    @Query("SELECT c.countryId, COUNT(c) FROM UrlClick c WHERE c.countryId IS NOT NULL " +
+            "GROUP BY c.countryId ORDER BY COUNT(c) DESC")
+    List<Object[]> countClicksByCountry();
 }
@@ -1,28 +1,127 @@
 package edu.au.life.shortenit.repository;
 
+import edu.au.life.shortenit.dto.UrlListing;
 import edu.au.life.shortenit.entity.Url;
 import edu.au.life.shortenit.entity.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface UrlRepository extends JpaRepository<Url, Long> {
+public interface UrlRepository extends JpaRepository<Url, Long>, UrlRepositoryCustom {
 
-    Optional<Url> findByCode(String code);
+    // Listing rows with their owner in one statement, see UrlListing
+    String LISTING = "SELECT new edu.au.life.shortenit.dto.UrlListing(u.id, u.originalUrl, u.code, u.title, " +
+            "u.clickCount, u.createdAt, u.expiresAt, u.isActive, u.codeType, o.id, o.name, o.email) " +
+            "FROM Url u JOIN u.user o";
 
-    List<Url> findByUserOrderByCreatedAtDesc(User user);
+    // Unpaged listings are read through a cursor in STREAM_FETCH_SIZE row round trips
+    String STREAM_FETCH_SIZE = "500";
 
-    boolean existsByCode(String code);
+    @Query(LISTING + " WHERE u.user = :user ORDER BY u.createdAt DESC")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<UrlListing> streamListingsByUser(@Param("user") User user);
 
+    @Query("SELECT u FROM Url u WHERE u.user = :user ORDER BY u.createdAt DESC")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<Url> streamByUser(@Param("user") User user);
+
+    @Query(value = LISTING + " WHERE u.user = :user",
+            countQuery = "SELECT COUNT(u) FROM Url u WHERE u.user = :user")
+    Page<UrlListing> findListingsByUser(@Param("user") User user, Pageable pageable);
+
+    @Query(value = LISTING + " WHERE o.id = :userId",
+            countQuery = "SELECT COUNT(u) FROM Url u WHERE u.user.id = :userId")
+    Page<UrlListing> findListingsByUserId(@Param("userId") Long userId, Pageable pageable);
+
+    @Query(value = LISTING, countQuery = "SELECT COUNT(u) FROM Url u")
+    Page<UrlListing> findAllListings(Pageable pageable);
+
+    // Keyset pages: rows after (createdAt, id) in (createdAt DESC, id DESC) order, see PageCursor
+    String AFTER_CURSOR = "(u.createdAt, u.id) < (:createdAt, :id)";
+    String CURSOR_ORDER = " ORDER BY u.createdAt DESC, u.id DESC";
+
+    @Query(LISTING + " WHERE u.user = :user AND " + AFTER_CURSOR + CURSOR_ORDER)
+    Slice<UrlListing> findListingsByUserAfter(@Param("user") User user, @Param("createdAt") LocalDateTime createdAt,
+                                              @Param("id") long id, Pageable pageable);
+
+    @Query(LISTING + " WHERE o.id = :userId AND " + AFTER_CURSOR + CURSOR_ORDER)
+    Slice<UrlListing> findListingsByUserIdAfter(@Param("userId") Long userId, @Param("createdAt") LocalDateTime createdAt,
+                                                @Param("id") long id, Pageable pageable);
+
+    @Query(LISTING + " WHERE " + AFTER_CURSOR + CURSOR_ORDER)
+    Slice<UrlListing> findAllListingsAfter(@Param("createdAt") LocalDateTime createdAt, @Param("id") long id,
+                                           Pageable pageable);
+
+    @Query("SELECT u FROM Url u JOIN FETCH u.user WHERE u.user = :user AND " + AFTER_CURSOR + CURSOR_ORDER)
+    Slice<Url> findByUserAfter(@Param("user") User user, @Param("createdAt") LocalDateTime createdAt,
+                               @Param("id") long id, Pageable pageable);
+
+    @Query("SELECT u FROM Url u JOIN FETCH u.user o WHERE o.id = :userId AND " + AFTER_CURSOR + CURSOR_ORDER)
+    Slice<Url> findByUserIdAfter(@Param("userId") Long userId, @Param("createdAt") LocalDateTime createdAt,
+                                 @Param("id") long id, Pageable pageable);
+
+    @Query("SELECT u FROM Url u JOIN FETCH u.user WHERE " + AFTER_CURSOR + CURSOR_ORDER)
+    Slice<Url> findAllAfter(@Param("createdAt") LocalDateTime createdAt, @Param("id") long id, Pageable pageable);
+
+    // Native so deleted codes still count as taken until they are purged
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM urls WHERE code = :code)", nativeQuery = true)
+    boolean existsByCode(@Param("code") String code);
+
+    @Query(value = "SELECT code FROM urls WHERE code IN (:codes)", nativeQuery = true)
+    List<String> findExistingCodes(@Param("codes") Collection<String> codes);
+
+    @Query("SELECT u FROM Url u WHERE u.user = :user AND u.originalUrlHash = :hash AND u.isActive = true " +
+            "AND (u.expiresAt IS NULL OR u.expiresAt > :now) ORDER BY u.createdAt DESC")
+    List<Url> findReusable(@Param("user") User user, @Param("hash") String hash, @Param("now") LocalDateTime now, Pageable pageable);
+
+    @Query("SELECT u FROM Url u WHERE u.user = :user AND u.originalUrlHash IN :hashes AND u.isActive = true " +
+            "AND (u.expiresAt IS NULL OR u.expiresAt > :now)")
+    List<Url> findReusable(@Param("user") User user, @Param("hashes") Collection<String> hashes, @Param("now") LocalDateTime now);
+
+    @Query("SELECT u.id AS id, u.code AS code FROM Url u WHERE u.code IN :codes")
+    List<CodeRef> findCodeRefs(@Param("codes") Collection<String> codes);
+
+    @Query("SELECT u.id AS id, u.code AS code FROM Url u WHERE u.code IN :codes AND u.user = :user")
+    List<CodeRef> findCodeRefsByUser(@Param("codes") Collection<String> codes, @Param("user") User user);
+
+    @Query("SELECT u FROM Url u JOIN FETCH u.user WHERE u.id IN :ids ORDER BY u.createdAt DESC")
+    List<Url> findAllWithUserByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("UPDATE Url u SET u.isActive = :active WHERE u.id IN :ids")
+    int updateActive(@Param("ids") Collection<Long> ids, @Param("active") boolean active);
+
+    @Modifying
+    @Query("UPDATE Url u SET u.expiresAt = :expiresAt WHERE u.id IN :ids")
+    int updateExpiresAt(@Param("ids") Collection<Long> ids, @Param("expiresAt") LocalDateTime expiresAt);
+
+    @Modifying
+    @Query("UPDATE Url u SET u.deletedAt = :now WHERE u.id IN :ids")
+    int softDeleteByIdIn(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE Url u SET u.deletedAt = :now WHERE u.user = :user")
+    int softDeleteByUser(@Param("user") User user, @Param("now") LocalDateTime now);
+
+    @EntityGraph(attributePaths = "user")
     Page<Url> findAll(Pageable pageable);
 
     @Query("SELECT u FROM Url u ORDER BY u.createdAt DESC")
@@ -36,6 +135,7 @@ public interface UrlRepository extends JpaRepository<Url, Long> {
 
     List<Url> findByUser(User user);
 
+    @EntityGraph(attributePaths = "user")
     Page<Url> findByUser(User user, Pageable pageable);
 
     @Query("SELECT u FROM Url u WHERE u.user = :user ORDER BY u.createdAt DESC")
@@ -46,14 +146,14 @@ public interface UrlRepository extends JpaRepository<Url, Long> {
 
     long countByUser(User user);
 
+    long countByUserId(Long userId);
+
+    @EntityGraph(attributePaths = "user")
     Page<Url> findByUserId(Long userId, Pageable pageable);
 
     @Query("SELECT COUNT(u) FROM Url u WHERE u.user = :user AND u.isActive = true")
     long countActiveUrlsByUser(@Param("user") User user);
 
-    @Modifying
-    @Query("UPDATE Url u SET u.clickCount = u.clickCount + 1 WHERE u.id = :urlId")
-    void incrementClickCount(@Param("urlId") Long urlId);
 
     @Query("SELECT COALESCE(SUM(u.clickCount), 0) FROM Url u WHERE u.user = :user")
     long sumClickCountByUser(@Param("user") User user);
@@ -66,4 +166,9 @@ public interface UrlRepository extends JpaRepository<Url, Long> {
 
     @Query("SELECT COUNT(u) FROM Url u WHERE u.isActive = true AND (u.expiresAt IS NULL OR u.expiresAt > :now)")
     long countActiveLinks(@Param("now") LocalDateTime now);
+
+    interface CodeRef {
+        Long getId();
+        String getCode();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package edu.au.life.shortenit.repository;
+
+import edu.au.life.shortenit.entity.Url;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Url lookups and updates written by hand to work with the second-level cache
+ */
+public interface UrlRepositoryCustom {
+
+    // Resolved through the natural-id cache on code, then the entity cache; rows read on a replica are not cached
+    Optional<Url> findByCode(String code);
+
+    // Whether the link was read on a replica instead of taken from the cache
+    boolean isReadPastCache(Url url);
+
+    void incrementClickCount(Long urlId);
+
+    void incrementBotClickCount(Long urlId);
+
+    // Read from the table: the increments above leave a cached Url's counters behind
+    ClickCounters findClickCounters(Long urlId);
+
+    Map<Long, ClickCounters> findClickCounters(Collection<Long> urlIds);
+
+    record ClickCounters(Long clicks, Long botClicks) {
+
+        public static final ClickCounters NONE = new ClickCounters(0L, 0L);
+    }
+}
@@ -0,0 +1,108 @@
+package edu.au.life.shortenit.repository;
+
+import edu.au.life.shortenit.config.ReplicaRoutingDataSource;
+import edu.au.life.shortenit.entity.Url;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@RequiredArgsConstructor
+@Transactional
+public class UrlRepositoryCustomImpl implements UrlRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ObjectProvider<ReplicaRoutingDataSource> replicaRouting;
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<Url> findByCode(String code) {
+        Session session = entityManager.unwrap(Session.class);
+        ReplicaRoutingDataSource replicas = replicaRouting.getIfAvailable();
+        if (replicas == null || !replicas.mayRouteToReplica()) {
+            return loadByCode(session, code);
+        }
+
+        // A replica row may predate a deactivation or delete on the primary; cached it
+        // would outlive the replica catching up, so replica reads only use the cache
+        CacheMode cacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.GET);
+        try {
+            return loadByCode(session, code);
+        } finally {
+            session.setCacheMode(cacheMode);
+        }
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public boolean isReadPastCache(Url url) {
+        EntityManagerFactory factory = entityManager.getEntityManagerFactory();
+        return replicaRouting.getIfAvailable() != null
+                && factory.unwrap(SessionFactory.class).getSessionFactoryOptions().isSecondLevelCacheEnabled()
+                && !factory.getCache().contains(Url.class, url.getId());
+    }
+
+    private static Optional<Url> loadByCode(Session session, String code) {
+        return session.bySimpleNaturalId(Url.class)
+                .loadOptional(code)
+                .filter(url -> url.getDeletedAt() == null);
+    }
+
+    /*
+     * Counters go straight through JDBC: a JPQL bulk update would evict the
+     * whole urls cache region on every redirect. Url uses @DynamicUpdate, so a
+     * cached copy with an older count never writes it back, but it also never
+     * sees a newer one: whatever shows the counters reads them below.
+     */
+
+    @Override
+    public void incrementClickCount(Long urlId) {
+        jdbcTemplate.update("UPDATE urls SET click_count = click_count + 1 WHERE id = ?", urlId);
+    }
+
+    @Override
+    public void incrementBotClickCount(Long urlId) {
+        jdbcTemplate.update("UPDATE urls SET bot_click_count = bot_click_count + 1 WHERE id = ?", urlId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ClickCounters findClickCounters(Long urlId) {
+        return findClickCounters(List.of(urlId)).getOrDefault(urlId, ClickCounters.NONE);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Long, ClickCounters> findClickCounters(Collection<Long> urlIds) {
+        Map<Long, ClickCounters> counters = new HashMap<>();
+        if (urlIds.isEmpty()) {
+            return counters;
+        }
+        new NamedParameterJdbcTemplate(jdbcTemplate).query(
+                "SELECT id, click_count, bot_click_count FROM urls WHERE id IN (:ids)", Map.of("ids", urlIds),
+                rs -> {
+                    counters.put(rs.getLong("id"),
+                            new ClickCounters(rs.getLong("click_count"), rs.getLong("bot_click_count")));
+                });
+        return counters;
+    }
+}
@@ -4,6 +4,7 @@ import edu.au.life.shortenit.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,4 +13,6 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByMicrosoftId(String microsoftId);
     boolean existsByEmail(String mail);
     boolean existsByMicrosoftId(String microsoft);
+    List<User> findByDeletedAtIsNull();
+    long countByDeletedAtIsNull();
 }
@@ -29,6 +29,9 @@ import java.util.List;
 @Component
 public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
 
+    // Set on the request once a key is matched, used for per-key rate limiting
+    public static final String API_KEY_ID_ATTRIBUTE = "shortenit.apiKeyId";
+
     private final ApplicationContext applicationContext;
     private ApiKeyRepository apiKeyRepository;
     private PasswordEncoder passwordEncoder;
@@ -127,6 +130,7 @@ public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
                         user.getId(), user.getEmail(), user.getRole().name()));
 
                 SecurityContextHolder.getContext().setAuthentication(authToken);
+                request.setAttribute(API_KEY_ID_ATTRIBUTE, matchedKey.getId());
 
                 log.debug("Authentication set in SecurityContext");
 
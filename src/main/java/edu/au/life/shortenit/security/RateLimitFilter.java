@@ -0,0 +1,91 @@
+package edu.au.life.shortenit.security;
+
+import edu.au.life.shortenit.config.RateLimitConfig;
+import edu.au.life.shortenit.service.RateLimitService;
+import edu.au.life.shortenit.util.ClientIpResolver;
+import edu.au.life.shortenit.util.TokenBucket;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiting. Runs after the authentication filters so requests
+ * can be keyed by API key or user instead of only by IP.
+ */
+@Slf4j
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RateLimitService rateLimitService;
+    private final ClientIpResolver clientIpResolver;
+
+    public RateLimitFilter(RateLimitService rateLimitService, ClientIpResolver clientIpResolver) {
+        this.rateLimitService = rateLimitService;
+        this.clientIpResolver = clientIpResolver;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain) throws ServletException, IOException {
+
+        if (!rateLimitService.isEnabled()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        RateLimitConfig.Policy policy = rateLimitService.findPolicy(request.getRequestURI());
+        if (policy == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        String key = resolveKey(request, policy.getKey());
+        TokenBucket.Probe probe = rateLimitService.tryConsume(policy, key);
+
+        response.setHeader("X-RateLimit-Limit", String.valueOf(policy.getCapacity()));
+        response.setHeader("X-RateLimit-Remaining", String.valueOf(probe.remainingTokens()));
+
+        if (!probe.consumed()) {
+            long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(probe.nanosToWait() + 999_999_999L));
+            log.debug("Rate limit exceeded for {} on {}", key, policy.getPath());
+
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            response.setContentType("application/json");
+            response.getWriter().write(
+                    "{\"error\":\"Too Many Requests\"," +
+                            "\"message\":\"Rate limit exceeded. Retry after " + retryAfterSeconds + " seconds\"," +
+                            "\"timestamp\":\"" + java.time.Instant.now() + "\"}"
+            );
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    private String resolveKey(HttpServletRequest request, RateLimitConfig.KeyType keyType) {
+        if (keyType == RateLimitConfig.KeyType.PRINCIPAL) {
+            Object apiKeyId = request.getAttribute(ApiKeyAuthenticationFilter.API_KEY_ID_ATTRIBUTE);
+            if (apiKeyId != null) {
+                return "key:" + apiKeyId;
+            }
+
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication != null && authentication.getDetails() instanceof JwtAuthenticationFilter.UserPrincipal principal) {
+                return "user:" + principal.getUserId();
+            }
+        }
+        return "ip:" + clientIpResolver.resolveClientIp(request);
+    }
+}
@@ -22,6 +22,7 @@ public class SecurityConfig {
 
     private final JwtAuthenticationFilter jwtAuthenticationFilter;
     private final ApiKeyAuthenticationFilter apiKeyAuthenticationFilter;
+    private final RateLimitFilter rateLimitFilter;
 
     @Autowired(required = false) // Optional - only if OAuth configured
     private OAuth2SuccessHandler oAuth2SuccessHandler;
@@ -34,9 +35,11 @@ public class SecurityConfig {
 
     public SecurityConfig(
             JwtAuthenticationFilter jwtAuthenticationFilter,
-            ApiKeyAuthenticationFilter apiKeyAuthenticationFilter) {
+            ApiKeyAuthenticationFilter apiKeyAuthenticationFilter,
+            RateLimitFilter rateLimitFilter) {
         this.jwtAuthenticationFilter = jwtAuthenticationFilter;
         this.apiKeyAuthenticationFilter = apiKeyAuthenticationFilter;
+        this.rateLimitFilter = rateLimitFilter;
     }
 
     @Bean
@@ -64,11 +67,14 @@ public class SecurityConfig {
                 .addFilterBefore(apiKeyAuthenticationFilter, UsernamePasswordAuthenticationFilter.class)
                 .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class)
 
+                // Rate limiting - after auth so buckets can be keyed by API key / user
+                .addFilterAfter(rateLimitFilter, UsernamePasswordAuthenticationFilter.class)
+
                 // Authorization rules
                 .authorizeHttpRequests(auth -> auth
                         // Public endpoints - NO AUTH
                         .requestMatchers("/s/**").permitAll()
-                        .requestMatchers("/actuator/**").permitAll()
+                        .requestMatchers("/actuator/health/**").permitAll()
                         .requestMatchers("/error").permitAll()
                         .requestMatchers("/test/**").permitAll()
                         .requestMatchers("/oauth2/success").permitAll()
@@ -80,6 +86,9 @@ public class SecurityConfig {
                         .requestMatchers("/api/auth/oauth2/**").permitAll()
                         .requestMatchers("/api/auth/refresh").permitAll()
 
+                        // Other actuator endpoints (metrics incl. cache statistics) - ADMIN only
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
+
                         // API endpoints - REQUIRE AUTH (API Key or JWT)
                         .requestMatchers("/api/**").authenticated()
 
@@ -6,11 +6,14 @@ import edu.au.life.shortenit.entity.User;
 import edu.au.life.shortenit.entity.User.Role;
 import edu.au.life.shortenit.exception.ForbiddenException;
 import edu.au.life.shortenit.exception.ResourceNotFoundException;
+import edu.au.life.shortenit.repository.ApiKeyRepository;
 import edu.au.life.shortenit.repository.RefreshTokenRepository;
+import edu.au.life.shortenit.repository.UrlRepository;
 import edu.au.life.shortenit.repository.UserRepository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -19,12 +22,20 @@ public class AdminService {
 
     private final UserRepository userRepository;
     private final RefreshTokenRepository refreshTokenRepository;
+    private final ApiKeyRepository apiKeyRepository;
+    private final UrlRepository urlRepository;
     private final ProtectedAdminConfig protectedAdminConfig;
+    private final ShardResolver shardResolver;
 
-    public AdminService(UserRepository userRepository, RefreshTokenRepository refreshTokenRepository, ProtectedAdminConfig protectedAdminConfig) {
+    public AdminService(UserRepository userRepository, RefreshTokenRepository refreshTokenRepository,
+                        ApiKeyRepository apiKeyRepository, UrlRepository urlRepository,
+                        ProtectedAdminConfig protectedAdminConfig, ShardResolver shardResolver) {
         this.userRepository = userRepository;
         this.refreshTokenRepository = refreshTokenRepository;
+        this.apiKeyRepository = apiKeyRepository;
+        this.urlRepository = urlRepository;
         this.protectedAdminConfig = protectedAdminConfig;
+        this.shardResolver = shardResolver;
     }
 
     public boolean isProtectedAdmin(User user) {
@@ -76,6 +87,7 @@ public class AdminService {
     @Transactional
     public void deleteUser(User actor, Long targetId) {
         User target = userRepository.findById(targetId)
+                .filter(user -> user.getDeletedAt() == null)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + targetId));
 
         // Cannot delete yourself
@@ -98,13 +110,24 @@ public class AdminService {
             throw new ForbiddenException("Admins cannot delete other admins");
         }
 
+        // Logical delete: revoke access and hide the URLs now, UrlPurgeService removes the rows later.
+        // Email and Microsoft id are released so the person can sign up again as a new user.
+        LocalDateTime now = LocalDateTime.now();
         refreshTokenRepository.deleteByUser(target);
-        userRepository.delete(target);
+        apiKeyRepository.deleteByUser(target);
+        // Sharded, each shard hides its share of the links in a transaction of its own
+        shardResolver.fanOut(false, shard -> urlRepository.softDeleteByUser(target, now));
+        target.setDeletedAt(now);
+        target.setEmail("deleted-" + target.getId() + "@invalid");
+        target.setMicrosoftId(null);
+        userRepository.save(target);
+        shardResolver.syncUser(target);
     }
 
     @Transactional
     public UserResponse updateUserRole(User actor, Long targetId, Role newRole) {
         User target = userRepository.findById(targetId)
+                .filter(user -> user.getDeletedAt() == null)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + targetId));
 
         // Only ADMINs can modify roles
@@ -124,6 +147,7 @@ public class AdminService {
 
         target.setRole(newRole);
         User saved = userRepository.save(target);
+        shardResolver.syncUser(saved);
         return convertToResponse(saved);
     }
 
@@ -138,13 +162,14 @@ public class AdminService {
     }
 
     public List<UserResponse> getAllUsers() {
-        return userRepository.findAll().stream()
+        return userRepository.findByDeletedAtIsNull().stream()
                 .map(this::convertToResponse)
                 .collect(Collectors.toList());
     }
 
     public UserResponse getUserById(Long id) {
         User user = userRepository.findById(id)
+                .filter(found -> found.getDeletedAt() == null)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + id));
         return convertToResponse(user);
     }
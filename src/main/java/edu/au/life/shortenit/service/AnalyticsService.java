@@ -1,103 +1,253 @@
 package edu.au.life.shortenit.service;
 
+import edu.au.life.shortenit.config.ShardRouting;
 import edu.au.life.shortenit.dto.AnalyticsResponse;
+import edu.au.life.shortenit.dto.CursorPage;
 import edu.au.life.shortenit.dto.UrlResponse;
+import edu.au.life.shortenit.entity.ClickDailyStat;
 import edu.au.life.shortenit.entity.Url;
-import edu.au.life.shortenit.entity.UrlClick;
 import edu.au.life.shortenit.entity.User;
 import edu.au.life.shortenit.exception.UrlNotFoundException;
-import edu.au.life.shortenit.repository.UrlClickRepository;
+import edu.au.life.shortenit.repository.ClickDailyStatRepository;
 import edu.au.life.shortenit.repository.UrlRepository;
+import edu.au.life.shortenit.repository.UrlRepositoryCustom.ClickCounters;
+import edu.au.life.shortenit.service.ShardResolver.ShardRow;
+import edu.au.life.shortenit.util.ClickArchiveReader;
+import edu.au.life.shortenit.util.PageCursor;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class AnalyticsService {
-    private final UrlRepository urlRepository;
-    private final UrlClickRepository urlClickRepository;
+    private static final int EXPORT_PAGE_SIZE = 100;
+
+    /*
+     * A link's raw clicks in the shape of sumByKey's rollup rows (dimension,
+     * key1, key2, clicks), plus DAY rows keyed by the epoch day. The link's
+     * clicks are read once; every dimension is grouped from that.
+     */
+    private static final String RAW_SUMS_SQL;
+
+    static {
+        StringBuilder sql = new StringBuilder("WITH raw AS MATERIALIZED (SELECT * FROM url_clicks WHERE url_id = ?%s) " +
+                "SELECT 'DAY', CAST(clicked_at AS DATE) - DATE '1970-01-01', 0, COUNT(*) FROM raw " +
+                "GROUP BY CAST(clicked_at AS DATE)");
+        ClickCompactionService.KEYS.forEach((dimension, keys) -> {
+            if (dimension == ClickDailyStat.Dimension.OPERATING_SYSTEM) {
+                return; // not part of the analytics
+            }
+            List<String> groupBy = ClickCompactionService.groupKeys(keys);
+            sql.append(" UNION ALL SELECT '").append(dimension.name()).append("', ").append(keys[0]).append(", ")
+                    .append(keys[1]).append(", COUNT(*) FROM raw");
+            if (!groupBy.isEmpty()) {
+                sql.append(" GROUP BY ").append(String.join(", ", groupBy));
+            }
+        });
+        RAW_SUMS_SQL = sql.toString();
+    }
 
-    public AnalyticsResponse getAnalytics(String code, User user) {
-        Url url = urlRepository.findByCode(code)
-                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
+    private static final Comparator<ShardRow<Url>> NEWEST_FIRST =
+            Comparator.comparing((ShardRow<Url> row) -> positionOf(row.row()),
+                    Comparator.comparing(PageCursor::createdAt).thenComparingLong(PageCursor::id)).reversed();
 
-        if (!url.getUser().getId().equals(user.getId()) &&
-                !user.getRole().equals(User.Role.ADMIN)) {
-            throw new UrlNotFoundException("Short URL not found: " + code);
-        }
+    private final UrlRepository urlRepository;
+    private final ClickDailyStatRepository clickDailyStatRepository;
+    private final ClickDimensionService clickDimensionService;
+    private final ClickCompactionService clickCompactionService;
+    private final ClickArchiveService clickArchiveService;
+    private final ShardResolver shardResolver;
+    private final ObjectMapper objectMapper;
+    private final JdbcTemplate jdbcTemplate;
 
-        List<UrlClick> clicks = urlClickRepository.findByUrlOrderByClickedAtDesc(url);
+    @PersistenceContext
+    private EntityManager entityManager;
 
-        return AnalyticsResponse.builder()
-                .code(url.getCode())
-                .originalUrl(url.getOriginalUrl())
-                .totalClicks(url.getClickCount())
-                .createdAt(url.getCreatedAt())
-                .clicksByDate(getClicksByDate(clicks))
-                .clicksByHour(getClicksByHour(clicks))
-                .topCountries(getTopCountries(clicks))
-                .topCities(getTopCities(clicks))
-                .deviceStats(getDeviceStats(clicks))
-                .topBrowsers(getTopBrowsers(clicks))
-                .topReferrers(getTopReferrers(clicks))
-                .build();
+    public AnalyticsResponse getAnalytics(String code, User user) {
+        return shardResolver.transaction(code, true, () -> {
+            Url url = findVisible(code, user);
+
+            ClickCounts counts = countClicks(url);
+            ClickCounters counters = urlRepository.findClickCounters(url.getId());
+
+            return AnalyticsResponse.builder()
+                    .code(url.getCode())
+                    .originalUrl(url.getOriginalUrl())
+                    .totalClicks(counters.clicks())
+                    .botClicks(counters.botClicks())
+                    .createdAt(url.getCreatedAt())
+                    .clicksByDate(getClicksByDate(counts))
+                    .clicksByHour(getClicksByHour(counts))
+                    .topCountries(getTopCountries(counts))
+                    .topCities(getTopCities(counts))
+                    .deviceStats(getDeviceStats(counts))
+                    .topBrowsers(getTopBrowsers(counts))
+                    .topReferrers(getTopReferrers(counts))
+                    .build();
+        });
     }
 
     public AnalyticsResponse getAnalyticsAdmin(String code) {
-        Url url = urlRepository.findByCode(code)
-                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
+        return shardResolver.transaction(code, true, () -> {
+            Url url = urlRepository.findByCode(code)
+                    .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
 
-        return buildAdminAnalyticsResponse(url);
+            return buildAdminAnalyticsResponse(url);
+        });
     }
 
-    public List<AnalyticsResponse> getAllAnalytics(User user) {
-        List<Url> urls = urlRepository.findByUserOrderByCreatedAtDesc(user);
-
-        return urls.stream()
-                .map(url -> buildAnalyticsResponse(url))
-                .collect(Collectors.toList());
+    /**
+     * Writes the analytics of all of the user's links to {@code out} as a JSON
+     * array, one link at a time from a database cursor. The persistence
+     * context is cleared after every link so the links read do not pile up. Sharded, the links come in merged keyset pages instead.
+     */
+    public void writeAllAnalytics(User user, OutputStream out) {
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            generator.writeStartArray();
+            if (shardResolver.isSharded()) {
+                String cursor = null;
+                do {
+                    CursorPage<AnalyticsResponse> page = getAnalyticsByCursor(user, cursor, EXPORT_PAGE_SIZE, false);
+                    page.getContent().forEach(response -> objectMapper.writeValue(generator, response));
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+            } else {
+                shardResolver.transaction(ShardRouting.HOME, true, () -> {
+                    try (Stream<Url> urls = urlRepository.streamByUser(user)) {
+                        urls.forEach(url -> {
+                            objectMapper.writeValue(generator, buildAnalyticsResponse(url));
+                            entityManager.clear();
+                        });
+                    }
+                    return null;
+                });
+            }
+            generator.writeEndArray();
+        }
     }
 
     public Page<AnalyticsResponse> getAllAnalyticsPaginated(User user, Pageable pageable) {
-        Page<Url> urlPage = urlRepository.findByUser(user, pageable);
+        return shardResolver.fanOutAndBuildPage(pageable,
+                page -> urlRepository.findByUser(user, page), urls -> build(urls, this::buildAnalyticsResponse));
+    }
 
-        return urlPage.map(this::buildAnalyticsResponse);
+    /**
+     * Newest links first, the page after the given cursor (blank for the first)
+     */
+    public CursorPage<AnalyticsResponse> getAnalyticsByCursor(User user, String cursor, int size, boolean includeTotal) {
+        return analyticsByCursor(cursor, size, includeTotal,
+                (position, page) -> urlRepository.findByUserAfter(user, position.createdAt(), position.id(), page),
+                () -> urlRepository.countByUser(user), this::buildAnalyticsResponse);
     }
 
     private AnalyticsResponse buildAnalyticsResponse(Url url) {
-        List<UrlClick> clicks = urlClickRepository.findByUrlOrderByClickedAtDesc(url);
+        ClickCounts counts = countClicks(url);
+        ClickCounters counters = urlRepository.findClickCounters(url.getId());
 
         return AnalyticsResponse.builder()
                 .code(url.getCode())
                 .originalUrl(url.getOriginalUrl())
-                .totalClicks(url.getClickCount())
+                .totalClicks(counters.clicks())
+                .botClicks(counters.botClicks())
                 .createdAt(url.getCreatedAt())
-                .clicksByDate(getClicksByDate(clicks))
-                .clicksByHour(getClicksByHour(clicks))
-                .topCountries(getTopCountries(clicks))
-                .topCities(getTopCities(clicks))
-                .deviceStats(getDeviceStats(clicks))
-                .topBrowsers(getTopBrowsers(clicks))
-                .topReferrers(getTopReferrers(clicks))
+                .clicksByDate(getClicksByDate(counts))
+                .clicksByHour(getClicksByHour(counts))
+                .topCountries(getTopCountries(counts))
+                .topCities(getTopCities(counts))
+                .deviceStats(getDeviceStats(counts))
+                .topBrowsers(getTopBrowsers(counts))
+                .topReferrers(getTopReferrers(counts))
                 .build();
     }
 
     public Page<AnalyticsResponse> getAllAnalyticsPaginatedAdmin(Pageable pageable) {
-        Page<Url> urlPage = urlRepository.findAll(pageable);
-        return urlPage.map(this::buildAdminAnalyticsResponse);
+        return shardResolver.fanOutAndBuildPage(pageable,
+                urlRepository::findAll, urls -> build(urls, this::buildAdminAnalyticsResponse));
     }
 
     public Page<AnalyticsResponse> getAnalyticsByUserIdPaginated(Long userId, Pageable pageable) {
-        Page<Url> urlPage = urlRepository.findByUserId(userId, pageable);
-        return urlPage.map(this::buildAdminAnalyticsResponse);
+        return shardResolver.fanOutAndBuildPage(pageable,
+                page -> urlRepository.findByUserId(userId, page), urls -> build(urls, this::buildAdminAnalyticsResponse));
+    }
+
+    public CursorPage<AnalyticsResponse> getAllAnalyticsByCursorAdmin(String cursor, int size, boolean includeTotal) {
+        return analyticsByCursor(cursor, size, includeTotal,
+                (position, page) -> urlRepository.findAllAfter(position.createdAt(), position.id(), page),
+                urlRepository::count, this::buildAdminAnalyticsResponse);
+    }
+
+    public CursorPage<AnalyticsResponse> getAnalyticsByUserIdByCursor(Long userId, String cursor, int size, boolean includeTotal) {
+        return analyticsByCursor(cursor, size, includeTotal,
+                (position, page) -> urlRepository.findByUserIdAfter(userId, position.createdAt(), position.id(), page),
+                () -> urlRepository.countByUserId(userId), this::buildAdminAnalyticsResponse);
+    }
+
+    /**
+     * A keyset page over every shard: each returns its first links after the
+     * cursor, the page is cut from the merge and only its links are built
+     */
+    private CursorPage<AnalyticsResponse> analyticsByCursor(String cursor, int size, boolean includeTotal,
+                                                            BiFunction<PageCursor, Pageable, Slice<Url>> query,
+                                                            LongSupplier count,
+                                                            Function<Url, AnalyticsResponse> builder) {
+        PageCursor position = PageCursor.decode(cursor);
+        Pageable page = PageRequest.of(0, Math.max(1, size));
+        List<ShardUrls> shards = shardResolver.fanOut(true, shard -> new ShardUrls(
+                query.apply(position, page).map(url -> new ShardRow<>(shard, url)),
+                includeTotal ? count.getAsLong() : 0));
+        Slice<ShardRow<Url>> slice = ShardResolver.mergeSlices(
+                shards.stream().map(ShardUrls::slice).toList(), page.getPageSize(), NEWEST_FIRST);
+        List<AnalyticsResponse> responses = shardResolver.buildOnShards(slice.getContent(), urls -> build(urls, builder));
+
+        List<PositionedAnalytics> rows = new ArrayList<>(responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            rows.add(new PositionedAnalytics(positionOf(slice.getContent().get(i).row()), responses.get(i)));
+        }
+        return CursorPage.of(new SliceImpl<>(rows, slice.getPageable(), slice.hasNext()),
+                PositionedAnalytics::position, PositionedAnalytics::response,
+                includeTotal ? shards.stream().mapToLong(ShardUrls::total).sum() : null);
+    }
+
+    private static List<AnalyticsResponse> build(List<Url> urls, Function<Url, AnalyticsResponse> builder) {
+        return urls.stream().map(builder).toList();
+    }
+
+    private record PositionedAnalytics(PageCursor position, AnalyticsResponse response) {
+    }
+
+    private record ShardUrls(Slice<ShardRow<Url>> slice, long total) {
+    }
+
+    private static PageCursor positionOf(Url url) {
+        return new PageCursor(url.getCreatedAt(), url.getId());
     }
 
     private AnalyticsResponse buildAdminAnalyticsResponse(Url url) {
@@ -110,29 +260,133 @@ public class AnalyticsService {
         return response;
     }
 
-    private Map<String, Long> getClicksByDate(List<UrlClick> clicks) {
-        return clicks.stream()
-                .collect(Collectors.groupingBy(
-                        click -> click.getClickedAt().toLocalDate().toString(),
-                        Collectors.counting()
-                ))
-                .entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (e1, e2) -> e1,
-                        LinkedHashMap::new
-                ));
+    /**
+     * The link by code when the user owns it or is an admin
+     */
+    private Url findVisible(String code, User user) {
+        Url url = urlRepository.findByCode(code)
+                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
+
+        if (!url.getUser().getId().equals(user.getId()) &&
+                !user.getRole().equals(User.Role.ADMIN)) {
+            throw new UrlNotFoundException("Short URL not found: " + code);
+        }
+        return url;
     }
 
-    private Map<String, Long> getClicksByHour(List<UrlClick> clicks) {
-        return clicks.stream()
-                .collect(Collectors.groupingBy(
-                        click -> String.valueOf(click.getClickedAt().getHour()),
-                        Collectors.counting()
-                ))
-                .entrySet().stream()
+    /**
+     * Counts over the link's whole history: rollups for compacted days, raw
+     * clicks for the rest
+     */
+    private ClickCounts countClicks(Url url) {
+        ClickCounts counts = new ClickCounts();
+        LocalDate until = clickCompactionService.compactedUntil();
+        if (until == null) {
+            addRaw(counts, url, null, null);
+            return counts;
+        }
+
+        addRollups(counts, url, LocalDate.EPOCH, until);
+        addRaw(counts, url, until.atStartOfDay(), null);
+        return counts;
+    }
+
+    /**
+     * Counts between start and end. Compacted days only have day precision,
+     * so they count in full when the range touches them.
+     */
+    private ClickCounts countClicks(Url url, LocalDateTime start, LocalDateTime end) {
+        ClickCounts counts = new ClickCounts();
+        LocalDate until = clickCompactionService.compactedUntil();
+        LocalDateTime rawStart = start;
+        if (until != null) {
+            LocalDate rollupEnd = end.toLocalDate().plusDays(1);
+            addRollups(counts, url, start.toLocalDate(), rollupEnd.isBefore(until) ? rollupEnd : until);
+            if (rawStart.isBefore(until.atStartOfDay())) {
+                rawStart = until.atStartOfDay();
+            }
+        }
+        if (rawStart.isBefore(end)) {
+            addRaw(counts, url, rawStart, end);
+        }
+        return counts;
+    }
+
+    // Raw clicks from start (inclusive) to end (inclusive), either unbounded when null
+    private void addRaw(ClickCounts counts, Url url, LocalDateTime start, LocalDateTime end) {
+        StringBuilder range = new StringBuilder();
+        List<Object> args = new ArrayList<>();
+        args.add(url.getId());
+        if (start != null) {
+            range.append(" AND clicked_at >= ?");
+            args.add(Timestamp.valueOf(start));
+        }
+        if (end != null) {
+            range.append(" AND clicked_at <= ?");
+            args.add(Timestamp.valueOf(end));
+        }
+
+        List<Object[]> sums = new ArrayList<>();
+        jdbcTemplate.query(RAW_SUMS_SQL.formatted(range), rs -> {
+            String dimension = rs.getString(1);
+            long key1 = rs.getLong(2);
+            long clicks = rs.getLong(4);
+            if ("DAY".equals(dimension)) {
+                counts.byDate.merge(LocalDate.ofEpochDay(key1).toString(), clicks, Long::sum);
+            } else {
+                sums.add(new Object[]{ClickDailyStat.Dimension.valueOf(dimension), key1, rs.getLong(3), clicks});
+            }
+        }, args.toArray());
+        addSums(counts, sums);
+    }
+
+    private void addRollups(ClickCounts counts, Url url, LocalDate from, LocalDate to) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        for (Object[] row : clickDailyStatRepository.findDailyTotals(url.getId(), from, to)) {
+            counts.byDate.merge(row[0].toString(), (Long) row[1], Long::sum);
+        }
+        addSums(counts, clickDailyStatRepository.sumByKey(url.getId(), from, to));
+    }
+
+    // Rows of dimension, key1, key2, clicks; only the distinct ids are decoded
+    private void addSums(ClickCounts counts, List<Object[]> sums) {
+        List<Long> referrerIds = sums.stream()
+                .filter(row -> row[0] == ClickDailyStat.Dimension.REFERRER && (Long) row[1] != 0)
+                .map(row -> (Long) row[1])
+                .collect(Collectors.toList());
+        Map<Long, String> referrers = referrerIds.isEmpty() ? Map.of() : clickDimensionService.texts(referrerIds);
+
+        for (Object[] row : sums) {
+            long key1 = (Long) row[1];
+            long key2 = (Long) row[2];
+            long clicks = ((Number) row[3]).longValue();
+            String name = key1 == 0 ? null : clickDimensionService.name((int) key1);
+            switch ((ClickDailyStat.Dimension) row[0]) {
+                case TOTAL -> counts.total += clicks;
+                case HOUR -> counts.byHour.merge(String.valueOf(key1), clicks, Long::sum);
+                case COUNTRY -> counts.addCountry(name, clicks);
+                case CITY -> counts.addCity(name, key2 == 0 ? null : clickDimensionService.name((int) key2), clicks);
+                case DEVICE_TYPE -> counts.addDevice(name, clicks);
+                case BROWSER -> counts.addBrowser(name, clicks);
+                case REFERRER -> counts.addReferrer(key1 == 0 ? null : referrers.get(key1), clicks);
+                case OPERATING_SYSTEM -> {
+                }
+            }
+        }
+    }
+
+    private Map<String, Long> getClicksByDate(ClickCounts counts) {
+        return sortedByKey(counts.byDate);
+    }
+
+    private Map<String, Long> getClicksByHour(ClickCounts counts) {
+        return sortedByKey(counts.byHour);
+    }
+
+    private static Map<String, Long> sortedByKey(Map<String, Long> map) {
+        return map.entrySet().stream()
                 .sorted(Map.Entry.comparingByKey())
                 .collect(Collectors.toMap(
                         Map.Entry::getKey,
@@ -142,17 +396,10 @@ public class AnalyticsService {
                 ));
     }
 
-    private List<AnalyticsResponse.CountryStats> getTopCountries(List<UrlClick> clicks) {
-        long totalClicks = clicks.size();
-
-        Map<String, Long> countryMap = clicks.stream()
-                .filter(click -> click.getCountry() != null)
-                .collect(Collectors.groupingBy(
-                        UrlClick::getCountry,
-                        Collectors.counting()
-                ));
+    private List<AnalyticsResponse.CountryStats> getTopCountries(ClickCounts counts) {
+        long totalClicks = counts.total;
 
-        return countryMap.entrySet().stream()
+        return counts.countries.entrySet().stream()
                 .map(entry -> AnalyticsResponse.CountryStats.builder()
                         .country(entry.getKey())
                         .clicks(entry.getValue())
@@ -163,16 +410,10 @@ public class AnalyticsService {
                 .collect(Collectors.toList());
     }
 
-    private List<AnalyticsResponse.CityStats> getTopCities(List<UrlClick> clicks) {
-        long totalClicks = clicks.size();
+    private List<AnalyticsResponse.CityStats> getTopCities(ClickCounts counts) {
+        long totalClicks = counts.total;
 
-        return clicks.stream()
-                .filter(click -> click.getCity() != null)
-                .collect(Collectors.groupingBy(
-                        click -> click.getCity() + "|" + click.getCountry(),
-                        Collectors.counting()
-                ))
-                .entrySet().stream()
+        return counts.cities.entrySet().stream()
                 .map(entry -> {
                     String[] parts = entry.getKey().split("\\|");
                     return AnalyticsResponse.CityStats.builder()
@@ -187,18 +428,14 @@ public class AnalyticsService {
                 .collect(Collectors.toList());
     }
 
-    private AnalyticsResponse.DeviceStats getDeviceStats(List<UrlClick> clicks) {
-        Map<String, Long> deviceMap = clicks.stream()
-                .collect(Collectors.groupingBy(
-                        click -> click.getDeviceType() != null ? click.getDeviceType() : "unknown",
-                        Collectors.counting()
-                ));
+    private AnalyticsResponse.DeviceStats getDeviceStats(ClickCounts counts) {
+        Map<String, Long> deviceMap = counts.devices;
 
         long mobile = deviceMap.getOrDefault("mobile", 0L);
         long desktop = deviceMap.getOrDefault("desktop", 0L);
         long tablet = deviceMap.getOrDefault("tablet", 0L);
         long unknown = deviceMap.getOrDefault("unknown", 0L);
-        long total = clicks.size();
+        long total = counts.total;
 
         return AnalyticsResponse.DeviceStats.builder()
                 .mobile(mobile)
@@ -211,17 +448,10 @@ public class AnalyticsService {
                 .build();
     }
 
-    private List<AnalyticsResponse.BrowserStats> getTopBrowsers(List<UrlClick> clicks) {
-        long totalClicks = clicks.size();
-
-        Map<String, Long> browserMap = clicks.stream()
-                .filter(click -> click.getBrowser() != null)
-                .collect(Collectors.groupingBy(
-                        UrlClick::getBrowser,
-                        Collectors.counting()
-                ));
+    private List<AnalyticsResponse.BrowserStats> getTopBrowsers(ClickCounts counts) {
+        long totalClicks = counts.total;
 
-        return browserMap.entrySet().stream()
+        return counts.browsers.entrySet().stream()
                 .map(entry -> AnalyticsResponse.BrowserStats.builder()
                         .browser(entry.getKey())
                         .clicks(entry.getValue())
@@ -232,17 +462,10 @@ public class AnalyticsService {
                 .collect(Collectors.toList());
     }
 
-    private List<AnalyticsResponse.ReferrerStats> getTopReferrers(List<UrlClick> clicks) {
-        long totalClicks = clicks.size();
+    private List<AnalyticsResponse.ReferrerStats> getTopReferrers(ClickCounts counts) {
+        long totalClicks = counts.total;
 
-        Map<String, Long> referrerMap = clicks.stream()
-                .filter(click -> click.getReferrer() != null && !click.getReferrer().isEmpty())
-                .collect(Collectors.groupingBy(
-                        UrlClick::getReferrer,
-                        Collectors.counting()
-                ));
-
-        return referrerMap.entrySet().stream()
+        return counts.referrers.entrySet().stream()
                 .map(entry -> AnalyticsResponse.ReferrerStats.builder()
                         .referrer(entry.getKey())
                         .clicks(entry.getValue())
@@ -254,32 +477,107 @@ public class AnalyticsService {
     }
 
     public AnalyticsResponse getAnalyticsByDateRange(String code, LocalDateTime start, LocalDateTime end, User user) {
-        Url url = urlRepository.findByCode(code)
-                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
+        return shardResolver.transaction(code, true, () -> {
+            // Authorization check - user must own the URL or be admin
+            Url url = findVisible(code, user);
+
+            ClickCounts counts = countClicks(url, start, end);
+
+            return AnalyticsResponse.builder()
+                    .code(url.getCode())
+                    .originalUrl(url.getOriginalUrl())
+                    .totalClicks(counts.total)
+                    .createdAt(url.getCreatedAt())
+                    .clicksByDate(getClicksByDate(counts))
+                    .clicksByHour(getClicksByHour(counts))
+                    .topCountries(getTopCountries(counts))
+                    .topCities(getTopCities(counts))
+                    .deviceStats(getDeviceStats(counts))
+                    .topBrowsers(getTopBrowsers(counts))
+                    .topReferrers(getTopReferrers(counts))
+                    .build();
+        });
+    }
 
-        // Authorization check - user must own the URL or be admin
-        if (!url.getUser().getId().equals(user.getId()) &&
-                !user.getRole().equals(User.Role.ADMIN)) {
-            throw new UrlNotFoundException("Short URL not found: " + code);
+    /**
+     * Aggregates from the cold archive for the months from..to, which keeps
+     * hour and referrer detail for clicks past the raw retention
+     */
+    public AnalyticsResponse getArchivedAnalytics(String code, YearMonth from, YearMonth to, User user) throws IOException {
+        Url url = shardResolver.transaction(code, true, () -> findVisible(code, user));
+
+        ClickArchiveReader.Aggregate archived = clickArchiveService.scan(url.getId(), from, to);
+        ClickCounts counts = new ClickCounts();
+        counts.total = archived.getTotal();
+        archived.getByDate().forEach((day, clicks) -> counts.byDate.put(day.toString(), clicks));
+        for (int hour = 0; hour < 24; hour++) {
+            if (archived.getByHour()[hour] > 0) {
+                counts.byHour.put(String.valueOf(hour), archived.getByHour()[hour]);
+            }
         }
-
-        List<UrlClick> allClicks = urlClickRepository.findByUrlOrderByClickedAtDesc(url);
-        List<UrlClick> filteredClicks = allClicks.stream()
-                .filter(click -> !click.getClickedAt().isBefore(start) && !click.getClickedAt().isAfter(end))
-                .collect(Collectors.toList());
+        archived.getCountries().forEach(counts::addCountry);
+        archived.getCities().forEach(city -> counts.addCity(city.city(), city.country(), city.clicks()));
+        archived.getDeviceTypes().forEach(counts::addDevice);
+        if (archived.getUnknownDeviceTypes() > 0) {
+            counts.addDevice(null, archived.getUnknownDeviceTypes());
+        }
+        archived.getBrowsers().forEach(counts::addBrowser);
+        archived.getReferrers().forEach(counts::addReferrer);
 
         return AnalyticsResponse.builder()
                 .code(url.getCode())
                 .originalUrl(url.getOriginalUrl())
-                .totalClicks((long) filteredClicks.size())
+                .totalClicks(counts.total)
                 .createdAt(url.getCreatedAt())
-                .clicksByDate(getClicksByDate(filteredClicks))
-                .clicksByHour(getClicksByHour(filteredClicks))
-                .topCountries(getTopCountries(filteredClicks))
-                .topCities(getTopCities(filteredClicks))
-                .deviceStats(getDeviceStats(filteredClicks))
-                .topBrowsers(getTopBrowsers(filteredClicks))
-                .topReferrers(getTopReferrers(filteredClicks))
+                .clicksByDate(getClicksByDate(counts))
+                .clicksByHour(getClicksByHour(counts))
+                .topCountries(getTopCountries(counts))
+                .topCities(getTopCities(counts))
+                .deviceStats(getDeviceStats(counts))
+                .topBrowsers(getTopBrowsers(counts))
+                .topReferrers(getTopReferrers(counts))
                 .build();
     }
+
+    /**
+     * Click counts per dimension value, filled from raw clicks and rollups alike
+     */
+    private static class ClickCounts {
+        private long total;
+        private final Map<String, Long> byDate = new HashMap<>();
+        private final Map<String, Long> byHour = new HashMap<>();
+        private final Map<String, Long> countries = new HashMap<>();
+        private final Map<String, Long> cities = new HashMap<>();
+        private final Map<String, Long> devices = new HashMap<>();
+        private final Map<String, Long> browsers = new HashMap<>();
+        private final Map<String, Long> referrers = new HashMap<>();
+
+        void addCountry(String country, long clicks) {
+            if (country != null) {
+                countries.merge(country, clicks, Long::sum);
+            }
+        }
+
+        void addCity(String city, String country, long clicks) {
+            if (city != null) {
+                cities.merge(city + "|" + country, clicks, Long::sum);
+            }
+        }
+
+        void addDevice(String deviceType, long clicks) {
+            devices.merge(deviceType != null ? deviceType : "unknown", clicks, Long::sum);
+        }
+
+        void addBrowser(String browser, long clicks) {
+            if (browser != null) {
+                browsers.merge(browser, clicks, Long::sum);
+            }
+        }
+
+        void addReferrer(String referrer, long clicks) {
+            if (referrer != null && !referrer.isEmpty()) {
+                referrers.merge(referrer, clicks, Long::sum);
+            }
+        }
+    }
 }
@@ -27,6 +27,9 @@ public class AuthService {
     @Autowired
     private JwtService jwtService;
 
+    @Autowired
+    private ShardResolver shardResolver;
+
     @Value("${jwt.access-token-expiration}")
     private long accessTokenExpiration;
 
@@ -52,6 +55,7 @@ public class AuthService {
             user.setEmail(email);
             user.setName(name);
             userRepository.save(user);
+            shardResolver.syncUser(user);
         }
         return generateTokensForUser(user);
     }
@@ -0,0 +1,454 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.dto.BulkShortenResult;
+import edu.au.life.shortenit.dto.UrlResponse;
+import edu.au.life.shortenit.dto.UrlShortenRequest;
+import edu.au.life.shortenit.entity.Url;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.repository.UrlRepository;
+import edu.au.life.shortenit.repository.UrlRepositoryCustom.ClickCounters;
+import edu.au.life.shortenit.util.UrlFingerprint;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Creates short URLs in bulk from a JSON array or an NDJSON stream.
+ *
+ * Requests are read and answered in chunks, so memory stays flat however
+ * large the upload is. Per chunk, custom aliases are checked with one IN
+ * query, AUTO codes are allocated in one go and all rows are written with a
+ * single JDBC batch; a row that fails (validation, taken alias, insert
+ * conflict) is reported without failing the rest, except AUTO rows whose
+ * code turns out to be taken, which are inserted again with new codes. Requests with
+ * reuseExisting are matched against existing links with one hash lookup.
+ * Sharded, the lookups go to every shard involved and each shard gets its
+ * own batch and transaction.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class BulkUrlService {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO urls (user_id, original_url, original_url_hash, code, code_type, title, created_at, expires_at, " +
+            "click_count, bot_click_count, is_active) " +
+            "VALUES (:userId, :originalUrl, :originalUrlHash, :code, :codeType, :title, :createdAt, :expiresAt, 0, 0, true) " +
+            "ON CONFLICT (code) DO NOTHING";
+
+    private static final String SELECT_IDS_SQL =
+            "SELECT id, code FROM urls WHERE user_id = :userId AND code IN (:codes)";
+
+    private final UrlRepository urlRepository;
+    private final ShortCodeAllocator shortCodeAllocator;
+    private final ShardResolver shardResolver;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+
+    @Value("${app.base-url}")
+    private String baseUrl;
+
+    @Value("${bulk.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${bulk.max-items:50000}")
+    private int maxItems;
+
+    /**
+     * Reads requests from {@code in} and writes one result per request to
+     * {@code out}, in request order: as NDJSON lines when {@code ndjson} is
+     * set, otherwise as a JSON array. Input that cannot be parsed ends the
+     * stream with a final FAILED result at the position where parsing stopped.
+     */
+    public void shorten(InputStream in, OutputStream out, boolean ndjson, User user) throws IOException {
+        // One request at a time out of a longer stream, the rest is not trailing garbage
+        ObjectReader requestReader = objectMapper.readerFor(UrlShortenRequest.class)
+                .without(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+        ResultWriter writer = new ResultWriter(out, ndjson);
+        writer.start();
+
+        int index = 0;
+        List<UrlShortenRequest> chunk = new ArrayList<>(chunkSize);
+        try (JsonParser parser = objectMapper.createParser(in)) {
+            JsonToken first = parser.nextToken();
+            boolean array = first == JsonToken.START_ARRAY;
+            JsonToken token = array ? parser.nextToken() : first;
+
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (index + chunk.size() >= maxItems) {
+                    writer.write(failed(index + chunk.size(), "Bulk requests are limited to " + maxItems + " items"));
+                    break;
+                }
+                chunk.add(requestReader.readValue(parser));
+                if (chunk.size() == chunkSize) {
+                    index = flushChunk(chunk, index, user, writer);
+                }
+                token = parser.nextToken();
+            }
+        } catch (JacksonException e) {
+            index = flushChunk(chunk, index, user, writer);
+            writer.write(failed(index, "Malformed request body: " + e.getOriginalMessage()));
+        }
+
+        flushChunk(chunk, index, user, writer);
+        writer.end();
+    }
+
+    private int flushChunk(List<UrlShortenRequest> chunk, int firstIndex, User user, ResultWriter writer) throws IOException {
+        if (chunk.isEmpty()) {
+            return firstIndex;
+        }
+
+        BulkShortenResult[] results;
+        try {
+            results = processChunk(chunk, firstIndex, user);
+        } catch (RuntimeException e) {
+            log.error("Bulk shorten chunk at {} failed", firstIndex, e);
+            results = new BulkShortenResult[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                results[i] = failed(firstIndex + i, "Could not save this batch, please retry");
+            }
+        }
+
+        for (BulkShortenResult result : results) {
+            writer.write(result);
+        }
+        writer.flush();
+
+        int next = firstIndex + chunk.size();
+        chunk.clear();
+        return next;
+    }
+
+    private BulkShortenResult[] processChunk(List<UrlShortenRequest> chunk, int firstIndex, User user) {
+        BulkShortenResult[] results = new BulkShortenResult[chunk.size()];
+
+        LocalDateTime now = LocalDateTime.now();
+        String[] hashes = new String[chunk.size()];
+
+        // Validation and in-batch alias duplicates
+        Set<String> customCodes = new HashSet<>();
+        Set<String> reuseHashes = new HashSet<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            UrlShortenRequest request = chunk.get(i);
+            Set<ConstraintViolation<UrlShortenRequest>> violations = validator.validate(request);
+            if (!violations.isEmpty()) {
+                results[i] = failed(firstIndex + i, violations.iterator().next().getMessage());
+                continue;
+            }
+            hashes[i] = UrlFingerprint.of(request.getOriginalUrl());
+            if (isCustom(request)) {
+                if (!customCodes.add(request.getCode())) {
+                    results[i] = failed(firstIndex + i, "Code appears more than once in this request: " + request.getCode());
+                }
+            } else if (isReuse(request)) {
+                reuseHashes.add(hashes[i]);
+            }
+        }
+
+        // One query for every reusable target in the chunk; newest link wins
+        Map<String, Url> reusable = new HashMap<>();
+        Map<Long, ClickCounters> counters = new HashMap<>();
+        if (!reuseHashes.isEmpty()) {
+            for (ReusableLinks found : shardResolver.fanOut(true, shard -> {
+                List<Url> existing = urlRepository.findReusable(user, reuseHashes, now);
+                return new ReusableLinks(existing,
+                        urlRepository.findClickCounters(existing.stream().map(Url::getId).toList()));
+            })) {
+                counters.putAll(found.counters());
+                for (Url existing : found.urls()) {
+                    reusable.merge(existing.getOriginalUrlHash(), existing,
+                            (a, b) -> a.getCreatedAt().isAfter(b.getCreatedAt()) ? a : b);
+                }
+            }
+        }
+
+        // Reuse an existing link, or an earlier new link in this chunk for the same target
+        int[] sameAs = new int[chunk.size()];
+        Arrays.fill(sameAs, -1);
+        Map<String, Integer> firstNew = new HashMap<>();
+        int autoCount = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            UrlShortenRequest request = chunk.get(i);
+            if (results[i] != null || isCustom(request)) {
+                continue;
+            }
+            if (isReuse(request)) {
+                Url existing = reusable.get(hashes[i]);
+                if (existing != null) {
+                    results[i] = result(firstIndex + i, BulkShortenResult.Status.EXISTING,
+                            convertToResponse(existing, user, counters.getOrDefault(existing.getId(), ClickCounters.NONE)));
+                    continue;
+                }
+                Integer earlier = firstNew.get(hashes[i]);
+                if (earlier != null) {
+                    sameAs[i] = earlier;
+                    continue;
+                }
+            }
+            firstNew.putIfAbsent(hashes[i], i);
+            autoCount++;
+        }
+
+        // One query for every alias in the chunk, per shard
+        Set<String> taken = new HashSet<>();
+        shardResolver.groupByShard(customCodes).forEach((shard, codes) ->
+                taken.addAll(shardResolver.transaction(shard, true, () -> urlRepository.findExistingCodes(codes))));
+        Iterator<String> autoCodes = autoCount == 0
+                ? null
+                : shortCodeAllocator.nextCodes(autoCount).iterator();
+
+        List<Integer> rows = new ArrayList<>();
+        List<Url> urls = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            UrlShortenRequest request = chunk.get(i);
+            if (results[i] != null || sameAs[i] >= 0) {
+                continue;
+            }
+            if (isCustom(request) && taken.contains(request.getCode())) {
+                results[i] = failed(firstIndex + i, "Code already exists: " + request.getCode());
+                continue;
+            }
+            rows.add(i);
+            urls.add(toUrl(request, user, now, isCustom(request) ? request.getCode() : autoCodes.next()));
+        }
+
+        if (!urls.isEmpty()) {
+            insert(urls, rows, results, firstIndex, user);
+        }
+
+        for (int i = 0; i < chunk.size(); i++) {
+            if (sameAs[i] >= 0) {
+                BulkShortenResult original = results[sameAs[i]];
+                results[i] = original.getStatus() == BulkShortenResult.Status.FAILED
+                        ? failed(firstIndex + i, original.getError())
+                        : result(firstIndex + i, BulkShortenResult.Status.EXISTING, original.getUrl());
+            }
+        }
+        return results;
+    }
+
+    private void insert(List<Url> urls, List<Integer> rows, BulkShortenResult[] results, int firstIndex, User user) {
+        Map<String, Long> ids = new HashMap<>();
+        Set<String> unsaved = new HashSet<>();
+        List<Url> pending = urls;
+        for (int attempt = 1; ; attempt++) {
+            insert(pending, user, ids, unsaved);
+
+            // AUTO codes an alias or an imported link already had go again with the next codes
+            List<Url> taken = pending.stream()
+                    .filter(url -> url.getCodeType() == Url.CodeType.AUTO)
+                    .filter(url -> !ids.containsKey(url.getCode()) && !unsaved.contains(url.getCode()))
+                    .toList();
+            if (taken.isEmpty() || attempt == ShortCodeAllocator.MAX_ATTEMPTS) {
+                break;
+            }
+            Iterator<String> codes = shortCodeAllocator.nextCodes(taken.size()).iterator();
+            taken.forEach(url -> url.setCode(codes.next()));
+            pending = taken;
+        }
+
+        for (int r = 0; r < urls.size(); r++) {
+            Url url = urls.get(r);
+            int i = rows.get(r);
+            Long id = ids.get(url.getCode());
+            if (unsaved.contains(url.getCode())) {
+                results[i] = failed(firstIndex + i, "Could not save this batch, please retry");
+            } else if (id == null && url.getCodeType() == Url.CodeType.AUTO) {
+                results[i] = failed(firstIndex + i, "No free short code, please retry");
+            } else if (id == null) {
+                // Lost a race with another request for the same alias
+                results[i] = failed(firstIndex + i, "Code already exists: " + url.getCode());
+            } else {
+                url.setId(id);
+                results[i] = result(firstIndex + i, BulkShortenResult.Status.CREATED,
+                        convertToResponse(url, user, ClickCounters.NONE));
+            }
+        }
+    }
+
+    // Adds the ids of the rows inserted and the codes of the rows whose shard failed
+    private void insert(List<Url> urls, User user, Map<String, Long> ids, Set<String> unsaved) {
+        Map<Integer, List<Url>> byShard = new TreeMap<>();
+        for (Url url : urls) {
+            byShard.computeIfAbsent(shardResolver.shardOf(url.getCode()), shard -> new ArrayList<>()).add(url);
+        }
+        // A shard whose batch fails fails only its own rows
+        byShard.forEach((shard, shardUrls) -> {
+            try {
+                ids.putAll(insert(shard, shardUrls, user));
+            } catch (RuntimeException e) {
+                if (byShard.size() == 1) {
+                    throw e;
+                }
+                log.error("Bulk shorten batch on shard {} failed", shard, e);
+                shardUrls.forEach(url -> unsaved.add(url.getCode()));
+            }
+        });
+    }
+
+    private Map<String, Long> insert(int shard, List<Url> urls, User user) {
+        SqlParameterSource[] batch = urls.stream()
+                .map(url -> new MapSqlParameterSource()
+                        .addValue("userId", user.getId())
+                        .addValue("originalUrl", url.getOriginalUrl())
+                        .addValue("originalUrlHash", url.getOriginalUrlHash())
+                        .addValue("code", url.getCode())
+                        .addValue("codeType", url.getCodeType().name())
+                        .addValue("title", url.getTitle())
+                        .addValue("createdAt", Timestamp.valueOf(url.getCreatedAt()))
+                        .addValue("expiresAt", url.getExpiresAt() != null ? Timestamp.valueOf(url.getExpiresAt()) : null))
+                .toArray(SqlParameterSource[]::new);
+
+        return shardResolver.transaction(shard, false, () -> {
+            shardResolver.mirrorUser(shard, user);
+            int[] counts = jdbcTemplate.batchUpdate(INSERT_SQL, batch);
+            List<String> codes = new ArrayList<>(urls.size());
+            for (int r = 0; r < counts.length; r++) {
+                if (counts[r] != 0) {
+                    codes.add(urls.get(r).getCode());
+                }
+            }
+
+            Map<String, Long> inserted = new HashMap<>();
+            if (!codes.isEmpty()) {
+                jdbcTemplate.query(SELECT_IDS_SQL,
+                        new MapSqlParameterSource().addValue("userId", user.getId()).addValue("codes", codes),
+                        rs -> {
+                            inserted.put(rs.getString("code"), rs.getLong("id"));
+                        });
+            }
+            return inserted;
+        });
+    }
+
+    private static boolean isCustom(UrlShortenRequest request) {
+        return request.getCode() != null && !request.getCode().isBlank();
+    }
+
+    private static boolean isReuse(UrlShortenRequest request) {
+        return Boolean.TRUE.equals(request.getReuseExisting());
+    }
+
+    private static Url toUrl(UrlShortenRequest request, User user, LocalDateTime now, String code) {
+        Url url = new Url();
+        url.setOriginalUrl(request.getOriginalUrl());
+        url.setOriginalUrlHash(UrlFingerprint.of(request.getOriginalUrl()));
+        url.setTitle(request.getTitle());
+        url.setUser(user);
+        url.setCode(code);
+        url.setCodeType(isCustom(request) ? Url.CodeType.CUSTOM : Url.CodeType.AUTO);
+        url.setCreatedAt(now);
+        if (request.getExpirationDays() != null && request.getExpirationDays() > 0) {
+            url.setExpiresAt(now.plusDays(request.getExpirationDays()));
+        }
+        return url;
+    }
+
+    private UrlResponse convertToResponse(Url url, User user, ClickCounters counters) {
+        return UrlResponse.builder()
+                .id(url.getId())
+                .originalUrl(url.getOriginalUrl())
+                .code(url.getCode())
+                .shortUrl(baseUrl + "/s/" + url.getCode())
+                .title(url.getTitle())
+                .createdAt(url.getCreatedAt())
+                .expiresAt(url.getExpiresAt())
+                .clickCount(counters.clicks())
+                .isActive(url.getIsActive())
+                .codeType(url.getCodeType().name())
+                .owner(UrlResponse.UserInfo.builder()
+                        .id(user.getId())
+                        .name(user.getName())
+                        .email(user.getEmail())
+                        .build())
+                .build();
+    }
+
+    private static BulkShortenResult result(int index, BulkShortenResult.Status status, UrlResponse url) {
+        return BulkShortenResult.builder()
+                .index(index)
+                .status(status)
+                .url(url)
+                .build();
+    }
+
+    private static BulkShortenResult failed(int index, String error) {
+        return BulkShortenResult.builder()
+                .index(index)
+                .status(BulkShortenResult.Status.FAILED)
+                .error(error)
+                .build();
+    }
+
+    private class ResultWriter {
+
+        private final OutputStream out;
+        private final boolean ndjson;
+        private boolean first = true;
+
+        ResultWriter(OutputStream out, boolean ndjson) {
+            this.out = out;
+            this.ndjson = ndjson;
+        }
+
+        void start() throws IOException {
+            if (!ndjson) {
+                out.write('[');
+            }
+        }
+
+        void write(BulkShortenResult result) throws IOException {
+            if (!ndjson && !first) {
+                out.write(',');
+            }
+            first = false;
+            out.write(objectMapper.writeValueAsBytes(result));
+            if (ndjson) {
+                out.write('\n');
+            }
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        void end() throws IOException {
+            if (!ndjson) {
+                out.write(']');
+            }
+            out.flush();
+        }
+    }
+
+    private record ReusableLinks(List<Url> urls, Map<Long, ClickCounters> counters) {
+    }
+}
@@ -0,0 +1,271 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.config.ReplicaRouting;
+import edu.au.life.shortenit.config.ShardRouting;
+import edu.au.life.shortenit.dto.ClickArchiveResponse;
+import edu.au.life.shortenit.entity.UrlClick;
+import edu.au.life.shortenit.exception.InvalidStateException;
+import edu.au.life.shortenit.util.ClickArchiveReader;
+import edu.au.life.shortenit.util.ClickArchiveWriter;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Monthly columnar archive of raw clicks, one file per month in
+ * {@code clicks.archive.directory}. Off unless {@code clicks.archive.enabled}
+ * is set, and then the directory has to be given as well: a default relative
+ * to the working directory would fill up whatever disk the process happens
+ * to start on.
+ *
+ * The compaction job archives a month before it deletes any of its raw rows,
+ * so clicks past the raw retention keep their full detail off the primary
+ * database, and {@link #scan} answers per-link aggregates from the files.
+ * Files are written to a temporary name and moved into place, so a file that
+ * exists is always complete. When several instances run, the directory
+ * should be shared storage. Sharded, every shard archives its own clicks,
+ * shards above the home shard to {@code clicks-YYYY-MM.sN.sca}.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ClickArchiveService {
+
+    private static final Pattern FILE_NAME = Pattern.compile("clicks-(\\d{4}-\\d{2})(?:\\.s\\d+)?\\.sca");
+
+    private static final String SOURCE_SQL =
+            "SELECT url_id, clicked_at, ip, country_id, city_id, device_type_id, browser_id, operating_system_id, " +
+            "user_agent_id, referrer_id FROM url_clicks WHERE clicked_at >= ? AND clicked_at < ? " +
+            "ORDER BY url_id, clicked_at";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final ClickDimensionService clickDimensionService;
+    private final ShardResolver shardResolver;
+
+    @Value("${clicks.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${clicks.archive.directory:}")
+    private String directory;
+
+    // Every month read is a file per shard
+    @Value("${clicks.archive.max-scan-months:24}")
+    private int maxScanMonths;
+
+    @Value("${clicks.archive.block-size:65536}")
+    private int blockSize;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (directory.isBlank()) {
+            throw new IllegalStateException("clicks.archive.directory must be set when clicks.archive.enabled is");
+        }
+        Files.createDirectories(Paths.get(directory));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the month's archive file of the current shard exists
+     */
+    public boolean isArchived(YearMonth month) {
+        return enabled && Files.exists(file(month, ShardRouting.current()));
+    }
+
+    /**
+     * Writes the month's clicks on the current shard to its archive file
+     * unless it already exists
+     */
+    public void archive(YearMonth month) throws IOException {
+        Path target = file(month, ShardRouting.current());
+        if (Files.exists(target)) {
+            return;
+        }
+
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            long rows;
+            try (ClickArchiveWriter writer = new ClickArchiveWriter(temp, blockSize)) {
+                copy(month, writer);
+                rows = writer.getRows();
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Archived {} clicks of {} to {} ({} bytes)", rows, month, target, Files.size(target));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void copy(YearMonth month, ClickArchiveWriter writer) {
+        Timestamp start = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+        Timestamp end = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+        Map<Long, String> texts = new HashMap<>();
+        List<UrlClick> pending = new ArrayList<>(blockSize);
+        List<Long> urlIds = new ArrayList<>(blockSize);
+
+        // A transaction so the driver streams with a cursor instead of loading the month. It is
+        // read-only but kept on the primary: once the file exists retention may drop the partition,
+        // so it must not be written from a replica that has not applied every click yet
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        ReplicaRouting.onPrimary(() -> {
+            transaction.executeWithoutResult(status -> {
+                jdbcTemplate.query(connection -> {
+                    PreparedStatement statement = connection.prepareStatement(SOURCE_SQL);
+                    statement.setFetchSize(blockSize);
+                    statement.setTimestamp(1, start);
+                    statement.setTimestamp(2, end);
+                    return statement;
+                }, rs -> {
+                    UrlClick click = new UrlClick();
+                    click.setClickedAt(rs.getTimestamp("clicked_at").toLocalDateTime());
+                    click.setIp(rs.getBytes("ip"));
+                    click.setCountryId((Integer) rs.getObject("country_id"));
+                    click.setCityId((Integer) rs.getObject("city_id"));
+                    click.setDeviceTypeId((Integer) rs.getObject("device_type_id"));
+                    click.setBrowserId((Integer) rs.getObject("browser_id"));
+                    click.setOperatingSystemId((Integer) rs.getObject("operating_system_id"));
+                    click.setUserAgentId((Long) rs.getObject("user_agent_id"));
+                    click.setReferrerId((Long) rs.getObject("referrer_id"));
+                    pending.add(click);
+                    urlIds.add(rs.getLong("url_id"));
+                    if (pending.size() == blockSize) {
+                        append(writer, pending, urlIds, texts);
+                    }
+                });
+                append(writer, pending, urlIds, texts);
+            });
+            return null;
+        });
+    }
+
+    private void append(ClickArchiveWriter writer, List<UrlClick> pending, List<Long> urlIds, Map<Long, String> texts) {
+        List<Long> missing = new ArrayList<>();
+        for (UrlClick click : pending) {
+            if (click.getUserAgentId() != null && !texts.containsKey(click.getUserAgentId())) {
+                missing.add(click.getUserAgentId());
+            }
+            if (click.getReferrerId() != null && !texts.containsKey(click.getReferrerId())) {
+                missing.add(click.getReferrerId());
+            }
+        }
+        if (!missing.isEmpty()) {
+            texts.putAll(clickDimensionService.texts(missing));
+        }
+
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                UrlClick click = pending.get(i);
+                writer.append(new ClickArchiveWriter.Row(
+                        urlIds.get(i),
+                        click.getClickedAt(),
+                        click.getIp(),
+                        clickDimensionService.name(click.getCountryId()),
+                        clickDimensionService.name(click.getCityId()),
+                        clickDimensionService.name(click.getDeviceTypeId()),
+                        clickDimensionService.name(click.getBrowserId()),
+                        clickDimensionService.name(click.getOperatingSystemId()),
+                        click.getUserAgentId() == null ? null : texts.get(click.getUserAgentId()),
+                        click.getReferrerId() == null ? null : texts.get(click.getReferrerId())));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pending.clear();
+        urlIds.clear();
+    }
+
+    /**
+     * Aggregates one link's archived clicks in the months from..to,
+     * inclusive. Every shard's files are read: a link that moved left its
+     * older clicks in the archive of the shard it came from.
+     */
+    public ClickArchiveReader.Aggregate scan(Long urlId, YearMonth from, YearMonth to) throws IOException {
+        if (!enabled) {
+            throw new InvalidStateException("The click archive is not enabled");
+        }
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        if (from.plusMonths(maxScanMonths).isBefore(to.plusMonths(1))) {
+            throw new IllegalArgumentException("At most " + maxScanMonths + " months can be read at once");
+        }
+        ClickArchiveReader.Aggregate aggregate = new ClickArchiveReader.Aggregate();
+        LocalDateTime start = from.atDay(1).atStartOfDay();
+        LocalDateTime end = to.plusMonths(1).atDay(1).atStartOfDay();
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            for (int shard = 0; shard < shardResolver.shardCount(); shard++) {
+                Path path = file(month, shard);
+                if (!Files.exists(path)) {
+                    continue;
+                }
+                try (ClickArchiveReader reader = new ClickArchiveReader(path)) {
+                    aggregate.merge(reader.scan(urlId, start, end));
+                }
+            }
+        }
+        return aggregate;
+    }
+
+    public List<ClickArchiveResponse> getArchives() throws IOException {
+        if (!enabled) {
+            return List.of();
+        }
+        Path root = Paths.get(directory);
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+
+        List<ClickArchiveResponse> archives = new ArrayList<>();
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path path : files.sorted().toList()) {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                try (ClickArchiveReader reader = new ClickArchiveReader(path)) {
+                    archives.add(ClickArchiveResponse.builder()
+                            .month(matcher.group(1))
+                            .fileName(path.getFileName().toString())
+                            .rows(reader.getRows())
+                            .sizeBytes(Files.size(path))
+                            .build());
+                }
+            }
+        }
+        return archives;
+    }
+
+    private Path file(YearMonth month, int shard) {
+        return Paths.get(directory, "clicks-" + month + (shard == ShardRouting.HOME ? "" : ".s" + shard) + ".sca");
+    }
+}
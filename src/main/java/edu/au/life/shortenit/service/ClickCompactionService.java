@@ -0,0 +1,262 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.entity.ClickDailyStat;
+import edu.au.life.shortenit.repository.ClickCompactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Folds raw clicks older than the raw retention into per-day rollups in
+ * click_daily_stats and then removes the raw rows (PostgreSQL only).
+ *
+ * Days are compacted oldest first, one transaction per day: the rollups for
+ * every dimension are inserted, their totals are checked against the raw row
+ * count, and the day's checkpoint is written as AGGREGATED. Any mismatch rolls
+ * the whole day back. The raw rows are then deleted a bounded chunk per
+ * statement and the checkpoint moves to COMPLETED, so a restart at any point
+ * either redoes the whole aggregation or just continues deleting. With the
+ * archive enabled only whole months are compacted, and each month is written
+ * to the {@link ClickArchiveService} archive before its first day is touched.
+ *
+ * Readers treat every day up to the last checkpoint as compacted, see
+ * {@link #compactedUntil()}. Sharded, every shard is compacted on its own and
+ * keeps its own checkpoints, and a shard that is moving links to or from
+ * another is skipped until the move is done.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ClickCompactionService {
+
+    private static final long LOCK_KEY = 0x636c6b5f636d70L; // "clk_cmp"
+
+    private static final String RAW_RANGE = " FROM url_clicks WHERE clicked_at >= ? AND clicked_at < ?";
+
+    // Key expressions per dimension, unknown values roll up under 0; AnalyticsService groups raw clicks the same way
+    static final Map<ClickDailyStat.Dimension, String[]> KEYS = new LinkedHashMap<>();
+
+    static {
+        KEYS.put(ClickDailyStat.Dimension.TOTAL, new String[]{"0", "0"});
+        KEYS.put(ClickDailyStat.Dimension.HOUR, new String[]{"CAST(EXTRACT(HOUR FROM clicked_at) AS BIGINT)", "0"});
+        KEYS.put(ClickDailyStat.Dimension.COUNTRY, new String[]{"COALESCE(country_id, 0)", "0"});
+        KEYS.put(ClickDailyStat.Dimension.CITY, new String[]{"COALESCE(city_id, 0)", "COALESCE(country_id, 0)"});
+        KEYS.put(ClickDailyStat.Dimension.DEVICE_TYPE, new String[]{"COALESCE(device_type_id, 0)", "0"});
+        KEYS.put(ClickDailyStat.Dimension.BROWSER, new String[]{"COALESCE(browser_id, 0)", "0"});
+        KEYS.put(ClickDailyStat.Dimension.OPERATING_SYSTEM, new String[]{"COALESCE(operating_system_id, 0)", "0"});
+        KEYS.put(ClickDailyStat.Dimension.REFERRER, new String[]{"COALESCE(referrer_id, 0)", "0"});
+    }
+
+    // The keys worth grouping on: constants are left out, PostgreSQL reads GROUP BY 0 as a column position
+    static List<String> groupKeys(String[] keys) {
+        return Stream.of(keys).filter(key -> !"0".equals(key)).toList();
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final ClickCompactionRepository clickCompactionRepository;
+    private final ClickArchiveService clickArchiveService;
+    private final ShardResolver shardResolver;
+
+    @Value("${clicks.compaction.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clicks.raw-retention-days:90}")
+    private int rawRetentionDays;
+
+    @Value("${clicks.compaction.delete-chunk-size:10000}")
+    private int deleteChunkSize;
+
+    private volatile boolean active;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+        if (!"PostgreSQL".equals(product)) {
+            log.info("Click compaction needs PostgreSQL, {} found; raw clicks are kept", product);
+            return;
+        }
+        active = true;
+    }
+
+    /**
+     * First day whose clicks are still read from url_clicks on the current
+     * shard; earlier days come from the rollups. Null when nothing has been
+     * compacted yet.
+     */
+    public LocalDate compactedUntil() {
+        LocalDate last = clickCompactionRepository.findLastCompactedDay();
+        return last == null ? null : last.plusDays(1);
+    }
+
+    @Scheduled(cron = "${clicks.compaction.cron:0 45 3 * * *}")
+    public void compact() {
+        if (!active) {
+            return;
+        }
+        shardResolver.forEachShard(this::compactShard);
+    }
+
+    private void compactShard(int shard) {
+        // Shared with other compactions, a move holds it exclusively; released explicitly, the connection is pooled
+        try (Connection lock = Objects.requireNonNull(shardResolver.jdbc(shard).getDataSource()).getConnection();
+             Statement statement = lock.createStatement()) {
+            if (!tryMoveLock(statement)) {
+                log.info("Shard {} is moving links, compaction postponed", shard);
+                return;
+            }
+            try {
+                compactDays();
+            } finally {
+                statement.execute("SELECT pg_advisory_unlock_shared(" + ShardMigrationService.MOVE_LOCK_KEY + ")");
+            }
+        } catch (SQLException e) {
+            log.error("Click compaction of shard {} could not start", shard, e);
+        }
+    }
+
+    private static boolean tryMoveLock(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(
+                "SELECT pg_try_advisory_lock_shared(" + ShardMigrationService.MOVE_LOCK_KEY + ")")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private void compactDays() {
+        try {
+            // Days aggregated by an interrupted run
+            for (LocalDate day : jdbcTemplate.queryForList(
+                    "SELECT day FROM click_compactions WHERE status = 'AGGREGATED' ORDER BY day", LocalDate.class)) {
+                deleteRaw(day);
+            }
+
+            LocalDate cutoff = LocalDate.now().minusDays(rawRetentionDays);
+            if (clickArchiveService.isEnabled()) {
+                // Archives are per month, so only whole months leave the raw table
+                cutoff = YearMonth.from(cutoff).atDay(1);
+            }
+            LocalDate day;
+            while ((day = nextDay()) != null && day.isBefore(cutoff)) {
+                if (hasPendingEnrichment(day)) {
+                    log.info("Clicks of {} are still waiting for enrichment, compaction postponed", day);
+                    break;
+                }
+                if (clickArchiveService.isEnabled()) {
+                    clickArchiveService.archive(YearMonth.from(day));
+                }
+                if (aggregate(day)) {
+                    deleteRaw(day);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Click compaction failed, will resume from the last checkpoint", e);
+        }
+    }
+
+    // Oldest day with raw clicks after the last checkpoint
+    private LocalDate nextDay() {
+        LocalDate from = compactedUntil();
+        Timestamp first = from == null
+                ? jdbcTemplate.queryForObject("SELECT MIN(clicked_at) FROM url_clicks", Timestamp.class)
+                : jdbcTemplate.queryForObject("SELECT MIN(clicked_at) FROM url_clicks WHERE clicked_at >= ?",
+                        Timestamp.class, Timestamp.valueOf(from.atStartOfDay()));
+        return first == null ? null : first.toLocalDateTime().toLocalDate();
+    }
+
+    private boolean aggregate(LocalDate day) {
+        Timestamp start = Timestamp.valueOf(day.atStartOfDay());
+        Timestamp end = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+
+        Boolean done = new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+            LocalDate until = compactedUntil();
+            if (until != null && day.isBefore(until)) {
+                return false; // another instance got here first
+            }
+
+            Long raw = jdbcTemplate.queryForObject("SELECT COUNT(*)" + RAW_RANGE, Long.class, start, end);
+            for (Map.Entry<ClickDailyStat.Dimension, String[]> key : KEYS.entrySet()) {
+                String key1 = key.getValue()[0];
+                String key2 = key.getValue()[1];
+                jdbcTemplate.update(
+                        "INSERT INTO click_daily_stats (url_id, day, dimension, key1, key2, clicks) " +
+                        "SELECT url_id, ?, ?, " + key1 + ", " + key2 + ", COUNT(*)" + RAW_RANGE +
+                        " GROUP BY " + String.join(", ", Stream.concat(Stream.of("url_id"),
+                                groupKeys(key.getValue()).stream()).toList()),
+                        Date.valueOf(day), key.getKey().name(), start, end);
+            }
+
+            // Every dimension partitions the same clicks, so each must add up to the raw count
+            List<Map<String, Object>> sums = jdbcTemplate.queryForList(
+                    "SELECT dimension, SUM(clicks) AS clicks FROM click_daily_stats WHERE day = ? GROUP BY dimension",
+                    Date.valueOf(day));
+            for (Map<String, Object> sum : sums) {
+                long clicks = ((Number) sum.get("clicks")).longValue();
+                if (clicks != raw) {
+                    throw new IllegalStateException("Rollup of " + day + " for " + sum.get("dimension")
+                            + " has " + clicks + " clicks, raw data has " + raw);
+                }
+            }
+            if (raw > 0 && sums.size() != KEYS.size()) {
+                throw new IllegalStateException("Rollup of " + day + " is missing dimensions");
+            }
+
+            jdbcTemplate.update(
+                    "INSERT INTO click_compactions (day, status, raw_clicks, aggregated_at) VALUES (?, 'AGGREGATED', ?, ?)",
+                    Date.valueOf(day), raw, Timestamp.valueOf(LocalDateTime.now()));
+            log.info("Rolled up {} clicks of {}", raw, day);
+            return true;
+        });
+        return Boolean.TRUE.equals(done);
+    }
+
+    private void deleteRaw(LocalDate day) {
+        Timestamp start = Timestamp.valueOf(day.atStartOfDay());
+        Timestamp end = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+
+        long total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(
+                    "DELETE FROM url_clicks WHERE id IN (SELECT id" + RAW_RANGE + " LIMIT ?)", start, end, deleteChunkSize);
+            total += deleted;
+        } while (deleted > 0);
+
+        jdbcTemplate.update("UPDATE click_compactions SET status = 'COMPLETED', completed_at = ? WHERE day = ?",
+                Timestamp.valueOf(LocalDateTime.now()), Date.valueOf(day));
+        log.debug("Deleted {} raw clicks of {}", total, day);
+    }
+
+    private boolean hasPendingEnrichment(LocalDate day) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1" + RAW_RANGE + " AND pending_enrichment = TRUE)", Boolean.class,
+                Timestamp.valueOf(day.atStartOfDay()), Timestamp.valueOf(day.plusDays(1).atStartOfDay())));
+    }
+}
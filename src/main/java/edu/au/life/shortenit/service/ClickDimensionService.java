@@ -0,0 +1,250 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.config.ShardRouting;
+import edu.au.life.shortenit.dto.ClickView;
+import edu.au.life.shortenit.entity.ClickDimension;
+import edu.au.life.shortenit.entity.ClickText;
+import edu.au.life.shortenit.entity.UrlClick;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Dictionary encoding for click attributes.
+ *
+ * Country, city, device, browser and OS come from a few thousand distinct
+ * values at most, so the whole click_dimensions table is held in memory in
+ * both directions and url_clicks only stores the integer id. User agents and
+ * referrers are unbounded: they are deduplicated in click_texts by the SHA-256
+ * of the text, with a bounded direct-mapped cache in front for the hot ones.
+ *
+ * New values are inserted in the caller's transaction, if any, and only
+ * cached once it commits, so a rolled back insert never leaves an id behind
+ * in memory. Callers resolve the ids of a click before opening its
+ * transaction, which then only needs the one connection.
+ */
+@Service
+@Slf4j
+public class ClickDimensionService {
+
+    private static final int NAME_LENGTH = 100;
+    private static final int CONTENT_LENGTH = 500;
+    private static final int LOOKUP_CHUNK = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final Map<ClickDimension.Kind, Map<String, Integer>> ids = new EnumMap<>(ClickDimension.Kind.class);
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    private final AtomicReferenceArray<TextEntry> textCache;
+    private final int textCacheMask;
+
+    public ClickDimensionService(ShardResolver shardResolver,
+                                 @Value("${clicks.text-cache-size:8192}") int textCacheSize) {
+        // The dictionaries live on the home shard, whichever shard the caller works on
+        this.jdbcTemplate = shardResolver.home();
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        for (ClickDimension.Kind kind : ClickDimension.Kind.values()) {
+            ids.put(kind, new ConcurrentHashMap<>());
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(16, textCacheSize - 1)) << 1;
+        this.textCache = new AtomicReferenceArray<>(capacity);
+        this.textCacheMask = capacity - 1;
+    }
+
+    // ==================== Low-cardinality dimensions ====================
+
+    /**
+     * Id for the value, creating the dictionary entry on first sight; null for blank values
+     */
+    public Integer idFor(ClickDimension.Kind kind, String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        ensureLoaded();
+        String name = truncate(value, NAME_LENGTH);
+        Integer id = ids.get(kind).get(name);
+        if (id != null) {
+            return id;
+        }
+
+        Integer created = ShardRouting.on(ShardRouting.HOME, () -> {
+            jdbcTemplate.update("INSERT INTO click_dimensions (kind, name) VALUES (?, ?) ON CONFLICT (kind, name) DO NOTHING",
+                    kind.name(), name);
+            return jdbcTemplate.queryForObject("SELECT id FROM click_dimensions WHERE kind = ? AND name = ?",
+                    Integer.class, kind.name(), name);
+        });
+        afterCommit(() -> remember(kind, created, name));
+        return created;
+    }
+
+    public String name(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        ensureLoaded();
+        String name = names.get(id);
+        if (name == null) {
+            // Added by another instance since we loaded
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "SELECT kind, name FROM click_dimensions WHERE id = ?", id);
+            if (!rows.isEmpty()) {
+                name = (String) rows.get(0).get("name");
+                remember(ClickDimension.Kind.valueOf((String) rows.get(0).get("kind")), id, name);
+            }
+        }
+        return name;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            jdbcTemplate.query("SELECT id, kind, name FROM click_dimensions", rs -> {
+                remember(ClickDimension.Kind.valueOf(rs.getString("kind")), rs.getInt("id"), rs.getString("name"));
+            });
+            log.info("Loaded {} click dimension values", names.size());
+            loaded = true;
+        }
+    }
+
+    private void remember(ClickDimension.Kind kind, Integer id, String name) {
+        ids.get(kind).put(name, id);
+        names.put(id, name);
+    }
+
+    // ==================== User agents and referrers ====================
+
+    /**
+     * Id of the deduplicated text, creating it on first sight; null for empty values
+     */
+    public Long textId(ClickText.Kind kind, String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        String content = truncate(value, CONTENT_LENGTH);
+
+        int hash = content.hashCode() * 31 + kind.ordinal();
+        int slot = (hash ^ (hash >>> 16)) & textCacheMask;
+        TextEntry entry = textCache.get(slot);
+        if (entry != null && entry.kind == kind && entry.content.equals(content)) {
+            return entry.id;
+        }
+
+        byte[] digest = sha256(content);
+        Long id = ShardRouting.on(ShardRouting.HOME, () -> {
+            List<Long> inserted = jdbcTemplate.queryForList(
+                    "INSERT INTO click_texts (kind, hash, content) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (kind, hash) DO NOTHING RETURNING id",
+                    Long.class, kind.name(), digest, content);
+            if (!inserted.isEmpty()) {
+                return inserted.get(0);
+            }
+            return jdbcTemplate.queryForObject("SELECT id FROM click_texts WHERE kind = ? AND hash = ?",
+                    Long.class, kind.name(), digest);
+        });
+        afterCommit(() -> textCache.set(slot, new TextEntry(kind, content, id)));
+        return id;
+    }
+
+    // Immediately outside a transaction
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Texts for the given ids, fetched in batches
+     */
+    public Map<Long, String> texts(Collection<Long> textIds) {
+        Map<Long, String> result = new HashMap<>();
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(textIds));
+        distinct.remove(null);
+        for (int from = 0; from < distinct.size(); from += LOOKUP_CHUNK) {
+            List<Long> chunk = distinct.subList(from, Math.min(from + LOOKUP_CHUNK, distinct.size()));
+            namedJdbcTemplate.query("SELECT id, content FROM click_texts WHERE id IN (:ids)",
+                    new MapSqlParameterSource("ids", chunk),
+                    rs -> {
+                        result.put(rs.getLong("id"), rs.getString("content"));
+                    });
+        }
+        return result;
+    }
+
+    // ==================== Decoding ====================
+
+    /**
+     * Clicks with every dictionary id resolved back to text, referrers in one batch
+     */
+    public List<ClickView> decode(List<UrlClick> clicks) {
+        Set<Long> referrerIds = new LinkedHashSet<>();
+        for (UrlClick click : clicks) {
+            if (click.getReferrerId() != null) {
+                referrerIds.add(click.getReferrerId());
+            }
+        }
+        Map<Long, String> referrers = referrerIds.isEmpty() ? Map.of() : texts(referrerIds);
+
+        List<ClickView> views = new ArrayList<>(clicks.size());
+        for (UrlClick click : clicks) {
+            views.add(new ClickView(
+                    click.getClickedAt(),
+                    name(click.getCountryId()),
+                    name(click.getCityId()),
+                    name(click.getDeviceTypeId()),
+                    name(click.getBrowserId()),
+                    name(click.getOperatingSystemId()),
+                    click.getReferrerId() == null ? null : referrers.get(click.getReferrerId())));
+        }
+        return views;
+    }
+
+    private static String truncate(String value, int length) {
+        return value.length() > length ? value.substring(0, length) : value;
+    }
+
+    static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record TextEntry(ClickText.Kind kind, String content, Long id) {
+    }
+}
@@ -0,0 +1,294 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.config.ShardRouting;
+import edu.au.life.shortenit.dto.GeoLocation;
+import edu.au.life.shortenit.dto.UserAgentInfo;
+import edu.au.life.shortenit.entity.ClickDimension;
+import edu.au.life.shortenit.exception.InvalidStateException;
+import edu.au.life.shortenit.util.UserAgentParser;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fills the geo and user agent dimensions of clicks after the fact.
+ *
+ * The redirect path only stores the raw facts (ip, user agent, referrer,
+ * time) and flags the row as pending. This worker picks pending rows up in
+ * batches, resolves every distinct ip and user agent of the batch once
+ * through {@link GeoLocationService} and {@link UserAgentParser}, and writes
+ * the results back with one batch update. A batch is claimed with
+ * FOR UPDATE SKIP LOCKED and written back in the same transaction, so
+ * instances work on different clicks. The worker runs on a thread of its
+ * own: draining a backlog must not hold up the other scheduled jobs.
+ *
+ * {@link #startReEnrichment()} runs the same stage over every stored click on
+ * a fork-join pool, split into pieces of a fixed number of stored clicks,
+ * for example after a GeoIP database update. Sharded, both run over every
+ * shard's clicks.
+ */
+@Service
+@Slf4j
+public class ClickEnrichmentService {
+
+    private static final String UPDATE_SQL =
+            "UPDATE url_clicks SET country_id = ?, city_id = ?, device_type_id = ?, browser_id = ?, " +
+            "operating_system_id = ?, pending_enrichment = FALSE WHERE id = ? AND clicked_at = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final GeoLocationService geoLocationService;
+    private final UserAgentParser userAgentParser;
+    private final ClickDimensionService clickDimensionService;
+    private final ShardResolver shardResolver;
+
+    private final int batchSize;
+    private final long intervalMillis;
+    private final int backfillRangeSize;
+    private final ScheduledExecutorService worker;
+    private final ForkJoinPool backfillPool;
+    private final AtomicBoolean backfillRunning = new AtomicBoolean();
+
+    private record RawClick(long id, Timestamp clickedAt, byte[] ip, Long userAgentId) {
+    }
+
+    public ClickEnrichmentService(JdbcTemplate jdbcTemplate,
+                                  GeoLocationService geoLocationService,
+                                  UserAgentParser userAgentParser,
+                                  ClickDimensionService clickDimensionService,
+                                  ShardResolver shardResolver,
+                                  @Value("${clicks.enrichment.batch-size:1000}") int batchSize,
+                                  @Value("${clicks.enrichment.interval-ms:1000}") long intervalMillis,
+                                  @Value("${clicks.enrichment.backfill-range-size:20000}") int backfillRangeSize,
+                                  @Value("${clicks.enrichment.backfill-parallelism:4}") int backfillParallelism) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.geoLocationService = geoLocationService;
+        this.userAgentParser = userAgentParser;
+        this.clickDimensionService = clickDimensionService;
+        this.shardResolver = shardResolver;
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+        this.backfillRangeSize = backfillRangeSize;
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "click-enrichment");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.backfillPool = new ForkJoinPool(backfillParallelism);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        worker.scheduleWithFixedDelay(this::enrichPending, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+        backfillPool.shutdownNow();
+    }
+
+    public void enrichPending() {
+        shardResolver.forEachShard(shard -> {
+            try {
+                int claimed;
+                do {
+                    claimed = shardResolver.transaction(shard, false, this::enrichClaimed);
+                } while (claimed == batchSize);
+            } catch (Exception e) {
+                log.error("Click enrichment failed on shard {}, will retry", shard, e);
+            }
+        });
+    }
+
+    // Pending clicks no other instance is working on, locked until they are written back
+    private int enrichClaimed() {
+        List<RawClick> batch = jdbcTemplate.query(
+                "SELECT id, clicked_at, ip, user_agent_id FROM url_clicks " +
+                "WHERE pending_enrichment = TRUE ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED",
+                (rs, rowNum) -> new RawClick(rs.getLong("id"), rs.getTimestamp("clicked_at"),
+                        rs.getBytes("ip"), (Long) rs.getObject("user_agent_id")),
+                batchSize);
+        enrich(batch);
+        return batch.size();
+    }
+
+    /**
+     * Re-enriches every stored click in the background
+     */
+    public void startReEnrichment() {
+        if (!backfillRunning.compareAndSet(false, true)) {
+            throw new InvalidStateException("Click re-enrichment is already running");
+        }
+
+        List<EnrichRange> ranges = new ArrayList<>();
+        shardResolver.forEachShard(shard -> {
+            List<Long> bounds = rangeBounds();
+            if (!bounds.isEmpty()) {
+                log.info("Re-enriching clicks of shard {} in {} ranges with parallelism {}",
+                        shard, bounds.size() - 1, backfillPool.getParallelism());
+                ranges.add(new EnrichRange(shard, bounds, 0, bounds.size() - 1));
+            }
+        });
+        if (ranges.isEmpty()) {
+            backfillRunning.set(false);
+            return;
+        }
+
+        backfillPool.execute(() -> {
+            long started = System.currentTimeMillis();
+            try {
+                long rows = 0;
+                for (EnrichRange range : ranges) {
+                    rows += backfillPool.invoke(range);
+                }
+                log.info("Re-enriched {} clicks in {} ms", rows, System.currentTimeMillis() - started);
+            } catch (Exception e) {
+                log.error("Click re-enrichment failed", e);
+            } finally {
+                backfillRunning.set(false);
+            }
+        });
+    }
+
+    public boolean isReEnrichmentRunning() {
+        return backfillRunning.get();
+    }
+
+    /*
+     * Ids of the current shard that cut its clicks into pieces of
+     * backfillRangeSize rows, ending one past the last id. Cut on stored rows
+     * rather than on MIN(id)..MAX(id): clicks keep their ids when their link
+     * moves, so a shard may hold ids from far apart id blocks.
+     */
+    private List<Long> rangeBounds() {
+        List<Long> bounds = new ArrayList<>();
+        Long bound = jdbcTemplate.queryForObject("SELECT MIN(id) FROM url_clicks", Long.class);
+        while (bound != null) {
+            bounds.add(bound);
+            bound = jdbcTemplate.query("SELECT id FROM url_clicks WHERE id >= ? ORDER BY id OFFSET ? LIMIT 1",
+                    (rs, rowNum) -> rs.getLong(1), bound, backfillRangeSize).stream().findFirst().orElse(null);
+        }
+        if (!bounds.isEmpty()) {
+            bounds.add(jdbcTemplate.queryForObject("SELECT MAX(id) FROM url_clicks", Long.class) + 1);
+        }
+        return bounds;
+    }
+
+    // The pieces between bounds[first] and bounds[last], split in halves down to single pieces
+    private class EnrichRange extends RecursiveTask<Long> {
+        private final int shard;
+        private final List<Long> bounds;
+        private final int first;
+        private final int last;
+
+        EnrichRange(int shard, List<Long> bounds, int first, int last) {
+            this.shard = shard;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected Long compute() {
+            if (last - first > 1) {
+                int middle = (first + last) >>> 1;
+                EnrichRange left = new EnrichRange(shard, bounds, first, middle);
+                left.fork();
+                long right = new EnrichRange(shard, bounds, middle, last).compute();
+                return left.join() + right;
+            }
+            return ShardRouting.on(shard, this::enrichRange);
+        }
+
+        private long enrichRange() {
+            long rows = 0;
+            long after = bounds.get(first) - 1;
+            long to = bounds.get(last);
+            List<RawClick> batch;
+            do {
+                batch = jdbcTemplate.query(
+                        "SELECT id, clicked_at, ip, user_agent_id FROM url_clicks " +
+                        "WHERE id > ? AND id < ? ORDER BY id LIMIT ?",
+                        (rs, rowNum) -> new RawClick(rs.getLong("id"), rs.getTimestamp("clicked_at"),
+                                rs.getBytes("ip"), (Long) rs.getObject("user_agent_id")),
+                        after, to, batchSize);
+                enrich(batch);
+                rows += batch.size();
+                if (!batch.isEmpty()) {
+                    after = batch.get(batch.size() - 1).id();
+                }
+            } while (batch.size() == batchSize);
+            return rows;
+        }
+    }
+
+    private void enrich(List<RawClick> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Each distinct ip and user agent is resolved once per batch
+        Map<ByteBuffer, GeoLocation> locations = new HashMap<>();
+        Map<Long, UserAgentInfo> agents = new HashMap<>();
+        for (RawClick click : batch) {
+            if (click.ip() != null) {
+                locations.computeIfAbsent(ByteBuffer.wrap(click.ip()), ip -> geoLocationService.getLocation(format(click.ip())));
+            }
+            if (click.userAgentId() != null) {
+                agents.put(click.userAgentId(), null);
+            }
+        }
+        if (!agents.isEmpty()) {
+            clickDimensionService.texts(agents.keySet())
+                    .forEach((id, userAgent) -> agents.put(id, userAgentParser.parse(userAgent)));
+        }
+        UserAgentInfo none = userAgentParser.parse(null);
+
+        List<Object[]> updates = new ArrayList<>(batch.size());
+        for (RawClick click : batch) {
+            GeoLocation location = click.ip() == null ? GeoLocation.unknown() : locations.get(ByteBuffer.wrap(click.ip()));
+            UserAgentInfo agent = click.userAgentId() == null ? none : agents.get(click.userAgentId());
+            if (agent == null) {
+                agent = none;
+            }
+            updates.add(new Object[]{
+                    clickDimensionService.idFor(ClickDimension.Kind.COUNTRY, location.getCountry()),
+                    clickDimensionService.idFor(ClickDimension.Kind.CITY, location.getCity()),
+                    clickDimensionService.idFor(ClickDimension.Kind.DEVICE_TYPE, agent.getDeviceType()),
+                    clickDimensionService.idFor(ClickDimension.Kind.BROWSER, agent.getBrowser()),
+                    clickDimensionService.idFor(ClickDimension.Kind.OPERATING_SYSTEM, agent.getOperatingSystem()),
+                    click.id(),
+                    click.clickedAt()
+            });
+        }
+        jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+        log.debug("Enriched {} clicks ({} ips, {} user agents)", batch.size(), locations.size(), agents.size());
+    }
+
+    private static String format(byte[] ip) {
+        try {
+            return InetAddress.getByAddress(ip).getHostAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package edu.au.life.shortenit.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps url_clicks as a table range-partitioned by month on clicked_at
+ * (PostgreSQL only).
+ *
+ * The migrations convert the table and leave the clicks recorded before that
+ * in the partition url_clicks_legacy. On start and then daily this creates
+ * the coming months' partitions and, when retention is configured, detaches
+ * or drops partitions that have aged out, which is O(1) instead of a mass DELETE. Queries that filter on
+ * clicked_at only touch the matching partitions. Sharded, every shard's
+ * table is maintained the same way.
+ *
+ * Retention never takes clicks that only exist in the partition: a partition
+ * goes once {@link ClickCompactionService} has rolled up every day in it and,
+ * with the archive enabled, every month it still holds clicks of has its
+ * archive file.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ClickPartitionService {
+
+    public enum RetentionAction {DETACH, DROP}
+
+    private static final String TABLE = "url_clicks";
+    private static final long LOCK_KEY = 0x75726c5f636c6bL; // "url_clk"
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final Pattern BOUND = Pattern.compile(
+            "FROM \\((?:MINVALUE|'([^']+)')\\) TO \\((?:MAXVALUE|'([^']+)')\\)");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final ShardResolver shardResolver;
+    private final ClickCompactionService clickCompactionService;
+    private final ClickArchiveService clickArchiveService;
+
+    @Value("${clicks.partitioning.enabled:true}")
+    private boolean enabled;
+
+    @Value("${clicks.partitioning.months-ahead:3}")
+    private int monthsAhead;
+
+    // 0 keeps every partition
+    @Value("${clicks.retention.months:0}")
+    private int retentionMonths;
+
+    @Value("${clicks.retention.action:DETACH}")
+    private RetentionAction retentionAction;
+
+    private volatile boolean active;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+        if (!"PostgreSQL".equals(product)) {
+            log.info("Click partitioning needs PostgreSQL, {} found; leaving {} as is", product, TABLE);
+            return;
+        }
+
+        active = true;
+        maintain();
+    }
+
+    @Scheduled(cron = "${clicks.partitioning.cron:0 15 3 * * *}")
+    public void maintain() {
+        if (!active) {
+            return;
+        }
+        shardResolver.forEachShard(shard -> {
+            try {
+                new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                    jdbcTemplate.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+                    if (!isPartitioned()) {
+                        log.warn("{} on shard {} is not partitioned, run the migrations first", TABLE, shard);
+                        return;
+                    }
+                    createUpcomingPartitions();
+                    applyRetention();
+                });
+            } catch (Exception e) {
+                log.error("Click partition maintenance failed on shard {}", shard, e);
+            }
+        });
+    }
+
+    private boolean isPartitioned() {
+        List<String> kind = jdbcTemplate.queryForList(
+                "SELECT relkind::text FROM pg_class WHERE relname = ? AND relnamespace = current_schema()::regnamespace",
+                String.class, TABLE);
+        if (kind.isEmpty()) {
+            throw new IllegalStateException(TABLE + " does not exist yet");
+        }
+        return "p".equals(kind.get(0));
+    }
+
+    private void createUpcomingPartitions() {
+        List<Range> existing = partitions();
+        YearMonth month = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++, month = month.plusMonths(1)) {
+            LocalDateTime from = month.atDay(1).atStartOfDay();
+            LocalDateTime to = month.plusMonths(1).atDay(1).atStartOfDay();
+            if (existing.stream().anyMatch(range -> range.overlaps(from, to))) {
+                continue;
+            }
+
+            String name = TABLE + "_" + month.format(PARTITION_SUFFIX);
+            jdbcTemplate.execute("CREATE TABLE " + name + " PARTITION OF " + TABLE
+                    + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            log.info("Created click partition {}", name);
+        }
+    }
+
+    private void applyRetention() {
+        if (retentionMonths <= 0) {
+            return;
+        }
+        LocalDateTime cutoff = YearMonth.now().minusMonths(retentionMonths).atDay(1).atStartOfDay();
+        LocalDate compactedUntil = clickCompactionService.compactedUntil();
+        for (Range partition : partitions()) {
+            if (partition.to() == null || partition.to().isAfter(cutoff)) {
+                continue;
+            }
+            if (compactedUntil == null || partition.to().isAfter(compactedUntil.atStartOfDay())) {
+                log.warn("Click partition {} is past retention but not compacted yet, keeping it", partition.name());
+                continue;
+            }
+            List<YearMonth> unarchived = unarchivedMonths(partition);
+            if (!unarchived.isEmpty()) {
+                log.warn("Click partition {} is past retention but {} not archived yet, keeping it",
+                        partition.name(), unarchived);
+                continue;
+            }
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partition.name());
+            if (retentionAction == RetentionAction.DROP) {
+                jdbcTemplate.execute("DROP TABLE " + partition.name());
+                log.info("Dropped click partition {} (older than {} months)", partition.name(), retentionMonths);
+            } else {
+                log.info("Detached click partition {} (older than {} months)", partition.name(), retentionMonths);
+            }
+        }
+    }
+
+    // Months the partition still holds clicks of that have no archive file
+    private List<YearMonth> unarchivedMonths(Range partition) {
+        if (!clickArchiveService.isEnabled()) {
+            return List.of();
+        }
+        return jdbcTemplate.queryForList(
+                        "SELECT DISTINCT date_trunc('month', clicked_at) FROM " + partition.name(), Timestamp.class)
+                .stream()
+                .map(month -> YearMonth.from(month.toLocalDateTime()))
+                .filter(month -> !clickArchiveService.isArchived(month))
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * Current partitions with their bounds; null means MINVALUE / MAXVALUE
+     */
+    public List<Range> partitions() {
+        List<Range> ranges = new ArrayList<>();
+        jdbcTemplate.query(
+                "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent " +
+                "WHERE p.relname = ? AND p.relnamespace = current_schema()::regnamespace",
+                rs -> {
+                    Matcher matcher = BOUND.matcher(rs.getString("bound"));
+                    if (matcher.find()) {
+                        ranges.add(new Range(rs.getString("relname"), parse(matcher.group(1)), parse(matcher.group(2))));
+                    }
+                }, TABLE);
+        return ranges;
+    }
+
+    private static LocalDateTime parse(String bound) {
+        return bound == null ? null : Timestamp.valueOf(bound).toLocalDateTime();
+    }
+
+    public record Range(String name, LocalDateTime from, LocalDateTime to) {
+
+        boolean overlaps(LocalDateTime start, LocalDateTime end) {
+            return (from == null || from.isBefore(end)) && (to == null || to.isAfter(start));
+        }
+    }
+}
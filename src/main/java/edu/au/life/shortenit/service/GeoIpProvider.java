@@ -0,0 +1,17 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.dto.GeoLocation;
+
+/**
+ * A source of IP geolocation. Providers are consulted in @Order order by
+ * GeoLocationService until one of them can place the address.
+ *
+ * Implementations are called on the click path and must not block on I/O.
+ */
+public interface GeoIpProvider {
+
+    /**
+     * @return the location, or null / unknown when this provider cannot place the address
+     */
+    GeoLocation getLocation(String ipAddress);
+}
@@ -0,0 +1,25 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.dto.GeoLocation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Service
+@RequiredArgsConstructor
+public class GeoLocationService {
+
+    // Injected in @Order order, LocalGeoIpService first
+    private final List<GeoIpProvider> providers;
+
+    public GeoLocation getLocation(String ipAddress) {
+        for (GeoIpProvider provider : providers) {
+            GeoLocation location = provider.getLocation(ipAddress);
+            if (location != null && !location.isUnknown()) {
+                return location;
+            }
+        }
+        return GeoLocation.unknown();
+    }
+}
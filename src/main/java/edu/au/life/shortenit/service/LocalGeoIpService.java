@@ -1,42 +1,100 @@
 package edu.au.life.shortenit.service;
 
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
 import edu.au.life.shortenit.dto.GeoLocation;
+import edu.au.life.shortenit.util.CidrRangeSet;
+import edu.au.life.shortenit.util.IpLiteralParser;
+import edu.au.life.shortenit.util.IpLocationCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @Slf4j
+@Order(0)
 @RequiredArgsConstructor
-public class LocalGeoIpService {
-    private DatabaseReader databaseReader;
+public class LocalGeoIpService implements GeoIpProvider {
+    private final AtomicReference<DatabaseReader> databaseReader = new AtomicReference<>();
+
+    // Reader replaced by the last reload, closed on the next check so in-flight lookups can finish
+    private volatile DatabaseReader retiredReader;
+
+    private File databaseFile;
+    private long loadedLastModified;
 
     @Value("${geoip.database.path}")
     private String databasePath;
 
+    @Value("${geoip.database.node-cache-size:4096}")
+    private int nodeCacheSize;
+
+    @Value("${geoip.cache.size:65536}")
+    private int cacheSize;
+
+    @Value("${geoip.cache.ttl-minutes:60}")
+    private long cacheTtlMinutes;
+
+    // Bumped on every database reload, cached results from older generations are ignored
+    private final AtomicLong databaseGeneration = new AtomicLong();
+    private IpLocationCache locationCache;
+
     private final ResourceLoader resourceLoader;
+    private final MeterRegistry meterRegistry;
 
     @PostConstruct
     public void init() {
+        locationCache = new IpLocationCache(cacheSize, TimeUnit.MINUTES.toNanos(cacheTtlMinutes));
+        Gauge.builder("geoip.cache.hit.ratio", locationCache, IpLocationCache::hitRatio)
+                .description("Share of GeoIP lookups answered from the IP location cache")
+                .register(meterRegistry);
+        FunctionCounter.builder("geoip.cache.requests", locationCache, IpLocationCache::hitCount)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("geoip.cache.requests", locationCache, IpLocationCache::missCount)
+                .tag("result", "miss")
+                .register(meterRegistry);
+
         try {
             log.info("Loading GeoIP database from : {}", databasePath);
             Resource resource = resourceLoader.getResource(databasePath);
-            InputStream inputStream = resource.getInputStream();
 
-            // Create database reader
-            databaseReader = new DatabaseReader.Builder(inputStream).build();
+            if (resource.isFile()) {
+                // Memory-mapped: the OS pages the file in, nothing is copied onto the heap
+                databaseFile = resource.getFile();
+                loadedLastModified = databaseFile.lastModified();
+                databaseReader.set(openDatabase(databaseFile));
+                log.info("GeoIP database memory-mapped from {}, hot reload enabled", databaseFile.getAbsolutePath());
+            } else {
+                // Classpath resource inside a jar cannot be mapped, fall back to loading it into memory
+                try (InputStream inputStream = resource.getInputStream()) {
+                    databaseReader.set(new DatabaseReader.Builder(inputStream)
+                            .withCache(new CHMCache(nodeCacheSize))
+                            .build());
+                }
+                log.info("GeoIP database loaded into memory, hot reload disabled (not a file)");
+            }
 
             log.info("GeoIP database loaded successfully");
         } catch (IOException e) {
@@ -46,11 +104,61 @@ public class LocalGeoIpService {
         }
     }
 
+    private DatabaseReader openDatabase(File file) throws IOException {
+        return new DatabaseReader.Builder(file)
+                .fileMode(Reader.FileMode.MEMORY_MAPPED)
+                .withCache(new CHMCache(nodeCacheSize))
+                .build();
+    }
+
+    /**
+     * Swap in a new reader when the database file changes on disk.
+     * Updaters like geoipupdate write a temp file and rename it, so the old
+     * mapping stays valid until the retired reader is closed on the next run.
+     */
+    @Scheduled(fixedDelayString = "${geoip.database.reload-check-ms:60000}")
+    public void reloadIfChanged() {
+        closeRetiredReader();
+
+        if (databaseFile == null) {
+            return;
+        }
+
+        long lastModified = databaseFile.lastModified();
+        if (lastModified == 0L || lastModified == loadedLastModified) {
+            return;
+        }
+
+        try {
+            DatabaseReader newReader = openDatabase(databaseFile);
+            retiredReader = databaseReader.getAndSet(newReader);
+            databaseGeneration.incrementAndGet();
+            loadedLastModified = lastModified;
+            log.info("GeoIP database reloaded from {}", databaseFile.getAbsolutePath());
+        } catch (IOException e) {
+            log.warn("Failed to reload GeoIP database, keeping the current one. Error: {}", e.getMessage());
+        }
+    }
+
+    private void closeRetiredReader() {
+        DatabaseReader retired = retiredReader;
+        if (retired != null) {
+            retiredReader = null;
+            try {
+                retired.close();
+            } catch (IOException e) {
+                log.warn("Error closing retired GeoIP database", e);
+            }
+        }
+    }
+
     @PreDestroy
     public void cleanup() {
-        if (databaseReader != null) {
+        closeRetiredReader();
+        DatabaseReader reader = databaseReader.getAndSet(null);
+        if (reader != null) {
             try {
-                databaseReader.close();
+                reader.close();
                 log.info("GeoIP database closed successfully");
             } catch (IOException e) {
                 log.error("Error closing GeoIP database", e);
@@ -58,43 +166,63 @@ public class LocalGeoIpService {
         }
     }
 
+    @Override
     public GeoLocation getLocation(String ipAddress) {
         // handle null or empty ip
         if (ipAddress == null || ipAddress.trim().isEmpty()) {
             return new GeoLocation("Unknown", "Unknown");
         }
 
-        // handle localhost and private ips
-        if (isLocalOrPrivateIp(ipAddress)) {
+        // parse strictly, never let a non-literal reach a DNS lookup
+        byte[] address = IpLiteralParser.parse(ipAddress);
+        if (address == null) {
+            log.debug("Not an IP literal: {}", ipAddress);
+            return new GeoLocation("Unknown", "Unknown");
+        }
+
+        // handle localhost, private and reserved ranges
+        if (CidrRangeSet.PRIVATE_AND_RESERVED.contains(address)) {
             log.debug("Local or private IP detected: {} ", ipAddress);
             return new GeoLocation("Unknown", "Unknown");
         }
 
         // database not loaded
-        if (databaseReader == null) {
+        DatabaseReader reader = databaseReader.get();
+        if (reader == null) {
             log.debug("Database reader not initialized, returning Unknown");
             return new GeoLocation("Unknown", "Unknown");
         }
 
         try {
-            // convert ip string to InetAddress
-            InetAddress inetAddress = InetAddress.getByName(ipAddress);
+            long generation = databaseGeneration.get();
 
-            // Query the database
-            CityResponse response = databaseReader.city(inetAddress);
-
-            String country = response.getCountry().getName();
-            String city = response.getCity().getName();
+            GeoLocation cached = locationCache.get(address, generation);
+            if (cached != null) {
+                return cached;
+            }
 
-            // Handle nulls
-            country = (country != null) ? country : "Unknown";
-            city = (city != null) ? city : "Unknown";
+            GeoLocation location;
+            try {
+                // Query the database, getByAddress does no resolution
+                CityResponse response = reader.city(InetAddress.getByAddress(address));
+
+                String country = response.getCountry().getName();
+                String city = response.getCity().getName();
+
+                // Handle nulls
+                country = (country != null) ? country : "Unknown";
+                city = (city != null) ? city : "Unknown";
+
+                log.debug("Resolved IP {} to: {} - {}", ipAddress, country, city);
+                location = new GeoLocation(country, city);
+            } catch (GeoIp2Exception e) {
+                // Not in the database, cache that too so we don't walk the tree again
+                log.warn("IP address not found in database: {}", ipAddress);
+                location = new GeoLocation("Unknown", "Unknown");
+            }
 
-            log.debug("Resolved IP {} to: {} - {}", ipAddress, country, city);
-            return new GeoLocation(country, city);
-        } catch (GeoIp2Exception e) {
-            log.warn("IP address not found in database: {}", ipAddress);
-            return new GeoLocation("Unknown", "Unknown");
+            locationCache.put(address, location, generation);
+            return location;
         } catch (IOException e) {
             log.error("Error querying GeoIP database for IP: {}", ipAddress, e);
             return new GeoLocation("Unknown", "Unknown");
@@ -103,30 +231,4 @@ public class LocalGeoIpService {
             return new GeoLocation("Unknown", "Unknown");
         }
     }
-
-    private boolean isLocalOrPrivateIp(String ip) {
-        return ip.equals("127.0.0.1")
-                || ip.equals("::1")
-                || ip.equals("0:0:0:0:0:0:0:1")
-                || ip.startsWith("192.168.")
-                || ip.startsWith("10.")
-                || ip.startsWith("172.16.")
-                || ip.startsWith("172.17.")
-                || ip.startsWith("172.18.")
-                || ip.startsWith("172.19.")
-                || ip.startsWith("172.20.")
-                || ip.startsWith("172.21.")
-                || ip.startsWith("172.22.")
-                || ip.startsWith("172.23.")
-                || ip.startsWith("172.24.")
-                || ip.startsWith("172.25.")
-                || ip.startsWith("172.26.")
-                || ip.startsWith("172.27.")
-                || ip.startsWith("172.28.")
-                || ip.startsWith("172.29.")
-                || ip.startsWith("172.30.")
-                || ip.startsWith("172.31.");
-    }
-
-
 }
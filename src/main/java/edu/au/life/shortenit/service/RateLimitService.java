@@ -0,0 +1,61 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.config.RateLimitConfig;
+import edu.au.life.shortenit.util.TokenBucket;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class RateLimitService {
+
+    private final RateLimitConfig rateLimitConfig;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return rateLimitConfig.isEnabled();
+    }
+
+    /**
+     * First policy whose path pattern matches, or null when the path is not limited
+     */
+    public RateLimitConfig.Policy findPolicy(String path) {
+        for (RateLimitConfig.Policy policy : rateLimitConfig.getPolicies()) {
+            if (pathMatcher.match(policy.getPath(), path)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    public TokenBucket.Probe tryConsume(RateLimitConfig.Policy policy, String key) {
+        long now = System.nanoTime();
+        TokenBucket bucket = buckets.computeIfAbsent(policy.getPath() + "|" + key,
+                k -> new TokenBucket(policy.getCapacity(), policy.getRefillTokens(), policy.getRefillPeriod(), now));
+        return bucket.tryConsume(now);
+    }
+
+    /**
+     * Drop buckets that have refilled completely and were not used recently,
+     * so one-off clients do not keep memory forever
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        long idleNanos = rateLimitConfig.getIdleTimeout().toNanos();
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now, idleNanos));
+        int evicted = before - buckets.size();
+        if (evicted > 0) {
+            log.debug("Evicted {} idle rate limit buckets, {} remaining", evicted, buckets.size());
+        }
+    }
+}
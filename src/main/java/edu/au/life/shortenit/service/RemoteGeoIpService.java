@@ -0,0 +1,178 @@
+package edu.au.life.shortenit.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.au.life.shortenit.dto.GeoLocation;
+import edu.au.life.shortenit.util.CidrRangeSet;
+import edu.au.life.shortenit.util.CircuitBreaker;
+import edu.au.life.shortenit.util.IpLiteralParser;
+import edu.au.life.shortenit.util.IpLocationCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fallback geolocation through the ip-api.com batch endpoint, for addresses
+ * the local MaxMind database cannot place.
+ *
+ * Never called inline: a lookup answers from cache or returns null right away
+ * and queues the address. A background worker sends queued addresses in
+ * batches with a hard timeout, behind a circuit breaker, and caches the
+ * results (including misses) for later clicks.
+ */
+@Service
+@Slf4j
+@Order(100)
+@ConditionalOnProperty(name = "geoip.remote.enabled", havingValue = "true")
+public class RemoteGeoIpService implements GeoIpProvider {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${geoip.remote.url:http://ip-api.com/batch?fields=status,country,city,query}")
+    private String remoteUrl;
+
+    @Value("${geoip.remote.timeout-ms:2000}")
+    private long timeoutMs;
+
+    @Value("${geoip.remote.batch-size:100}")
+    private int batchSize;
+
+    @Value("${geoip.remote.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${geoip.remote.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${geoip.remote.cache-size:16384}")
+    private int cacheSize;
+
+    @Value("${geoip.remote.cache-ttl-minutes:1440}")
+    private long cacheTtlMinutes;
+
+    @Value("${geoip.remote.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${geoip.remote.open-duration-ms:60000}")
+    private long openDurationMs;
+
+    private HttpClient httpClient;
+    private IpLocationCache cache;
+    private CircuitBreaker circuitBreaker;
+    private BlockingQueue<String> pending;
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService worker;
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .build();
+        cache = new IpLocationCache(cacheSize, TimeUnit.MINUTES.toNanos(cacheTtlMinutes));
+        circuitBreaker = new CircuitBreaker(failureThreshold, openDurationMs);
+        pending = new LinkedBlockingQueue<>(queueCapacity);
+
+        // Own thread, so a slow remote never holds up the shared @Scheduled thread
+        worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "remote-geoip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        worker.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Remote GeoIP fallback enabled: {}", remoteUrl);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    @Override
+    public GeoLocation getLocation(String ipAddress) {
+        byte[] address = IpLiteralParser.parse(ipAddress);
+        if (address == null || CidrRangeSet.PRIVATE_AND_RESERVED.contains(address)) {
+            return null;
+        }
+
+        GeoLocation cached = cache.get(address, 0);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (!circuitBreaker.isOpen() && queued.add(ipAddress)) {
+            if (!pending.offer(ipAddress)) {
+                queued.remove(ipAddress);
+                log.debug("Remote GeoIP queue full, dropping {}", ipAddress);
+            }
+        }
+        return null;
+    }
+
+    void flush() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (!pending.isEmpty()) {
+            if (!circuitBreaker.allowRequest()) {
+                return;
+            }
+
+            batch.clear();
+            pending.drainTo(batch, batchSize);
+            try {
+                lookupBatch(batch);
+                circuitBreaker.recordSuccess();
+            } catch (Exception e) {
+                circuitBreaker.recordFailure();
+                log.warn("Remote GeoIP lookup of {} addresses failed: {}", batch.size(), e.getMessage());
+            } finally {
+                batch.forEach(queued::remove);
+            }
+        }
+    }
+
+    private void lookupBatch(List<String> batch) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(remoteUrl))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(batch)))
+                .build();
+
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("HTTP " + response.statusCode());
+        }
+
+        for (JsonNode node : objectMapper.readTree(response.body())) {
+            String ip = node.path("query").asText(null);
+            byte[] address = IpLiteralParser.parse(ip);
+            if (address == null) {
+                continue;
+            }
+
+            GeoLocation location = GeoLocation.unknown();
+            if ("success".equals(node.path("status").asText())) {
+                location = new GeoLocation(
+                        node.path("country").asText("Unknown"),
+                        node.path("city").asText("Unknown"));
+            }
+            cache.put(address, location, 0);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.exception.InvalidStateException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Moves links with their clicks and rollups between shards, for rebalancing
+ * whole bucket ranges or a single link whose code changed.
+ *
+ * A bucket range moves online, one source shard at a time:
+ * <ol>
+ *     <li>the source's links in the range are copied with their rollups and
+ *     every click up to a high-water mark, while the source keeps serving
+ *     them;</li>
+ *     <li>the buckets are routed to the target, and the move waits out the
+ *     grace period so every instance has reloaded the bucket map;</li>
+ *     <li>what the source took in meanwhile is copied: links created since,
+ *     clicks and rollups above the marks, counter increments and edits, and
+ *     clicks under the mark that committed after it was taken;</li>
+ *     <li>the rows are deleted from the source.</li>
+ * </ol>
+ * Rows keep their ids, so cached entities stay valid. Both shards must have
+ * compacted up to the same day, or moved raw clicks could fall behind the
+ * target's compaction point; a move refuses to start otherwise, and holds
+ * {@link #MOVE_LOCK_KEY} on both shards so no compaction runs there until
+ * it is done.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ShardMigrationService {
+
+    public enum MoveState {RUNNING, COMPLETED, FAILED}
+
+    // Held exclusively by a move on its shards, shared by compaction; see ClickCompactionService
+    public static final long MOVE_LOCK_KEY = 0x7368645f6d6f76L; // "shd_mov"
+
+    private static final String URL_COLUMNS = "id, user_id, code, code_type, original_url, original_url_hash, title, " +
+            "click_count, bot_click_count, is_active, created_at, expires_at, deleted_at";
+    private static final String STAT_COLUMNS = "id, url_id, day, dimension, key1, key2, clicks";
+    private static final String CLICK_COLUMNS = "id, url_id, clicked_at, ip, user_agent_id, referrer_id, country_id, " +
+            "city_id, device_type_id, browser_id, operating_system_id, pending_enrichment";
+
+    // Positions in URL_COLUMNS
+    private static final int USER_ID = 1;
+    private static final int CODE = 2;
+    private static final int CLICK_COUNT = 7;
+    private static final int BOT_CLICK_COUNT = 8;
+
+    private final ShardResolver shardResolver;
+
+    @Value("${datasource.shards.move.scan-batch-size:5000}")
+    private int scanBatchSize;
+
+    @Value("${datasource.shards.move.url-chunk-size:500}")
+    private int urlChunkSize;
+
+    @Value("${datasource.shards.move.copy-batch-size:1000}")
+    private int copyBatchSize;
+
+    // Longer than datasource.shards.refresh-interval, so no instance still routes to the source
+    @Value("${datasource.shards.move.grace-ms:30000}")
+    private long graceMillis;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile MoveStatus lastMove;
+    private ExecutorService mover;
+
+    public record MoveStatus(int fromBucket, int toBucket, int shard, MoveState state, long movedLinks,
+                             LocalDateTime startedAt, LocalDateTime finishedAt, String error) {
+    }
+
+    public record ShardSummary(int shard, int buckets, long links) {
+    }
+
+    // Counters and editable columns of a link as copied, to carry later changes over
+    private record Snapshot(long clicks, long botClicks, List<Object> fields) {
+    }
+
+    @PostConstruct
+    public void init() {
+        mover = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-move");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        mover.shutdownNow();
+    }
+
+    public List<ShardSummary> getShards() {
+        int[] routed = shardResolver.bucketShards();
+        List<ShardSummary> shards = new ArrayList<>();
+        for (int shard = 0; shard < shardResolver.shardCount(); shard++) {
+            int target = shard;
+            int buckets = (int) Arrays.stream(routed).filter(routedTo -> routedTo == target).count();
+            Long links = shardResolver.jdbc(shard).queryForObject(
+                    "SELECT COUNT(*) FROM urls WHERE deleted_at IS NULL", Long.class);
+            shards.add(new ShardSummary(shard, buckets, links == null ? 0 : links));
+        }
+        return shards;
+    }
+
+    public MoveStatus getLastMove() {
+        return lastMove;
+    }
+
+    /**
+     * Moves the buckets from..to (inclusive) to the shard in the background
+     */
+    public MoveStatus startMove(int fromBucket, int toBucket, int shard) {
+        if (!shardResolver.isSharded()) {
+            throw new InvalidStateException("Sharding is not configured");
+        }
+        if (fromBucket < 0 || toBucket >= ShardResolver.BUCKETS || fromBucket > toBucket) {
+            throw new InvalidStateException("Buckets must be a range within 0.." + (ShardResolver.BUCKETS - 1));
+        }
+        if (shard < 0 || shard >= shardResolver.shardCount()) {
+            throw new InvalidStateException("Shard " + shard + " does not exist");
+        }
+        int[] routed = shardResolver.bucketShards();
+        Arrays.stream(routed, fromBucket, toBucket + 1).distinct().filter(source -> source != shard)
+                .forEach(source -> requireSameCompaction(source, shard));
+        if (!running.compareAndSet(false, true)) {
+            throw new InvalidStateException("A shard move is already running");
+        }
+
+        LocalDateTime startedAt = LocalDateTime.now();
+        lastMove = new MoveStatus(fromBucket, toBucket, shard, MoveState.RUNNING, 0, startedAt, null, null);
+        mover.execute(() -> {
+            try {
+                long moved = move(fromBucket, toBucket, shard);
+                lastMove = new MoveStatus(fromBucket, toBucket, shard, MoveState.COMPLETED, moved,
+                        startedAt, LocalDateTime.now(), null);
+            } catch (Exception e) {
+                log.error("Moving buckets {}..{} to shard {} failed", fromBucket, toBucket, shard, e);
+                lastMove = new MoveStatus(fromBucket, toBucket, shard, MoveState.FAILED, 0,
+                        startedAt, LocalDateTime.now(), e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        });
+        return lastMove;
+    }
+
+    private long move(int fromBucket, int toBucket, int target) throws InterruptedException {
+        int[] routed = shardResolver.bucketShards();
+        Map<Integer, List<Integer>> bySource = new TreeMap<>();
+        for (int bucket = fromBucket; bucket <= toBucket; bucket++) {
+            if (routed[bucket] != target) {
+                bySource.computeIfAbsent(routed[bucket], source -> new ArrayList<>()).add(bucket);
+            }
+        }
+
+        long moved = 0;
+        for (Map.Entry<Integer, List<Integer>> source : bySource.entrySet()) {
+            moved += moveBuckets(source.getKey(), target, source.getValue());
+        }
+        return moved;
+    }
+
+    private long moveBuckets(int source, int target, List<Integer> buckets) throws InterruptedException {
+        try (Connection sourceLock = dataSource(source).getConnection();
+             Connection targetLock = dataSource(target).getConnection()) {
+            // Waits for running compactions; released explicitly, pooled connections outlive the move
+            advisory(sourceLock, "pg_advisory_lock");
+            try {
+                advisory(targetLock, "pg_advisory_lock");
+                try {
+                    return lockedMoveBuckets(source, target, buckets);
+                } finally {
+                    advisory(targetLock, "pg_advisory_unlock");
+                }
+            } finally {
+                advisory(sourceLock, "pg_advisory_unlock");
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not lock shards " + source + " and " + target, e);
+        }
+    }
+
+    private DataSource dataSource(int shard) {
+        return Objects.requireNonNull(shardResolver.jdbc(shard).getDataSource());
+    }
+
+    private static void advisory(Connection connection, String function) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT " + function + "(" + MOVE_LOCK_KEY + ")");
+        }
+    }
+
+    private long lockedMoveBuckets(int source, int target, List<Integer> buckets) throws InterruptedException {
+        JdbcTemplate from = shardResolver.jdbc(source);
+        JdbcTemplate to = shardResolver.jdbc(target);
+        Set<Integer> bucketSet = new HashSet<>(buckets);
+        // A compaction may have finished between the check at start and the locks
+        requireSameCompaction(source, target);
+        log.info("Moving {} buckets from shard {} to shard {}", buckets.size(), source, target);
+
+        long clickMark = maxId(from, "url_clicks");
+        long statMark = maxId(from, "click_daily_stats");
+        Map<Long, Snapshot> copied = new LinkedHashMap<>();
+        for (List<Long> chunk : chunks(scan(from, bucketSet))) {
+            copied.putAll(copy(from, to, target, chunk, clickMark));
+        }
+
+        // Route the buckets to the target and wait until every instance does
+        for (int[] run : runs(buckets)) {
+            shardResolver.assign(run[0], run[1], target);
+        }
+        Thread.sleep(graceMillis);
+
+        List<Long> fresh = new ArrayList<>();
+        for (Long id : scan(from, bucketSet)) {
+            if (!copied.containsKey(id)) {
+                fresh.add(id);
+            }
+        }
+        for (List<Long> chunk : chunks(fresh)) {
+            copy(from, to, target, chunk, Long.MAX_VALUE);
+        }
+        for (List<Long> chunk : chunks(new ArrayList<>(copied.keySet()))) {
+            catchUp(from, to, chunk, clickMark, statMark, copied);
+        }
+
+        List<Long> moved = new ArrayList<>(copied.keySet());
+        moved.addAll(fresh);
+        for (List<Long> chunk : chunks(moved)) {
+            delete(from, chunk);
+        }
+        log.info("Moved {} links from shard {} to shard {}", moved.size(), source, target);
+        return moved.size();
+    }
+
+    /**
+     * Moves one link to another shard right away, after its code changed to
+     * one the other shard serves
+     */
+    public void relocate(long urlId, int source, int target) {
+        JdbcTemplate from = shardResolver.jdbc(source);
+        copy(from, shardResolver.jdbc(target), target, List.of(urlId), Long.MAX_VALUE);
+        delete(from, List.of(urlId));
+    }
+
+    // Ids of the shard's links (deleted ones included) whose code is in the buckets
+    private List<Long> scan(JdbcTemplate shard, Set<Integer> buckets) {
+        List<Long> ids = new ArrayList<>();
+        long after = 0;
+        int rows;
+        do {
+            List<Object[]> batch = shard.query("SELECT id, code FROM urls WHERE id > ? ORDER BY id LIMIT ?",
+                    (rs, rowNum) -> new Object[]{rs.getLong("id"), rs.getString("code")}, after, scanBatchSize);
+            for (Object[] row : batch) {
+                if (buckets.contains(ShardResolver.bucketOf((String) row[1]))) {
+                    ids.add((Long) row[0]);
+                }
+                after = (Long) row[0];
+            }
+            rows = batch.size();
+        } while (rows == scanBatchSize);
+        return ids;
+    }
+
+    /**
+     * Copies the links with their rollups and clicks up to the mark in one
+     * target transaction, replacing what an earlier attempt left there
+     */
+    private Map<Long, Snapshot> copy(JdbcTemplate from, JdbcTemplate to, int target, List<Long> ids, long clickMark) {
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids).addValue("mark", clickMark);
+        List<Object[]> urls = rows(from, "SELECT " + URL_COLUMNS + " FROM urls WHERE id IN (:ids)", params);
+        shardResolver.mirrorUsers(target, urls.stream().map(row -> ((Number) row[USER_ID]).longValue()).toList());
+
+        inTransaction(to, () -> {
+            deleteRows(to, ids);
+            to.batchUpdate(insert("urls", URL_COLUMNS), urls);
+            stream(from, to, "click_daily_stats", STAT_COLUMNS, "url_id IN (:ids)", params);
+            stream(from, to, "url_clicks", CLICK_COLUMNS, "url_id IN (:ids) AND id <= :mark", params);
+        });
+
+        Map<Long, Snapshot> snapshots = new LinkedHashMap<>();
+        for (Object[] row : urls) {
+            snapshots.put(((Number) row[0]).longValue(), snapshot(row));
+        }
+        return snapshots;
+    }
+
+    private void catchUp(JdbcTemplate from, JdbcTemplate to, List<Long> ids, long clickMark, long statMark,
+                         Map<Long, Snapshot> copied) {
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids)
+                .addValue("mark", clickMark).addValue("statMark", statMark);
+        List<Object[]> urls = rows(from, "SELECT " + URL_COLUMNS + " FROM urls WHERE id IN (:ids)", params);
+
+        inTransaction(to, () -> {
+            Set<Long> present = new HashSet<>();
+            for (Object[] row : urls) {
+                long id = ((Number) row[0]).longValue();
+                present.add(id);
+                Snapshot before = copied.get(id);
+                Snapshot now = snapshot(row);
+                if (now.clicks() != before.clicks() || now.botClicks() != before.botClicks()) {
+                    to.update("UPDATE urls SET click_count = click_count + ?, bot_click_count = bot_click_count + ? " +
+                            "WHERE id = ?", now.clicks() - before.clicks(), now.botClicks() - before.botClicks(), id);
+                }
+                if (!now.fields().equals(before.fields())) {
+                    List<Object> args = new ArrayList<>(now.fields());
+                    args.add(id);
+                    to.update("UPDATE urls SET code = ?, title = ?, is_active = ?, expires_at = ?, deleted_at = ? " +
+                            "WHERE id = ?", args.toArray());
+                }
+            }
+            stream(from, to, "click_daily_stats", STAT_COLUMNS, "url_id IN (:ids) AND id > :statMark", params);
+            stream(from, to, "url_clicks", CLICK_COLUMNS, "url_id IN (:ids) AND id > :mark", params);
+            copyLateClicks(from, to, ids);
+
+            // Purged on the source in the meantime
+            List<Long> gone = ids.stream().filter(id -> !present.contains(id)).toList();
+            if (!gone.isEmpty()) {
+                deleteRows(to, gone);
+            }
+        });
+    }
+
+    /**
+     * Clicks with an id under the mark whose transaction committed after the
+     * mark was read: for each link whose click count differs between the
+     * shards, the source's clicks the target does not have
+     */
+    private void copyLateClicks(JdbcTemplate from, JdbcTemplate to, List<Long> ids) {
+        Map<Long, Long> sourceCounts = clickCounts(from, ids);
+        Map<Long, Long> targetCounts = clickCounts(to, ids);
+        for (Map.Entry<Long, Long> count : sourceCounts.entrySet()) {
+            long urlId = count.getKey();
+            if (count.getValue().equals(targetCounts.getOrDefault(urlId, 0L))) {
+                continue;
+            }
+            Set<Long> present = new HashSet<>(to.queryForList(
+                    "SELECT id FROM url_clicks WHERE url_id = ?", Long.class, urlId));
+            stream(from, to, "url_clicks", CLICK_COLUMNS, "url_id = :id",
+                    new MapSqlParameterSource("id", urlId),
+                    row -> !present.contains(((Number) row[0]).longValue()));
+        }
+    }
+
+    private static Map<Long, Long> clickCounts(JdbcTemplate shard, List<Long> ids) {
+        Map<Long, Long> counts = new HashMap<>();
+        new NamedParameterJdbcTemplate(shard).query(
+                "SELECT url_id, COUNT(*) AS clicks FROM url_clicks WHERE url_id IN (:ids) GROUP BY url_id",
+                Map.of("ids", ids), rs -> {
+                    counts.put(rs.getLong("url_id"), rs.getLong("clicks"));
+                });
+        return counts;
+    }
+
+    private void delete(JdbcTemplate shard, List<Long> ids) {
+        inTransaction(shard, () -> deleteRows(shard, ids));
+    }
+
+    private static void deleteRows(JdbcTemplate shard, List<Long> ids) {
+        NamedParameterJdbcTemplate named = new NamedParameterJdbcTemplate(shard);
+        Map<String, Object> params = Map.of("ids", ids);
+        named.update("DELETE FROM url_clicks WHERE url_id IN (:ids)", params);
+        named.update("DELETE FROM click_daily_stats WHERE url_id IN (:ids)", params);
+        named.update("DELETE FROM urls WHERE id IN (:ids)", params);
+    }
+
+    // Copies the selected rows in batches without holding them all in memory
+    private void stream(JdbcTemplate from, JdbcTemplate to, String table, String columns, String where,
+                        MapSqlParameterSource params) {
+        stream(from, to, table, columns, where, params, row -> true);
+    }
+
+    private void stream(JdbcTemplate from, JdbcTemplate to, String table, String columns, String where,
+                        MapSqlParameterSource params, Predicate<Object[]> filter) {
+        String insert = insert(table, columns);
+        int width = columns.split(",").length;
+        List<Object[]> batch = new ArrayList<>(copyBatchSize);
+        new NamedParameterJdbcTemplate(from).query("SELECT " + columns + " FROM " + table + " WHERE " + where, params,
+                rs -> {
+                    Object[] row = new Object[width];
+                    for (int i = 0; i < width; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    if (!filter.test(row)) {
+                        return;
+                    }
+                    batch.add(row);
+                    if (batch.size() == copyBatchSize) {
+                        to.batchUpdate(insert, batch);
+                        batch.clear();
+                    }
+                });
+        if (!batch.isEmpty()) {
+            to.batchUpdate(insert, batch);
+        }
+    }
+
+    private static List<Object[]> rows(JdbcTemplate shard, String sql, MapSqlParameterSource params) {
+        return new NamedParameterJdbcTemplate(shard).query(sql, params, (rs, rowNum) -> {
+            int width = rs.getMetaData().getColumnCount();
+            Object[] row = new Object[width];
+            for (int i = 0; i < width; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+            return row;
+        });
+    }
+
+    private static String insert(String table, String columns) {
+        String placeholders = Arrays.stream(columns.split(",")).map(column -> "?").collect(Collectors.joining(", "));
+        return "INSERT INTO " + table + " (" + columns + ") VALUES (" + placeholders + ")";
+    }
+
+    private static Snapshot snapshot(Object[] url) {
+        // code, title, is_active, expires_at, deleted_at
+        return new Snapshot(((Number) url[CLICK_COUNT]).longValue(), ((Number) url[BOT_CLICK_COUNT]).longValue(),
+                Arrays.asList(url[CODE], url[6], url[9], url[11], url[12]));
+    }
+
+    private static void inTransaction(JdbcTemplate shard, Runnable work) {
+        new TransactionTemplate(new DataSourceTransactionManager(Objects.requireNonNull(shard.getDataSource())))
+                .executeWithoutResult(status -> work.run());
+    }
+
+    private static long maxId(JdbcTemplate shard, String table) {
+        Long max = shard.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + table, Long.class);
+        return max == null ? 0 : max;
+    }
+
+    private void requireSameCompaction(int source, int target) {
+        String sql = "SELECT MAX(day) FROM click_compactions";
+        LocalDate sourceDay = shardResolver.jdbc(source).queryForObject(sql, LocalDate.class);
+        LocalDate targetDay = shardResolver.jdbc(target).queryForObject(sql, LocalDate.class);
+        if (!Objects.equals(sourceDay, targetDay)) {
+            throw new InvalidStateException("Shard " + source + " is compacted until " + sourceDay + ", shard "
+                    + target + " until " + targetDay + "; move after both have compacted");
+        }
+    }
+
+    private List<List<Long>> chunks(List<Long> ids) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += urlChunkSize) {
+            chunks.add(ids.subList(from, Math.min(from + urlChunkSize, ids.size())));
+        }
+        return chunks;
+    }
+
+    // Consecutive buckets as [first, last] ranges
+    private static List<int[]> runs(List<Integer> buckets) {
+        List<int[]> runs = new ArrayList<>();
+        for (int bucket : buckets) {
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[1] == bucket - 1) {
+                last[1] = bucket;
+            } else {
+                runs.add(new int[]{bucket, bucket});
+            }
+        }
+        return runs;
+    }
+}
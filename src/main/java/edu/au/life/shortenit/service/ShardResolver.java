@@ -0,0 +1,529 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.config.ShardRouting;
+import edu.au.life.shortenit.config.ShardRoutingDataSource;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.exception.InvalidSortException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Decides which shard holds a link and runs work there.
+ *
+ * A code hashes to one of {@link #BUCKETS} buckets and the bucket map says
+ * which shard serves it. Buckets are split evenly over the shards unless
+ * shard_buckets on the home shard says otherwise, which is how
+ * ShardMigrationService moves ranges; the map is reloaded periodically on a
+ * thread of its own so every instance follows a move, and links are not
+ * routed with a map older than a move's grace period.
+ *
+ * Without configured shards (see ShardConfig) everything runs on the one
+ * database in the caller's thread: {@link #transaction} joins a transaction
+ * already in progress and {@link #fanOut} calls its function once.
+ */
+@Service
+@Slf4j
+public class ShardResolver {
+
+    public static final int BUCKETS = 1024;
+
+    private static final String USER_COLUMNS = "id, email, microsoft_id, name, role, created_at, updated_at, deleted_at";
+
+    private final ShardRoutingDataSource shards;
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${datasource.shards.fan-out-threads:16}")
+    private int fanOutThreads;
+
+    @Value("${datasource.shards.refresh-interval:10000}")
+    private long refreshMillis;
+
+    // See ShardMigrationService: a move deletes the source rows this long after rerouting
+    @Value("${datasource.shards.move.grace-ms:30000}")
+    private long graceMillis;
+
+    private ExecutorService fanOutPool;
+    private ScheduledExecutorService refresher;
+    private volatile long refreshedAt;
+    private final JdbcTemplate[] shardJdbcTemplates;
+
+    private volatile int[] bucketShards;
+
+    // Users already copied to each shard, which their links reference
+    private final Map<Integer, Set<Long>> mirroredUsers = new ConcurrentHashMap<>();
+
+    public ShardResolver(DataSource dataSource, JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.shards = dataSource instanceof ShardRoutingDataSource routing ? routing : null;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionManager = transactionManager;
+        this.shardJdbcTemplates = new JdbcTemplate[shards == null ? 0 : shards.size()];
+        if (shards != null) {
+            for (int shard = 0; shard < shards.size(); shard++) {
+                shardJdbcTemplates[shard] = new JdbcTemplate(shards.shard(shard));
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!isSharded()) {
+            return;
+        }
+        if (graceMillis < 2 * refreshMillis) {
+            throw new IllegalStateException("datasource.shards.move.grace-ms (" + graceMillis + ") must be at least "
+                    + "twice datasource.shards.refresh-interval (" + refreshMillis + ")");
+        }
+        fanOutPool = Executors.newFixedThreadPool(Math.max(fanOutThreads, shards.size()), runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresh();
+
+        // A thread of its own, so busy scheduled jobs cannot hold back the reload a move waits for
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-map-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.warn("Reloading the bucket map failed: {}", e.getMessage());
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        log.info("Links are sharded over {} databases", shards.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (fanOutPool != null) {
+            fanOutPool.shutdownNow();
+        }
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    public boolean isSharded() {
+        return shards != null;
+    }
+
+    public int shardCount() {
+        return isSharded() ? shards.size() : 1;
+    }
+
+    public static int bucketOf(String code) {
+        CRC32 crc = new CRC32();
+        crc.update(code.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % BUCKETS);
+    }
+
+    public int shardOf(String code) {
+        return isSharded() ? currentMap()[bucketOf(code)] : ShardRouting.HOME;
+    }
+
+    /**
+     * The bucket map, unless it was last reloaded longer than a move's grace
+     * period ago: a move may have deleted the links it routes from their old
+     * shard by then, and writes routed there would be lost
+     */
+    private int[] currentMap() {
+        long age = System.nanoTime() - refreshedAt;
+        if (age > TimeUnit.MILLISECONDS.toNanos(graceMillis)) {
+            throw new IllegalStateException("The bucket map was last reloaded " + TimeUnit.NANOSECONDS.toSeconds(age)
+                    + "s ago, links are not routed until it is reloaded");
+        }
+        return bucketShards;
+    }
+
+    /**
+     * Bucket to shard, as currently routed
+     */
+    public int[] bucketShards() {
+        return isSharded() ? currentMap().clone() : new int[BUCKETS];
+    }
+
+    /**
+     * Routes the work to the code's shard without starting a transaction;
+     * every transaction the work starts runs there
+     */
+    public <T> T onShardOf(String code, Supplier<T> work) {
+        return ShardRouting.on(shardOf(code), work);
+    }
+
+    public <T> T transaction(String code, boolean readOnly, Supplier<T> work) {
+        return transaction(shardOf(code), readOnly, work);
+    }
+
+    public <T> T transaction(int shard, boolean readOnly, Supplier<T> work) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(readOnly);
+        return ShardRouting.on(shard, () -> template.execute(status -> work.get()));
+    }
+
+    /**
+     * Runs the function on every shard in parallel, each in a transaction of
+     * its own, and returns the results in shard order
+     */
+    public <T> List<T> fanOut(boolean readOnly, IntFunction<T> perShard) {
+        if (!isSharded()) {
+            return List.of(transaction(ShardRouting.HOME, readOnly, () -> perShard.apply(ShardRouting.HOME)));
+        }
+        List<Integer> all = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            all.add(shard);
+        }
+        return inParallel(all, readOnly, perShard);
+    }
+
+    private <T> List<T> inParallel(List<Integer> targets, boolean readOnly, IntFunction<T> perShard) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(targets.size());
+        for (int target : targets) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> transaction(target, readOnly, () -> perShard.apply(target)), fanOutPool));
+        }
+        try {
+            return futures.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A row and the shard it was read on
+     */
+    public record ShardRow<R>(int shard, R row) {
+    }
+
+    /**
+     * The page over every shard: each is asked for its first rows in a
+     * read-only transaction, the page is cut from their merge on the page's
+     * sort and only its rows are converted
+     */
+    public <R, T> Page<T> fanOutPage(Pageable pageable, Function<Pageable, Page<R>> query, Function<R, T> convert) {
+        if (!isSharded()) {
+            return transaction(ShardRouting.HOME, true, () -> query.apply(pageable)).map(convert);
+        }
+        Pageable shardPage = perShard(pageable);
+        return mergePages(fanOut(true, shard -> query.apply(shardPage)), pageable, comparator(pageable.getSort()))
+                .map(convert);
+    }
+
+    /**
+     * As {@link #fanOutPage}, for results that cost queries of their own:
+     * the page's rows are built on the shard they came from, see
+     * {@link #buildOnShards}. Rows are detached by then, so the query has to
+     * fetch whatever the build reads off them.
+     */
+    public <R, T> Page<T> fanOutAndBuildPage(Pageable pageable, Function<Pageable, Page<R>> query,
+                                             Function<List<R>, List<T>> build) {
+        if (!isSharded()) {
+            return transaction(ShardRouting.HOME, true, () -> {
+                Page<R> page = query.apply(pageable);
+                return new PageImpl<>(build.apply(page.getContent()), pageable, page.getTotalElements());
+            });
+        }
+        Pageable shardPage = perShard(pageable);
+        Page<ShardRow<R>> page = mergePages(
+                fanOut(true, shard -> query.apply(shardPage).map(row -> new ShardRow<>(shard, row))), pageable,
+                Comparator.comparing(ShardRow::row, comparator(pageable.getSort())));
+        return new PageImpl<>(buildOnShards(page.getContent(), build), pageable, page.getTotalElements());
+    }
+
+    /**
+     * Builds rows read on several shards: the rows of each shard in one
+     * read-only transaction there, the shards in parallel. The build returns
+     * one result per row, in order; the results keep the order of the rows.
+     */
+    public <R, T> List<T> buildOnShards(List<ShardRow<R>> rows, Function<List<R>, List<T>> build) {
+        Map<Integer, List<Integer>> positions = new TreeMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            positions.computeIfAbsent(rows.get(i).shard(), shard -> new ArrayList<>()).add(i);
+        }
+        IntFunction<List<T>> perShard = shard -> build.apply(
+                positions.get(shard).stream().map(i -> rows.get(i).row()).toList());
+        List<Integer> targets = new ArrayList<>(positions.keySet());
+        List<List<T>> built = isSharded()
+                ? inParallel(targets, true, perShard)
+                : targets.stream().map(shard -> transaction(shard, true, () -> perShard.apply(shard))).toList();
+
+        List<T> results = new ArrayList<>(Collections.nCopies(rows.size(), null));
+        for (int t = 0; t < targets.size(); t++) {
+            List<Integer> at = positions.get(targets.get(t));
+            for (int i = 0; i < at.size(); i++) {
+                results.set(at.get(i), built.get(t).get(i));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * What each shard is asked for so the merged result can serve the page:
+     * the first offset + size rows; the page itself when not sharded
+     */
+    public Pageable perShard(Pageable pageable) {
+        if (!isSharded() || pageable.getPageNumber() == 0) {
+            return pageable;
+        }
+        return PageRequest.of(0, (int) Math.min(Integer.MAX_VALUE, pageable.getOffset() + pageable.getPageSize()),
+                pageable.getSort());
+    }
+
+    /**
+     * The requested page out of every shard's first rows (see
+     * {@link #perShard}) in the given order; totals add up
+     */
+    private static <T> Page<T> mergePages(List<Page<T>> pages, Pageable pageable, Comparator<? super T> order) {
+        List<T> rows = new ArrayList<>();
+        long total = 0;
+        for (Page<T> page : pages) {
+            rows.addAll(page.getContent());
+            total += page.getTotalElements();
+        }
+        rows.sort(order);
+        int from = (int) Math.min(rows.size(), pageable.getOffset());
+        int to = Math.min(rows.size(), from + pageable.getPageSize());
+        return new PageImpl<>(new ArrayList<>(rows.subList(from, to)), pageable, total);
+    }
+
+    /**
+     * The first size rows out of every shard's first size rows in the given
+     * order; there are more when any shard had more or rows were left over
+     */
+    public static <T> Slice<T> mergeSlices(List<Slice<T>> slices, int size, Comparator<? super T> order) {
+        if (slices.size() == 1) {
+            return slices.get(0);
+        }
+        List<T> rows = new ArrayList<>();
+        boolean hasNext = false;
+        for (Slice<T> slice : slices) {
+            rows.addAll(slice.getContent());
+            hasNext |= slice.hasNext();
+        }
+        rows.sort(order);
+        hasNext |= rows.size() > size;
+        return new SliceImpl<>(new ArrayList<>(rows.subList(0, Math.min(size, rows.size()))),
+                PageRequest.of(0, size), hasNext);
+    }
+
+    // Sort properties read off the merged rows, which must have them
+    private static <T> Comparator<T> comparator(Sort sort) {
+        Comparator<T> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            Comparator<T> byProperty = Comparator.comparing(row -> property(row, order.getProperty()),
+                    Comparator.nullsLast(ShardResolver::compareValues));
+            comparator = comparator.thenComparing(order.isAscending() ? byProperty : byProperty.reversed());
+        }
+        return comparator;
+    }
+
+    private static Object property(Object row, String property) {
+        BeanWrapper wrapper = new BeanWrapperImpl(row);
+        if (!wrapper.isReadableProperty(property)) {
+            throw new InvalidSortException("Cannot sort by " + property);
+        }
+        return wrapper.getPropertyValue(property);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object a, Object b) {
+        return a instanceof Comparable comparable && a.getClass().isInstance(b) ? comparable.compareTo(b) : 0;
+    }
+
+    /**
+     * Runs a background job once per shard, one shard after the other; the
+     * job starts its own transactions
+     */
+    public void forEachShard(IntConsumer job) {
+        for (int shard = 0; shard < shardCount(); shard++) {
+            int target = shard;
+            ShardRouting.on(target, () -> {
+                job.accept(target);
+                return null;
+            });
+        }
+    }
+
+    public Map<Integer, List<String>> groupByShard(Collection<String> codes) {
+        Map<Integer, List<String>> byShard = new TreeMap<>();
+        for (String code : codes) {
+            byShard.computeIfAbsent(shardOf(code), shard -> new ArrayList<>()).add(code);
+        }
+        return byShard;
+    }
+
+    /**
+     * JDBC on the home shard, outside any transaction of the current thread
+     * when sharded, for the data every shard shares (code sequence,
+     * dictionaries)
+     */
+    public JdbcTemplate home() {
+        return isSharded() ? shardJdbcTemplates[ShardRouting.HOME] : jdbcTemplate;
+    }
+
+    /**
+     * JDBC on the given shard, in autocommit
+     */
+    public JdbcTemplate jdbc(int shard) {
+        return isSharded() ? shardJdbcTemplates[shard] : jdbcTemplate;
+    }
+
+    /**
+     * Copies the user to the shard, where its links refer to it; the home
+     * shard has the original
+     */
+    public void mirrorUser(int shard, User user) {
+        mirrorUsers(shard, List.of(user.getId()));
+    }
+
+    public void mirrorUsers(int shard, Collection<Long> userIds) {
+        if (shard == ShardRouting.HOME || !isSharded()) {
+            return;
+        }
+        Set<Long> mirrored = mirroredUsers.computeIfAbsent(shard, key -> ConcurrentHashMap.newKeySet());
+        List<Long> missing = userIds.stream().distinct().filter(id -> !mirrored.contains(id)).toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        NamedParameterJdbcTemplate shardJdbc = new NamedParameterJdbcTemplate(shardJdbcTemplates[shard]);
+        Set<Long> present = new HashSet<>(shardJdbc.queryForList(
+                "SELECT id FROM users WHERE id IN (:ids)", Map.of("ids", missing), Long.class));
+        List<Long> copy = missing.stream().filter(id -> !present.contains(id)).toList();
+        if (!copy.isEmpty()) {
+            List<Object[]> rows = new NamedParameterJdbcTemplate(home()).query(
+                    "SELECT " + USER_COLUMNS + " FROM users WHERE id IN (:ids)", Map.of("ids", copy),
+                    (rs, rowNum) -> new Object[]{rs.getObject(1), rs.getObject(2), rs.getObject(3), rs.getObject(4),
+                            rs.getObject(5), rs.getObject(6), rs.getObject(7), rs.getObject(8)});
+            shardJdbcTemplates[shard].batchUpdate(
+                    "INSERT INTO users (" + USER_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)", rows);
+        }
+        mirrored.addAll(missing);
+    }
+
+    /**
+     * Brings the user's copies on the other shards up to date after a change
+     * on the home shard, once the current transaction (if any) has committed
+     */
+    public void syncUser(User user) {
+        if (!isSharded()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    updateMirrors(user);
+                }
+            });
+            return;
+        }
+        updateMirrors(user);
+    }
+
+    private void updateMirrors(User user) {
+        for (int shard = 1; shard < shards.size(); shard++) {
+            updateMirror(shardJdbcTemplates[shard], user);
+        }
+    }
+
+    private static int updateMirror(JdbcTemplate shardJdbc, User user) {
+        return shardJdbc.update("UPDATE users SET email = ?, microsoft_id = ?, name = ?, role = ?, updated_at = ?, "
+                        + "deleted_at = ? WHERE id = ?",
+                user.getEmail(), user.getMicrosoftId(), user.getName(), user.getRole().name(),
+                timestamp(user.getUpdatedAt()), timestamp(user.getDeletedAt()), user.getId());
+    }
+
+    private static Timestamp timestamp(LocalDateTime value) {
+        return value == null ? null : Timestamp.valueOf(value);
+    }
+
+    /**
+     * Routes the buckets from..to (inclusive) to the shard, for every
+     * instance once they reload the map
+     */
+    public void assign(int fromBucket, int toBucket, int shard) {
+        JdbcTemplate home = home();
+        new TransactionTemplate(new DataSourceTransactionManager(shards.shard(ShardRouting.HOME))).executeWithoutResult(status -> {
+            home.update("DELETE FROM shard_buckets WHERE bucket BETWEEN ? AND ?", fromBucket, toBucket);
+            List<Object[]> rows = new ArrayList<>();
+            for (int bucket = fromBucket; bucket <= toBucket; bucket++) {
+                rows.add(new Object[]{bucket, shard});
+            }
+            home.batchUpdate("INSERT INTO shard_buckets (bucket, shard) VALUES (?, ?)", rows);
+        });
+        refresh();
+    }
+
+    public void refresh() {
+        if (!isSharded()) {
+            return;
+        }
+        int[] map = new int[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            map[bucket] = (int) ((long) bucket * shards.size() / BUCKETS);
+        }
+        home().query("SELECT bucket, shard FROM shard_buckets", rs -> {
+            int bucket = rs.getInt("bucket");
+            int shard = rs.getInt("shard");
+            if (bucket < 0 || bucket >= BUCKETS || shard < 0 || shard >= shards.size()) {
+                throw new IllegalStateException("shard_buckets routes bucket " + bucket + " to shard " + shard
+                        + ", but " + shards.size() + " shards are configured");
+            }
+            map[bucket] = shard;
+        });
+        bucketShards = map;
+        refreshedAt = System.nanoTime();
+    }
+}
@@ -0,0 +1,116 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.util.FeistelPermutation;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates AUTO short codes that are unique by construction.
+ *
+ * Each node leases blocks of BLOCK_SIZE ids from the url_code_seq sequence
+ * (created by the migrations, with BLOCK_SIZE as its increment) and
+ * hands them out from memory. Every id goes through a keyed bijective
+ * permutation and is written as a fixed-length base62 string, so two ids can
+ * never give the same code and codes cannot be enumerated without the secret.
+ *
+ * The secret comes from short-code.secret and nothing else: sharing it with
+ * another component would let a leak there expose the code order too. It
+ * should not change once codes have been issued, or new codes may collide
+ * with old ones; deployments that ran on the former fallback keep their
+ * jwt.secret value here. A code can still be taken already, by a custom
+ * alias or an imported link, so callers move on to the next code, at most
+ * {@link #MAX_ATTEMPTS} times.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ShortCodeAllocator {
+
+    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final int SHORT_CODE_LENGTH = 8;
+
+    public static final int MAX_ATTEMPTS = 5;
+    private static final long CODE_SPACE = pow(CHARACTERS.length(), SHORT_CODE_LENGTH);
+
+    // The sequence increment in V1.1, so it must not change
+    private static final int BLOCK_SIZE = 1000;
+
+    // The sequence lives on the home shard
+    private final ShardResolver shardResolver;
+
+    @Value("${short-code.secret:}")
+    private String secret;
+
+    private FeistelPermutation permutation;
+
+    private long nextId;
+    private long blockEnd;
+
+    @PostConstruct
+    public void init() {
+        if (secret.isBlank()) {
+            throw new IllegalStateException("short-code.secret must be set");
+        }
+        permutation = new FeistelPermutation(secret, CODE_SPACE);
+    }
+
+    public String nextCode() {
+        return encode(permutation.permute(nextId()));
+    }
+
+    /**
+     * Codes for a whole batch, taking the ids under a single lock
+     */
+    public List<String> nextCodes(int count) {
+        long[] ids = nextIds(count);
+        List<String> codes = new ArrayList<>(count);
+        for (long id : ids) {
+            codes.add(encode(permutation.permute(id)));
+        }
+        return codes;
+    }
+
+    private synchronized long[] nextIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    private synchronized long nextId() {
+        if (nextId >= blockEnd) {
+            Long blockStart = shardResolver.home().queryForObject("SELECT nextval('url_code_seq')", Long.class);
+            if (blockStart == null || blockStart + BLOCK_SIZE > CODE_SPACE) {
+                throw new IllegalStateException("Short code space exhausted");
+            }
+            nextId = blockStart;
+            blockEnd = blockStart + BLOCK_SIZE;
+            log.debug("Leased short code ids {} - {}", nextId, blockEnd - 1);
+        }
+        return nextId++;
+    }
+
+    private static String encode(long value) {
+        char[] code = new char[SHORT_CODE_LENGTH];
+        for (int i = SHORT_CODE_LENGTH - 1; i >= 0; i--) {
+            code[i] = CHARACTERS.charAt((int) (value % CHARACTERS.length()));
+            value /= CHARACTERS.length();
+        }
+        return new String(code);
+    }
+
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+}
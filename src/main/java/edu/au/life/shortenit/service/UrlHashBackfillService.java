@@ -0,0 +1,61 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.util.UrlFingerprint;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Fills original_url_hash for links created before the column existed, in
+ * small batches so it never holds long locks, on every shard. Stops
+ * checking once a pass finds nothing left.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class UrlHashBackfillService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardResolver shardResolver;
+
+    @Value("${url-hash.backfill-batch-size:1000}")
+    private int batchSize;
+
+    private volatile boolean done;
+
+    @Scheduled(initialDelay = 30000, fixedDelay = 60000)
+    public void backfill() {
+        if (done) {
+            return;
+        }
+
+        long[] total = {0};
+        shardResolver.forEachShard(shard -> total[0] += backfillShard());
+
+        if (total[0] > 0) {
+            log.info("Backfilled original_url_hash for {} links", total[0]);
+        }
+        done = true;
+    }
+
+    private long backfillShard() {
+        long total = 0;
+        List<Object[]> batch;
+        do {
+            batch = jdbcTemplate.query(
+                    "SELECT id, original_url FROM urls WHERE original_url_hash IS NULL LIMIT ?",
+                    (rs, rowNum) -> new Object[]{UrlFingerprint.of(rs.getString("original_url")), rs.getLong("id")},
+                    batchSize);
+            if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate("UPDATE urls SET original_url_hash = ? WHERE id = ?", batch);
+                total += batch.size();
+            }
+        } while (batch.size() == batchSize);
+        return total;
+    }
+}
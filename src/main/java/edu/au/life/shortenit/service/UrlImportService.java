@@ -0,0 +1,473 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.config.ShardRouting;
+import edu.au.life.shortenit.dto.ImportJobResponse;
+import edu.au.life.shortenit.entity.ImportJob;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.exception.InvalidStateException;
+import edu.au.life.shortenit.exception.ResourceNotFoundException;
+import edu.au.life.shortenit.repository.ImportJobRepository;
+import edu.au.life.shortenit.util.CsvReader;
+import edu.au.life.shortenit.util.UrlFingerprint;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Imports existing short links from a legacy system's CSV export, keeping
+ * their codes, titles, creation dates and click counts.
+ *
+ * The upload is spooled to disk and processed in the background: records are
+ * streamed in chunks, each chunk is validated in parallel and written with one
+ * JDBC batch, and the job's counters move forward in the same transaction.
+ * Heap use is bounded by the chunk size, and an interrupted or failed import
+ * resumes after its last committed chunk. The instance that has a job queued
+ * or running renews its heartbeat; other instances only mark it interrupted
+ * once that has gone stale, and a resume takes the job with a conditional
+ * update, so one file is never imported twice at once. Sharded, the rows for other shards
+ * are committed first and the home shard's rows with the counters; rows a
+ * resumed chunk finds already there count as skipped.
+ *
+ * The CSV needs a header row. Recognised columns (case, spaces and
+ * underscores ignored): code, original_url, title, created_at, expires_at,
+ * click_count, is_active. Only code and original_url are required.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class UrlImportService {
+
+    private static final Pattern CODE_PATTERN = Pattern.compile("^[a-zA-Z0-9-]{1,50}$");
+    private static final Pattern URL_PATTERN = Pattern.compile("^(http|https)://.*");
+    private static final int MAX_URL_LENGTH = 2048;
+    private static final int MAX_TITLE_LENGTH = 200;
+
+    private static final String INSERT_SQL =
+            "INSERT INTO urls (user_id, original_url, original_url_hash, code, code_type, title, created_at, expires_at, " +
+            "click_count, bot_click_count, is_active) " +
+            "VALUES (?, ?, ?, ?, 'CUSTOM', ?, ?, ?, ?, 0, ?) ON CONFLICT (code) DO NOTHING";
+
+    private static final int[] INSERT_TYPES = {
+            Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+            Types.TIMESTAMP, Types.TIMESTAMP, Types.BIGINT, Types.BOOLEAN};
+
+    private static final String PROGRESS_SQL =
+            "UPDATE import_jobs SET rows_committed = ?, imported_count = imported_count + ?, " +
+            "skipped_count = skipped_count + ?, rejected_count = rejected_count + ?, " +
+            "last_error = COALESCE(?, last_error), updated_at = ? WHERE id = ?";
+
+    private final ImportJobRepository importJobRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardResolver shardResolver;
+
+    @Value("${import.directory:${java.io.tmpdir}/shortenit-imports}")
+    private String directory;
+
+    @Value("${import.chunk-size:5000}")
+    private int chunkSize;
+
+    @Value("${import.validation-threads:0}")
+    private int validationThreads;
+
+    @Value("${import.stale-after-ms:120000}")
+    private long staleAfterMillis;
+
+    private ExecutorService runner;
+    private ExecutorService validators;
+
+    // Jobs queued or running on this instance
+    private final Set<Long> localJobs = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(Paths.get(directory));
+
+        // One import at a time; the rest wait in the queue
+        runner = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "url-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int threads = validationThreads > 0 ? validationThreads : Runtime.getRuntime().availableProcessors();
+        validators = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "url-import-validate");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+        validators.shutdownNow();
+    }
+
+    /**
+     * Renews the heartbeat of this instance's jobs. Jobs whose instance
+     * stopped without finishing them can only be picked up again by an
+     * explicit resume.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${import.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        if (!localJobs.isEmpty()) {
+            importJobRepository.renewHeartbeats(List.copyOf(localJobs));
+        }
+        int interrupted = importJobRepository.markStale(staleAfterMillis / 1000.0);
+        if (interrupted > 0) {
+            log.warn("{} URL import(s) were interrupted by a stopped instance and can be resumed", interrupted);
+        }
+    }
+
+    public ImportJobResponse startImport(InputStream csv, String fileName, User owner) throws IOException {
+        ImportJob job = importJobRepository.save(ImportJob.builder()
+                .owner(owner)
+                .fileName(fileName != null && !fileName.isBlank() ? fileName : "import.csv")
+                .storedPath("")
+                .status(ImportJob.Status.QUEUED)
+                .build());
+
+        // Heartbeats from here on, spooling a large upload can take a while
+        localJobs.add(job.getId());
+        Path path = Paths.get(directory, "import-" + job.getId() + ".csv");
+        try {
+            Files.copy(csv, path, StandardCopyOption.REPLACE_EXISTING);
+            job.setStoredPath(path.toString());
+            job = importJobRepository.save(job);
+        } catch (IOException | RuntimeException e) {
+            localJobs.remove(job.getId());
+            throw e;
+        }
+
+        log.info("URL import {} queued: {} ({} bytes)", job.getId(), job.getFileName(), Files.size(path));
+        submit(job.getId(), owner.getId(), path);
+        return convertToResponse(job);
+    }
+
+    public ImportJobResponse resumeImport(Long jobId) {
+        ImportJob job = findJob(jobId);
+        if (job.getStatus() != ImportJob.Status.FAILED && job.getStatus() != ImportJob.Status.INTERRUPTED) {
+            throw new InvalidStateException("Import " + jobId + " is " + job.getStatus() + " and cannot be resumed");
+        }
+
+        Path path = Paths.get(job.getStoredPath());
+        if (!Files.isReadable(path)) {
+            throw new InvalidStateException("Import file for job " + jobId + " is no longer available");
+        }
+
+        // Another resume may have got here first
+        if (importJobRepository.claimForResume(jobId) == 0) {
+            throw new InvalidStateException("Import " + jobId + " is already being resumed");
+        }
+        localJobs.add(jobId);
+        job = findJob(jobId);
+
+        log.info("URL import {} resuming after row {}", jobId, job.getRowsCommitted());
+        submit(job.getId(), job.getOwner().getId(), path);
+        return convertToResponse(job);
+    }
+
+    public ImportJobResponse getImport(Long jobId) {
+        return convertToResponse(findJob(jobId));
+    }
+
+    public List<ImportJobResponse> getImports() {
+        return importJobRepository.findAllByOrderByCreatedAtDesc().stream()
+                .map(this::convertToResponse)
+                .collect(Collectors.toList());
+    }
+
+    private ImportJob findJob(Long jobId) {
+        return importJobRepository.findById(jobId)
+                .orElseThrow(() -> new ResourceNotFoundException("Import not found with id: " + jobId));
+    }
+
+    private void submit(Long jobId, Long ownerId, Path path) {
+        runner.submit(() -> run(jobId, ownerId, path));
+    }
+
+    private void run(Long jobId, Long ownerId, Path path) {
+        try {
+            runJob(jobId, ownerId, path);
+        } finally {
+            localJobs.remove(jobId);
+        }
+    }
+
+    private void runJob(Long jobId, Long ownerId, Path path) {
+        ImportJob job = findJob(jobId);
+        job.setStatus(ImportJob.Status.RUNNING);
+        importJobRepository.save(job);
+
+        long committed = job.getRowsCommitted();
+        try (CsvReader reader = new CsvReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+            Map<String, Integer> columns = readHeader(reader);
+
+            // Skip what earlier runs already committed
+            long row = 0;
+            while (row < committed && reader.next() != null) {
+                row++;
+            }
+
+            List<List<String>> chunk = new ArrayList<>(chunkSize);
+            List<String> record;
+            while ((record = reader.next()) != null) {
+                chunk.add(record);
+                if (chunk.size() == chunkSize) {
+                    committed = writeChunk(jobId, ownerId, columns, chunk, committed);
+                    chunk.clear();
+                }
+            }
+            committed = writeChunk(jobId, ownerId, columns, chunk, committed);
+
+            job = findJob(jobId);
+            job.setStatus(ImportJob.Status.COMPLETED);
+            job.setFinishedAt(LocalDateTime.now());
+            importJobRepository.save(job);
+            Files.deleteIfExists(path);
+            log.info("URL import {} completed: {} rows, {} imported, {} skipped, {} rejected",
+                    jobId, committed, job.getImportedCount(), job.getSkippedCount(), job.getRejectedCount());
+        } catch (Exception e) {
+            log.error("URL import {} failed after row {}", jobId, committed, e);
+            job = findJob(jobId);
+            job.setStatus(ImportJob.Status.FAILED);
+            job.setLastError(truncate("Stopped after row " + committed + ": " + e.getMessage(), 1000));
+            importJobRepository.save(job);
+        }
+    }
+
+    private Map<String, Integer> readHeader(CsvReader reader) throws IOException {
+        List<String> header = reader.next();
+        if (header == null) {
+            throw new IOException("File is empty");
+        }
+
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(normalizeColumn(header.get(i)), i);
+        }
+        if (!columns.containsKey("code") || !columns.containsKey("originalurl")) {
+            throw new IOException("Header must contain code and original_url columns");
+        }
+        return columns;
+    }
+
+    private static String normalizeColumn(String name) {
+        return name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+    }
+
+    private long writeChunk(Long jobId, Long ownerId, Map<String, Integer> columns,
+                            List<List<String>> chunk, long firstRow) throws InterruptedException, ExecutionException {
+        if (chunk.isEmpty()) {
+            return firstRow;
+        }
+
+        ImportRow[] rows = validate(columns, chunk, firstRow);
+
+        Map<Integer, List<Object[]>> batches = new TreeMap<>();
+        long rejected = 0;
+        String firstError = null;
+        for (ImportRow row : rows) {
+            if (row.error() != null) {
+                rejected++;
+                if (firstError == null) {
+                    firstError = truncate("Row " + row.rowNumber() + ": " + row.error(), 1000);
+                }
+                continue;
+            }
+            batches.computeIfAbsent(shardResolver.shardOf(row.code()), shard -> new ArrayList<>()).add(new Object[]{
+                    ownerId, row.originalUrl(), UrlFingerprint.of(row.originalUrl()), row.code(), row.title(),
+                    Timestamp.valueOf(row.createdAt()),
+                    row.expiresAt() != null ? Timestamp.valueOf(row.expiresAt()) : null,
+                    row.clickCount(), row.active()});
+        }
+
+        long committed = firstRow + chunk.size();
+        long rejectedCount = rejected;
+        String error = firstError;
+        long attempted = batches.values().stream().mapToLong(List::size).sum();
+        long[] imported = {0};
+        batches.forEach((shard, batch) -> {
+            if (shard != ShardRouting.HOME) {
+                imported[0] += shardResolver.transaction(shard, false, () -> {
+                    shardResolver.mirrorUsers(shard, List.of(ownerId));
+                    return insert(batch);
+                });
+            }
+        });
+        shardResolver.transaction(ShardRouting.HOME, false, () -> {
+            imported[0] += insert(batches.getOrDefault(ShardRouting.HOME, List.of()));
+            long skipped = attempted - imported[0];
+            return jdbcTemplate.update(PROGRESS_SQL, committed, imported[0], skipped, rejectedCount, error,
+                    Timestamp.valueOf(LocalDateTime.now()), jobId);
+        });
+
+        log.debug("URL import {}: committed rows {} - {}", jobId, firstRow + 1, committed);
+        return committed;
+    }
+
+    private int insert(List<Object[]> batch) {
+        int imported = 0;
+        if (!batch.isEmpty()) {
+            for (int count : jdbcTemplate.batchUpdate(INSERT_SQL, batch, INSERT_TYPES)) {
+                if (count != 0) {
+                    imported++;
+                }
+            }
+        }
+        return imported;
+    }
+
+    // Splits the chunk into one slice per validation thread
+    private ImportRow[] validate(Map<String, Integer> columns, List<List<String>> chunk, long firstRow)
+            throws InterruptedException, ExecutionException {
+        ImportRow[] rows = new ImportRow[chunk.size()];
+        int threads = Math.max(1, Math.min(chunk.size() / 500, validationThreads > 0
+                ? validationThreads : Runtime.getRuntime().availableProcessors()));
+        int sliceSize = (chunk.size() + threads - 1) / threads;
+
+        List<Future<?>> slices = new ArrayList<>(threads);
+        for (int start = 0; start < chunk.size(); start += sliceSize) {
+            int from = start;
+            int to = Math.min(chunk.size(), start + sliceSize);
+            slices.add(validators.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    rows[i] = parseRow(columns, chunk.get(i), firstRow + i + 1);
+                }
+            }));
+        }
+        for (Future<?> slice : slices) {
+            slice.get();
+        }
+        return rows;
+    }
+
+    private static ImportRow parseRow(Map<String, Integer> columns, List<String> record, long rowNumber) {
+        String code = field(columns, record, "code");
+        String originalUrl = field(columns, record, "originalurl");
+
+        if (code == null || !CODE_PATTERN.matcher(code).matches()) {
+            return ImportRow.rejected(rowNumber, "Invalid code: " + code);
+        }
+        if (originalUrl == null || !URL_PATTERN.matcher(originalUrl).matches()) {
+            return ImportRow.rejected(rowNumber, "URL must start with http:// or https://");
+        }
+        if (originalUrl.length() > MAX_URL_LENGTH) {
+            return ImportRow.rejected(rowNumber, "URL is longer than " + MAX_URL_LENGTH + " characters");
+        }
+
+        String title = field(columns, record, "title");
+        title = title == null ? code : truncate(title, MAX_TITLE_LENGTH);
+
+        try {
+            LocalDateTime createdAt = parseDateTime(field(columns, record, "createdat"));
+            LocalDateTime expiresAt = parseDateTime(field(columns, record, "expiresat"));
+            String clicks = field(columns, record, "clickcount");
+            long clickCount = clicks == null ? 0L : Long.parseLong(clicks);
+            if (clickCount < 0) {
+                return ImportRow.rejected(rowNumber, "Negative click count");
+            }
+            String active = field(columns, record, "isactive");
+            boolean isActive = active == null || Boolean.parseBoolean(active) || "1".equals(active);
+
+            return new ImportRow(rowNumber, code, originalUrl, title,
+                    createdAt != null ? createdAt : LocalDateTime.now(), expiresAt, clickCount, isActive, null);
+        } catch (NumberFormatException e) {
+            return ImportRow.rejected(rowNumber, "Invalid click count");
+        } catch (DateTimeParseException e) {
+            return ImportRow.rejected(rowNumber, "Invalid date: " + e.getParsedString());
+        }
+    }
+
+    private static String field(Map<String, Integer> columns, List<String> record, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= record.size()) {
+            return null;
+        }
+        String value = record.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    // Accepts 2024-01-31, 2024-01-31T10:15:30 and 2024-01-31T10:15:30Z / +07:00
+    private static LocalDateTime parseDateTime(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.length() == 10) {
+            return LocalDate.parse(value).atStartOfDay();
+        }
+        String iso = value.replace(' ', 'T');
+        try {
+            return LocalDateTime.parse(iso);
+        } catch (DateTimeParseException e) {
+            return OffsetDateTime.parse(iso).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        }
+    }
+
+    private static String truncate(String value, int length) {
+        return value.length() <= length ? value : value.substring(0, length);
+    }
+
+    private ImportJobResponse convertToResponse(ImportJob job) {
+        return ImportJobResponse.builder()
+                .id(job.getId())
+                .fileName(job.getFileName())
+                .ownerId(job.getOwner().getId())
+                .status(job.getStatus().name())
+                .rowsCommitted(job.getRowsCommitted())
+                .importedCount(job.getImportedCount())
+                .skippedCount(job.getSkippedCount())
+                .rejectedCount(job.getRejectedCount())
+                .lastError(job.getLastError())
+                .createdAt(job.getCreatedAt())
+                .updatedAt(job.getUpdatedAt())
+                .finishedAt(job.getFinishedAt())
+                .build();
+    }
+
+    private record ImportRow(long rowNumber, String code, String originalUrl, String title,
+                             LocalDateTime createdAt, LocalDateTime expiresAt, long clickCount,
+                             boolean active, String error) {
+
+        static ImportRow rejected(long rowNumber, String error) {
+            return new ImportRow(rowNumber, null, null, null, null, null, 0L, false, error);
+        }
+    }
+}
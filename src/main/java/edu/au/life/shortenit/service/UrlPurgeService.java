@@ -0,0 +1,102 @@
+package edu.au.life.shortenit.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Physically removes URLs and users that were deleted logically.
+ *
+ * Click rows go first, a bounded chunk per statement, each statement in its own
+ * short transaction, so a link with millions of clicks never means one huge
+ * delete, a long lock or loading the clicks into memory. The URL row follows
+ * with its daily rollups once it has no clicks left, and a deleted user once
+ * they have no URLs left on any shard.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class UrlPurgeService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardResolver shardResolver;
+
+    @Value("${purge.click-chunk-size:10000}")
+    private int clickChunkSize;
+
+    @Value("${purge.url-batch-size:100}")
+    private int urlBatchSize;
+
+    @Scheduled(initialDelayString = "${purge.initial-delay-ms:60000}", fixedDelayString = "${purge.interval-ms:60000}")
+    public void purge() {
+        try {
+            shardResolver.forEachShard(shard -> purgeUrls());
+            purgeUsers();
+        } catch (Exception e) {
+            log.error("Purge of deleted URLs failed, will retry", e);
+        }
+    }
+
+    private void purgeUrls() {
+        List<Long> urlIds;
+        do {
+            urlIds = jdbcTemplate.queryForList(
+                    "SELECT id FROM urls WHERE deleted_at IS NOT NULL ORDER BY id LIMIT ?", Long.class, urlBatchSize);
+
+            for (Long urlId : urlIds) {
+                long clicks = 0;
+                int deleted;
+                do {
+                    deleted = jdbcTemplate.update(
+                            "DELETE FROM url_clicks WHERE id IN (SELECT id FROM url_clicks WHERE url_id = ? LIMIT ?)",
+                            urlId, clickChunkSize);
+                    clicks += deleted;
+                } while (deleted > 0);
+
+                jdbcTemplate.update("DELETE FROM click_daily_stats WHERE url_id = ?", urlId);
+                jdbcTemplate.update("DELETE FROM urls WHERE id = ? AND deleted_at IS NOT NULL", urlId);
+                log.debug("Purged URL {} with {} clicks", urlId, clicks);
+            }
+
+            if (!urlIds.isEmpty()) {
+                log.info("Purged {} deleted URLs", urlIds.size());
+            }
+        } while (urlIds.size() == urlBatchSize);
+    }
+
+    private void purgeUsers() {
+        List<Long> userIds = jdbcTemplate.queryForList(
+                "SELECT id FROM users u WHERE deleted_at IS NOT NULL " +
+                "AND NOT EXISTS (SELECT 1 FROM urls WHERE user_id = u.id)", Long.class);
+
+        for (Long userId : userIds) {
+            if (hasUrlsOnOtherShards(userId)) {
+                continue;
+            }
+            // Copies kept next to their links on the other shards
+            for (int shard = 1; shard < shardResolver.shardCount(); shard++) {
+                shardResolver.jdbc(shard).update("DELETE FROM users WHERE id = ?", userId);
+            }
+            jdbcTemplate.update("DELETE FROM import_jobs WHERE owner_id = ?", userId);
+            jdbcTemplate.update("DELETE FROM api_keys WHERE user_id = ?", userId);
+            jdbcTemplate.update("DELETE FROM refresh_tokens WHERE user_id = ?", userId);
+            jdbcTemplate.update("DELETE FROM users WHERE id = ?", userId);
+            log.info("Purged deleted user {}", userId);
+        }
+    }
+
+    private boolean hasUrlsOnOtherShards(Long userId) {
+        for (int shard = 1; shard < shardResolver.shardCount(); shard++) {
+            if (Boolean.TRUE.equals(shardResolver.jdbc(shard).queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM urls WHERE user_id = ?)", Boolean.class, userId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,239 +1,347 @@
 package edu.au.life.shortenit.service;
 
+import edu.au.life.shortenit.config.ReplicaRouting;
+import edu.au.life.shortenit.config.ShardRouting;
+import edu.au.life.shortenit.dto.BulkUrlActionResponse;
+import edu.au.life.shortenit.dto.BulkUrlRequest;
+import edu.au.life.shortenit.dto.CursorPage;
 import edu.au.life.shortenit.dto.DashboardStatsResponse;
-import edu.au.life.shortenit.dto.GeoLocation;
+import edu.au.life.shortenit.dto.UrlListing;
 import edu.au.life.shortenit.dto.UrlResponse;
 import edu.au.life.shortenit.dto.UrlShortenRequest;
 import edu.au.life.shortenit.dto.UrlUpdateRequest;
 import edu.au.life.shortenit.dto.UrlWithAnalyticsResponse;
 import edu.au.life.shortenit.exception.CustomAliasAlreadyExistsException;
 import edu.au.life.shortenit.exception.UrlNotFoundException;
+import edu.au.life.shortenit.entity.ClickDailyStat;
+import edu.au.life.shortenit.entity.ClickText;
 import edu.au.life.shortenit.entity.Url;
 import edu.au.life.shortenit.entity.UrlClick;
 import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.repository.ClickDailyStatRepository;
 import edu.au.life.shortenit.repository.UrlClickRepository;
 import edu.au.life.shortenit.repository.UrlRepository;
+import edu.au.life.shortenit.repository.UrlRepositoryCustom.ClickCounters;
 import edu.au.life.shortenit.repository.UserRepository;
+import edu.au.life.shortenit.util.ClientIpResolver;
+import edu.au.life.shortenit.util.IpLiteralParser;
+import edu.au.life.shortenit.util.PageCursor;
+import edu.au.life.shortenit.util.UrlFingerprint;
 import edu.au.life.shortenit.util.UserAgentParser;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.ObjectMapper;
 
-import java.security.SecureRandom;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class UrlService {
 
+    // Rows per merged page when writing all links of a sharded user
+    private static final int EXPORT_PAGE_SIZE = 500;
+
+    // Cursor order, see PageCursor
+    private static final Comparator<UrlResponse> NEWEST_FIRST =
+            Comparator.comparing(UrlResponse::getCreatedAt).thenComparing(UrlResponse::getId).reversed();
+
     private final UrlRepository urlRepository;
     private final UrlClickRepository urlClickRepository;
     private final UserRepository userRepository;
-    private final LocalGeoIpService localGeoIpService;
     private final UserAgentParser userAgentParser;
+    private final ClientIpResolver clientIpResolver;
+    private final ShortCodeAllocator shortCodeAllocator;
+    private final ClickDimensionService clickDimensionService;
+    private final ClickCompactionService clickCompactionService;
+    private final ClickDailyStatRepository clickDailyStatRepository;
+    private final ObjectMapper objectMapper;
+    private final PlatformTransactionManager transactionManager;
+    private final ShardResolver shardResolver;
+    private final ShardMigrationService shardMigrationService;
 
     @Value("${app.base-url}")
     private String baseUrl;
 
-    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-    private static final int SHORT_CODE_LENGTH = 8;
-    private static final SecureRandom random = new SecureRandom();
-
-    @Transactional
+    // Not transactional: the code picks the shard the transaction runs on, see ShardResolver
     public UrlResponse shortenUrl(UrlShortenRequest request, User user) {
-        Url url = new Url();
-        url.setOriginalUrl(request.getOriginalUrl());
-        url.setTitle(request.getTitle());
-        url.setUser(user);
+        boolean customCode = request.getCode() != null && !request.getCode().isBlank();
+
+        // Single lookup on the (user_id, original_url_hash) index of every shard, the newest match wins
+        if (Boolean.TRUE.equals(request.getReuseExisting()) && !customCode) {
+            String hash = UrlFingerprint.of(request.getOriginalUrl());
+            LocalDateTime now = LocalDateTime.now();
+            Optional<UrlResponse> existing = shardResolver.fanOut(true, shard ->
+                            urlRepository.findReusable(user, hash, now, PageRequest.of(0, 1)).stream()
+                                    .map(this::convertToResponse)
+                                    .findFirst()
+                                    .orElse(null))
+                    .stream()
+                    .filter(Objects::nonNull)
+                    .max(Comparator.comparing(UrlResponse::getCreatedAt));
+            if (existing.isPresent()) {
+                return existing.get();
+            }
+        }
+
+        if (customCode) {
+            return createUrl(request, user, request.getCode(), true);
+        }
+        for (int attempt = 1; ; attempt++) {
+            String code = shortCodeAllocator.nextCode();
+            try {
+                return createUrl(request, user, code, false);
+            } catch (CustomAliasAlreadyExistsException | DataIntegrityViolationException e) {
+                // Taken by an alias or an imported link; anything else fails as before
+                if (!shardResolver.transaction(code, true, () -> urlRepository.existsByCode(code))) {
+                    throw e;
+                }
+                if (attempt == ShortCodeAllocator.MAX_ATTEMPTS) {
+                    throw new IllegalStateException("No free short code after " + attempt + " attempts", e);
+                }
+            }
+        }
+    }
 
-        if (request.getCode() != null && !request.getCode().isBlank()) {
-            String code = request.getCode();
+    private UrlResponse createUrl(UrlShortenRequest request, User user, String code, boolean customCode) {
+        return shardResolver.transaction(code, false, () -> {
+            Url url = new Url();
+            url.setOriginalUrl(request.getOriginalUrl());
+            url.setTitle(request.getTitle());
+            url.setUser(user);
 
             if (urlRepository.existsByCode(code)) {
                 throw new CustomAliasAlreadyExistsException("Code already exists: " + code);
             }
-
             url.setCode(code);
-            url.setCodeType(Url.CodeType.CUSTOM);
-        } else {
-            url.setCode(generateUniqueCode());
-            url.setCodeType(Url.CodeType.AUTO);
-        }
+            url.setCodeType(customCode ? Url.CodeType.CUSTOM : Url.CodeType.AUTO);
 
-        if (request.getExpirationDays() != null && request.getExpirationDays() > 0) {
-            url.setExpiresAt(LocalDateTime.now().plusDays(request.getExpirationDays()));
-        }
+            if (request.getExpirationDays() != null && request.getExpirationDays() > 0) {
+                url.setExpiresAt(LocalDateTime.now().plusDays(request.getExpirationDays()));
+            }
 
-        Url saved = urlRepository.save(url);
-        return convertToResponse(saved);
+            shardResolver.mirrorUser(ShardRouting.current(), user);
+            Url saved = urlRepository.save(url);
+            return convertToResponse(saved);
+        });
     }
 
 
-    @Transactional
+    // Not transactional: the lookup is a read-only transaction of its own so it can be served by a replica
     public String getOriginalUrl(String code, HttpServletRequest request) {
-        Url url = urlRepository.findByCode(code)
-                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
-
-        if (!url.getIsActive()) throw new UrlNotFoundException("This URL has been deactivated");
-        if (url.getExpiresAt() != null && url.getExpiresAt().isBefore(LocalDateTime.now()))
-            throw new UrlNotFoundException("This URL has expired");
+        return shardResolver.onShardOf(code, () -> {
+            Url url = urlRepository.findByCode(code)
+                    // Read on a replica rather than from the cache: the primary's row is current and gets cached
+                    .filter(found -> !urlRepository.isReadPastCache(found))
+                    // A link created moments ago may not have reached the replica yet
+                    .or(() -> ReplicaRouting.onPrimary(() -> urlRepository.findByCode(code)))
+                    .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
+
+            if (!url.getIsActive()) throw new UrlNotFoundException("This URL has been deactivated");
+            if (url.getExpiresAt() != null && url.getExpiresAt().isBefore(LocalDateTime.now()))
+                throw new UrlNotFoundException("This URL has expired");
+
+            // Crawlers, link previews and HEAD probes only bump a counter, no GeoIP / UA work or insert
+            if (isBotOrPrefetch(request)) {
+                urlRepository.incrementBotClickCount(url.getId());
+                return url.getOriginalUrl();
+            }
 
-        trackClick(url, request);
-        urlRepository.incrementClickCount(url.getId());
-        return url.getOriginalUrl();
+            // Dictionary ids first, so the click's transaction holds a single connection
+            UrlClick click = newClick(url, request);
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                urlClickRepository.save(click);
+                urlRepository.incrementClickCount(url.getId());
+            });
+            return url.getOriginalUrl();
+        });
     }
 
 
-    private void trackClick(Url url, HttpServletRequest request) {
+    private boolean isBotOrPrefetch(HttpServletRequest request) {
+        return "HEAD".equalsIgnoreCase(request.getMethod())
+                || userAgentParser.isBot(request.getHeader("User-Agent"));
+    }
+
+    private UrlClick newClick(Url url, HttpServletRequest request) {
         UrlClick click = new UrlClick();
         click.setUrl(url);
 
-        String ipAddress = getClientIpAddress(request);
-        click.setIpAddress(ipAddress);
-
-        GeoLocation geoLocation = localGeoIpService.getLocation(ipAddress);
-        click.setCountry(geoLocation.getCountry());
-        click.setCity(geoLocation.getCity());
-
-        String userAgent = request.getHeader("User-Agent");
-        click.setUserAgent(userAgent);
-
-        click.setDeviceType(userAgentParser.getDeviceType(userAgent));
-        click.setBrowser(userAgentParser.getBrowser(userAgent));
-        click.setOperatingSystem(userAgentParser.getOperatingSystem(userAgent));
-
-        // Get referrer
-        String referrer = request.getHeader("Referer");
-        click.setReferrer(referrer);
-
-        urlClickRepository.save(click);
+        // Raw facts only; geo and user agent dimensions are filled by ClickEnrichmentService
+        click.setIp(IpLiteralParser.parse(getClientIpAddress(request)));
+        click.setUserAgentId(clickDimensionService.textId(ClickText.Kind.USER_AGENT, request.getHeader("User-Agent")));
+        click.setReferrerId(clickDimensionService.textId(ClickText.Kind.REFERRER, request.getHeader("Referer")));
+        click.setPendingEnrichment(true);
+        return click;
     }
 
     private String getClientIpAddress(HttpServletRequest request) {
-        String[] headers = {
-                "X-Forwarded-For",
-                "Proxy-Client-IP",
-                "WL-Proxy-Client-IP",
-                "HTTP_X_FORWARDED_FOR",
-                "HTTP_X_FORWARDED",
-                "HTTP_X_CLUSTER_CLIENT_IP",
-                "HTTP_CLIENT_IP",
-                "HTTP_FORWARDED_FOR",
-                "HTTP_FORWARDED",
-                "HTTP_VIA",
-                "REMOTE_ADDR"
-        };
-
-        for (String header : headers) {
-            String ip = request.getHeader(header);
-            if (ip != null && !ip.isEmpty() && !"unknown".equalsIgnoreCase(ip)) {
-                return ip.split(",")[0].trim();
-            }
-        }
-
-        return request.getRemoteAddr();
+        return clientIpResolver.resolveClientIp(request);
     }
 
     public UrlResponse getUrlInfo(String shortCode, User user) {
-        Url url = urlRepository.findByCode(shortCode)
-                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + shortCode));
+        return shardResolver.transaction(shortCode, true, () -> {
+            Url url = urlRepository.findByCode(shortCode)
+                    .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + shortCode));
 
-        if (!url.getUser().getId().equals(user.getId()) &&
-                !user.getRole().equals(User.Role.ADMIN)) {
-            throw new UrlNotFoundException("Short URL not found: " + shortCode);
-        }
+            if (!url.getUser().getId().equals(user.getId()) &&
+                    !user.getRole().equals(User.Role.ADMIN)) {
+                throw new UrlNotFoundException("Short URL not found: " + shortCode);
+            }
 
-        return convertToResponse(url);
+            return convertToResponse(url);
+        });
     }
 
-    public List<UrlResponse> getAllUrls(User user) {
-        return urlRepository.findByUserOrderByCreatedAtDesc(user).stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    /**
+     * Writes all of the user's links to {@code out} as a JSON array, row by
+     * row from a database cursor, so memory use does not grow with the
+     * number of links. Sharded, the rows come in merged keyset pages instead,
+     * which do not hold a connection on every shard for the whole response.
+     */
+    public void writeAllUrls(User user, OutputStream out) {
+        try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+            generator.writeStartArray();
+            if (shardResolver.isSharded()) {
+                String cursor = null;
+                do {
+                    CursorPage<UrlResponse> page = getUrlsByCursor(user, cursor, EXPORT_PAGE_SIZE, false);
+                    page.getContent().forEach(response -> objectMapper.writeValue(generator, response));
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+            } else {
+                shardResolver.transaction(ShardRouting.HOME, true, () -> {
+                    try (Stream<UrlListing> listings = urlRepository.streamListingsByUser(user)) {
+                        listings.forEach(listing -> objectMapper.writeValue(generator, convertToResponse(listing)));
+                    }
+                    return null;
+                });
+            }
+            generator.writeEndArray();
+        }
     }
 
     public Page<UrlResponse> getAllUrlsPaginated(User user, Pageable pageable) {
-        Page<Url> urlPage = urlRepository.findByUser(user, pageable);
-        return urlPage.map(this::convertToResponse);
+        return shardResolver.fanOutPage(pageable,
+                page -> urlRepository.findListingsByUser(user, page), this::convertToResponse);
+    }
+
+    /**
+     * Newest links first, the page after the given cursor (blank for the first)
+     */
+    public CursorPage<UrlResponse> getUrlsByCursor(User user, String cursor, int size, boolean includeTotal) {
+        return listingsByCursor(cursor, size, includeTotal,
+                (position, page) -> urlRepository.findListingsByUserAfter(user, position.createdAt(), position.id(), page),
+                () -> urlRepository.countByUser(user));
     }
 
-    @Transactional
     public void deleteUrl(String shortCode, User user) {
-        Url url = urlRepository.findByCode(shortCode)
-                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + shortCode));
+        shardResolver.transaction(shortCode, false, () -> {
+            Url url = urlRepository.findByCode(shortCode)
+                    .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + shortCode));
 
-        if (!url.getUser().getId().equals(user.getId()) &&
-                !user.getRole().equals(User.Role.ADMIN)) {
-            throw new UrlNotFoundException("Short URL not found: " + shortCode);
-        }
+            if (!url.getUser().getId().equals(user.getId()) &&
+                    !user.getRole().equals(User.Role.ADMIN)) {
+                throw new UrlNotFoundException("Short URL not found: " + shortCode);
+            }
 
-        urlRepository.delete(url);
+            // Hidden right away; UrlPurgeService removes the row and its clicks in the background
+            return urlRepository.softDeleteByIdIn(List.of(url.getId()), LocalDateTime.now());
+        });
     }
 
-    @Transactional
     public UrlResponse updateUrl(String code, UrlUpdateRequest request, User user) {
-        Url url = urlRepository.findByCode(code)
-                .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
-
-        if (!url.getUser().getId().equals(user.getId()) &&
-                !user.getRole().equals(User.Role.ADMIN)) {
-            throw new UrlNotFoundException("Short URL not found: " + code);
+        String newCode = request.getCode() != null && !request.getCode().isBlank() ? request.getCode() : code;
+        int source = shardResolver.shardOf(code);
+        int target = shardResolver.shardOf(newCode);
+        if (source != target && shardResolver.transaction(target, true, () -> urlRepository.existsByCode(newCode))) {
+            throw new CustomAliasAlreadyExistsException("Code already exists: " + newCode);
         }
 
-        if (request.getTitle() != null) url.setTitle(request.getTitle());
+        Url.CodeType[] previousType = new Url.CodeType[1];
+        UrlResponse updated = shardResolver.transaction(source, false, () -> {
+            Url url = urlRepository.findByCode(code)
+                    .orElseThrow(() -> new UrlNotFoundException("Short URL not found: " + code));
 
-        if (request.getIsActive() != null) {
-            url.setIsActive(request.getIsActive());
-        }
-
-        if (request.getCode() != null && !request.getCode().isBlank()) {
-            String newCode = request.getCode();
-            if (!newCode.equals(url.getCode()) && urlRepository.existsByCode(newCode)) {
-                throw new CustomAliasAlreadyExistsException("Code already exists: " + newCode);
+            if (!url.getUser().getId().equals(user.getId()) &&
+                    !user.getRole().equals(User.Role.ADMIN)) {
+                throw new UrlNotFoundException("Short URL not found: " + code);
             }
-            url.setCode(newCode);
-            url.setCodeType(Url.CodeType.CUSTOM);
-        }
 
-        if (Boolean.TRUE.equals(request.getClearExpiration())) {
-            url.setExpiresAt(null);
-        } else if (request.getExpirationDays() != null && request.getExpirationDays() > 0) {
-            url.setExpiresAt(LocalDateTime.now().plusDays(request.getExpirationDays()));
-        }
+            if (request.getTitle() != null) url.setTitle(request.getTitle());
 
-        return convertToResponse(urlRepository.save(url));
-    }
+            if (request.getIsActive() != null) {
+                url.setIsActive(request.getIsActive());
+            }
 
+            if (request.getCode() != null && !request.getCode().isBlank()) {
+                if (!newCode.equals(url.getCode()) && urlRepository.existsByCode(newCode)) {
+                    throw new CustomAliasAlreadyExistsException("Code already exists: " + newCode);
+                }
+                previousType[0] = url.getCodeType();
+                url.setCode(newCode);
+                url.setCodeType(Url.CodeType.CUSTOM);
+            }
 
-    private String generateUniqueCode() {
-        String code;
-        do {
-            code = generateRandomString(SHORT_CODE_LENGTH);
-        } while (urlRepository.existsByCode(code));
-        return code;
-    }
+            if (Boolean.TRUE.equals(request.getClearExpiration())) {
+                url.setExpiresAt(null);
+            } else if (request.getExpirationDays() != null && request.getExpirationDays() > 0) {
+                url.setExpiresAt(LocalDateTime.now().plusDays(request.getExpirationDays()));
+            }
 
+            return convertToResponse(urlRepository.save(url));
+        });
 
-    private String generateRandomString(int length) {
-        StringBuilder sb = new StringBuilder(length);
-        for (int i = 0; i < length; i++) {
-            sb.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+        if (source != target) {
+            // The new code is served by another shard, the link follows it
+            try {
+                shardMigrationService.relocate(updated.getId(), source, target);
+            } catch (DataIntegrityViolationException e) {
+                // Taken on the target in the meantime
+                shardResolver.transaction(source, false, () -> urlRepository.findById(updated.getId()).map(url -> {
+                    url.setCode(code);
+                    url.setCodeType(previousType[0]);
+                    return urlRepository.save(url);
+                }));
+                throw new CustomAliasAlreadyExistsException("Code already exists: " + newCode);
+            }
         }
-        return sb.toString();
+        return updated;
     }
 
+
     private UrlResponse convertToResponse(Url url) {
+        return convertToResponse(url, urlRepository.findClickCounters(url.getId()));
+    }
+
+    private UrlResponse convertToResponse(Url url, ClickCounters counters) {
         return UrlResponse.builder()
                 .id(url.getId())
                 .originalUrl(url.getOriginalUrl())
@@ -242,7 +350,7 @@ public class UrlService {
                 .title(url.getTitle())
                 .createdAt(url.getCreatedAt())
                 .expiresAt(url.getExpiresAt())
-                .clickCount(url.getClickCount())
+                .clickCount(counters.clicks())
                 .isActive(url.getIsActive())
                 .codeType(url.getCodeType().name())
                 .owner(UrlResponse.UserInfo.builder()
@@ -253,35 +361,118 @@ public class UrlService {
                 .build();
     }
 
+    private UrlResponse convertToResponse(UrlListing listing) {
+        return UrlResponse.builder()
+                .id(listing.getId())
+                .originalUrl(listing.getOriginalUrl())
+                .code(listing.getCode())
+                .shortUrl(baseUrl + "/s/" + listing.getCode())
+                .title(listing.getTitle())
+                .createdAt(listing.getCreatedAt())
+                .expiresAt(listing.getExpiresAt())
+                .clickCount(listing.getClickCount())
+                .isActive(listing.getIsActive())
+                .codeType(listing.getCodeType().name())
+                .owner(UrlResponse.UserInfo.builder()
+                        .id(listing.getOwnerId())
+                        .name(listing.getOwnerName())
+                        .email(listing.getOwnerEmail())
+                        .build())
+                .build();
+    }
+
+    private static PageCursor positionOf(UrlResponse response) {
+        return new PageCursor(response.getCreatedAt(), response.getId());
+    }
+
+    /**
+     * A keyset page over every shard: each returns its first rows after the
+     * cursor and the page is cut from the merge
+     */
+    private CursorPage<UrlResponse> listingsByCursor(String cursor, int size, boolean includeTotal,
+                                                     BiFunction<PageCursor, Pageable, Slice<UrlListing>> query,
+                                                     LongSupplier count) {
+        PageCursor position = PageCursor.decode(cursor);
+        Pageable page = PageRequest.of(0, Math.max(1, size));
+        List<ShardListing> shards = shardResolver.fanOut(true, shard -> new ShardListing(
+                query.apply(position, page).map(this::convertToResponse),
+                includeTotal ? count.getAsLong() : 0));
+        Slice<UrlResponse> slice = ShardResolver.mergeSlices(
+                shards.stream().map(ShardListing::slice).toList(), page.getPageSize(), NEWEST_FIRST);
+        return CursorPage.of(slice, UrlService::positionOf, Function.identity(),
+                includeTotal ? shards.stream().mapToLong(ShardListing::total).sum() : null);
+    }
+
+    private record ShardListing(Slice<UrlResponse> slice, long total) {
+    }
 
-    @Transactional(readOnly = true)
     public Page<UrlWithAnalyticsResponse> getAllUrlsWithAnalytics(User user, Pageable pageable) {
-        Page<Url> urlPage = urlRepository.findByUser(user, pageable);
-
-        return urlPage.map(url -> {
-            UrlWithAnalyticsResponse.AnalyticsSummary summary = getAnalyticsSummary(url);
-
-            return UrlWithAnalyticsResponse.builder()
-                    .code(url.getCode())
-                    .originalUrl(url.getOriginalUrl())
-                    .title(url.getTitle())
-                    .clickCount(url.getClickCount())
-                    .createdAt(url.getCreatedAt())
-                    .expiresAt(url.getExpiresAt())
-                    .isExpired(url.getExpiresAt() != null && url.getExpiresAt().isBefore(LocalDateTime.now()))
-                    .isActive(url.getIsActive())
-                    .ownerId(url.getUser().getId())
-                    .ownerName(url.getUser().getName())
-                    .ownerEmail(url.getUser().getEmail())
-                    .analyticsSummary(summary)
-                    .build();
-        });
+        return shardResolver.fanOutAndBuildPage(pageable, page -> urlRepository.findByUser(user, page), this::withAnalytics);
+    }
+
+    private List<UrlWithAnalyticsResponse> withAnalytics(List<Url> urls) {
+        return urls.stream().map(this::withAnalytics).toList();
+    }
+
+    private UrlWithAnalyticsResponse withAnalytics(Url url) {
+        UrlWithAnalyticsResponse.AnalyticsSummary summary = getAnalyticsSummary(url);
+
+        return UrlWithAnalyticsResponse.builder()
+                .code(url.getCode())
+                .originalUrl(url.getOriginalUrl())
+                .title(url.getTitle())
+                .clickCount(urlRepository.findClickCounters(url.getId()).clicks())
+                .createdAt(url.getCreatedAt())
+                .expiresAt(url.getExpiresAt())
+                .isExpired(url.getExpiresAt() != null && url.getExpiresAt().isBefore(LocalDateTime.now()))
+                .isActive(url.getIsActive())
+                .ownerId(url.getUser().getId())
+                .ownerName(url.getUser().getName())
+                .ownerEmail(url.getUser().getEmail())
+                .analyticsSummary(summary)
+                .build();
     }
 
     private UrlWithAnalyticsResponse.AnalyticsSummary getAnalyticsSummary(Url url) {
-        List<UrlClick> clicks = urlClickRepository.findByUrlOrderByClickedAtDesc(url);
+        // Raw clicks after the compacted history, rollups before it
+        LocalDate compactedUntil = clickCompactionService.compactedUntil();
+        List<UrlClick> clicks = compactedUntil == null
+                ? urlClickRepository.findByUrlOrderByClickedAtDesc(url)
+                : urlClickRepository.findByUrlAndClickedAtGreaterThanEqualOrderByClickedAtDesc(url, compactedUntil.atStartOfDay());
+
+        // Grouped on the dictionary ids, only the winners are decoded
+        Map<Integer, Long> countryMap = clicks.stream()
+                .filter(click -> click.getCountryId() != null)
+                .collect(Collectors.groupingBy(UrlClick::getCountryId, Collectors.counting()));
+        Map<Integer, Long> deviceMap = clicks.stream()
+                .filter(click -> click.getDeviceTypeId() != null)
+                .collect(Collectors.groupingBy(UrlClick::getDeviceTypeId, Collectors.counting()));
+        long totalClicks = clicks.size();
+        LocalDateTime lastClickedAt = clicks.isEmpty() ? null : clicks.get(0).getClickedAt();
+
+        if (compactedUntil != null) {
+            for (Object[] row : clickDailyStatRepository.sumByKey(url.getId(), LocalDate.EPOCH, compactedUntil)) {
+                int key = ((Long) row[1]).intValue();
+                long count = ((Number) row[3]).longValue();
+                ClickDailyStat.Dimension dimension = (ClickDailyStat.Dimension) row[0];
+                if (dimension == ClickDailyStat.Dimension.TOTAL) {
+                    totalClicks += count;
+                } else if (dimension == ClickDailyStat.Dimension.COUNTRY && key != 0) {
+                    countryMap.merge(key, count, Long::sum);
+                } else if (dimension == ClickDailyStat.Dimension.DEVICE_TYPE && key != 0) {
+                    deviceMap.merge(key, count, Long::sum);
+                }
+            }
+            if (lastClickedAt == null) {
+                // Compacted history only has day precision
+                List<Object[]> days = clickDailyStatRepository.findDailyTotals(url.getId(), LocalDate.EPOCH, compactedUntil);
+                if (!days.isEmpty()) {
+                    lastClickedAt = ((LocalDate) days.get(days.size() - 1)[0]).atStartOfDay();
+                }
+            }
+        }
 
-        if (clicks.isEmpty()) {
+        if (totalClicks == 0) {
             return UrlWithAnalyticsResponse.AnalyticsSummary.builder()
                     .totalClicks(0L)
                     .lastClickedAt(null)
@@ -294,28 +485,18 @@ public class UrlService {
                     .build();
         }
 
-        LocalDateTime lastClickedAt = clicks.get(0).getClickedAt();
-
-        Map<String, Long> countryMap = clicks.stream()
-                .filter(click -> click.getCountry() != null)
-                .collect(Collectors.groupingBy(UrlClick::getCountry, Collectors.counting()));
-
-        Map.Entry<String, Long> topCountryEntry = countryMap.entrySet().stream()
+        Map.Entry<Integer, Long> topCountryEntry = countryMap.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
                 .orElse(null);
 
-        String topCountry = topCountryEntry != null ? topCountryEntry.getKey() : null;
+        String topCountry = topCountryEntry != null ? clickDimensionService.name(topCountryEntry.getKey()) : null;
         Long topCountryClicks = topCountryEntry != null ? topCountryEntry.getValue() : 0L;
 
-        Map<String, Long> deviceMap = clicks.stream()
-                .filter(click -> click.getDeviceType() != null)
-                .collect(Collectors.groupingBy(UrlClick::getDeviceType, Collectors.counting()));
-
-        Map.Entry<String, Long> topDeviceEntry = deviceMap.entrySet().stream()
+        Map.Entry<Integer, Long> topDeviceEntry = deviceMap.entrySet().stream()
                 .max(Map.Entry.comparingByValue())
                 .orElse(null);
 
-        String topDeviceType = topDeviceEntry != null ? topDeviceEntry.getKey() : null;
+        String topDeviceType = topDeviceEntry != null ? clickDimensionService.name(topDeviceEntry.getKey()) : null;
         Long topDeviceClicks = topDeviceEntry != null ? topDeviceEntry.getValue() : 0L;
 
         LocalDateTime startOfToday = LocalDateTime.of(LocalDate.now(), LocalTime.MIN);
@@ -329,7 +510,7 @@ public class UrlService {
                 .count();
 
         return UrlWithAnalyticsResponse.AnalyticsSummary.builder()
-                .totalClicks((long) clicks.size())
+                .totalClicks(totalClicks)
                 .lastClickedAt(lastClickedAt)
                 .topCountry(topCountry)
                 .topCountryClicks(topCountryClicks)
@@ -345,124 +526,219 @@ public class UrlService {
     /**
      * Get all URLs paginated (admin only - no owner filter)
      */
-    @Transactional(readOnly = true)
     public Page<UrlResponse> getAllUrlsPaginatedAdmin(int page, int size, String sortBy, String direction) {
         Sort.Direction sortDirection = "ASC".equalsIgnoreCase(direction) ? Sort.Direction.ASC : Sort.Direction.DESC;
         Pageable pageable = PageRequest.of(page, size, Sort.by(sortDirection, sortBy));
-        Page<Url> urlPage = urlRepository.findAll(pageable);
-        return urlPage.map(this::convertToResponse);
+        return shardResolver.fanOutPage(pageable, urlRepository::findAllListings, this::convertToResponse);
+    }
+
+    /**
+     * Get all URLs by cursor, newest first (admin only - no owner filter)
+     */
+    public CursorPage<UrlResponse> getAllUrlsByCursorAdmin(String cursor, int size, boolean includeTotal) {
+        return listingsByCursor(cursor, size, includeTotal,
+                (position, page) -> urlRepository.findAllListingsAfter(position.createdAt(), position.id(), page),
+                urlRepository::count);
     }
 
     /**
      * Get all URLs with analytics paginated (admin only - no owner filter)
      */
-    @Transactional(readOnly = true)
     public Page<UrlWithAnalyticsResponse> getAllUrlsWithAnalyticsPaginatedAdmin(int page, int size, String sortBy, String direction) {
         Sort.Direction sortDirection = "ASC".equalsIgnoreCase(direction) ? Sort.Direction.ASC : Sort.Direction.DESC;
         Pageable pageable = PageRequest.of(page, size, Sort.by(sortDirection, sortBy));
-        Page<Url> urlPage = urlRepository.findAll(pageable);
-
-        return urlPage.map(url -> {
-            UrlWithAnalyticsResponse.AnalyticsSummary summary = getAnalyticsSummary(url);
-
-            return UrlWithAnalyticsResponse.builder()
-                    .code(url.getCode())
-                    .originalUrl(url.getOriginalUrl())
-                    .title(url.getTitle())
-                    .clickCount(url.getClickCount())
-                    .createdAt(url.getCreatedAt())
-                    .expiresAt(url.getExpiresAt())
-                    .isExpired(url.getExpiresAt() != null && url.getExpiresAt().isBefore(LocalDateTime.now()))
-                    .isActive(url.getIsActive())
-                    .ownerId(url.getUser().getId())
-                    .ownerName(url.getUser().getName())
-                    .ownerEmail(url.getUser().getEmail())
-                    .analyticsSummary(summary)
-                    .build();
-        });
+        return shardResolver.fanOutAndBuildPage(pageable, urlRepository::findAll, this::withAnalytics);
     }
 
     /**
      * Get URLs by user ID paginated (admin only)
      */
-    @Transactional(readOnly = true)
     public Page<UrlResponse> getUrlsByUserIdPaginated(Long userId, int page, int size, String sortBy, String direction) {
         Sort.Direction sortDirection = "ASC".equalsIgnoreCase(direction) ? Sort.Direction.ASC : Sort.Direction.DESC;
         Pageable pageable = PageRequest.of(page, size, Sort.by(sortDirection, sortBy));
-        Page<Url> urlPage = urlRepository.findByUserId(userId, pageable);
-        return urlPage.map(this::convertToResponse);
+        return shardResolver.fanOutPage(pageable,
+                shardPage -> urlRepository.findListingsByUserId(userId, shardPage), this::convertToResponse);
+    }
+
+    /**
+     * Get URLs by user ID by cursor, newest first (admin only)
+     */
+    public CursorPage<UrlResponse> getUrlsByUserIdByCursor(Long userId, String cursor, int size, boolean includeTotal) {
+        return listingsByCursor(cursor, size, includeTotal,
+                (position, page) -> urlRepository.findListingsByUserIdAfter(userId, position.createdAt(), position.id(), page),
+                () -> urlRepository.countByUserId(userId));
     }
 
     /**
      * Get URLs with analytics by user ID paginated (admin only)
      */
-    @Transactional(readOnly = true)
     public Page<UrlWithAnalyticsResponse> getUrlsByUserIdWithAnalyticsPaginated(Long userId, int page, int size, String sortBy, String direction) {
         Sort.Direction sortDirection = "ASC".equalsIgnoreCase(direction) ? Sort.Direction.ASC : Sort.Direction.DESC;
         Pageable pageable = PageRequest.of(page, size, Sort.by(sortDirection, sortBy));
-        Page<Url> urlPage = urlRepository.findByUserId(userId, pageable);
-
-        return urlPage.map(url -> {
-            UrlWithAnalyticsResponse.AnalyticsSummary summary = getAnalyticsSummary(url);
-
-            return UrlWithAnalyticsResponse.builder()
-                    .code(url.getCode())
-                    .originalUrl(url.getOriginalUrl())
-                    .title(url.getTitle())
-                    .clickCount(url.getClickCount())
-                    .createdAt(url.getCreatedAt())
-                    .expiresAt(url.getExpiresAt())
-                    .isExpired(url.getExpiresAt() != null && url.getExpiresAt().isBefore(LocalDateTime.now()))
-                    .isActive(url.getIsActive())
-                    .ownerId(url.getUser().getId())
-                    .ownerName(url.getUser().getName())
-                    .ownerEmail(url.getUser().getEmail())
-                    .analyticsSummary(summary)
-                    .build();
-        });
+        return shardResolver.fanOutAndBuildPage(pageable,
+                shardPage -> urlRepository.findByUserId(userId, shardPage), this::withAnalytics);
+    }
+
+    // ==================== Bulk Methods ====================
+
+    /**
+     * Get many URLs by code; codes the user cannot see are left out
+     */
+    public List<UrlResponse> getUrlsByCodes(BulkUrlRequest request, User user) {
+        return onOwned(request.getCodes(), user, true,
+                owned -> {
+                    List<Long> ids = ids(owned);
+                    Map<Long, ClickCounters> counters = urlRepository.findClickCounters(ids);
+                    return urlRepository.findAllWithUserByIdIn(ids).stream()
+                            .map(url -> convertToResponse(url, counters.getOrDefault(url.getId(), ClickCounters.NONE)))
+                            .collect(Collectors.toList());
+                })
+                .stream()
+                .flatMap(result -> result.result().stream())
+                .sorted(Comparator.comparing(UrlResponse::getCreatedAt).reversed())
+                .collect(Collectors.toList());
+    }
+
+    public BulkUrlActionResponse setActive(BulkUrlRequest request, boolean active, User user) {
+        return bulkResponse(request, onOwned(request.getCodes(), user, false,
+                owned -> urlRepository.updateActive(ids(owned), active)));
+    }
+
+    public BulkUrlActionResponse setExpiration(BulkUrlRequest request, User user) {
+        LocalDateTime expiresAt;
+        if (Boolean.TRUE.equals(request.getClearExpiration())) {
+            expiresAt = null;
+        } else if (request.getExpirationDays() != null && request.getExpirationDays() > 0) {
+            expiresAt = LocalDateTime.now().plusDays(request.getExpirationDays());
+        } else {
+            throw new IllegalArgumentException("Either a positive expirationDays or clearExpiration is required");
+        }
+
+        return bulkResponse(request, onOwned(request.getCodes(), user, false,
+                owned -> urlRepository.updateExpiresAt(ids(owned), expiresAt)));
+    }
+
+    public BulkUrlActionResponse deleteUrls(BulkUrlRequest request, User user) {
+        return bulkResponse(request, onOwned(request.getCodes(), user, false,
+                owned -> urlRepository.softDeleteByIdIn(ids(owned), LocalDateTime.now())));
+    }
+
+    /**
+     * Runs the action once per shard holding any of the codes, in a
+     * transaction there, on the URLs the user may act on; shards commit
+     * independently
+     */
+    private <T> List<OwnedResult<T>> onOwned(List<String> codes, User user, boolean readOnly,
+                                             Function<List<UrlRepository.CodeRef>, T> action) {
+        List<OwnedResult<T>> results = new ArrayList<>();
+        shardResolver.groupByShard(new HashSet<>(codes)).forEach((shard, shardCodes) ->
+                results.add(shardResolver.transaction(shard, readOnly, () -> {
+                    List<UrlRepository.CodeRef> owned = resolveOwned(shardCodes, user);
+                    return new OwnedResult<>(owned, owned.isEmpty() ? null : action.apply(owned));
+                })));
+        results.removeIf(result -> result.owned().isEmpty());
+        return results;
+    }
+
+    private record OwnedResult<T>(List<UrlRepository.CodeRef> owned, T result) {
+    }
+
+    // Ownership check for the whole set in one query; admins may act on any URL
+    private List<UrlRepository.CodeRef> resolveOwned(List<String> codes, User user) {
+        return user.getRole().equals(User.Role.ADMIN)
+                ? urlRepository.findCodeRefs(codes)
+                : urlRepository.findCodeRefsByUser(codes, user);
+    }
+
+    private static List<Long> ids(List<UrlRepository.CodeRef> refs) {
+        return refs.stream().map(UrlRepository.CodeRef::getId).collect(Collectors.toList());
+    }
+
+    private static BulkUrlActionResponse bulkResponse(BulkUrlRequest request, List<OwnedResult<Integer>> results) {
+        Set<String> found = results.stream()
+                .flatMap(result -> result.owned().stream())
+                .map(UrlRepository.CodeRef::getCode)
+                .collect(Collectors.toSet());
+        List<String> notFound = request.getCodes().stream()
+                .filter(code -> !found.contains(code))
+                .distinct()
+                .collect(Collectors.toList());
+        return BulkUrlActionResponse.builder()
+                .requested(request.getCodes().size())
+                .affected(results.stream().mapToInt(OwnedResult::result).sum())
+                .notFound(notFound)
+                .build();
     }
 
     // ==================== Dashboard Stats ====================
 
-    @Transactional(readOnly = true)
     public DashboardStatsResponse getDashboardStats(User user) {
-        long totalLinks = urlRepository.countByUser(user);
-        long activeLinks = urlRepository.countActiveLinksForUser(user, LocalDateTime.now());
-        long totalClicks = urlRepository.sumClickCountByUser(user);
-        double avgClicksPerLink = totalLinks > 0
-                ? Math.round(totalClicks * 10.0 / totalLinks) / 10.0
-                : 0.0;
-        List<String> topCountries = urlClickRepository.findTopCountryByUser(user);
-        String topRegion = topCountries.isEmpty() ? null : topCountries.get(0);
+        LocalDateTime now = LocalDateTime.now();
+        DashboardTotals totals = DashboardTotals.sum(shardResolver.fanOut(true, shard -> new DashboardTotals(
+                urlRepository.countByUser(user),
+                urlRepository.countActiveLinksForUser(user, now),
+                urlRepository.sumClickCountByUser(user),
+                urlClickRepository.countClicksByCountryForUser(user))));
 
         return DashboardStatsResponse.builder()
-                .totalLinks(totalLinks)
-                .activeLinks(activeLinks)
-                .totalClicks(totalClicks)
-                .avgClicksPerLink(avgClicksPerLink)
-                .topRegion(topRegion)
+                .totalLinks(totals.links())
+                .activeLinks(totals.activeLinks())
+                .totalClicks(totals.clicks())
+                .avgClicksPerLink(totals.avgClicksPerLink())
+                .topRegion(clickDimensionService.name(totals.topCountry()))
                 .build();
     }
 
-    @Transactional(readOnly = true)
     public DashboardStatsResponse getAdminDashboardStats() {
-        long totalLinks = urlRepository.count();
-        long activeLinks = urlRepository.countActiveLinks(LocalDateTime.now());
-        long totalClicks = urlRepository.sumClickCount();
-        double avgClicksPerLink = totalLinks > 0
-                ? Math.round(totalClicks * 10.0 / totalLinks) / 10.0
-                : 0.0;
-        List<String> topCountries = urlClickRepository.findTopCountryGlobal();
-        String topRegion = topCountries.isEmpty() ? null : topCountries.get(0);
-        long totalUsers = userRepository.count();
+        LocalDateTime now = LocalDateTime.now();
+        DashboardTotals totals = DashboardTotals.sum(shardResolver.fanOut(true, shard -> new DashboardTotals(
+                urlRepository.count(),
+                urlRepository.countActiveLinks(now),
+                urlRepository.sumClickCount(),
+                urlClickRepository.countClicksByCountry())));
+        // Deleted users stay until UrlPurgeService has removed their links
+        long totalUsers = userRepository.countByDeletedAtIsNull();
 
         return DashboardStatsResponse.builder()
-                .totalLinks(totalLinks)
-                .activeLinks(activeLinks)
-                .totalClicks(totalClicks)
-                .avgClicksPerLink(avgClicksPerLink)
-                .topRegion(topRegion)
+                .totalLinks(totals.links())
+                .activeLinks(totals.activeLinks())
+                .totalClicks(totals.clicks())
+                .avgClicksPerLink(totals.avgClicksPerLink())
+                .topRegion(clickDimensionService.name(totals.topCountry()))
                 .totalUsers(totalUsers)
                 .build();
     }
-}
\ No newline at end of file
+
+    // One shard's share of the dashboard, or all of them added up
+    private record DashboardTotals(long links, long activeLinks, long clicks, List<Object[]> countryClicks) {
+
+        static DashboardTotals sum(List<DashboardTotals> shards) {
+            if (shards.size() == 1) {
+                return shards.get(0);
+            }
+            Map<Integer, Long> countries = new HashMap<>();
+            for (DashboardTotals shard : shards) {
+                for (Object[] row : shard.countryClicks()) {
+                    countries.merge((Integer) row[0], ((Number) row[1]).longValue(), Long::sum);
+                }
+            }
+            List<Object[]> countryClicks = countries.entrySet().stream()
+                    .sorted(Map.Entry.<Integer, Long>comparingByValue().reversed())
+                    .map(entry -> new Object[]{entry.getKey(), entry.getValue()})
+                    .collect(Collectors.toList());
+            return new DashboardTotals(
+                    shards.stream().mapToLong(DashboardTotals::links).sum(),
+                    shards.stream().mapToLong(DashboardTotals::activeLinks).sum(),
+                    shards.stream().mapToLong(DashboardTotals::clicks).sum(),
+                    countryClicks);
+        }
+
+        double avgClicksPerLink() {
+            return links > 0 ? Math.round(clicks * 10.0 / links) / 10.0 : 0.0;
+        }
+
+        Integer topCountry() {
+            return countryClicks.isEmpty() ? null : (Integer) countryClicks.get(0)[0];
+        }
+    }
+}
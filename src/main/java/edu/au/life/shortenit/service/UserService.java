@@ -14,6 +14,9 @@ public class UserService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ShardResolver shardResolver;
+
     public UserResponse getUserProfile(User user) {
         return convertToResponse(user);
     }
@@ -23,6 +26,7 @@ public class UserService {
         if (request.getName() != null && !request.getName().isEmpty()) {
             user.setName(request.getName());
             user = userRepository.save(user);
+            shardResolver.syncUser(user);
         }
 
         return convertToResponse(user);
@@ -0,0 +1,137 @@
+package edu.au.life.shortenit.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * Case-insensitive multi-pattern matcher (Aho-Corasick) for up to 64 ASCII patterns.
+ *
+ * The automaton is compiled into a full transition table, so scanning costs one
+ * array lookup per character no matter how many patterns there are, and the
+ * input is never lowercased or copied.
+ */
+public class AhoCorasickMatcher {
+
+    private static final int ALPHABET = 128;
+
+    private final int patternCount;
+    private final int[][] transitions;
+    private final long[] outputs;
+
+    public AhoCorasickMatcher(List<String> patterns) {
+        if (patterns.size() > 64) {
+            throw new IllegalArgumentException("At most 64 patterns are supported");
+        }
+        this.patternCount = patterns.size();
+
+        List<int[]> gotoTable = new ArrayList<>();
+        List<Long> outputList = new ArrayList<>();
+        gotoTable.add(newState());
+        outputList.add(0L);
+
+        // Build the trie
+        for (int p = 0; p < patternCount; p++) {
+            String pattern = patterns.get(p).toLowerCase(Locale.ROOT);
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c >= ALPHABET) {
+                    throw new IllegalArgumentException("Only ASCII patterns are supported: " + pattern);
+                }
+                if (gotoTable.get(state)[c] < 0) {
+                    gotoTable.get(state)[c] = gotoTable.size();
+                    gotoTable.add(newState());
+                    outputList.add(0L);
+                }
+                state = gotoTable.get(state)[c];
+            }
+            outputList.set(state, outputList.get(state) | (1L << p));
+        }
+
+        int stateCount = gotoTable.size();
+        this.transitions = gotoTable.toArray(new int[0][]);
+        this.outputs = new long[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            outputs[s] = outputList.get(s);
+        }
+
+        // Breadth-first: resolve failure links straight into the transition table
+        int[] failure = new int[stateCount];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = transitions[0][c];
+            if (next < 0) {
+                transitions[0][c] = 0;
+            } else {
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] |= outputs[failure[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = transitions[state][c];
+                if (next < 0) {
+                    transitions[state][c] = transitions[failure[state]][c];
+                } else {
+                    failure[next] = transitions[failure[state]][c];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    /**
+     * Scans the input once.
+     *
+     * @param matchEnds if not null, receives for each pattern the index just past
+     *                  its first occurrence, or -1 when it does not occur
+     * @return bitmask of the patterns that occur in the input, bit i = pattern i
+     */
+    public long scan(CharSequence input, int[] matchEnds) {
+        if (matchEnds != null) {
+            Arrays.fill(matchEnds, 0, patternCount, -1);
+        }
+
+        long found = 0L;
+        int state = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            } else if (c >= ALPHABET) {
+                state = 0;
+                continue;
+            }
+            state = transitions[state][c];
+
+            long newMatches = outputs[state] & ~found;
+            if (newMatches != 0) {
+                found |= newMatches;
+                if (matchEnds != null) {
+                    while (newMatches != 0) {
+                        int p = Long.numberOfTrailingZeros(newMatches);
+                        matchEnds[p] = i + 1;
+                        newMatches &= newMatches - 1;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+}
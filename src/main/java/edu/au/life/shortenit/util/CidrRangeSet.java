@@ -0,0 +1,171 @@
+package edu.au.life.shortenit.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A set of CIDR networks compiled into plain masks, so matching an address is
+ * a handful of AND / compare operations and no string handling.
+ */
+public class CidrRangeSet {
+
+    /**
+     * Loopback, private, shared (CGNAT), link-local, documentation, benchmark,
+     * multicast and other special-purpose ranges that GeoIP cannot place
+     */
+    public static final CidrRangeSet PRIVATE_AND_RESERVED = CidrRangeSet.of(List.of(
+            "0.0.0.0/8",
+            "10.0.0.0/8",
+            "100.64.0.0/10",
+            "127.0.0.0/8",
+            "169.254.0.0/16",
+            "172.16.0.0/12",
+            "192.0.0.0/24",
+            "192.0.2.0/24",
+            "192.88.99.0/24",
+            "192.168.0.0/16",
+            "198.18.0.0/15",
+            "198.51.100.0/24",
+            "203.0.113.0/24",
+            "224.0.0.0/4",
+            "240.0.0.0/4",
+            "::/128",
+            "::1/128",
+            "100::/64",
+            "2001:db8::/32",
+            "fc00::/7",
+            "fe80::/10",
+            "ff00::/8"
+    ));
+
+    private final int[] v4Networks;
+    private final int[] v4Masks;
+    private final long[] v6Networks; // pairs of (high, low)
+    private final long[] v6Masks;
+
+    private CidrRangeSet(int[] v4Networks, int[] v4Masks, long[] v6Networks, long[] v6Masks) {
+        this.v4Networks = v4Networks;
+        this.v4Masks = v4Masks;
+        this.v6Networks = v6Networks;
+        this.v6Masks = v6Masks;
+    }
+
+    /**
+     * @throws IllegalArgumentException if any entry is not a valid CIDR or IP literal
+     */
+    public static CidrRangeSet of(Collection<String> cidrs) {
+        List<int[]> v4 = new ArrayList<>();
+        List<long[]> v6 = new ArrayList<>();
+
+        for (String cidr : cidrs) {
+            String trimmed = cidr.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+
+            int slash = trimmed.indexOf('/');
+            byte[] address = IpLiteralParser.parse(slash < 0 ? trimmed : trimmed.substring(0, slash));
+            if (address == null) {
+                throw new IllegalArgumentException("Invalid CIDR range: " + cidr);
+            }
+
+            int maxBits = address.length * 8;
+            int prefix;
+            try {
+                prefix = slash < 0 ? maxBits : Integer.parseInt(trimmed.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid CIDR range: " + cidr);
+            }
+            // ::ffff:a.b.c.d/n is parsed as IPv4, shift the prefix accordingly
+            if (address.length == 4 && trimmed.indexOf(':') >= 0) {
+                prefix -= 96;
+            }
+            if (prefix < 0 || prefix > maxBits) {
+                throw new IllegalArgumentException("Invalid CIDR prefix: " + cidr);
+            }
+
+            if (address.length == 4) {
+                int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+                v4.add(new int[]{toInt(address) & mask, mask});
+            } else {
+                long maskHigh = mask64(prefix);
+                long maskLow = mask64(prefix - 64);
+                v6.add(new long[]{toLong(address, 0) & maskHigh, toLong(address, 8) & maskLow, maskHigh, maskLow});
+            }
+        }
+
+        int[] v4Networks = new int[v4.size()];
+        int[] v4Masks = new int[v4.size()];
+        for (int i = 0; i < v4.size(); i++) {
+            v4Networks[i] = v4.get(i)[0];
+            v4Masks[i] = v4.get(i)[1];
+        }
+
+        long[] v6Networks = new long[v6.size() * 2];
+        long[] v6Masks = new long[v6.size() * 2];
+        for (int i = 0; i < v6.size(); i++) {
+            long[] range = v6.get(i);
+            v6Networks[i * 2] = range[0];
+            v6Networks[i * 2 + 1] = range[1];
+            v6Masks[i * 2] = range[2];
+            v6Masks[i * 2 + 1] = range[3];
+        }
+
+        return new CidrRangeSet(v4Networks, v4Masks, v6Networks, v6Masks);
+    }
+
+    public boolean contains(byte[] address) {
+        if (address == null) {
+            return false;
+        }
+
+        if (address.length == 4) {
+            int ip = toInt(address);
+            for (int i = 0; i < v4Networks.length; i++) {
+                if ((ip & v4Masks[i]) == v4Networks[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long high = toLong(address, 0);
+        long low = toLong(address, 8);
+        for (int i = 0; i < v6Networks.length; i += 2) {
+            if ((high & v6Masks[i]) == v6Networks[i] && (low & v6Masks[i + 1]) == v6Networks[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(String ip) {
+        return contains(IpLiteralParser.parse(ip));
+    }
+
+    public boolean isEmpty() {
+        return v4Networks.length == 0 && v6Networks.length == 0;
+    }
+
+    private static long mask64(int bits) {
+        if (bits <= 0) return 0L;
+        if (bits >= 64) return -1L;
+        return -1L << (64 - bits);
+    }
+
+    private static int toInt(byte[] address) {
+        return ((address[0] & 0xFF) << 24)
+                | ((address[1] & 0xFF) << 16)
+                | ((address[2] & 0xFF) << 8)
+                | (address[3] & 0xFF);
+    }
+
+    private static long toLong(byte[] address, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (address[i] & 0xFFL);
+        }
+        return value;
+    }
+}
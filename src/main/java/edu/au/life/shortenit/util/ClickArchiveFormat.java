@@ -0,0 +1,104 @@
+package edu.au.life.shortenit.util;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Layout shared by {@link ClickArchiveWriter} and {@link ClickArchiveReader}.
+ *
+ * <pre>
+ * header   int magic, short version
+ * blocks   per block, one Deflate-compressed chunk per column
+ * footer   per dimension column: int size, size x UTF value (code = index + 1, 0 = none)
+ *          int blocks, per block: int rows, long minUrlId, long maxUrlId, long minTime, long maxTime,
+ *                                 per column: long offset, int compressedLength, int rawLength
+ * trailer  long footerOffset, int magic
+ * </pre>
+ *
+ * Rows are sorted by url id then time, so the per-block url range lets a scan
+ * for one link skip almost every block. url id and time columns are zigzag
+ * varint deltas, dimension columns varint dictionary codes, the ip column
+ * length-prefixed bytes.
+ */
+final class ClickArchiveFormat {
+
+    static final int MAGIC = 0x53434C4B; // "SCLK"
+    static final short VERSION = 1;
+    static final int TRAILER_LENGTH = 12;
+
+    static final int URL_ID = 0;
+    static final int CLICKED_AT = 1;
+    static final int COUNTRY = 2;
+    static final int CITY = 3;
+    static final int DEVICE_TYPE = 4;
+    static final int BROWSER = 5;
+    static final int OPERATING_SYSTEM = 6;
+    static final int USER_AGENT = 7;
+    static final int REFERRER = 8;
+    static final int IP = 9;
+    static final int COLUMNS = 10;
+
+    // Columns COUNTRY..REFERRER are dictionary encoded
+    static final int FIRST_DIMENSION = COUNTRY;
+    static final int DIMENSIONS = REFERRER - COUNTRY + 1;
+
+    private ClickArchiveFormat() {
+    }
+
+    static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1_000_000,
+                ZoneOffset.UTC);
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Cursor over a decompressed column
+     */
+    static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            System.arraycopy(data, position, bytes, 0, length);
+            position += length;
+            return bytes;
+        }
+    }
+}
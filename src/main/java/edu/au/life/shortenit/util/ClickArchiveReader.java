@@ -0,0 +1,309 @@
+package edu.au.life.shortenit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static edu.au.life.shortenit.util.ClickArchiveFormat.*;
+
+/**
+ * Scans a click archive written by {@link ClickArchiveWriter}.
+ *
+ * A scan works a block at a time: blocks whose url and time ranges miss the
+ * query are skipped from the footer alone, the url and time columns of the
+ * rest are decoded into primitive arrays and filtered into a selection
+ * vector, and only then are the dimension columns decoded and counted per
+ * dictionary code. Strings are looked up once per distinct code at the end.
+ */
+public class ClickArchiveReader implements Closeable {
+
+    private static final int[] COUNTED = {COUNTRY, CITY, DEVICE_TYPE, BROWSER, OPERATING_SYSTEM, REFERRER};
+
+    private final RandomAccessFile file;
+    private final List<String[]> dictionaries = new ArrayList<>();
+    private final List<Block> blocks = new ArrayList<>();
+
+    private record Block(int rows, long minUrlId, long maxUrlId, long minTime, long maxTime,
+                         long[] offsets, int[] compressedLengths, int[] rawLengths) {
+    }
+
+    public ClickArchiveReader(Path path) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), "r");
+        try {
+            readFooter();
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void readFooter() throws IOException {
+        if (file.readInt() != MAGIC || file.readShort() != VERSION) {
+            throw new IOException("Not a click archive");
+        }
+        file.seek(file.length() - TRAILER_LENGTH);
+        long footerOffset = file.readLong();
+        if (file.readInt() != MAGIC) {
+            throw new IOException("Click archive is truncated");
+        }
+
+        byte[] footer = new byte[(int) (file.length() - TRAILER_LENGTH - footerOffset)];
+        file.seek(footerOffset);
+        file.readFully(footer);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer));
+
+        for (int d = 0; d < DIMENSIONS; d++) {
+            String[] dictionary = new String[in.readInt() + 1];
+            for (int code = 1; code < dictionary.length; code++) {
+                dictionary[code] = in.readUTF();
+            }
+            dictionaries.add(dictionary);
+        }
+        int blockCount = in.readInt();
+        for (int b = 0; b < blockCount; b++) {
+            int rows = in.readInt();
+            long minUrlId = in.readLong();
+            long maxUrlId = in.readLong();
+            long minTime = in.readLong();
+            long maxTime = in.readLong();
+            long[] offsets = new long[COLUMNS];
+            int[] compressedLengths = new int[COLUMNS];
+            int[] rawLengths = new int[COLUMNS];
+            for (int column = 0; column < COLUMNS; column++) {
+                offsets[column] = in.readLong();
+                compressedLengths[column] = in.readInt();
+                rawLengths[column] = in.readInt();
+            }
+            blocks.add(new Block(rows, minUrlId, maxUrlId, minTime, maxTime, offsets, compressedLengths, rawLengths));
+        }
+    }
+
+    public long getRows() {
+        return blocks.stream().mapToLong(Block::rows).sum();
+    }
+
+    /**
+     * Aggregates the clicks of one link in [from, to)
+     */
+    public Aggregate scan(long urlId, LocalDateTime from, LocalDateTime to) throws IOException {
+        long fromMillis = toMillis(from);
+        long toMillis = toMillis(to);
+        long[][] counts = new long[DIMENSIONS][];
+        for (int column : COUNTED) {
+            counts[column - FIRST_DIMENSION] = new long[dictionaries.get(column - FIRST_DIMENSION).length];
+        }
+        Map<Long, Long> cityCountry = new HashMap<>();
+        Aggregate aggregate = new Aggregate();
+
+        for (Block block : blocks) {
+            if (urlId < block.minUrlId || urlId > block.maxUrlId
+                    || block.maxTime < fromMillis || block.minTime >= toMillis) {
+                continue;
+            }
+
+            aggregate.blocksRead++;
+            long[] urlIds = decodeDeltas(block, URL_ID);
+            long[] times = decodeDeltas(block, CLICKED_AT);
+            int[] selection = new int[block.rows];
+            int selected = 0;
+            for (int i = 0; i < block.rows; i++) {
+                if (urlIds[i] == urlId && times[i] >= fromMillis && times[i] < toMillis) {
+                    selection[selected++] = i;
+                }
+            }
+            if (selected == 0) {
+                continue;
+            }
+
+            aggregate.total += selected;
+            for (int s = 0; s < selected; s++) {
+                LocalDateTime time = fromMillis(times[selection[s]]);
+                aggregate.byDate.merge(time.toLocalDate(), 1L, Long::sum);
+                aggregate.byHour[time.getHour()]++;
+            }
+
+            int[] countries = null;
+            for (int column : COUNTED) {
+                int[] codes = decodeCodes(block, column);
+                long[] columnCounts = counts[column - FIRST_DIMENSION];
+                for (int s = 0; s < selected; s++) {
+                    columnCounts[codes[selection[s]]]++;
+                }
+                if (column == COUNTRY) {
+                    countries = codes;
+                } else if (column == CITY) {
+                    for (int s = 0; s < selected; s++) {
+                        int row = selection[s];
+                        if (codes[row] != 0) {
+                            cityCountry.merge(((long) codes[row] << 32) | countries[row], 1L, Long::sum);
+                        }
+                    }
+                }
+            }
+        }
+
+        aggregate.countries = named(COUNTRY, counts);
+        aggregate.deviceTypes = named(DEVICE_TYPE, counts);
+        aggregate.unknownDeviceTypes = counts[DEVICE_TYPE - FIRST_DIMENSION][0];
+        aggregate.browsers = named(BROWSER, counts);
+        aggregate.operatingSystems = named(OPERATING_SYSTEM, counts);
+        aggregate.referrers = named(REFERRER, counts);
+        String[] cities = dictionaries.get(CITY - FIRST_DIMENSION);
+        String[] countryNames = dictionaries.get(COUNTRY - FIRST_DIMENSION);
+        cityCountry.forEach((key, clicks) -> aggregate.cities.add(
+                new CityCount(cities[(int) (key >>> 32)], countryNames[(int) (key & 0xFFFFFFFFL)], clicks)));
+        return aggregate;
+    }
+
+    private Map<String, Long> named(int column, long[][] counts) {
+        String[] dictionary = dictionaries.get(column - FIRST_DIMENSION);
+        long[] columnCounts = counts[column - FIRST_DIMENSION];
+        Map<String, Long> named = new HashMap<>();
+        for (int code = 1; code < columnCounts.length; code++) {
+            if (columnCounts[code] > 0) {
+                named.put(dictionary[code], columnCounts[code]);
+            }
+        }
+        return named;
+    }
+
+    private long[] decodeDeltas(Block block, int column) throws IOException {
+        Input in = new Input(read(block, column));
+        long[] values = new long[block.rows];
+        long previous = 0;
+        for (int i = 0; i < block.rows; i++) {
+            previous += unzigzag(in.readVarLong());
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private int[] decodeCodes(Block block, int column) throws IOException {
+        Input in = new Input(read(block, column));
+        int[] codes = new int[block.rows];
+        for (int i = 0; i < block.rows; i++) {
+            codes[i] = (int) in.readVarLong();
+        }
+        return codes;
+    }
+
+    private byte[] read(Block block, int column) throws IOException {
+        byte[] compressed = new byte[block.compressedLengths[column]];
+        file.seek(block.offsets[column]);
+        file.readFully(compressed);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[block.rawLengths[column]];
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt click archive block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public record CityCount(String city, String country, long clicks) {
+    }
+
+    /**
+     * Click counts of one scan; {@link #merge} combines several months
+     */
+    public static class Aggregate {
+        private long total;
+        private final Map<LocalDate, Long> byDate = new TreeMap<>();
+        private final long[] byHour = new long[24];
+        private Map<String, Long> countries = new HashMap<>();
+        private List<CityCount> cities = new ArrayList<>();
+        private Map<String, Long> deviceTypes = new HashMap<>();
+        private long unknownDeviceTypes;
+        private Map<String, Long> browsers = new HashMap<>();
+        private Map<String, Long> operatingSystems = new HashMap<>();
+        private Map<String, Long> referrers = new HashMap<>();
+        private int blocksRead;
+
+        public long getTotal() {
+            return total;
+        }
+
+        public Map<LocalDate, Long> getByDate() {
+            return byDate;
+        }
+
+        public long[] getByHour() {
+            return byHour;
+        }
+
+        public Map<String, Long> getCountries() {
+            return countries;
+        }
+
+        public List<CityCount> getCities() {
+            return cities;
+        }
+
+        public Map<String, Long> getDeviceTypes() {
+            return deviceTypes;
+        }
+
+        public long getUnknownDeviceTypes() {
+            return unknownDeviceTypes;
+        }
+
+        public Map<String, Long> getBrowsers() {
+            return browsers;
+        }
+
+        public Map<String, Long> getOperatingSystems() {
+            return operatingSystems;
+        }
+
+        public Map<String, Long> getReferrers() {
+            return referrers;
+        }
+
+        // Blocks whose columns were decoded; the others were skipped on their footer entry alone
+        public int getBlocksRead() {
+            return blocksRead;
+        }
+
+        public Aggregate merge(Aggregate other) {
+            total += other.total;
+            blocksRead += other.blocksRead;
+            other.byDate.forEach((day, clicks) -> byDate.merge(day, clicks, Long::sum));
+            for (int hour = 0; hour < 24; hour++) {
+                byHour[hour] += other.byHour[hour];
+            }
+            other.countries.forEach((key, clicks) -> countries.merge(key, clicks, Long::sum));
+            cities.addAll(other.cities);
+            other.deviceTypes.forEach((key, clicks) -> deviceTypes.merge(key, clicks, Long::sum));
+            unknownDeviceTypes += other.unknownDeviceTypes;
+            other.browsers.forEach((key, clicks) -> browsers.merge(key, clicks, Long::sum));
+            other.operatingSystems.forEach((key, clicks) -> operatingSystems.merge(key, clicks, Long::sum));
+            other.referrers.forEach((key, clicks) -> referrers.merge(key, clicks, Long::sum));
+            return this;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package edu.au.life.shortenit.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static edu.au.life.shortenit.util.ClickArchiveFormat.*;
+
+/**
+ * Writes clicks into a columnar archive file, see {@link ClickArchiveFormat}.
+ * Rows must be appended in (url id, clicked at) order; they are buffered into
+ * blocks of {@code blockSize} rows and each column is compressed separately.
+ */
+public class ClickArchiveWriter implements Closeable {
+
+    public record Row(long urlId, LocalDateTime clickedAt, byte[] ip, String country, String city, String deviceType,
+                      String browser, String operatingSystem, String userAgent, String referrer) {
+    }
+
+    private final DataOutputStream out;
+    private final int blockSize;
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+    private final List<Map<String, Integer>> codes = new ArrayList<>();
+    private final List<List<String>> dictionaries = new ArrayList<>();
+    private final List<long[]> blockIndex = new ArrayList<>();
+    private long position;
+    private long rows;
+
+    private final long[] urlIds;
+    private final long[] times;
+    private final int[][] dimensions;
+    private final byte[][] ips;
+    private int buffered;
+
+    public ClickArchiveWriter(Path file, int blockSize) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        this.blockSize = blockSize;
+        this.urlIds = new long[blockSize];
+        this.times = new long[blockSize];
+        this.dimensions = new int[DIMENSIONS][blockSize];
+        this.ips = new byte[blockSize][];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            codes.add(new HashMap<>());
+            dictionaries.add(new ArrayList<>());
+        }
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        position = 6;
+    }
+
+    public void append(Row row) throws IOException {
+        urlIds[buffered] = row.urlId();
+        times[buffered] = toMillis(row.clickedAt());
+        ips[buffered] = row.ip();
+        String[] values = {row.country(), row.city(), row.deviceType(), row.browser(), row.operatingSystem(),
+                row.userAgent(), row.referrer()};
+        for (int i = 0; i < DIMENSIONS; i++) {
+            dimensions[i][buffered] = code(i, values[i]);
+        }
+        rows++;
+        if (++buffered == blockSize) {
+            flushBlock();
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    private int code(int dimension, String value) {
+        if (value == null) {
+            return 0;
+        }
+        Integer code = codes.get(dimension).get(value);
+        if (code == null) {
+            List<String> dictionary = dictionaries.get(dimension);
+            dictionary.add(value);
+            code = dictionary.size();
+            codes.get(dimension).put(value, code);
+        }
+        return code;
+    }
+
+    private void flushBlock() throws IOException {
+        if (buffered == 0) {
+            return;
+        }
+        long[] entry = new long[5 + COLUMNS * 3];
+        entry[0] = buffered;
+        entry[1] = urlIds[0];
+        entry[2] = urlIds[buffered - 1];
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < buffered; i++) {
+            minTime = Math.min(minTime, times[i]);
+            maxTime = Math.max(maxTime, times[i]);
+        }
+        entry[3] = minTime;
+        entry[4] = maxTime;
+
+        for (int column = 0; column < COLUMNS; column++) {
+            byte[] raw = encode(column);
+            byte[] compressed = compress(raw);
+            entry[5 + column * 3] = position;
+            entry[6 + column * 3] = compressed.length;
+            entry[7 + column * 3] = raw.length;
+            out.write(compressed);
+            position += compressed.length;
+        }
+        blockIndex.add(entry);
+        buffered = 0;
+    }
+
+    private byte[] encode(int column) {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(buffered * 2);
+        switch (column) {
+            case URL_ID, CLICKED_AT -> {
+                long[] values = column == URL_ID ? urlIds : times;
+                long previous = 0;
+                for (int i = 0; i < buffered; i++) {
+                    writeVarLong(raw, zigzag(values[i] - previous));
+                    previous = values[i];
+                }
+            }
+            case IP -> {
+                for (int i = 0; i < buffered; i++) {
+                    byte[] ip = ips[i];
+                    writeVarLong(raw, ip == null ? 0 : ip.length);
+                    if (ip != null) {
+                        raw.write(ip, 0, ip.length);
+                    }
+                }
+            }
+            default -> {
+                int[] values = dimensions[column - FIRST_DIMENSION];
+                for (int i = 0; i < buffered; i++) {
+                    writeVarLong(raw, values[i]);
+                }
+            }
+        }
+        return raw.toByteArray();
+    }
+
+    private byte[] compress(byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (OutputStream ignored = out) {
+            flushBlock();
+            long footerOffset = position;
+            for (List<String> dictionary : dictionaries) {
+                out.writeInt(dictionary.size());
+                for (String value : dictionary) {
+                    out.writeUTF(value);
+                }
+            }
+            out.writeInt(blockIndex.size());
+            for (long[] entry : blockIndex) {
+                out.writeInt((int) entry[0]);
+                for (int i = 1; i < 5; i++) {
+                    out.writeLong(entry[i]);
+                }
+                for (int column = 0; column < COLUMNS; column++) {
+                    out.writeLong(entry[5 + column * 3]);
+                    out.writeInt((int) entry[6 + column * 3]);
+                    out.writeInt((int) entry[7 + column * 3]);
+                }
+            }
+            out.writeLong(footerOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package edu.au.life.shortenit.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * Works out the real client IP behind our reverse proxies.
+ *
+ * Forwarding headers are only honoured when the direct peer is a trusted
+ * proxy, and X-Forwarded-For is read right to left so a client cannot spoof
+ * its address by sending its own header. Every candidate must be a valid IP
+ * literal; anything else is ignored rather than resolved.
+ *
+ * The non-standard headers some proxies and app servers use (Proxy-Client-IP,
+ * HTTP_X_FORWARDED_FOR, ...) are only read with
+ * {@code app.client-ip.fallback-headers} set, for deployments behind such a
+ * proxy: a proxy that does not set them passes on whatever the client sent.
+ */
+@Component
+public class ClientIpResolver {
+
+    private static final String[] FALLBACK_HEADERS = {
+            "Proxy-Client-IP",
+            "WL-Proxy-Client-IP",
+            "HTTP_X_FORWARDED_FOR",
+            "HTTP_X_FORWARDED",
+            "HTTP_X_CLUSTER_CLIENT_IP",
+            "HTTP_CLIENT_IP",
+            "HTTP_FORWARDED_FOR",
+            "HTTP_FORWARDED"
+    };
+
+    private final CidrRangeSet trustedProxies;
+    private final boolean fallbackHeaders;
+
+    public ClientIpResolver(
+            @Value("${app.trusted-proxies:127.0.0.0/8,::1/128,10.0.0.0/8,172.16.0.0/12,192.168.0.0/16,fc00::/7}") String trustedProxies,
+            @Value("${app.client-ip.fallback-headers:false}") boolean fallbackHeaders) {
+        this.trustedProxies = CidrRangeSet.of(Arrays.asList(trustedProxies.split(",")));
+        this.fallbackHeaders = fallbackHeaders;
+    }
+
+    public String resolveClientIp(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (!trustedProxies.contains(remoteAddr)) {
+            return remoteAddr;
+        }
+
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (forwardedFor != null && !forwardedFor.isEmpty()) {
+            String[] hops = forwardedFor.split(",");
+            String leftmostValid = null;
+            for (int i = hops.length - 1; i >= 0; i--) {
+                String hop = hops[i].trim();
+                byte[] address = IpLiteralParser.parse(hop);
+                if (address == null) {
+                    break;
+                }
+                if (!trustedProxies.contains(address)) {
+                    return hop;
+                }
+                leftmostValid = hop;
+            }
+            if (leftmostValid != null) {
+                return leftmostValid;
+            }
+        }
+
+        if (!fallbackHeaders) {
+            return remoteAddr;
+        }
+        for (String header : FALLBACK_HEADERS) {
+            String value = request.getHeader(header);
+            if (value != null && !value.isEmpty()) {
+                String ip = value.split(",")[0].trim();
+                if (IpLiteralParser.isValid(ip)) {
+                    return ip;
+                }
+            }
+        }
+
+        return remoteAddr;
+    }
+}
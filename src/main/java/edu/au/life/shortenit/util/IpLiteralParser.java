@@ -0,0 +1,201 @@
+package edu.au.life.shortenit.util;
+
+/**
+ * Strict IPv4 / IPv6 literal parser.
+ *
+ * Unlike InetAddress.getByName this never falls back to a DNS lookup, so a
+ * garbage X-Forwarded-For value cannot block a request thread. The only
+ * allocation is the returned byte array.
+ */
+public final class IpLiteralParser {
+
+    private IpLiteralParser() {
+    }
+
+    /**
+     * @return 4 bytes for IPv4 (including IPv4-mapped IPv6), 16 bytes for IPv6,
+     *         or null when the value is not a valid IP literal
+     */
+    public static byte[] parse(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) <= ' ') start++;
+        while (end > start && value.charAt(end - 1) <= ' ') end--;
+        if (start == end) {
+            return null;
+        }
+
+        if (value.charAt(start) == '[') {
+            if (value.charAt(end - 1) != ']') {
+                return null;
+            }
+            start++;
+            end--;
+        }
+
+        if (value.indexOf(':', start) < 0 || value.indexOf(':', start) >= end) {
+            byte[] address = new byte[4];
+            return parseIPv4(value, start, end, address, 0) ? address : null;
+        }
+
+        // Drop an IPv6 zone id such as fe80::1%eth0
+        int zone = value.indexOf('%', start);
+        if (zone >= 0 && zone < end) {
+            end = zone;
+        }
+        return parseIPv6(value, start, end);
+    }
+
+    public static boolean isValid(String value) {
+        return parse(value) != null;
+    }
+
+    // ASCII only; Character.digit would also take e.g. fullwidth and Arabic-Indic digits
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean parseIPv4(String s, int start, int end, byte[] out, int offset) {
+        int parts = 0;
+        int value = 0;
+        int digits = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // No leading zeros, "010" is octal to some parsers
+                if (digits > 0 && value == 0) {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                if (++digits > 3 || value > 255) {
+                    return false;
+                }
+            } else if (c == '.') {
+                if (digits == 0 || parts == 3) {
+                    return false;
+                }
+                out[offset + parts++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+
+        if (digits == 0 || parts != 3) {
+            return false;
+        }
+        out[offset + 3] = (byte) value;
+        return true;
+    }
+
+    private static byte[] parseIPv6(String s, int start, int end) {
+        byte[] address = new byte[16];
+        int words = 0;
+        int compressAt = -1;
+        int i = start;
+
+        if (s.charAt(i) == ':') {
+            if (i + 1 >= end || s.charAt(i + 1) != ':') {
+                return null;
+            }
+            compressAt = 0;
+            i += 2;
+        }
+
+        while (i < end) {
+            if (words == 8) {
+                return null;
+            }
+
+            int groupStart = i;
+            int value = 0;
+            int digits = 0;
+            while (i < end) {
+                int hex = hexDigit(s.charAt(i));
+                if (hex < 0) {
+                    break;
+                }
+                value = (value << 4) | hex;
+                if (++digits > 4) {
+                    return null;
+                }
+                i++;
+            }
+
+            // Trailing dotted quad, e.g. ::ffff:192.0.2.1
+            if (i < end && s.charAt(i) == '.') {
+                if (words > 6 || !parseIPv4(s, groupStart, end, address, words * 2)) {
+                    return null;
+                }
+                words += 2;
+                break;
+            }
+
+            if (digits == 0) {
+                return null;
+            }
+            address[words * 2] = (byte) (value >>> 8);
+            address[words * 2 + 1] = (byte) value;
+            words++;
+
+            if (i == end) {
+                break;
+            }
+            if (s.charAt(i) != ':') {
+                return null;
+            }
+            i++;
+            if (i < end && s.charAt(i) == ':') {
+                if (compressAt >= 0) {
+                    return null;
+                }
+                compressAt = words;
+                i++;
+            } else if (i == end) {
+                return null;
+            }
+        }
+
+        if (compressAt >= 0) {
+            if (words == 8) {
+                return null;
+            }
+            int tail = (words - compressAt) * 2;
+            System.arraycopy(address, compressAt * 2, address, 16 - tail, tail);
+            for (int j = compressAt * 2; j < 16 - tail; j++) {
+                address[j] = 0;
+            }
+        } else if (words != 8) {
+            return null;
+        }
+
+        if (isIPv4Mapped(address)) {
+            return new byte[]{address[12], address[13], address[14], address[15]};
+        }
+        return address;
+    }
+
+    private static boolean isIPv4Mapped(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return address[10] == (byte) 0xFF && address[11] == (byte) 0xFF;
+    }
+}
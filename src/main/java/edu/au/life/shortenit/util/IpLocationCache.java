@@ -0,0 +1,97 @@
+package edu.au.life.shortenit.util;
+
+import edu.au.life.shortenit.dto.GeoLocation;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded IP to GeoLocation cache for the click path.
+ *
+ * Keys are kept as primitives: the IPv4 address as an int, and for IPv6 the
+ * upper 64 bits (the /64 network), which is as fine as GeoIP data ever gets.
+ * The table is direct-mapped: each key hashes to exactly one slot and a new
+ * entry simply overwrites whatever was there. That gives a hard size bound,
+ * O(1) lookups and no locking, at the cost of the odd collision miss.
+ *
+ * Every entry remembers the database generation it was resolved against, so
+ * a GeoIP reload invalidates the whole cache without touching it.
+ */
+public class IpLocationCache {
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public IpLocationCache(int maxEntries, long ttlNanos) {
+        int capacity = Integer.highestOneBit(Math.max(16, maxEntries - 1)) << 1;
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.ttlNanos = ttlNanos;
+    }
+
+    public GeoLocation get(byte[] address, long generation) {
+        boolean ipv6 = address.length == 16;
+        long key = toKey(address);
+        Entry entry = table.get(slot(key, ipv6));
+
+        if (entry != null && entry.key == key && entry.ipv6 == ipv6
+                && entry.generation == generation && System.nanoTime() - entry.expiresAt < 0) {
+            hits.increment();
+            return entry.location;
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(byte[] address, GeoLocation location, long generation) {
+        boolean ipv6 = address.length == 16;
+        long key = toKey(address);
+        table.set(slot(key, ipv6), new Entry(key, ipv6, location, generation, System.nanoTime() + ttlNanos));
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public double hitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private static long toKey(byte[] address) {
+        if (address.length == 4) {
+            return ((address[0] & 0xFFL) << 24)
+                    | ((address[1] & 0xFFL) << 16)
+                    | ((address[2] & 0xFFL) << 8)
+                    | (address[3] & 0xFFL);
+        }
+        long prefix = 0;
+        for (int i = 0; i < 8; i++) {
+            prefix = (prefix << 8) | (address[i] & 0xFFL);
+        }
+        return prefix;
+    }
+
+    private int slot(long key, boolean ipv6) {
+        // murmur3 finalizer, so neighbouring addresses spread over the table
+        long h = key ^ (ipv6 ? 0x9E3779B97F4A7C15L : 0L);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private record Entry(long key, boolean ipv6, GeoLocation location, long generation, long expiresAt) {
+    }
+}
@@ -38,6 +38,7 @@ public class SecurityUtils {
             }
 
             return userRepository.findById(principal.getUserId())
+                    .filter(user -> user.getDeletedAt() == null)
                     .orElseThrow(() -> new ResourceNotFoundException("User not found"));
         }
 
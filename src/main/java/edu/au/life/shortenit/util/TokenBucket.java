@@ -0,0 +1,64 @@
+package edu.au.life.shortenit.util;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ *
+ * Instead of storing a token count plus a refill timestamp, the bucket keeps a
+ * single value: the moment (in System.nanoTime() units) at which it will be full
+ * again. Consuming a token pushes that moment forward by one token's worth of
+ * refill time, and refill happens lazily because time simply passes. This keeps
+ * the whole state in one AtomicLong so a CAS is enough, no locks needed.
+ */
+public class TokenBucket {
+
+    private final long capacity;
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+    private volatile long lastAccessNanos;
+
+    public TokenBucket(long capacity, long refillTokens, Duration refillPeriod, long nowNanos) {
+        if (capacity <= 0 || refillTokens <= 0 || refillPeriod == null || refillPeriod.isZero() || refillPeriod.isNegative()) {
+            throw new IllegalArgumentException("Token bucket needs a positive capacity and refill rate");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = Math.max(1, refillPeriod.toNanos() / refillTokens);
+        this.burstNanos = capacity * nanosPerToken;
+        this.fullAt = new AtomicLong(nowNanos);
+        this.lastAccessNanos = nowNanos;
+    }
+
+    public Probe tryConsume(long nowNanos) {
+        lastAccessNanos = nowNanos;
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, nowNanos) + nanosPerToken;
+            long debt = next - nowNanos;
+
+            if (debt > burstNanos) {
+                return new Probe(false, 0, debt - burstNanos);
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return new Probe(true, (burstNanos - debt) / nanosPerToken, 0);
+            }
+        }
+    }
+
+    /**
+     * A bucket is idle once it has fully refilled and nobody touched it for the
+     * given time. Dropping it loses no information: a new bucket starts full.
+     */
+    public boolean isIdle(long nowNanos, long idleNanos) {
+        return fullAt.get() <= nowNanos && nowNanos - lastAccessNanos >= idleNanos;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public record Probe(boolean consumed, long remainingTokens, long nanosToWait) {
+    }
+}
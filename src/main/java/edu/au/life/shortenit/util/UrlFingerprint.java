@@ -0,0 +1,77 @@
+package edu.au.life.shortenit.util;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Fixed-length fingerprint of a target URL, used to find an existing short
+ * link for the same destination through an index instead of comparing the
+ * 2048-character column.
+ *
+ * Normalization is deliberately conservative: scheme and host are lowercased,
+ * default ports dropped and an empty path becomes "/". Path, query and
+ * fragment are kept as written, since servers may treat them case-sensitively.
+ */
+public final class UrlFingerprint {
+
+    private UrlFingerprint() {
+    }
+
+    /**
+     * Hex SHA-256 of the normalized URL, 64 characters
+     */
+    public static String of(String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalize(url).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String normalize(String url) {
+        String trimmed = url.trim();
+        try {
+            URI uri = new URI(trimmed);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+                return trimmed;
+            }
+
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            StringBuilder normalized = new StringBuilder(trimmed.length()).append(scheme).append("://");
+            if (uri.getRawUserInfo() != null) {
+                normalized.append(uri.getRawUserInfo()).append('@');
+            }
+            if (uri.getHost() == null) {
+                normalized.append(uri.getRawAuthority().toLowerCase(Locale.ROOT));
+            } else {
+                normalized.append(uri.getHost().toLowerCase(Locale.ROOT));
+                int port = uri.getPort();
+                boolean defaultPort = ("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443);
+                if (port != -1 && !defaultPort) {
+                    normalized.append(':').append(port);
+                }
+            }
+
+            String path = uri.getRawPath();
+            normalized.append(path == null || path.isEmpty() ? "/" : path);
+            if (uri.getRawQuery() != null) {
+                normalized.append('?').append(uri.getRawQuery());
+            }
+            if (uri.getRawFragment() != null) {
+                normalized.append('#').append(uri.getRawFragment());
+            }
+            return normalized.toString();
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+    }
+}
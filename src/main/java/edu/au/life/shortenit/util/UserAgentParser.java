@@ -1,87 +1,219 @@
 package edu.au.life.shortenit.util;
 
+import edu.au.life.shortenit.dto.UserAgentInfo;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 @Component
 public class UserAgentParser {
 
-    // device type
-    public String getDeviceType(String userAgent) {
-        if (userAgent == null || userAgent.isEmpty()) {
-            return "unknown";
-        }
+    // Every token the rules below look at, matched in a single pass
+    private static final List<String> PATTERNS = List.of(
+            // device
+            "ipad", "tablet", "android", "mobile", "iphone", "ipod", "blackberry", "windows phone",
+            // browser
+            "edg/", "edg", "chrome/", "chrome", "firefox/", "safari/", "opera", "opr/", "msie", "trident/",
+            "version/", "rv:",
+            // operating system
+            "windows nt 10", "windows nt 6.3", "windows nt 6.2", "windows nt 6.1", "windows", "mac os x", "linux"
+    );
 
-        String ua = userAgent.toLowerCase();
+    // Indexes into PATTERNS, which are also the bit positions in the scan result
+    private static final int IPAD = 0;
+    private static final int TABLET = 1;
+    private static final int ANDROID = 2;
+    private static final int MOBILE = 3;
+    private static final int IPHONE = 4;
+    private static final int IPOD = 5;
+    private static final int BLACKBERRY = 6;
+    private static final int WINDOWS_PHONE = 7;
+    private static final int EDG_SLASH = 8;
+    private static final int EDG = 9;
+    private static final int CHROME_SLASH = 10;
+    private static final int CHROME = 11;
+    private static final int FIREFOX_SLASH = 12;
+    private static final int SAFARI_SLASH = 13;
+    private static final int OPERA = 14;
+    private static final int OPR_SLASH = 15;
+    private static final int MSIE = 16;
+    private static final int TRIDENT_SLASH = 17;
+    private static final int VERSION_SLASH = 18;
+    private static final int RV = 19;
+    private static final int WINDOWS_10 = 20;
+    private static final int WINDOWS_8_1 = 21;
+    private static final int WINDOWS_8 = 22;
+    private static final int WINDOWS_7 = 23;
+    private static final int WINDOWS = 24;
+    private static final int MAC_OS_X = 25;
+    private static final int LINUX = 26;
 
-        // Check for tablets first (more specific)
-        if (ua.contains("ipad") || ua.contains("tablet") ||
-            (ua.contains("android") && !ua.contains("mobile"))) {
-            return "tablet";
+    private static final AhoCorasickMatcher MATCHER = new AhoCorasickMatcher(PATTERNS);
+
+    // Search crawlers, link-preview fetchers (Slack, Teams, Facebook, WhatsApp, ...) and scripted clients.
+    // No bare "bot": it would also catch phone models such as Cubot.
+    private static final List<String> BOT_SIGNATURES = List.of(
+            "googlebot", "bingbot", "yandexbot", "baiduspider", "duckduckbot", "applebot", "petalbot",
+            "semrushbot", "ahrefsbot", "mj12bot", "dotbot", "crawler", "spider",
+            "slackbot", "slack-imgproxy", "skypeuripreview", "microsoftpreview", "facebookexternalhit",
+            "facebookcatalog", "meta-externalagent", "whatsapp", "twitterbot", "linkedinbot", "discordbot",
+            "telegrambot", "pinterestbot", "redditbot", "vkshare", "embedly", "iframely",
+            "headlesschrome", "curl/", "wget/", "python-requests", "go-http-client"
+    );
+
+    private static final AhoCorasickMatcher BOT_MATCHER = new AhoCorasickMatcher(BOT_SIGNATURES);
+
+    private static final UserAgentInfo UNKNOWN = new UserAgentInfo("unknown", "unknown", null, "unknown", false);
+
+    private final AtomicReferenceArray<CacheEntry> cache;
+    private final int cacheMask;
+
+    public UserAgentParser(@Value("${user-agent.cache-size:4096}") int cacheSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, cacheSize - 1)) << 1;
+        this.cache = new AtomicReferenceArray<>(capacity);
+        this.cacheMask = capacity - 1;
+    }
+
+    /**
+     * Device, browser, browser major version and OS from one scan of the string.
+     * Results are memoized in a bounded direct-mapped cache keyed by the raw string,
+     * since a few thousand user agents make up most of the traffic.
+     */
+    public UserAgentInfo parse(String userAgent) {
+        if (userAgent == null || userAgent.isEmpty()) {
+            return UNKNOWN;
         }
 
-        // Check for mobile devices
-        if (ua.contains("mobile") || ua.contains("iphone") || ua.contains("ipod")
-            || ua.contains("blackberry") || ua.contains("windows phone")
-            || (ua.contains("android") && ua.contains("mobile"))) {
-            return "mobile";
+        int hash = userAgent.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & cacheMask;
+        CacheEntry entry = cache.get(slot);
+        if (entry != null && entry.userAgent.equals(userAgent)) {
+            return entry.info;
         }
 
-        return "desktop";
+        UserAgentInfo info = classify(userAgent);
+        cache.set(slot, new CacheEntry(userAgent, info));
+        return info;
+    }
+
+    public boolean isBot(String userAgent) {
+        return parse(userAgent).isBot();
+    }
+
+    // device type
+    public String getDeviceType(String userAgent) {
+        return parse(userAgent).getDeviceType();
     }
 
     // browser type
     public String getBrowser(String userAgent) {
-        if (userAgent == null || userAgent.isEmpty()) {
-            return "unknown";
-        }
+        return parse(userAgent).getBrowser();
+    }
 
-        String ua = userAgent.toLowerCase();
+    public String getOperatingSystem(String userAgent) {
+        return parse(userAgent).getOperatingSystem();
+    }
+
+    private UserAgentInfo classify(String ua) {
+        int[] ends = new int[PATTERNS.size()];
+        long found = MATCHER.scan(ua, ends);
+
+        String deviceType = deviceType(found);
 
+        String browser;
+        String version = null;
         // Check in order of specificity
-        if (ua.contains("edg/")) {
-            return "Edge";
-        } else if (ua.contains("chrome/") && !ua.contains("edg")) {
-            return "Chrome";
-        } else if (ua.contains("firefox/")) {
-            return "Firefox";
-        } else if (ua.contains("safari/") && !ua.contains("chrome")) {
-            return "Safari";
-        } else if (ua.contains("opera") || ua.contains("opr/")) {
-            return "Opera";
-        } else if (ua.contains("msie") || ua.contains("trident/")) {
-            return "Internet Explorer";
+        if (has(found, EDG_SLASH)) {
+            browser = "Edge";
+            version = majorVersion(ua, ends[EDG_SLASH]);
+        } else if (has(found, CHROME_SLASH) && !has(found, EDG)) {
+            browser = "Chrome";
+            version = majorVersion(ua, ends[CHROME_SLASH]);
+        } else if (has(found, FIREFOX_SLASH)) {
+            browser = "Firefox";
+            version = majorVersion(ua, ends[FIREFOX_SLASH]);
+        } else if (has(found, SAFARI_SLASH) && !has(found, CHROME)) {
+            browser = "Safari";
+            version = majorVersion(ua, ends[VERSION_SLASH]);
+        } else if (has(found, OPERA) || has(found, OPR_SLASH)) {
+            browser = "Opera";
+            version = majorVersion(ua, has(found, OPR_SLASH) ? ends[OPR_SLASH] : ends[VERSION_SLASH]);
+        } else if (has(found, MSIE) || has(found, TRIDENT_SLASH)) {
+            browser = "Internet Explorer";
+            version = majorVersion(ua, has(found, MSIE) ? ends[MSIE] : ends[RV]);
+        } else {
+            browser = "Other";
         }
 
-        return "Other";
+        boolean bot = BOT_MATCHER.scan(ua, null) != 0;
+
+        return new UserAgentInfo(deviceType, browser, version, operatingSystem(found), bot);
     }
 
-    public String getOperatingSystem(String userAgent) {
-        if (userAgent == null || userAgent.isEmpty()) {
-            return "unknown";
+    private String deviceType(long found) {
+        boolean android = has(found, ANDROID);
+        boolean mobile = has(found, MOBILE);
+
+        // Check for tablets first (more specific)
+        if (has(found, IPAD) || has(found, TABLET) || (android && !mobile)) {
+            return "tablet";
+        }
+
+        // Check for mobile devices
+        if (mobile || has(found, IPHONE) || has(found, IPOD)
+                || has(found, BLACKBERRY) || has(found, WINDOWS_PHONE)) {
+            return "mobile";
         }
 
-        String ua = userAgent.toLowerCase();
+        return "desktop";
+    }
 
-        if (ua.contains("windows nt 10")) {
+    private String operatingSystem(long found) {
+        if (has(found, WINDOWS_10)) {
             return "Windows 10";
-        } else if (ua.contains("windows nt 6.3")) {
+        } else if (has(found, WINDOWS_8_1)) {
             return "Windows 8.1";
-        } else if (ua.contains("windows nt 6.2")) {
+        } else if (has(found, WINDOWS_8)) {
             return "Windows 8";
-        } else if (ua.contains("windows nt 6.1")) {
+        } else if (has(found, WINDOWS_7)) {
             return "Windows 7";
-        } else if (ua.contains("windows")) {
+        } else if (has(found, WINDOWS)) {
             return "Windows";
-        } else if (ua.contains("mac os x")) {
+        } else if (has(found, MAC_OS_X)) {
             return "macOS";
-        } else if (ua.contains("linux")) {
+        } else if (has(found, LINUX)) {
             return "Linux";
-        } else if (ua.contains("android")) {
+        } else if (has(found, ANDROID)) {
             return "Android";
-        } else if (ua.contains("iphone") || ua.contains("ipad")) {
+        } else if (has(found, IPHONE) || has(found, IPAD)) {
             return "iOS";
         }
 
         return "Other";
     }
+
+    private static boolean has(long found, int pattern) {
+        return (found & (1L << pattern)) != 0;
+    }
+
+    // Leading digits after the token, e.g. "chrome/120.0.1" -> "120"
+    private static String majorVersion(String ua, int from) {
+        if (from < 0) {
+            return null;
+        }
+        int start = from;
+        while (start < ua.length() && ua.charAt(start) == ' ') {
+            start++;
+        }
+        int end = start;
+        while (end < ua.length() && end - start < 5 && Character.isDigit(ua.charAt(end))) {
+            end++;
+        }
+        return end > start ? ua.substring(start, end) : null;
+    }
+
+    private record CacheEntry(String userAgent, UserAgentInfo info) {
+    }
 }
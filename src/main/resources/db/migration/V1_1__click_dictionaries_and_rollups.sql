@@ -0,0 +1,91 @@
+-- Tables and columns added on top of the baseline: soft deletes, URL
+-- fingerprints, bot clicks, dictionary-encoded click attributes, daily
+-- rollups, CSV imports and the short code sequence.
+
+ALTER TABLE users
+    ADD COLUMN deleted_at TIMESTAMP(6);
+
+ALTER TABLE urls
+    ADD COLUMN original_url_hash VARCHAR(64),
+    ADD COLUMN bot_click_count   BIGINT DEFAULT 0 NOT NULL,
+    ADD COLUMN deleted_at        TIMESTAMP(6);
+
+CREATE INDEX idx_urls_user_url_hash ON urls (user_id, original_url_hash);
+CREATE INDEX idx_urls_user_created ON urls (user_id, created_at, id);
+CREATE INDEX idx_urls_created ON urls (created_at, id);
+
+-- The text columns stay until V1.2 has encoded them into these and V1.3 drops them
+ALTER TABLE url_clicks
+    ADD COLUMN ip                  BYTEA,
+    ADD COLUMN user_agent_id       BIGINT,
+    ADD COLUMN referrer_id         BIGINT,
+    ADD COLUMN country_id          INTEGER,
+    ADD COLUMN city_id             INTEGER,
+    ADD COLUMN device_type_id      INTEGER,
+    ADD COLUMN browser_id          INTEGER,
+    ADD COLUMN operating_system_id INTEGER,
+    ADD COLUMN pending_enrichment  BOOLEAN;
+
+CREATE TABLE click_dimensions (
+    id   INTEGER GENERATED BY DEFAULT AS IDENTITY,
+    kind VARCHAR(20) NOT NULL CHECK (kind IN ('COUNTRY', 'CITY', 'DEVICE_TYPE', 'BROWSER', 'OPERATING_SYSTEM')),
+    name VARCHAR(100) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_click_dimensions_kind_name UNIQUE (kind, name)
+);
+
+CREATE TABLE click_texts (
+    id      BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    kind    VARCHAR(20) NOT NULL CHECK (kind IN ('USER_AGENT', 'REFERRER')),
+    hash    BYTEA NOT NULL,
+    content VARCHAR(500) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_click_texts_kind_hash UNIQUE (kind, hash)
+);
+
+CREATE TABLE click_daily_stats (
+    id        BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    url_id    BIGINT NOT NULL,
+    day       DATE NOT NULL,
+    dimension VARCHAR(20) NOT NULL CHECK (dimension IN ('TOTAL', 'HOUR', 'COUNTRY', 'CITY', 'DEVICE_TYPE',
+                                                        'BROWSER', 'OPERATING_SYSTEM', 'REFERRER')),
+    key1      BIGINT NOT NULL,
+    key2      BIGINT NOT NULL,
+    clicks    BIGINT NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_click_daily_stats UNIQUE (url_id, day, dimension, key1, key2),
+    CONSTRAINT fk_click_daily_stats_url FOREIGN KEY (url_id) REFERENCES urls (id)
+);
+
+CREATE INDEX idx_click_daily_stats_day ON click_daily_stats (day);
+
+CREATE TABLE click_compactions (
+    day           DATE NOT NULL,
+    status        VARCHAR(20) NOT NULL CHECK (status IN ('AGGREGATED', 'COMPLETED')),
+    raw_clicks    BIGINT NOT NULL,
+    aggregated_at TIMESTAMP(6) NOT NULL,
+    completed_at  TIMESTAMP(6),
+    PRIMARY KEY (day)
+);
+
+CREATE TABLE import_jobs (
+    id             BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    owner_id       BIGINT NOT NULL,
+    file_name      VARCHAR(255) NOT NULL,
+    stored_path    VARCHAR(1024) NOT NULL,
+    status         VARCHAR(20) NOT NULL CHECK (status IN ('QUEUED', 'RUNNING', 'COMPLETED', 'FAILED', 'INTERRUPTED')),
+    rows_committed BIGINT NOT NULL,
+    imported_count BIGINT NOT NULL,
+    skipped_count  BIGINT NOT NULL,
+    rejected_count BIGINT NOT NULL,
+    last_error     VARCHAR(1000),
+    created_at     TIMESTAMP(6) NOT NULL,
+    updated_at     TIMESTAMP(6),
+    finished_at    TIMESTAMP(6),
+    PRIMARY KEY (id),
+    CONSTRAINT fk_import_jobs_owner FOREIGN KEY (owner_id) REFERENCES users (id)
+);
+
+-- ShortCodeAllocator leases blocks of ids; the increment is the block size
+-- and must not change once codes have been issued
+CREATE SEQUENCE url_code_seq START WITH 1 INCREMENT BY 1000;
@@ -0,0 +1,11 @@
+-- V1.2 has encoded the text columns into the dictionary ids. Dropping a
+-- column only changes the catalog, so this does not touch the rows.
+ALTER TABLE url_clicks
+    DROP COLUMN ip_address,
+    DROP COLUMN country,
+    DROP COLUMN city,
+    DROP COLUMN user_agent,
+    DROP COLUMN device_type,
+    DROP COLUMN browser,
+    DROP COLUMN operating_system,
+    DROP COLUMN referrer;
@@ -0,0 +1,68 @@
+-- Schema as Hibernate generated it before migrations took over. Databases
+-- created that way have no history table; they are baselined at this version
+-- and start from V1.1, which brings them to the current schema.
+
+CREATE TABLE users (
+    id           BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    email        VARCHAR(255) NOT NULL UNIQUE,
+    microsoft_id VARCHAR(255) UNIQUE,
+    name         VARCHAR(255) NOT NULL,
+    role         VARCHAR(255) NOT NULL CHECK (role IN ('USER', 'ADMIN')),
+    created_at   TIMESTAMP(6) NOT NULL,
+    updated_at   TIMESTAMP(6) NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE urls (
+    id           BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    user_id      BIGINT NOT NULL,
+    code         VARCHAR(50) NOT NULL UNIQUE,
+    code_type    VARCHAR(10) NOT NULL CHECK (code_type IN ('AUTO', 'CUSTOM')),
+    original_url VARCHAR(2048) NOT NULL,
+    title        VARCHAR(200) NOT NULL,
+    click_count  BIGINT NOT NULL,
+    is_active    BOOLEAN,
+    created_at   TIMESTAMP(6) NOT NULL,
+    expires_at   TIMESTAMP(6),
+    PRIMARY KEY (id),
+    CONSTRAINT fk_urls_user FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE TABLE url_clicks (
+    id               BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    url_id           BIGINT NOT NULL,
+    clicked_at       TIMESTAMP(6) NOT NULL,
+    ip_address       VARCHAR(45),
+    country          VARCHAR(100),
+    city             VARCHAR(100),
+    user_agent       VARCHAR(500),
+    device_type      VARCHAR(50),
+    browser          VARCHAR(100),
+    operating_system VARCHAR(100),
+    referrer         VARCHAR(500),
+    PRIMARY KEY (id),
+    CONSTRAINT fk_url_clicks_url FOREIGN KEY (url_id) REFERENCES urls (id)
+);
+
+CREATE TABLE api_keys (
+    id           BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    user_id      BIGINT NOT NULL,
+    name         VARCHAR(100) NOT NULL,
+    key_hash     VARCHAR(255) NOT NULL UNIQUE,
+    scopes       VARCHAR(255),
+    created_at   TIMESTAMP(6) NOT NULL,
+    expires_at   TIMESTAMP(6),
+    last_used_at TIMESTAMP(6),
+    PRIMARY KEY (id),
+    CONSTRAINT fk_api_keys_user FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE TABLE refresh_tokens (
+    id         BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    user_id    BIGINT NOT NULL,
+    token      VARCHAR(500) NOT NULL UNIQUE,
+    created_at TIMESTAMP(6) NOT NULL,
+    expires_at TIMESTAMP(6) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT fk_refresh_tokens_user FOREIGN KEY (user_id) REFERENCES users (id)
+);
@@ -0,0 +1,21 @@
+-- url_clicks is the one table too large to lock for an index build, so its
+-- indexes are built CONCURRENTLY, which Flyway runs outside a transaction.
+-- If a build is interrupted, drop the invalid index before retrying.
+
+-- Clicks of one link over a time range (analytics, exports, shard moves)
+CREATE INDEX CONCURRENTLY idx_url_clicks_url_clicked_at
+    ON url_clicks (url_id, clicked_at);
+
+-- Day ranges of ClickCompactionService and MIN / MAX(clicked_at)
+CREATE INDEX CONCURRENTLY idx_url_clicks_clicked_at
+    ON url_clicks (clicked_at);
+
+-- ClickEnrichmentService reads pending clicks in id order; once enriched a
+-- row leaves the index
+CREATE INDEX CONCURRENTLY idx_url_clicks_pending_enrichment
+    ON url_clicks (id)
+    WHERE pending_enrichment;
+
+-- Becomes the primary key of the partition the existing rows move into (V2.4)
+CREATE UNIQUE INDEX CONCURRENTLY url_clicks_id_clicked_at_key
+    ON url_clicks (id, clicked_at);
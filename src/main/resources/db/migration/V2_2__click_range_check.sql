@@ -0,0 +1,16 @@
+-- Bounds the existing clicks ahead of partitioning (V2.4). Added NOT VALID,
+-- which only needs a brief lock, and validated in V2.3 without blocking
+-- writes, so that attaching the rows as a partition does not scan them.
+-- The bound leaves a month of headroom for clicks written meanwhile.
+DO $$
+DECLARE
+    bound TIMESTAMP;
+BEGIN
+    SELECT date_trunc('month', GREATEST(MAX(clicked_at), localtimestamp)) + INTERVAL '2 months'
+    INTO bound
+    FROM url_clicks;
+
+    EXECUTE format('ALTER TABLE url_clicks ADD CONSTRAINT url_clicks_legacy_range '
+                   'CHECK (clicked_at IS NOT NULL AND clicked_at < %L) NOT VALID', bound);
+END
+$$;
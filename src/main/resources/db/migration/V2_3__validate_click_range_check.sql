@@ -0,0 +1,3 @@
+-- Its own transaction: validating only takes a lock that lets clicks keep
+-- being written while the rows are checked
+ALTER TABLE url_clicks VALIDATE CONSTRAINT url_clicks_legacy_range;
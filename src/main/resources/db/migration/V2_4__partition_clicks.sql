@@ -0,0 +1,46 @@
+-- Turns url_clicks into a table range-partitioned by month on clicked_at,
+-- without copying rows: the existing table becomes the partition
+-- url_clicks_legacy for everything before the bound of its range check.
+-- V2.1 - V2.3 did all the work that reads the rows, so this only changes the
+-- catalog. ClickPartitionService creates the monthly partitions after it.
+DO $$
+DECLARE
+    bound   TEXT;
+    next_id BIGINT;
+BEGIN
+    SELECT substring(pg_get_constraintdef(oid) FROM 'clicked_at < ''([^'']+)''')
+    INTO bound
+    FROM pg_constraint
+    WHERE conname = 'url_clicks_legacy_range' AND conrelid = 'url_clicks'::regclass;
+
+    SELECT COALESCE(MAX(id), 0) + 1 INTO next_id FROM url_clicks;
+
+    ALTER TABLE url_clicks RENAME TO url_clicks_legacy;
+    -- A partition needs the parent's primary key, which has to include the
+    -- partition key; the unique index from V2.1 becomes that key
+    ALTER TABLE url_clicks_legacy DROP CONSTRAINT url_clicks_pkey;
+    ALTER TABLE url_clicks_legacy ADD CONSTRAINT url_clicks_legacy_pkey
+        PRIMARY KEY USING INDEX url_clicks_id_clicked_at_key;
+    ALTER TABLE url_clicks_legacy ALTER COLUMN id DROP IDENTITY IF EXISTS;
+    ALTER INDEX idx_url_clicks_url_clicked_at RENAME TO url_clicks_legacy_url_clicked_at_idx;
+    ALTER INDEX idx_url_clicks_clicked_at RENAME TO url_clicks_legacy_clicked_at_idx;
+    ALTER INDEX idx_url_clicks_pending_enrichment RENAME TO url_clicks_legacy_pending_enrichment_idx;
+
+    CREATE TABLE url_clicks (LIKE url_clicks_legacy) PARTITION BY RANGE (clicked_at);
+    EXECUTE format('CREATE SEQUENCE url_clicks_id_seq START WITH %s', next_id);
+    ALTER TABLE url_clicks ALTER COLUMN id SET DEFAULT nextval('url_clicks_id_seq');
+    ALTER SEQUENCE url_clicks_id_seq OWNED BY url_clicks.id;
+
+    ALTER TABLE url_clicks ADD CONSTRAINT url_clicks_pkey PRIMARY KEY (id, clicked_at);
+    ALTER TABLE url_clicks ADD CONSTRAINT fk_url_clicks_url FOREIGN KEY (url_id) REFERENCES urls (id);
+    -- Created on the still empty parent, so they take no time; the old
+    -- table's identical indexes are attached to them below
+    CREATE INDEX idx_url_clicks_url_clicked_at ON url_clicks (url_id, clicked_at);
+    CREATE INDEX idx_url_clicks_clicked_at ON url_clicks (clicked_at);
+    CREATE INDEX idx_url_clicks_pending_enrichment ON url_clicks (id) WHERE pending_enrichment;
+
+    -- The validated range check proves the bound, so this does not scan the rows
+    EXECUTE format('ALTER TABLE url_clicks ATTACH PARTITION url_clicks_legacy FOR VALUES FROM (MINVALUE) TO (%L)', bound);
+    ALTER TABLE url_clicks_legacy DROP CONSTRAINT url_clicks_legacy_range;
+END
+$$;
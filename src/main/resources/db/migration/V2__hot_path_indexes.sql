@@ -0,0 +1,42 @@
+-- Indexes for the queries that run per request or per scheduled batch.
+-- Partial indexes only hold the rows those queries can match, so they stay
+-- small however large the tables grow. url_clicks gets its indexes in V2.1,
+-- built without blocking writes.
+
+-- Active, unexpired link counts per owner and overall (dashboard, admin stats).
+-- deleted_at IS NULL matches the soft-delete restriction on every Url query.
+CREATE INDEX IF NOT EXISTS idx_urls_user_active_expires
+    ON urls (user_id, expires_at)
+    WHERE is_active AND deleted_at IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_urls_active_created
+    ON urls (created_at)
+    WHERE is_active AND deleted_at IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_urls_active_expires
+    ON urls (expires_at)
+    WHERE is_active AND deleted_at IS NULL;
+
+-- Soft-deleted links waiting for UrlPurgeService, in id order
+CREATE INDEX IF NOT EXISTS idx_urls_deleted
+    ON urls (id)
+    WHERE deleted_at IS NOT NULL;
+
+-- Links without a hash yet, for UrlHashBackfillService
+CREATE INDEX IF NOT EXISTS idx_urls_missing_hash
+    ON urls (id)
+    WHERE original_url_hash IS NULL;
+
+-- Listing a user's keys, and deleting a user's keys and tokens on logout or purge
+CREATE INDEX IF NOT EXISTS idx_api_keys_user_created
+    ON api_keys (user_id, created_at);
+
+CREATE INDEX IF NOT EXISTS idx_refresh_tokens_user_expires
+    ON refresh_tokens (user_id, expires_at);
+
+CREATE INDEX IF NOT EXISTS idx_import_jobs_owner
+    ON import_jobs (owner_id);
+
+-- Expired refresh token cleanup
+CREATE INDEX IF NOT EXISTS idx_refresh_tokens_expires
+    ON refresh_tokens (expires_at);
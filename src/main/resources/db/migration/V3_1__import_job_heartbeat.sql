@@ -0,0 +1,5 @@
+-- Renewed by the instance that has an import queued or running, so another
+-- instance only marks it interrupted once the heartbeat has gone stale. The
+-- default covers the insert; jobs from before this count as stale.
+ALTER TABLE import_jobs
+    ADD COLUMN heartbeat_at TIMESTAMP(6) DEFAULT localtimestamp NOT NULL;
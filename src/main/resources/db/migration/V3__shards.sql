@@ -0,0 +1,21 @@
+-- Optional code-hash sharding (datasource.shards.urls, see ShardConfig).
+-- Every shard runs the same migrations; these tables are only read on the
+-- home shard, apart from shard_identity which each database keeps for itself.
+
+-- Which shard serves each hash bucket of the code space. Missing buckets
+-- follow the default even split; ShardMigrationService rewrites rows when it
+-- moves a bucket range.
+CREATE TABLE shard_buckets (
+    bucket INTEGER NOT NULL,
+    shard  INTEGER NOT NULL,
+    PRIMARY KEY (bucket)
+);
+
+-- The position this database was first started at in the shard list, so a
+-- reordered list fails at startup instead of routing codes to the wrong
+-- database. Written together with the shard's id ranges.
+CREATE TABLE shard_identity (
+    shard       INTEGER NOT NULL,
+    assigned_at TIMESTAMP(6) NOT NULL,
+    PRIMARY KEY (shard)
+);
@@ -0,0 +1,68 @@
+package edu.au.life.shortenit;
+
+import edu.au.life.shortenit.dto.UrlShortenRequest;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.repository.UserRepository;
+import edu.au.life.shortenit.service.UrlService;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.UUID;
+
+/**
+ * Base for tests that need the whole application on a real PostgreSQL. One
+ * embedded server is shared by every subclass, so they also share the Spring
+ * context; tests create their own users and links instead of relying on an
+ * empty database.
+ */
+@SpringBootTest
+public abstract class PostgresIntegrationTest {
+
+    protected static final EmbeddedPostgres POSTGRES = start();
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UrlService urlService;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    protected static EmbeddedPostgres start() {
+        try {
+            return EmbeddedPostgres.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A user of its own for each test, with a unique email
+    protected User newUser() {
+        return userRepository.save(User.builder()
+                .email(UUID.randomUUID() + "@example.com")
+                .name("Tester")
+                .build());
+    }
+
+    // A link to a unique URL, so it is never deduplicated against another test's
+    protected String shorten(User user) {
+        return shorten(user, "Test link");
+    }
+
+    protected String shorten(User user, String title) {
+        UrlShortenRequest request = new UrlShortenRequest();
+        request.setOriginalUrl("https://example.com/" + UUID.randomUUID());
+        request.setTitle(title);
+        return urlService.shortenUrl(request, user).getCode();
+    }
+}
@@ -0,0 +1,117 @@
+package edu.au.life.shortenit.config;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.db.SchemaMigrationTest;
+import edu.au.life.shortenit.dto.BulkUrlRequest;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.exception.UrlNotFoundException;
+import edu.au.life.shortenit.service.UrlService;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Routing between two databases standing in for a primary and its replica.
+ * Nothing replicates between them: the test copies rows over to play a
+ * replica that has, or has not yet, applied a write.
+ */
+class ReplicaRoutingTest extends PostgresIntegrationTest {
+
+    private static final EmbeddedPostgres REPLICA = migrated(start());
+
+    @DynamicPropertySource
+    static void replica(DynamicPropertyRegistry registry) {
+        registry.add("datasource.replicas.urls", () -> REPLICA.getJdbcUrl("postgres", "postgres"));
+    }
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private UrlService urlService;
+
+    private final JdbcTemplate primary = new JdbcTemplate(POSTGRES.getPostgresDatabase());
+    private final JdbcTemplate replica = new JdbcTemplate(REPLICA.getPostgresDatabase());
+
+    @Test
+    void readOnlyTransactionsUseTheReplica() {
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        Integer outside = serverPort(jdbc);
+        Integer written = readWrite.execute(status -> serverPort(jdbc));
+        Integer read = readOnly.execute(status -> serverPort(jdbc));
+        Integer pinned = readOnly.execute(status -> ReplicaRouting.onPrimary(() -> serverPort(jdbc)));
+
+        assertThat(outside).isEqualTo(POSTGRES.getPort());
+        assertThat(written).isEqualTo(POSTGRES.getPort());
+        assertThat(read).isEqualTo(REPLICA.getPort());
+        assertThat(pinned).isEqualTo(POSTGRES.getPort());
+    }
+
+    @Test
+    void linkNotYetOnTheReplicaIsReadOnThePrimary() {
+        User user = newUser();
+        String code = shorten(user);
+
+        assertThat(urlService.getOriginalUrl(code, redirect())).startsWith("https://example.com/");
+    }
+
+    @Test
+    void replicaRowsBehindTheCacheDoNotBringBackADeactivatedLink() {
+        User user = newUser();
+        String code = shorten(user);
+        replicate("users", user.getId());
+        replicate("urls", primary.queryForObject("SELECT id FROM urls WHERE code = ?", Long.class, code));
+
+        // The bulk update evicts the link; the replica has not applied it yet
+        urlService.setActive(new BulkUrlRequest(List.of(code), null, null), false, user);
+        assertThat(replica.queryForObject("SELECT is_active FROM urls WHERE code = ?", Boolean.class, code)).isTrue();
+
+        assertThatThrownBy(() -> urlService.getOriginalUrl(code, redirect())).isInstanceOf(UrlNotFoundException.class);
+        assertThatThrownBy(() -> urlService.getOriginalUrl(code, redirect())).isInstanceOf(UrlNotFoundException.class);
+    }
+
+    private static int serverPort(JdbcTemplate jdbc) {
+        return jdbc.queryForObject("SELECT inet_server_port()", Integer.class);
+    }
+
+    private void replicate(String table, Long id) {
+        Map<String, Object> row = primary.queryForMap("SELECT * FROM " + table + " WHERE id = ?", id);
+        replica.update("INSERT INTO " + table + " (" + String.join(", ", row.keySet()) + ") VALUES ("
+                        + row.keySet().stream().map(column -> "?").collect(Collectors.joining(", ")) + ")",
+                row.values().toArray());
+    }
+
+    private static MockHttpServletRequest redirect() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/s/x");
+        request.addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) Firefox/128.0");
+        return request;
+    }
+
+    private static EmbeddedPostgres migrated(EmbeddedPostgres postgres) {
+        Flyway.configure().dataSource(postgres.getPostgresDatabase()).configuration(SchemaMigrationTest.FLYWAY)
+                .load().migrate();
+        return postgres;
+    }
+}
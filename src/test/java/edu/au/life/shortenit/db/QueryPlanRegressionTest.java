@@ -0,0 +1,228 @@
+package edu.au.life.shortenit.db;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.repository.UrlRepository;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The hot queries keep using the indexes the migrations create, planned on a
+ * database of their own with a few thousand links. Queries run through a
+ * repository are recorded as Hibernate sends them and explained with their
+ * parameters; their plans are checked for the condition the index is
+ * searched with, since an index walked end to end under a Filter would
+ * still name it. The native statements are explained as written, with
+ * sequential scans switched off so that a query no index can serve shows
+ * up as a Seq Scan however small its table is.
+ */
+class QueryPlanRegressionTest extends PostgresIntegrationTest {
+
+    private static final ThreadLocal<List<String>> RECORDED = new ThreadLocal<>();
+    private static final LocalDateTime CURSOR = LocalDateTime.now();
+    private static final Pageable PAGE = PageRequest.of(0, 20);
+
+    private static EmbeddedPostgres postgres;
+    private static Connection connection;
+    private static JdbcTemplate jdbc;
+
+    @TestConfiguration
+    static class StatementRecording {
+
+        // Only the statements of the test thread, not those of the scheduled jobs
+        @Bean
+        HibernatePropertiesCustomizer statementRecorder() {
+            StatementInspector recorder = sql -> {
+                List<String> recorded = RECORDED.get();
+                if (recorded != null) {
+                    recorded.add(sql);
+                }
+                return sql;
+            };
+            return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, recorder);
+        }
+    }
+
+    @Autowired
+    private UrlRepository urlRepository;
+
+    @BeforeAll
+    static void migrate() throws Exception {
+        postgres = start();
+        Flyway.configure().dataSource(postgres.getPostgresDatabase()).configuration(SchemaMigrationTest.FLYWAY)
+                .load().migrate();
+
+        connection = postgres.getPostgresDatabase().getConnection();
+        jdbc = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+        jdbc.update("INSERT INTO users (email, name, role, created_at, updated_at) " +
+                "SELECT 'user' || g || '@example.com', 'User ' || g, 'USER', now(), now() FROM generate_series(1, 50) g");
+        jdbc.update("INSERT INTO urls (user_id, code, code_type, original_url, original_url_hash, title, click_count, " +
+                "is_active, created_at, expires_at, deleted_at) " +
+                "SELECT 1 + g % 50, 'code' || g, 'AUTO', 'https://example.com/' || g, md5(g::text), 'Link ' || g, 0, " +
+                "g % 10 <> 0, now() - g * INTERVAL '1 minute', CASE WHEN g % 3 = 0 THEN now() + INTERVAL '1 day' END, " +
+                "CASE WHEN g % 97 = 0 THEN now() END FROM generate_series(1, 20000) g");
+        jdbc.update("INSERT INTO url_clicks (url_id, clicked_at, pending_enrichment) " +
+                "SELECT 1 + g % 2000, now() - g * INTERVAL '1 minute', g % 50 = 0 FROM generate_series(1, 20000) g");
+        jdbc.update("INSERT INTO click_daily_stats (url_id, day, dimension, key1, key2, clicks) " +
+                "SELECT 1 + g % 2000, current_date - g / 2000, 'TOTAL', 0, 0, 1 FROM generate_series(1, 20000) g");
+        jdbc.update("INSERT INTO refresh_tokens (user_id, token, created_at, expires_at) " +
+                "SELECT 1 + g % 50, 'token' || g, now(), now() + (g - 1000) * INTERVAL '1 hour' " +
+                "FROM generate_series(1, 2000) g");
+        jdbc.execute("ANALYZE");
+    }
+
+    @AfterAll
+    static void stop() throws Exception {
+        connection.close();
+        postgres.close();
+    }
+
+    @Test
+    void ownerCursorPagesSeekUserCreatedIndex() {
+        User user = newUser();
+        String byUser = recorded(() -> urlRepository.findListingsByUserAfter(user, CURSOR, 100, PAGE));
+        String byUserId = recorded(() -> urlRepository.findListingsByUserIdAfter(user.getId(), CURSOR, 100, PAGE));
+        String entities = recorded(() -> urlRepository.findByUserAfter(user, CURSOR, 100, PAGE));
+
+        for (String sql : List.of(byUser, byUserId, entities)) {
+            assertSeeks(sql, "idx_urls_user_created", "(user_id = '7'::bigint)",
+                    "7", "now() - INTERVAL '100 minutes'", "100", "21");
+        }
+    }
+
+    @Test
+    void cursorPagesOfEveryLinkSeekCreatedIndex() {
+        String listings = recorded(() -> urlRepository.findAllListingsAfter(CURSOR, 100, PAGE));
+        String entities = recorded(() -> urlRepository.findAllAfter(CURSOR, 100, PAGE));
+
+        for (String sql : List.of(listings, entities)) {
+            assertSeeks(sql, "idx_urls_created", null, "now() - INTERVAL '100 minutes'", "100", "21");
+        }
+    }
+
+    @Test
+    void redirectLookupUsesCodeKey() {
+        assertUses("SELECT * FROM urls WHERE code = 'code42' AND deleted_at IS NULL", "urls_code_key");
+    }
+
+    @Test
+    void activeLinkCountsUsePartialIndexes() {
+        assertUses("SELECT COUNT(*) FROM urls WHERE user_id = 7 AND is_active = TRUE AND deleted_at IS NULL " +
+                "AND (expires_at IS NULL OR expires_at > now())", "idx_urls_user_active_expires");
+        assertUses("SELECT COUNT(*) FROM urls WHERE is_active = TRUE AND deleted_at IS NULL " +
+                "AND (expires_at IS NULL OR expires_at > now())", "idx_urls_active_");
+    }
+
+    @Test
+    void maintenanceJobsUsePartialIndexes() {
+        assertUses("SELECT id FROM urls WHERE deleted_at IS NOT NULL ORDER BY id LIMIT 100", "idx_urls_deleted");
+        assertUses("SELECT id, original_url FROM urls WHERE original_url_hash IS NULL ORDER BY id LIMIT 100",
+                "idx_urls_missing_hash");
+        assertUses("SELECT id FROM url_clicks WHERE pending_enrichment ORDER BY id LIMIT 500",
+                "pending_enrichment_idx");
+    }
+
+    @Test
+    void duplicateCheckUsesUrlHashIndex() {
+        assertUses("SELECT * FROM urls WHERE user_id = 7 AND original_url_hash = md5('7') AND is_active = TRUE " +
+                "AND deleted_at IS NULL", "idx_urls_user_url_hash");
+    }
+
+    @Test
+    void clickQueriesUseClickIndexes() {
+        assertUses("SELECT country_id, COUNT(*) FROM url_clicks WHERE url_id = 42 " +
+                "AND clicked_at >= now() - INTERVAL '7 days' GROUP BY country_id", "url_clicked_at_idx");
+        assertUses("SELECT COUNT(*) FROM url_clicks WHERE clicked_at >= now() - INTERVAL '2 days' " +
+                "AND clicked_at < now() - INTERVAL '1 day'", "clicked_at_idx");
+        assertUses("SELECT dimension, key1, key2, SUM(clicks) FROM click_daily_stats WHERE url_id = 42 " +
+                "AND day >= current_date - 30 GROUP BY dimension, key1, key2", "uk_click_daily_stats");
+    }
+
+    @Test
+    void userOwnedRowsUseForeignKeyIndexes() {
+        assertUses("SELECT * FROM api_keys WHERE user_id = 7 ORDER BY created_at DESC", "idx_api_keys_user_created");
+        assertUses("SELECT COUNT(*) > 0 FROM refresh_tokens WHERE user_id = 7 AND expires_at > now()",
+                "idx_refresh_tokens_user_expires");
+        assertUses("DELETE FROM refresh_tokens WHERE expires_at < now()", "idx_refresh_tokens_expires");
+        assertUses("SELECT * FROM import_jobs WHERE owner_id = 7", "idx_import_jobs_owner");
+    }
+
+    // The one statement the query sends, as Hibernate generated it
+    private static String recorded(Runnable query) {
+        List<String> recorded = new ArrayList<>();
+        RECORDED.set(recorded);
+        try {
+            query.run();
+        } finally {
+            RECORDED.remove();
+        }
+        assertThat(recorded).hasSize(1);
+        return recorded.get(0);
+    }
+
+    /**
+     * Explains a recorded statement with the given SQL expressions bound to
+     * its parameters, in order. The page must be a backward scan of the index
+     * that starts at the cursor: (created_at, id) is bounded in the Index
+     * Cond, after the owner when there is one, and nothing is sorted.
+     */
+    private static void assertSeeks(String sql, String index, String owner, String... arguments) {
+        assertThat(sql).as("parameters of %s", sql).hasSize(sql.replace("?", "").length() + arguments.length);
+        AtomicInteger parameter = new AtomicInteger();
+        jdbc.execute("PREPARE recorded AS " + Pattern.compile("\\?").matcher(sql)
+                .replaceAll(match -> "\\$" + parameter.incrementAndGet()));
+        String plan;
+        try {
+            plan = String.join("\n", jdbc.queryForList(
+                    "EXPLAIN EXECUTE recorded(" + String.join(", ", arguments) + ")", String.class));
+        } finally {
+            jdbc.execute("DEALLOCATE recorded");
+        }
+
+        String indexCond = plan.lines().filter(line -> line.contains("Index Cond"))
+                .filter(line -> line.contains("created_at")).findFirst().orElse("");
+        assertThat(plan).as("plan of %s", sql)
+                .contains("Index Scan Backward using " + index + " ")
+                .doesNotContain("Sort");
+        assertThat(indexCond).as("plan of %s", sql).contains("ROW(created_at, id) < ROW(");
+        if (owner != null) {
+            assertThat(indexCond).as("plan of %s", sql).contains(owner);
+        }
+    }
+
+    private static void assertUses(String sql, String index) {
+        jdbc.execute("SET enable_seqscan = off");
+        List<String> plan;
+        try {
+            plan = jdbc.queryForList("EXPLAIN " + sql, String.class);
+        } finally {
+            jdbc.execute("RESET enable_seqscan");
+        }
+        assertThat(String.join("\n", plan))
+                .as("plan of %s", sql)
+                .contains(index)
+                .doesNotContain("Seq Scan");
+    }
+}
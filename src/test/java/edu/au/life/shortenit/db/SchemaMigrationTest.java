@@ -0,0 +1,121 @@
+package edu.au.life.shortenit.db;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The migrations against a new database and against one Hibernate created
+ * before they existed, which has no history table and only the V1 schema.
+ */
+public class SchemaMigrationTest {
+
+    public static final Map<String, String> FLYWAY = Map.of("flyway.postgresql.transactional.lock", "false");
+
+    private EmbeddedPostgres postgres;
+    private DataSource dataSource;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void start() throws Exception {
+        postgres = EmbeddedPostgres.start();
+        dataSource = postgres.getPostgresDatabase();
+        jdbc = new JdbcTemplate(dataSource);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        postgres.close();
+    }
+
+    @Test
+    void migratesNewDatabase() {
+        migrate();
+
+        assertThat(relkind("url_clicks")).isEqualTo("p");
+        assertThat(relkind("url_clicks_legacy")).isEqualTo("r");
+        assertThat(relkind("url_code_seq")).isEqualTo("S");
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM pg_constraint WHERE conname = 'url_clicks_legacy_range'",
+                Integer.class)).isZero();
+    }
+
+    @Test
+    void upgradesBaselineDatabase() {
+        new ResourceDatabasePopulator(new ClassPathResource("db/migration/V1__baseline.sql")).execute(dataSource);
+        jdbc.update("INSERT INTO users (email, name, role, created_at, updated_at) " +
+                "VALUES ('owner@example.com', 'Owner', 'USER', now(), now())");
+        jdbc.update("INSERT INTO urls (user_id, code, code_type, original_url, title, click_count, is_active, created_at) " +
+                "VALUES (1, 'legacy01', 'AUTO', 'https://example.com', 'Example', 4, TRUE, now())");
+        jdbc.update("INSERT INTO url_clicks (url_id, clicked_at, ip_address, country, city, user_agent, device_type, " +
+                "browser, operating_system, referrer) VALUES " +
+                "(1, now() - INTERVAL '40 days', '203.0.113.7', 'Thailand', 'Bangkok', 'Mozilla/5.0', 'Desktop', " +
+                "'Chrome', 'Windows', 'https://search.example'), " +
+                "(1, now(), '::ffff:198.51.100.1', 'Thailand', 'Bangkok', 'Mozilla/5.0', 'Mobile', 'Safari', 'iOS', NULL), " +
+                "(1, now(), '[2001:db8::1]', ' ', NULL, '', NULL, NULL, NULL, ''), " +
+                "(1, now(), 'unknown', NULL, NULL, NULL, NULL, NULL, NULL, NULL)");
+        // Enough more to take a second batch
+        jdbc.update("INSERT INTO url_clicks (url_id, clicked_at, ip_address, country) " +
+                "SELECT 1, now(), '192.0.2.' || (n % 256), 'Laos' FROM generate_series(1, 10000) n");
+
+        Flyway.configure().dataSource(dataSource).configuration(FLYWAY)
+                .baselineOnMigrate(true).baselineVersion("1").load().migrate();
+
+        assertThat(relkind("url_clicks")).isEqualTo("p");
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM information_schema.columns " +
+                "WHERE table_name = 'url_clicks' AND column_name = 'country'", Integer.class)).isZero();
+
+        Map<String, Object> first = jdbc.queryForMap("SELECT encode(ip, 'hex') AS ip, " +
+                "(SELECT name FROM click_dimensions WHERE id = country_id) AS country, " +
+                "(SELECT name FROM click_dimensions WHERE id = browser_id) AS browser, " +
+                "(SELECT content FROM click_texts WHERE id = user_agent_id) AS user_agent, " +
+                "(SELECT content FROM click_texts WHERE id = referrer_id) AS referrer " +
+                "FROM url_clicks WHERE id = 1");
+        assertThat(first).containsEntry("ip", "cb007107").containsEntry("country", "Thailand")
+                .containsEntry("browser", "Chrome").containsEntry("user_agent", "Mozilla/5.0")
+                .containsEntry("referrer", "https://search.example");
+
+        assertThat(jdbc.queryForObject("SELECT encode(ip, 'hex') FROM url_clicks WHERE id = 2", String.class))
+                .isEqualTo("c6336401");
+        Map<String, Object> third = jdbc.queryForMap("SELECT encode(ip, 'hex') AS ip, country_id, user_agent_id, " +
+                "referrer_id FROM url_clicks WHERE id = 3");
+        assertThat(third.get("ip")).isEqualTo("20010db8000000000000000000000001");
+        assertThat(third.get("country_id")).isNull();
+        assertThat(third.get("user_agent_id")).isNull();
+        assertThat(third.get("referrer_id")).isNull();
+        assertThat(jdbc.queryForObject("SELECT ip FROM url_clicks WHERE id = 4", byte[].class)).isNull();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM url_clicks WHERE id > 4 " +
+                "AND country_id = (SELECT id FROM click_dimensions WHERE name = 'Laos') AND length(ip) = 4",
+                Integer.class)).isEqualTo(10000);
+
+        // Shared values are stored once
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM click_dimensions WHERE kind = 'COUNTRY'", Integer.class))
+                .isEqualTo(2);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM click_texts WHERE kind = 'USER_AGENT'", Integer.class))
+                .isEqualTo(1);
+
+        // New clicks carry on after the old ids and land in the partitioned table
+        Long id = jdbc.queryForObject("INSERT INTO url_clicks (url_id, clicked_at) VALUES (1, now()) RETURNING id",
+                Long.class);
+        assertThat(id).isEqualTo(10005L);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM url_clicks", Integer.class)).isEqualTo(10005);
+        assertThat(jdbc.queryForObject("SELECT bot_click_count FROM urls WHERE id = 1", Long.class)).isZero();
+    }
+
+    private void migrate() {
+        Flyway.configure().dataSource(dataSource).configuration(FLYWAY).load().migrate();
+    }
+
+    private String relkind(String relation) {
+        return jdbc.queryForObject("SELECT relkind::text FROM pg_class WHERE relname = ?", String.class, relation);
+    }
+}
@@ -0,0 +1,32 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdminDashboardTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Test
+    void deletedUsersAreNotCounted() {
+        long before = urlService.getAdminDashboardStats().getTotalUsers();
+
+        newUser();
+        User deleted = newUser();
+        deleted.setDeletedAt(LocalDateTime.now());
+        userRepository.save(deleted);
+
+        assertThat(urlService.getAdminDashboardStats().getTotalUsers()).isEqualTo(before + 1);
+    }
+}
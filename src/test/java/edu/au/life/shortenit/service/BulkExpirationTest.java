@@ -0,0 +1,42 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.dto.BulkUrlRequest;
+import edu.au.life.shortenit.entity.ErrorResponse;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.exception.GlobalExceptionHandler;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+/**
+ * A bulk expiration change without anything to change is a bad request.
+ */
+class BulkExpirationTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private GlobalExceptionHandler exceptionHandler;
+
+    @Test
+    void missingExpirationIsABadRequest() {
+        User user = newUser();
+
+        IllegalArgumentException missing = catchThrowableOfType(IllegalArgumentException.class,
+                () -> urlService.setExpiration(new BulkUrlRequest(List.of("abc"), null, null), user));
+        IllegalArgumentException negative = catchThrowableOfType(IllegalArgumentException.class,
+                () -> urlService.setExpiration(new BulkUrlRequest(List.of("abc"), -1, null), user));
+
+        assertThat(negative).isNotNull();
+        ResponseEntity<ErrorResponse> response = exceptionHandler.handleIllegalArgument(missing);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+}
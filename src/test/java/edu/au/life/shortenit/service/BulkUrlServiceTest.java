@@ -0,0 +1,62 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.dto.BulkShortenResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Several requests in one body, as a JSON array or as NDJSON lines.
+ */
+class BulkUrlServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private BulkUrlService bulkUrlService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void jsonArrayCreatesEveryLink() throws IOException {
+        String body = "[" + request() + "," + request() + "]";
+
+        List<BulkShortenResult> results = List.of(objectMapper.readValue(
+                shorten(body, false), BulkShortenResult[].class));
+
+        assertThat(results).extracting(BulkShortenResult::getStatus)
+                .containsExactly(BulkShortenResult.Status.CREATED, BulkShortenResult.Status.CREATED);
+    }
+
+    @Test
+    void ndjsonCreatesEveryLink() throws IOException {
+        String body = request() + "\n" + request() + "\n";
+
+        List<BulkShortenResult> results = Arrays.stream(shorten(body, true).split("\n"))
+                .map(line -> objectMapper.readValue(line, BulkShortenResult.class))
+                .toList();
+
+        assertThat(results).extracting(BulkShortenResult::getStatus)
+                .containsExactly(BulkShortenResult.Status.CREATED, BulkShortenResult.Status.CREATED);
+    }
+
+    private String shorten(String body, boolean ndjson) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bulkUrlService.shorten(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out, ndjson, newUser());
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String request() {
+        return "{\"originalUrl\":\"https://example.com/" + UUID.randomUUID() + "\",\"title\":\"Bulk\"}";
+    }
+}
@@ -0,0 +1,39 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.time.YearMonth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Month ranges read from the archive: in order, and bounded.
+ */
+@TestPropertySource(properties = {
+        "clicks.archive.enabled=true",
+        "clicks.archive.directory=target/test-archive",
+        "clicks.archive.max-scan-months=12"
+})
+class ClickArchiveServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ClickArchiveService clickArchiveService;
+
+    @Test
+    void reversedRangeIsRejected() {
+        assertThatThrownBy(() -> clickArchiveService.scan(1L, YearMonth.of(2025, 3), YearMonth.of(2025, 2)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rangeIsCapped() throws IOException {
+        assertThat(clickArchiveService.scan(1L, YearMonth.of(2025, 1), YearMonth.of(2025, 12)).getTotal()).isZero();
+        assertThatThrownBy(() -> clickArchiveService.scan(1L, YearMonth.of(2025, 1), YearMonth.of(2026, 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
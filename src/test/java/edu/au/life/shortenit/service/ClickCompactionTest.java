@@ -0,0 +1,139 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.dto.AnalyticsResponse;
+import edu.au.life.shortenit.entity.ClickDimension;
+import edu.au.life.shortenit.entity.ClickText;
+import edu.au.life.shortenit.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compaction against seeded days past the raw retention. The checkpoints are
+ * shared by every test on the database, so each test seeds the first day
+ * after the last one compacted.
+ */
+class ClickCompactionTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ClickCompactionService clickCompactionService;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private ClickDimensionService clickDimensionService;
+
+    private final JdbcTemplate jdbc = new JdbcTemplate(POSTGRES.getPostgresDatabase());
+
+    @Test
+    void analyticsAreTheSameBeforeAndAfterCompaction() {
+        User user = newUser();
+        String code = shorten(user);
+        LocalDate day = nextDay();
+        seed(code, day);
+
+        AnalyticsResponse before = analyticsService.getAnalytics(code, user);
+        AnalyticsResponse rangeBefore = analyticsService.getAnalyticsByDateRange(code,
+                day.minusDays(1).atStartOfDay(), day.plusDays(1).atStartOfDay(), user);
+        assertThat(before.getClicksByDate()).containsEntry(day.toString(), 5L);
+
+        clickCompactionService.compact();
+
+        assertThat(status(day)).isEqualTo("COMPLETED");
+        assertThat(rawClicks(code)).isZero();
+        assertThat(analyticsService.getAnalytics(code, user)).isEqualTo(before);
+        assertThat(analyticsService.getAnalyticsByDateRange(code,
+                day.minusDays(1).atStartOfDay(), day.plusDays(1).atStartOfDay(), user)).isEqualTo(rangeBefore);
+    }
+
+    @Test
+    void rollupThatDoesNotAddUpRollsTheDayBack() {
+        String code = shorten(newUser());
+        LocalDate day = nextDay();
+        seed(code, day);
+        // A stray rollup row makes the country sum exceed the raw count
+        jdbc.update("INSERT INTO click_daily_stats (url_id, day, dimension, key1, key2, clicks) " +
+                "SELECT id, ?, 'COUNTRY', 2147483647, 0, 1 FROM urls WHERE code = ?", Date.valueOf(day), code);
+
+        try {
+            clickCompactionService.compact();
+
+            assertThat(status(day)).isNull();
+            assertThat(rawClicks(code)).isEqualTo(5);
+            assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM click_daily_stats WHERE day = ?",
+                    Integer.class, Date.valueOf(day))).isEqualTo(1);
+        } finally {
+            // Leave no day behind that every later compaction would trip over
+            jdbc.update("DELETE FROM click_daily_stats WHERE day = ?", Date.valueOf(day));
+            jdbc.update("DELETE FROM url_clicks WHERE url_id = (SELECT id FROM urls WHERE code = ?)", code);
+        }
+    }
+
+    @Test
+    void aggregatedDayIsResumedWithoutCountingItTwice() {
+        String code = shorten(newUser());
+        LocalDate day = nextDay();
+        seed(code, day);
+
+        // A run that stopped after writing the rollups
+        ReflectionTestUtils.invokeMethod(clickCompactionService, "aggregate", day);
+        assertThat(status(day)).isEqualTo("AGGREGATED");
+        assertThat(rawClicks(code)).isEqualTo(5);
+
+        clickCompactionService.compact();
+
+        assertThat(status(day)).isEqualTo("COMPLETED");
+        assertThat(rawClicks(code)).isZero();
+        assertThat(jdbc.queryForObject("SELECT SUM(clicks) FROM click_daily_stats WHERE day = ? AND dimension = 'TOTAL'",
+                Long.class, Date.valueOf(day))).isEqualTo(5L);
+    }
+
+    // The first day after the last checkpoint, well past the 90 day raw retention
+    private LocalDate nextDay() {
+        LocalDate until = clickCompactionService.compactedUntil();
+        LocalDate day = until == null ? LocalDate.now().minusDays(200) : until;
+        assertThat(day).isBefore(LocalDate.now().minusDays(100));
+        return day;
+    }
+
+    // Five clicks over two hours, with unknown values among them
+    private void seed(String code, LocalDate day) {
+        Integer thailand = clickDimensionService.idFor(ClickDimension.Kind.COUNTRY, "Thailand");
+        Integer bangkok = clickDimensionService.idFor(ClickDimension.Kind.CITY, "Bangkok");
+        Integer mobile = clickDimensionService.idFor(ClickDimension.Kind.DEVICE_TYPE, "mobile");
+        Integer safari = clickDimensionService.idFor(ClickDimension.Kind.BROWSER, "Safari");
+        Long search = clickDimensionService.textId(ClickText.Kind.REFERRER, "https://search.example");
+        Object[][] clicks = {
+                {9, thailand, bangkok, mobile, safari, search},
+                {9, thailand, bangkok, mobile, safari, null},
+                {9, thailand, null, null, safari, search},
+                {17, null, null, mobile, null, null},
+                {17, null, null, null, null, null},
+        };
+        for (Object[] click : clicks) {
+            jdbc.update("INSERT INTO url_clicks (url_id, clicked_at, country_id, city_id, device_type_id, browser_id, " +
+                            "referrer_id, pending_enrichment) SELECT id, ?, ?, ?, ?, ?, ?, FALSE FROM urls WHERE code = ?",
+                    Timestamp.valueOf(day.atTime((Integer) click[0], 30)), click[1], click[2], click[3], click[4],
+                    click[5], code);
+        }
+    }
+
+    private String status(LocalDate day) {
+        return jdbc.queryForList("SELECT status FROM click_compactions WHERE day = ?", String.class, Date.valueOf(day))
+                .stream().findFirst().orElse(null);
+    }
+
+    private int rawClicks(String code) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM url_clicks WHERE url_id = (SELECT id FROM urls WHERE code = ?)",
+                Integer.class, code);
+    }
+}
@@ -0,0 +1,50 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.dto.BulkUrlRequest;
+import edu.au.life.shortenit.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Redirects bump the counters with plain SQL, past the cached Url; every view
+ * of a link must still show the current counts.
+ */
+class ClickCountTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Test
+    void countsAreCurrentAfterRedirects() {
+        User user = newUser();
+        String code = shorten(user);
+
+        // Warm the entity and natural-id caches before anything is counted
+        assertEquals(0L, urlService.getUrlInfo(code, user).getClickCount());
+
+        urlService.getOriginalUrl(code, redirect("Mozilla/5.0 (Windows NT 10.0; Win64; x64) Firefox/128.0"));
+        urlService.getOriginalUrl(code, redirect("Mozilla/5.0 (Windows NT 10.0; Win64; x64) Firefox/128.0"));
+        urlService.getOriginalUrl(code, redirect("Googlebot/2.1 (+http://www.google.com/bot.html)"));
+
+        assertEquals(2L, urlService.getUrlInfo(code, user).getClickCount());
+        assertEquals(2L, urlService.getUrlsByCodes(new BulkUrlRequest(List.of(code), null, null), user)
+                .get(0).getClickCount());
+        assertEquals(2L, analyticsService.getAnalytics(code, user).getTotalClicks());
+        assertEquals(1L, analyticsService.getAnalytics(code, user).getBotClicks());
+    }
+
+    private static MockHttpServletRequest redirect(String userAgent) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/s/x");
+        request.addHeader("User-Agent", userAgent);
+        return request;
+    }
+}
@@ -0,0 +1,55 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.entity.ClickDimension;
+import edu.au.life.shortenit.entity.ClickText;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Dictionary entries created in a transaction that rolls back must not stay
+ * cached, or later clicks would refer to rows that do not exist.
+ */
+class ClickDimensionServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ClickDimensionService clickDimensionService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final JdbcTemplate jdbc = new JdbcTemplate(POSTGRES.getPostgresDatabase());
+
+    @Test
+    void textsOfARolledBackTransactionAreCreatedAgain() {
+        String userAgent = "Agent/" + UUID.randomUUID();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            clickDimensionService.textId(ClickText.Kind.USER_AGENT, userAgent);
+            status.setRollbackOnly();
+        });
+
+        Long id = clickDimensionService.textId(ClickText.Kind.USER_AGENT, userAgent);
+        assertThat(jdbc.queryForObject("SELECT content FROM click_texts WHERE id = ?", String.class, id))
+                .isEqualTo(userAgent);
+    }
+
+    @Test
+    void dimensionsOfARolledBackTransactionAreCreatedAgain() {
+        String city = "City " + UUID.randomUUID();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            clickDimensionService.idFor(ClickDimension.Kind.CITY, city);
+            status.setRollbackOnly();
+        });
+
+        Integer id = clickDimensionService.idFor(ClickDimension.Kind.CITY, city);
+        assertThat(jdbc.queryForObject("SELECT name FROM click_dimensions WHERE id = ?", String.class, id))
+                .isEqualTo(city);
+    }
+}
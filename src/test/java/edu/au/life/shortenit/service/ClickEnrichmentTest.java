@@ -0,0 +1,64 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Pending clicks another instance has claimed are left to it.
+ */
+class ClickEnrichmentTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private ClickEnrichmentService clickEnrichmentService;
+
+    private final DataSource database = POSTGRES.getPostgresDatabase();
+    private final JdbcTemplate jdbc = new JdbcTemplate(database);
+
+    @Test
+    void clicksLockedElsewhereAreSkipped() {
+        String code = shorten(newUser());
+        urlService.getOriginalUrl(code, redirect());
+        urlService.getOriginalUrl(code, redirect());
+        List<Long> clicks = jdbc.queryForList(
+                "SELECT c.id FROM url_clicks c JOIN urls u ON u.id = c.url_id WHERE u.code = ? ORDER BY c.id",
+                Long.class, code);
+        assertThat(clicks).hasSize(2);
+
+        // The other instance holds the first click while this one runs
+        new TransactionTemplate(new DataSourceTransactionManager(database))
+                .executeWithoutResult(status -> {
+                    jdbc.queryForList("SELECT id FROM url_clicks WHERE id = ? FOR UPDATE", Long.class, clicks.get(0));
+                    clickEnrichmentService.enrichPending();
+                });
+
+        assertThat(pending(clicks.get(0))).isTrue();
+        assertThat(pending(clicks.get(1))).isFalse();
+
+        clickEnrichmentService.enrichPending();
+        assertThat(pending(clicks.get(0))).isFalse();
+    }
+
+    private Boolean pending(long clickId) {
+        return jdbc.queryForObject("SELECT pending_enrichment FROM url_clicks WHERE id = ?", Boolean.class, clickId);
+    }
+
+    private static MockHttpServletRequest redirect() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/s/x");
+        request.setRemoteAddr("203.0.113.7");
+        request.addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) Firefox/128.0");
+        return request;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.entity.User;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Link listings read their rows and owners in one statement per page, plus
+ * the count when the page needs one, however many rows the page has.
+ */
+class ListingStatementCountTest extends PostgresIntegrationTest {
+
+    private static final int LINKS = 5;
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private User user;
+
+    @BeforeEach
+    void createLinks() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        user = newUser();
+        for (int i = 0; i < LINKS; i++) {
+            shorten(user, "Listed " + i);
+        }
+    }
+
+    @Test
+    void userPageIsOneSelectAndOneCount() {
+        assertThat(statements(() -> assertThat(urlService.getAllUrlsPaginated(user,
+                PageRequest.of(0, LINKS - 1, Sort.by("createdAt"))).getContent()).hasSize(LINKS - 1))).isEqualTo(2);
+    }
+
+    @Test
+    void userCursorPageIsOneSelect() {
+        assertThat(statements(() -> assertThat(urlService.getUrlsByCursor(user, null, LINKS, false).getContent())
+                .hasSize(LINKS))).isEqualTo(1);
+    }
+
+    @Test
+    void exportIsOneSelect() {
+        assertThat(statements(() -> urlService.writeAllUrls(user, new ByteArrayOutputStream()))).isEqualTo(1);
+    }
+
+    @Test
+    void adminPagesAreOneSelectAndOneCount() {
+        assertThat(statements(() -> assertThat(urlService.getAllUrlsPaginatedAdmin(0, LINKS - 1, "createdAt", "DESC")
+                .getContent()).hasSize(LINKS - 1))).isEqualTo(2);
+        assertThat(statements(() -> assertThat(urlService.getUrlsByUserIdPaginated(user.getId(), 0, LINKS - 1,
+                "createdAt", "DESC").getContent()).hasSize(LINKS - 1))).isEqualTo(2);
+    }
+
+    // Owners are evicted from the second-level cache first, so lazy loads would show up
+    private long statements(Runnable listing) {
+        entityManagerFactory.getCache().evictAll();
+        statistics.clear();
+        listing.run();
+        return statistics.getPrepareStatementCount();
+    }
+}
@@ -0,0 +1,104 @@
+package edu.au.life.shortenit.service;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.au.life.shortenit.dto.GeoLocation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The fallback against a local stand-in for the batch endpoint; the worker
+ * is driven by hand through flush().
+ */
+class RemoteGeoIpServiceTest {
+
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+    private volatile String body = "[]";
+
+    private RemoteGeoIpService service;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/batch", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] response = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        service = new RemoteGeoIpService();
+        ReflectionTestUtils.setField(service, "remoteUrl",
+                "http://localhost:" + server.getAddress().getPort() + "/batch");
+        ReflectionTestUtils.setField(service, "timeoutMs", 2000L);
+        ReflectionTestUtils.setField(service, "batchSize", 100);
+        ReflectionTestUtils.setField(service, "flushIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(service, "queueCapacity", 100);
+        ReflectionTestUtils.setField(service, "cacheSize", 64);
+        ReflectionTestUtils.setField(service, "cacheTtlMinutes", 60L);
+        ReflectionTestUtils.setField(service, "failureThreshold", 2);
+        ReflectionTestUtils.setField(service, "openDurationMs", 60_000L);
+        service.init();
+    }
+
+    @AfterEach
+    void stop() {
+        service.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void lookupsAreQueuedAndAnsweredFromTheCacheOnceResolved() {
+        body = "[{\"status\":\"success\",\"country\":\"Thailand\",\"city\":\"Bangkok\",\"query\":\"8.8.8.8\"}," +
+                "{\"status\":\"fail\",\"query\":\"1.1.1.1\"}]";
+
+        assertThat(service.getLocation("8.8.8.8")).isNull();
+        assertThat(service.getLocation("1.1.1.1")).isNull();
+        assertThat(service.getLocation("8.8.8.8")).isNull(); // queued once
+        service.flush();
+
+        assertThat(requests).containsExactly("[\"8.8.8.8\",\"1.1.1.1\"]");
+        assertThat(service.getLocation("8.8.8.8")).isEqualTo(new GeoLocation("Thailand", "Bangkok"));
+        assertThat(service.getLocation("1.1.1.1")).isEqualTo(GeoLocation.unknown());
+        service.flush();
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    void privateAddressesAreNeverSent() {
+        assertThat(service.getLocation("10.0.0.1")).isNull();
+        assertThat(service.getLocation("::1")).isNull();
+        service.flush();
+
+        assertThat(requests).isEmpty();
+    }
+
+    @Test
+    void failingRemoteOpensTheCircuit() {
+        status = 500;
+        for (int i = 1; i <= 3; i++) {
+            service.getLocation("9.9.9." + i);
+            service.flush();
+        }
+
+        // Two failures open the circuit; the third address is not even queued
+        assertThat(requests).hasSize(2);
+        assertThat(service.getLocation("9.9.9.1")).isNull();
+    }
+}
@@ -0,0 +1,169 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.config.ShardConfig;
+import edu.au.life.shortenit.dto.UrlResponse;
+import edu.au.life.shortenit.entity.Url;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.exception.InvalidSortException;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Links spread over three local databases: the shared one as the home shard
+ * and two more. The bucket map is reloaded every 100ms and moves wait 300ms
+ * for it.
+ */
+class ShardingTest extends PostgresIntegrationTest {
+
+    private static final List<EmbeddedPostgres> SHARDS = List.of(start(), start());
+
+    @DynamicPropertySource
+    static void shards(DynamicPropertyRegistry registry) {
+        registry.add("datasource.shards.urls", () -> String.join(",",
+                SHARDS.stream().map(shard -> shard.getJdbcUrl("postgres", "postgres")).toList()));
+        registry.add("datasource.shards.refresh-interval", () -> "100");
+        registry.add("datasource.shards.move.grace-ms", () -> "300");
+        registry.add("clicks.enrichment.backfill-range-size", () -> "2");
+    }
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private ShardResolver shardResolver;
+
+    @Autowired
+    private ShardMigrationService shardMigrationService;
+
+    @Autowired
+    private ClickEnrichmentService clickEnrichmentService;
+
+    @Test
+    void pagesAreCutFromTheMergeOfEveryShard() {
+        User user = newUser();
+        List<String> titles = new ArrayList<>();
+        List<String> codes = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            String title = UUID.randomUUID().toString();
+            titles.add(title);
+            codes.add(shorten(user, title));
+        }
+        assertThat(codes.stream().map(shardResolver::shardOf).distinct().count()).isGreaterThan(1);
+        titles.sort(Comparator.naturalOrder());
+
+        List<String> listed = new ArrayList<>();
+        for (int page = 0; page < 3; page++) {
+            urlService.getAllUrlsPaginated(user, PageRequest.of(page, 5, Sort.by("title")))
+                    .forEach(url -> listed.add(url.getTitle()));
+        }
+        assertThat(listed).isEqualTo(titles);
+        assertThat(urlService.getAllUrlsPaginated(user, PageRequest.of(1, 5)).getTotalElements()).isEqualTo(12);
+    }
+
+    @Test
+    void mergingOnAnUnknownPropertyIsRejected() {
+        List<Url> rows = IntStream.range(0, 2).mapToObj(i -> {
+            Url url = new Url();
+            url.setCode("c" + i);
+            return url;
+        }).toList();
+
+        assertThatThrownBy(() -> shardResolver.fanOutPage(PageRequest.of(0, 5, Sort.by("noSuchProperty")),
+                page -> new PageImpl<>(rows, page, rows.size()), Function.identity()))
+                .isInstanceOf(InvalidSortException.class);
+    }
+
+    @Test
+    void movedLinkKeepsItsClicks() throws InterruptedException {
+        User user = newUser();
+        String code = shorten(user, "Moved");
+        urlService.getOriginalUrl(code, redirect());
+        urlService.getOriginalUrl(code, redirect());
+
+        int bucket = ShardResolver.bucketOf(code);
+        int source = shardResolver.shardOf(code);
+        int target = (source + 1) % shardResolver.shardCount();
+        shardMigrationService.startMove(bucket, bucket, target);
+        awaitMove();
+
+        assertThat(shardResolver.shardOf(code)).isEqualTo(target);
+        assertThat(countClicks(source, code)).isZero();
+        assertThat(countClicks(target, code)).isEqualTo(2);
+        UrlResponse moved = urlService.getUrlInfo(code, user);
+        assertThat(moved.getClickCount()).isEqualTo(2);
+
+        urlService.getOriginalUrl(code, redirect());
+        assertThat(urlService.getUrlInfo(code, user).getClickCount()).isEqualTo(3);
+    }
+
+    @Test
+    void movedClicksAreReEnriched() throws InterruptedException {
+        User user = newUser();
+        String code = shorten(user, "Re-enriched");
+        urlService.getOriginalUrl(code, redirect());
+        int target = (shardResolver.shardOf(code) + 1) % shardResolver.shardCount();
+        shardMigrationService.startMove(ShardResolver.bucketOf(code), ShardResolver.bucketOf(code), target);
+        awaitMove();
+        urlService.getOriginalUrl(code, redirect());
+
+        // The moved click kept the id of its old shard's block, the new one is from the target's
+        JdbcTemplate jdbc = shardResolver.jdbc(target);
+        List<Long> ids = jdbc.queryForList(
+                "SELECT c.id FROM url_clicks c JOIN urls u ON u.id = c.url_id WHERE u.code = ? ORDER BY c.id",
+                Long.class, code);
+        assertThat(ids).hasSize(2);
+        assertThat(ids.get(1) - ids.get(0)).isGreaterThanOrEqualTo(1L << ShardConfig.ID_RANGE_BITS - 1);
+        jdbc.update("UPDATE url_clicks SET browser_id = NULL WHERE url_id = (SELECT id FROM urls WHERE code = ?)", code);
+
+        clickEnrichmentService.startReEnrichment();
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (clickEnrichmentService.isReEnrichmentRunning()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(50);
+        }
+
+        assertThat(jdbc.queryForList(
+                "SELECT c.browser_id FROM url_clicks c JOIN urls u ON u.id = c.url_id WHERE u.code = ?",
+                Integer.class, code)).hasSize(2).doesNotContainNull();
+    }
+
+    private void awaitMove() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (shardMigrationService.getLastMove().state() == ShardMigrationService.MoveState.RUNNING) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(50);
+        }
+        assertThat(shardMigrationService.getLastMove().state()).isEqualTo(ShardMigrationService.MoveState.COMPLETED);
+    }
+
+    private long countClicks(int shard, String code) {
+        Long clicks = shardResolver.jdbc(shard).queryForObject(
+                "SELECT COUNT(*) FROM url_clicks c JOIN urls u ON u.id = c.url_id WHERE u.code = ?", Long.class, code);
+        return clicks == null ? 0 : clicks;
+    }
+
+    private static MockHttpServletRequest redirect() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/s/x");
+        request.addHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) Firefox/128.0");
+        return request;
+    }
+}
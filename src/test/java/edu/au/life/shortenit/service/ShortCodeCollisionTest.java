@@ -0,0 +1,80 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.dto.BulkShortenResult;
+import edu.au.life.shortenit.dto.UrlShortenRequest;
+import edu.au.life.shortenit.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * A generated code someone already took as an alias is skipped, not failed.
+ */
+class ShortCodeCollisionTest extends PostgresIntegrationTest {
+
+    @MockitoSpyBean
+    private ShortCodeAllocator shortCodeAllocator;
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private BulkUrlService bulkUrlService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void singleLinkSkipsATakenCode() {
+        User user = newUser();
+        String taken = takeAlias(user);
+        doReturn(taken).doCallRealMethod().when(shortCodeAllocator).nextCode();
+
+        String code = urlService.shortenUrl(request(null), user).getCode();
+
+        assertThat(code).isNotEqualTo(taken).hasSize(8);
+    }
+
+    @Test
+    void bulkLinksSkipATakenCode() throws IOException {
+        User user = newUser();
+        String taken = takeAlias(user);
+        doReturn(List.of(taken)).doCallRealMethod().when(shortCodeAllocator).nextCodes(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bulkUrlService.shorten(new ByteArrayInputStream(
+                        objectMapper.writeValueAsBytes(List.of(request(null)))), out, false, user);
+        BulkShortenResult[] results = objectMapper.readValue(out.toString(StandardCharsets.UTF_8),
+                BulkShortenResult[].class);
+
+        assertThat(results).hasSize(1);
+        assertThat(results[0].getError()).isNull();
+        assertThat(results[0].getStatus()).isEqualTo(BulkShortenResult.Status.CREATED);
+        assertThat(results[0].getUrl().getCode()).isNotEqualTo(taken);
+    }
+
+    private String takeAlias(User user) {
+        String alias = UUID.randomUUID().toString().replace("-", "").substring(0, 8);
+        return urlService.shortenUrl(request(alias), user).getCode();
+    }
+
+    private static UrlShortenRequest request(String code) {
+        UrlShortenRequest request = new UrlShortenRequest();
+        request.setOriginalUrl("https://example.com/" + UUID.randomUUID());
+        request.setTitle("Collision");
+        request.setCode(code);
+        return request;
+    }
+}
@@ -0,0 +1,66 @@
+package edu.au.life.shortenit.service;
+
+import edu.au.life.shortenit.PostgresIntegrationTest;
+import edu.au.life.shortenit.entity.ImportJob;
+import edu.au.life.shortenit.entity.User;
+import edu.au.life.shortenit.exception.InvalidStateException;
+import edu.au.life.shortenit.repository.ImportJobRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Several instances share the import jobs: only jobs nobody renews are
+ * interrupted, and only one instance takes a job for a resume.
+ */
+class UrlImportServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private UrlImportService urlImportService;
+
+    @Autowired
+    private ImportJobRepository importJobRepository;
+
+    private final JdbcTemplate jdbc = new JdbcTemplate(POSTGRES.getPostgresDatabase());
+
+    @Test
+    void onlyJobsWithAStaleHeartbeatAreInterrupted() {
+        User owner = newUser();
+        ImportJob live = job(owner, ImportJob.Status.RUNNING);
+        ImportJob abandoned = job(owner, ImportJob.Status.RUNNING);
+        jdbc.update("UPDATE import_jobs SET heartbeat_at = localtimestamp - INTERVAL '1 hour' WHERE id = ?",
+                abandoned.getId());
+
+        urlImportService.heartbeat();
+
+        assertThat(status(live)).isEqualTo(ImportJob.Status.RUNNING);
+        assertThat(status(abandoned)).isEqualTo(ImportJob.Status.INTERRUPTED);
+    }
+
+    @Test
+    void aJobIsTakenForResumeOnce() {
+        ImportJob job = job(newUser(), ImportJob.Status.INTERRUPTED);
+
+        assertThat(importJobRepository.claimForResume(job.getId())).isEqualTo(1);
+        assertThat(importJobRepository.claimForResume(job.getId())).isZero();
+        assertThatThrownBy(() -> urlImportService.resumeImport(job.getId()))
+                .isInstanceOf(InvalidStateException.class);
+        assertThat(status(job)).isEqualTo(ImportJob.Status.QUEUED);
+    }
+
+    private ImportJob job(User owner, ImportJob.Status status) {
+        return importJobRepository.save(ImportJob.builder()
+                .owner(owner)
+                .fileName("import.csv")
+                .storedPath("/nonexistent/import.csv")
+                .status(status)
+                .build());
+    }
+
+    private ImportJob.Status status(ImportJob job) {
+        return importJobRepository.findById(job.getId()).orElseThrow().getStatus();
+    }
+}
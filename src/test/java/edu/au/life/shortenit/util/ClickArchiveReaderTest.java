@@ -0,0 +1,118 @@
+package edu.au.life.shortenit.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * Clicks written by {@link ClickArchiveWriter} in blocks of four rows and
+ * read back: url 5 fills block 0, url 10 blocks 1 and 2 and url 30 the last,
+ * partial block.
+ */
+class ClickArchiveReaderTest {
+
+    private static final String BANGKOK = "กรุงเทพมหานคร";
+    private static final String SEARCH = "https://例え.jp/検索?q=😀";
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void scanCountsOneLinkAcrossBlocks() throws IOException {
+        try (ClickArchiveReader reader = new ClickArchiveReader(write())) {
+            assertThat(reader.getRows()).isEqualTo(15);
+
+            ClickArchiveReader.Aggregate all = reader.scan(10, at(1, 0, 0), at(4, 0, 0));
+            assertThat(all.getTotal()).isEqualTo(8);
+            assertThat(all.getBlocksRead()).isEqualTo(2);
+            assertThat(all.getByDate()).containsExactly(entry(LocalDate.of(2025, 3, 1), 4L),
+                    entry(LocalDate.of(2025, 3, 2), 3L), entry(LocalDate.of(2025, 3, 3), 1L));
+            assertThat(all.getByHour()[9]).isEqualTo(2);
+            assertThat(all.getByHour()[8]).isEqualTo(2);
+            assertThat(all.getByHour()[23]).isEqualTo(1);
+            assertThat(all.getCountries()).containsOnly(entry("Thaïlande", 4L), entry("Deutschland", 2L));
+            assertThat(all.getCities()).containsExactlyInAnyOrder(
+                    new ClickArchiveReader.CityCount(BANGKOK, "Thaïlande", 2),
+                    new ClickArchiveReader.CityCount("Chiang Mai", "Thaïlande", 1),
+                    new ClickArchiveReader.CityCount("München", "Deutschland", 2),
+                    new ClickArchiveReader.CityCount("München", null, 1));
+            assertThat(all.getDeviceTypes()).containsOnly(entry("mobile", 3L), entry("desktop", 2L), entry("tablet", 1L));
+            assertThat(all.getUnknownDeviceTypes()).isEqualTo(2);
+            assertThat(all.getBrowsers()).containsOnly(entry("Safari", 3L), entry("Chrome", 2L), entry("Firefox", 1L));
+            assertThat(all.getReferrers()).containsOnly(entry(SEARCH, 2L));
+        }
+    }
+
+    @Test
+    void scanKeepsToTheTimeRange() throws IOException {
+        try (ClickArchiveReader reader = new ClickArchiveReader(write())) {
+            ClickArchiveReader.Aggregate secondDay = reader.scan(10, at(2, 0, 0), at(3, 0, 0));
+
+            assertThat(secondDay.getTotal()).isEqualTo(3);
+            assertThat(secondDay.getBlocksRead()).isEqualTo(1);
+            assertThat(secondDay.getByDate()).containsOnlyKeys(LocalDate.of(2025, 3, 2));
+            assertThat(secondDay.getCountries()).containsOnly(entry("Deutschland", 2L));
+            assertThat(secondDay.getReferrers()).containsOnly(entry(SEARCH, 1L));
+        }
+    }
+
+    @Test
+    void blocksOfOtherLinksAreSkipped() throws IOException {
+        try (ClickArchiveReader reader = new ClickArchiveReader(write())) {
+            for (long absent : new long[]{1, 7, 20, 99}) {
+                ClickArchiveReader.Aggregate none = reader.scan(absent, at(1, 0, 0), at(4, 0, 0));
+                assertThat(none.getTotal()).isZero();
+                assertThat(none.getBlocksRead()).isZero();
+                assertThat(none.getCountries()).isEmpty();
+            }
+        }
+    }
+
+    private Path write() throws IOException {
+        Path file = directory.resolve("clicks-2025-03.sca");
+        byte[] v4 = {(byte) 203, 0, 113, 7};
+        byte[] v6 = IpLiteralParser.parse("2001:db8::1");
+        List<ClickArchiveWriter.Row> rows = List.of(
+                row(5, at(1, 7, 0), v4, "Thaïlande", BANGKOK, "mobile", "Safari", SEARCH),
+                row(5, at(1, 8, 0), null, "Thaïlande", null, null, null, null),
+                row(5, at(2, 9, 0), v6, null, null, "desktop", "Chrome", null),
+                row(5, at(3, 9, 0), v4, "Deutschland", "München", "tablet", "Firefox", SEARCH),
+
+                row(10, at(1, 9, 0), v4, "Thaïlande", BANGKOK, "mobile", "Safari", SEARCH),
+                row(10, at(1, 9, 30), v6, "Thaïlande", BANGKOK, "desktop", "Chrome", null),
+                row(10, at(1, 10, 0), null, "Thaïlande", null, null, null, null),
+                row(10, at(1, 23, 59), v4, null, null, "mobile", "Safari", null),
+                row(10, at(2, 0, 0), v6, "Deutschland", "München", "desktop", "Firefox", SEARCH),
+                row(10, at(2, 8, 0), v4, "Deutschland", "München", "tablet", "Safari", null),
+                row(10, at(2, 8, 30), null, null, "München", null, null, null),
+                row(10, at(3, 12, 0), v4, "Thaïlande", "Chiang Mai", "mobile", "Chrome", null),
+
+                row(30, at(1, 12, 0), v4, "Thaïlande", BANGKOK, "mobile", "Safari", SEARCH),
+                row(30, at(2, 12, 0), v6, "Deutschland", null, "desktop", null, null),
+                row(30, at(3, 12, 0), null, null, null, null, null, null));
+        try (ClickArchiveWriter writer = new ClickArchiveWriter(file, 4)) {
+            for (ClickArchiveWriter.Row row : rows) {
+                writer.append(row);
+            }
+        }
+        return file;
+    }
+
+    private static ClickArchiveWriter.Row row(long urlId, LocalDateTime clickedAt, byte[] ip, String country,
+                                              String city, String deviceType, String browser, String referrer) {
+        return new ClickArchiveWriter.Row(urlId, clickedAt, ip, country, city, deviceType, browser,
+                browser == null ? null : "Agent/" + browser, null, referrer);
+    }
+
+    private static LocalDateTime at(int day, int hour, int minute) {
+        return LocalDateTime.of(2025, 3, day, hour, minute);
+    }
+}
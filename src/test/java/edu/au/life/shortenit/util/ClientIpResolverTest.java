@@ -0,0 +1,43 @@
+package edu.au.life.shortenit.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientIpResolverTest {
+
+    private static final String TRUSTED = "10.0.0.0/8";
+
+    @Test
+    void forwardedForIsReadRightToLeftFromATrustedPeer() {
+        MockHttpServletRequest request = fromPeer("10.0.0.5");
+        request.addHeader("X-Forwarded-For", "1.2.3.4, 8.8.8.8, 10.0.0.7");
+
+        assertThat(new ClientIpResolver(TRUSTED, false).resolveClientIp(request)).isEqualTo("8.8.8.8");
+    }
+
+    @Test
+    void headersFromAnUntrustedPeerAreIgnored() {
+        MockHttpServletRequest request = fromPeer("8.8.4.4");
+        request.addHeader("X-Forwarded-For", "1.2.3.4");
+        request.addHeader("Proxy-Client-IP", "1.2.3.4");
+
+        assertThat(new ClientIpResolver(TRUSTED, true).resolveClientIp(request)).isEqualTo("8.8.4.4");
+    }
+
+    @Test
+    void fallbackHeadersAreOptIn() {
+        MockHttpServletRequest request = fromPeer("10.0.0.5");
+        request.addHeader("Proxy-Client-IP", "1.2.3.4");
+
+        assertThat(new ClientIpResolver(TRUSTED, false).resolveClientIp(request)).isEqualTo("10.0.0.5");
+        assertThat(new ClientIpResolver(TRUSTED, true).resolveClientIp(request)).isEqualTo("1.2.3.4");
+    }
+
+    private static MockHttpServletRequest fromPeer(String address) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/s/x");
+        request.setRemoteAddr(address);
+        return request;
+    }
+}
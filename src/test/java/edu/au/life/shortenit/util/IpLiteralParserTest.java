@@ -0,0 +1,31 @@
+package edu.au.life.shortenit.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IpLiteralParserTest {
+
+    @Test
+    void parsesIPv4AndIPv6() {
+        assertThat(IpLiteralParser.parse("192.0.2.1")).containsExactly(192, 0, 2, 1);
+        assertThat(IpLiteralParser.parse("[2001:DB8::1]")).hasSize(16);
+        assertThat(IpLiteralParser.parse("::ffff:192.0.2.1")).containsExactly(192, 0, 2, 1);
+        assertThat(IpLiteralParser.parse("fe80::1%eth0")).hasSize(16);
+    }
+
+    @Test
+    void rejectsMalformedLiterals() {
+        assertThat(IpLiteralParser.parse("192.0.2")).isNull();
+        assertThat(IpLiteralParser.parse("192.0.2.010")).isNull();
+        assertThat(IpLiteralParser.parse("2001:db8::12345")).isNull();
+        assertThat(IpLiteralParser.parse("example.com")).isNull();
+    }
+
+    @Test
+    void rejectsNonAsciiDigits() {
+        assertThat(IpLiteralParser.parse("2001:db8::１")).isNull(); // fullwidth 1
+        assertThat(IpLiteralParser.parse("2001:db8::١")).isNull(); // Arabic-Indic 1
+        assertThat(IpLiteralParser.parse("１.2.3.4")).isNull();
+    }
+}